@@ -17,7 +17,7 @@ public class MigrationTool {
         Scanner scanner = new Scanner(System.in);
         String command = "";
         while (!command.equalsIgnoreCase("exit")) {
-            log.info("Please enter a command: 'migrate', 'rollback <version>', 'status', or 'exit' to quit.");
+            log.info("Please enter a command: 'migrate', 'rollback <version>', 'status', 'verify', 'lint', 'advise', 'watch', 'daemon', or 'exit' to quit.");
             command = scanner.nextLine().trim();
             if (command.toLowerCase().startsWith("rollback ")) {
                 String version = command.substring(9).trim();
@@ -43,6 +43,27 @@ public class MigrationTool {
                     case "status":
                         migrationService.printMigrationStatus();
                         break;
+                    case "verify":
+                        migrationService.verify();
+                        break;
+                    case "lint":
+                        migrationService.lint();
+                        break;
+                    case "advise":
+                        migrationService.advise();
+                        break;
+                    case "watch":
+                        migrationService.startWatching();
+                        log.info("Watching for new migrations. Press Enter to stop.");
+                        scanner.nextLine();
+                        migrationService.stopWatching();
+                        break;
+                    case "daemon":
+                        migrationService.startDaemon();
+                        log.info("Serving the migration status. Press Enter to stop.");
+                        scanner.nextLine();
+                        migrationService.stopDaemon();
+                        break;
                     case "exit":
                         System.out.println("Exiting...");
                         break;
@@ -0,0 +1,356 @@
+package org.example.migration;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.service.executor.RetryPolicy;
+import org.example.util.ConnectionPool;
+import org.example.util.PropertiesUtils;
+import org.example.util.RateLimiter;
+import org.example.util.SqlStateClassifier;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * BackfillEngine processes a table in primary key ranges on several connections in parallel.
+ * The ranges are planned once from the key column statistics and stored in migration_backfill_range; every
+ * range is committed together with its completion mark, so an interrupted job resumes with the ranges that
+ * are still open. Each worker owns a deque of contiguous ranges and, once it runs dry, steals ranges from the
+ * far end of another worker's deque, which balances ranges that turn out to be uneven. A shared rate limiter
+ * caps the total rows per second of all workers, and the throttle controller pauses or slows them down while
+ * the database is under pressure.
+ */
+@Slf4j
+public class BackfillEngine {
+    private static final int MAX_RANGES = 100_000;
+    private static final String SELECT_HISTOGRAM = """
+            SELECT s.histogram_bounds::text::bigint[]
+            FROM pg_stats s
+            JOIN pg_class c ON c.relname = s.tablename
+            JOIN pg_namespace n ON n.oid = c.relnamespace AND n.nspname = s.schemaname
+            WHERE c.oid = ?::regclass AND s.attname = ?
+            """;
+    private static final String SELECT_INTEGER_KEY = """
+            SELECT a.attname
+            FROM pg_index i
+            JOIN pg_attribute a ON a.attrelid = i.indrelid AND a.attnum = i.indkey[0]
+            WHERE i.indrelid = ?::regclass AND i.indisprimary AND i.indnatts = 1
+              AND a.atttypid IN ('int2'::regtype, 'int4'::regtype, 'int8'::regtype)
+            """;
+
+    private final int workers = PropertiesUtils.getIntProperty("migration.backfill.workers", 4);
+    private final int rowsPerRange = PropertiesUtils.getIntProperty("migration.backfill.rows-per-range", 50000);
+    private final RateLimiter rateLimiter = new RateLimiter(
+            PropertiesUtils.getIntProperty("migration.backfill.max-rows-per-second", 0));
+    private final ThrottleController throttle;
+
+    /**
+     * Constructs a new BackfillEngine.
+     *
+     * @param throttle the throttle controller consulted after every range
+     */
+    public BackfillEngine(ThrottleController throttle) {
+        this.throttle = throttle;
+    }
+
+    /**
+     * Retrieves the rate limiter shared by the workers, so the throttle can be changed while a job runs.
+     *
+     * @return the rate limiter
+     */
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Finds the key column a table can be backfilled by: its primary key, if that is a single integer column.
+     *
+     * @param connection the database connection
+     * @param table      the table
+     * @return the key column, or null if the table has no such primary key
+     * @throws SQLException if reading the catalog fails
+     */
+    public static String integerKeyColumn(Connection connection, String table) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement(SELECT_INTEGER_KEY)) {
+            pstmt.setString(1, table);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        }
+    }
+
+    /**
+     * Runs a backfill job to completion, resuming it if it was interrupted before.
+     *
+     * @param job the backfill job
+     * @return the number of rows processed in this run
+     */
+    public long run(BackfillJob job) {
+        try (ConnectionPool pool = new ConnectionPool(workers, throttle.getConnectionListener())) {
+            List<KeyRange> ranges = loadOrPlanRanges(pool, job);
+            if (ranges.isEmpty()) {
+                log.info("Backfill job {} has no open ranges.", job.getName());
+                return 0;
+            }
+            log.info("Backfill job {}: {} open range(s) on {} worker(s).", job.getName(), ranges.size(), workers);
+            return process(pool, job, ranges);
+        }
+    }
+
+    /**
+     * Loads the open ranges of a job that was started before, or plans and stores the ranges of a new job.
+     *
+     * @param pool the connection pool
+     * @param job  the backfill job
+     * @return the ranges still to process
+     */
+    private List<KeyRange> loadOrPlanRanges(ConnectionPool pool, BackfillJob job) {
+        Connection connection = pool.acquire();
+        try {
+            List<KeyRange> open = new ArrayList<>();
+            boolean planned = false;
+            try (PreparedStatement pstmt = connection.prepareStatement(
+                    "SELECT range_start, range_end, completed_at FROM migration_backfill_range WHERE job_name = ? ORDER BY range_start")) {
+                pstmt.setString(1, job.getName());
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        planned = true;
+                        if (rs.getTimestamp("completed_at") == null) {
+                            open.add(new KeyRange(rs.getLong("range_start"), rs.getLong("range_end")));
+                        }
+                    }
+                }
+            }
+            if (!planned) {
+                open = planRanges(connection, job);
+                storeRanges(connection, job, open);
+            }
+            connection.commit();
+            return open;
+        } catch (SQLException e) {
+            log.error("Failed to plan backfill job: " + job.getName(), e);
+            throw new RuntimeException("Critical error while planning backfill job: " + job.getName(), e);
+        } finally {
+            pool.release(connection);
+        }
+    }
+
+    /**
+     * Plans the ranges of a new job from the key bounds, the row estimate and the key histogram.
+     *
+     * @param connection the database connection
+     * @param job        the backfill job
+     * @return the planned ranges
+     * @throws SQLException if reading the statistics fails
+     */
+    private List<KeyRange> planRanges(Connection connection, BackfillJob job) throws SQLException {
+        long minKey;
+        long maxKey;
+        try (PreparedStatement pstmt = connection.prepareStatement(
+                "SELECT min(" + job.getKeyColumn() + "), max(" + job.getKeyColumn() + ") FROM " + job.getTable())) {
+            try (ResultSet rs = pstmt.executeQuery()) {
+                rs.next();
+                if (rs.getObject(1) == null) {
+                    return List.of();
+                }
+                minKey = rs.getLong(1);
+                maxKey = rs.getLong(2);
+            }
+        }
+        long estimatedRows;
+        try (PreparedStatement pstmt = connection.prepareStatement("SELECT reltuples::bigint FROM pg_class WHERE oid = ?::regclass")) {
+            pstmt.setString(1, job.getTable());
+            try (ResultSet rs = pstmt.executeQuery()) {
+                rs.next();
+                estimatedRows = Math.max(0, rs.getLong(1));
+            }
+        }
+        long[] histogram = new long[0];
+        try (PreparedStatement pstmt = connection.prepareStatement(SELECT_HISTOGRAM)) {
+            pstmt.setString(1, job.getTable());
+            pstmt.setString(2, job.getKeyColumn());
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next() && rs.getArray(1) != null) {
+                    Array bounds = rs.getArray(1);
+                    Long[] values = (Long[]) bounds.getArray();
+                    histogram = new long[values.length];
+                    for (int i = 0; i < values.length; i++) {
+                        histogram[i] = values[i];
+                    }
+                }
+            }
+        }
+        int rangeCount = (int) Math.min(MAX_RANGES, Math.max(workers * 4L, (estimatedRows + rowsPerRange - 1) / rowsPerRange));
+        List<KeyRange> ranges = KeyRangePlanner.plan(minKey, maxKey, histogram, rangeCount);
+        log.info("Planned backfill job {}: keys {}..{}, ~{} row(s), {} histogram bound(s), {} range(s).",
+                job.getName(), minKey, maxKey, estimatedRows, histogram.length, ranges.size());
+        return ranges;
+    }
+
+    /**
+     * Stores the planned ranges of a job as open ranges.
+     *
+     * @param connection the database connection
+     * @param job        the backfill job
+     * @param ranges     the planned ranges
+     * @throws SQLException if storing fails
+     */
+    private void storeRanges(Connection connection, BackfillJob job, List<KeyRange> ranges) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement(
+                "INSERT INTO migration_backfill_range (job_name, range_start, range_end) VALUES (?, ?, ?)")) {
+            for (KeyRange range : ranges) {
+                pstmt.setString(1, job.getName());
+                pstmt.setLong(2, range.getStart());
+                pstmt.setLong(3, range.getEnd());
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+    }
+
+    /**
+     * Processes the ranges with the worker pool.
+     *
+     * @param pool   the connection pool
+     * @param job    the backfill job
+     * @param ranges the ranges to process
+     * @return the number of rows processed
+     */
+    private long process(ConnectionPool pool, BackfillJob job, List<KeyRange> ranges) {
+        int workerCount = Math.min(workers, ranges.size());
+        List<ConcurrentLinkedDeque<KeyRange>> deques = new ArrayList<>();
+        int perWorker = (ranges.size() + workerCount - 1) / workerCount;
+        for (int i = 0; i < workerCount; i++) {
+            deques.add(new ConcurrentLinkedDeque<>(ranges.subList(Math.min(ranges.size(), i * perWorker),
+                    Math.min(ranges.size(), (i + 1) * perWorker))));
+        }
+        RetryPolicy retryPolicy = RetryPolicy.fromProperties();
+        AtomicLong rows = new AtomicLong();
+        AtomicInteger completed = new AtomicInteger();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        long startedAt = System.currentTimeMillis();
+        int logEvery = Math.max(1, ranges.size() / 20);
+
+        ExecutorService executor = Executors.newFixedThreadPool(workerCount, runnable -> {
+            Thread thread = new Thread(runnable, "backfill-" + job.getName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < workerCount; i++) {
+                int worker = i;
+                futures.add(executor.submit(() -> {
+                    Connection connection = pool.acquire();
+                    try {
+                        KeyRange range;
+                        while (failure.get() == null && (range = nextRange(deques, worker)) != null) {
+                            connection = processRange(pool, connection, job, range, retryPolicy, rows);
+                            int done = completed.incrementAndGet();
+                            if (done % logEvery == 0 || done == ranges.size()) {
+                                long elapsedMs = Math.max(1, System.currentTimeMillis() - startedAt);
+                                log.info("Backfill job {}: {}/{} range(s), {} row(s), {} rows/s.", job.getName(), done,
+                                        ranges.size(), rows.get(), rows.get() * 1000 / elapsedMs);
+                            }
+                        }
+                    } catch (SQLException | RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        pool.release(connection);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (Exception e) {
+            failure.compareAndSet(null, e);
+        } finally {
+            executor.shutdownNow();
+        }
+        if (failure.get() != null) {
+            log.error("Backfill job {} failed after {} range(s); completed ranges are kept and the job resumes on the next run.",
+                    job.getName(), completed.get(), failure.get());
+            throw new RuntimeException("Critical error during backfill job: " + job.getName(), failure.get());
+        }
+        return rows.get();
+    }
+
+    /**
+     * Takes the next range of a worker: from the front of its own deque, or else from the back of another one.
+     *
+     * @param deques the range deques of all workers
+     * @param worker the index of the worker
+     * @return the next range, or null if no ranges are left
+     */
+    private KeyRange nextRange(List<ConcurrentLinkedDeque<KeyRange>> deques, int worker) {
+        KeyRange range = deques.get(worker).pollFirst();
+        for (int i = 1; range == null && i < deques.size(); i++) {
+            range = deques.get((worker + i) % deques.size()).pollLast();
+        }
+        return range;
+    }
+
+    /**
+     * Processes one range and marks it completed in the same transaction, retrying transient failures.
+     *
+     * @param pool        the connection pool, used to replace a lost connection
+     * @param connection  the worker's connection
+     * @param job         the backfill job
+     * @param range       the range to process
+     * @param retryPolicy the retry policy shared by the workers
+     * @param rows        the counter of processed rows
+     * @return the connection to continue with, which differs from the given one if it had to be replaced
+     */
+    private Connection processRange(ConnectionPool pool, Connection connection, BackfillJob job, KeyRange range,
+                                    RetryPolicy retryPolicy, AtomicLong rows) throws SQLException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                int processed;
+                try (PreparedStatement pstmt = connection.prepareStatement(job.getRangeSql())) {
+                    pstmt.setLong(1, range.getStart());
+                    pstmt.setLong(2, range.getEnd());
+                    processed = pstmt.executeUpdate();
+                }
+                try (PreparedStatement pstmt = connection.prepareStatement(
+                        "UPDATE migration_backfill_range SET rows_processed = ?, completed_at = CURRENT_TIMESTAMP " +
+                                "WHERE job_name = ? AND range_start = ?")) {
+                    pstmt.setLong(1, processed);
+                    pstmt.setString(2, job.getName());
+                    pstmt.setLong(3, range.getStart());
+                    pstmt.executeUpdate();
+                }
+                connection.commit();
+                rows.addAndGet(processed);
+                rateLimiter.acquire(processed);
+                throttle.throttle();
+                return connection;
+            } catch (SQLException e) {
+                // A stopping run cancels or terminates the workers' statements; they must not reconnect and resume
+                if (throttle.isStopping() || !retryPolicy.shouldRetry(e, attempt)) {
+                    connection.rollback();
+                    throw e;
+                }
+                log.warn("Transient failure in backfill job {} at range {}..{}, retrying: {}",
+                        job.getName(), range.getStart(), range.getEnd(), e.getMessage());
+                if (SqlStateClassifier.isConnectionLoss(e)) {
+                    connection = pool.replace(connection);
+                } else {
+                    connection.rollback();
+                }
+                retryPolicy.backoff(attempt);
+            }
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package org.example.migration;
+
+import lombok.Getter;
+
+/**
+ * Describes a backfill run by {@link BackfillEngine}: a statement that processes one key range of a table.
+ * The statement takes the range bounds as its two parameters, start inclusive and end exclusive, e.g.
+ * {@code UPDATE orders SET total = quantity * price WHERE id >= ? AND id < ? AND total IS NULL}.
+ * The job name identifies the persisted ranges, so a job that was interrupted resumes where it stopped.
+ */
+@Getter
+public class BackfillJob {
+    private final String name;
+    private final String table;
+    private final String keyColumn;
+    private final String rangeSql;
+
+    /**
+     * Constructs a new BackfillJob.
+     *
+     * @param name      the unique name of the job
+     * @param table     the table to split into key ranges
+     * @param keyColumn the integer primary key column of the table
+     * @param rangeSql  the statement processing one range, with the range start and end as parameters
+     */
+    public BackfillJob(String name, String table, String keyColumn, String rangeSql) {
+        this.name = name;
+        this.table = table;
+        this.keyColumn = keyColumn;
+        this.rangeSql = rangeSql;
+    }
+}
@@ -0,0 +1,121 @@
+package org.example.migration;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.service.executor.StatisticsRefresher;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Set;
+
+/**
+ * Writes rows with one parameterized statement in JDBC batches.
+ * A batch is sent once it holds batchSize rows; after every commitEveryBatches batches the connection is committed,
+ * which keeps transactions short and lets locks and WAL be released during long backfills.
+ * After every commit the throttle controller may pause the writer while the database is under pressure; batches
+ * without a commit are never paused, so no transaction stays open during a pause.
+ * Before every commit the tables modified in the transaction are collected, so their statistics can be refreshed
+ * after the run.
+ */
+@Slf4j
+public class BatchWriter implements AutoCloseable {
+    private final String migrationName;
+    private final Connection connection;
+    private final PreparedStatement statement;
+    private final int batchSize;
+    private final int commitEveryBatches;
+    private final ThrottleController throttle;
+    private final Set<String> modifiedTables;
+    private int rowsInBatch;
+    private int batchesSinceCommit;
+    private long rowsWritten;
+
+    /**
+     * Constructs a new BatchWriter.
+     *
+     * @param migrationName      the name of the migration, for logging
+     * @param connection         the connection with auto-commit disabled
+     * @param sql                the parameterized statement
+     * @param batchSize          the number of rows per batch
+     * @param commitEveryBatches the number of batches per commit, or 0 to never commit
+     * @param throttle           the throttle controller consulted after every commit
+     * @param modifiedTables     the set collecting the tables modified before every commit
+     * @throws SQLException if the statement cannot be prepared
+     */
+    BatchWriter(String migrationName, Connection connection, String sql, int batchSize, int commitEveryBatches,
+                ThrottleController throttle, Set<String> modifiedTables) throws SQLException {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+        this.migrationName = migrationName;
+        this.connection = connection;
+        this.statement = connection.prepareStatement(sql);
+        this.batchSize = batchSize;
+        this.commitEveryBatches = commitEveryBatches;
+        this.throttle = throttle;
+        this.modifiedTables = modifiedTables;
+    }
+
+    /**
+     * Adds a row to the current batch and sends the batch once it is full.
+     *
+     * @param params the statement parameters of the row
+     * @throws SQLException if sending the batch fails
+     */
+    public void add(Object... params) throws SQLException {
+        for (int i = 0; i < params.length; i++) {
+            statement.setObject(i + 1, params[i]);
+        }
+        statement.addBatch();
+        if (++rowsInBatch >= batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Sends the current batch and commits if the commit interval is reached.
+     *
+     * @throws SQLException if sending the batch or committing fails
+     */
+    public void flush() throws SQLException {
+        if (rowsInBatch == 0) {
+            return;
+        }
+        statement.executeBatch();
+        rowsWritten += rowsInBatch;
+        rowsInBatch = 0;
+        if (commitEveryBatches > 0 && ++batchesSinceCommit >= commitEveryBatches) {
+            modifiedTables.addAll(StatisticsRefresher.transactionModifiedTables(connection));
+            connection.commit();
+            batchesSinceCommit = 0;
+            log.info("Java migration {}: committed, {} row(s) written so far", migrationName, rowsWritten);
+            throttle.throttle();
+        } else {
+            throttle.checkStop();
+        }
+    }
+
+    /**
+     * Retrieves the number of rows sent to the database so far.
+     *
+     * @return the number of rows written
+     */
+    public long getRowsWritten() {
+        return rowsWritten;
+    }
+
+    /**
+     * Sends the last batch and closes the statement. The final commit is left to the executor,
+     * which commits it together with the migration history record.
+     *
+     * @throws SQLException if sending the batch fails
+     */
+    @Override
+    public void close() throws SQLException {
+        try {
+            flush();
+        } finally {
+            statement.close();
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package org.example.migration;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.model.ColumnChange;
+import org.example.service.executor.LockAwareStatementRunner;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Applies the steps of an expand/contract column change, so that renames and type changes of columns on large
+ * tables never hold an ACCESS EXCLUSIVE lock for longer than a catalog update and running application instances
+ * keep working with either column.
+ * <ul>
+ *     <li>Expand adds the new column without a default, installs a trigger that keeps the old and the new column
+ *     in sync on every insert and update, and backfills the new column with the parallel, throttled and resumable
+ *     {@link BackfillEngine}.</li>
+ *     <li>Switch runs once reads have moved to the new column: it checks that the backfill is complete, moves
+ *     NOT NULL from the old to the new column through a validated check constraint and carries over the default
+ *     for renames.</li>
+ *     <li>Contract drops the trigger, its function and the old column.</li>
+ * </ul>
+ * Every DDL statement goes through the lock-aware statement runner. The steps commit as they go and are idempotent,
+ * so a step that failed resumes where it stopped when the migration runs again.
+ */
+@Slf4j
+public class ExpandContractMigration {
+    private static final String SELECT_COLUMN = """
+            SELECT format_type(a.atttypid, a.atttypmod), a.attnotnull, pg_get_expr(d.adbin, d.adrelid)
+            FROM pg_attribute a
+            LEFT JOIN pg_attrdef d ON d.adrelid = a.attrelid AND d.adnum = a.attnum
+            WHERE a.attrelid = ?::regclass AND a.attname = ? AND a.attnum > 0 AND NOT a.attisdropped
+            """;
+
+    private final LockAwareStatementRunner statementRunner;
+
+    /**
+     * Constructs a new ExpandContractMigration.
+     *
+     * @param statementRunner the runner executing DDL with short lock timeouts
+     */
+    public ExpandContractMigration(LockAwareStatementRunner statementRunner) {
+        this.statementRunner = statementRunner;
+    }
+
+    /**
+     * Applies one step of a column change. The caller records the migration and commits afterwards.
+     *
+     * @param connection the migration connection with auto-commit disabled
+     * @param fileName   the name of the migration file, which also names the backfill job
+     * @param change     the column change step
+     * @param throttle   the throttle controller of the run
+     * @throws SQLException if a statement fails
+     */
+    public void apply(Connection connection, String fileName, ColumnChange change, ThrottleController throttle) throws SQLException {
+        switch (change.getPhase()) {
+            case EXPAND -> expand(connection, fileName, change, throttle);
+            case SWITCH -> switchOver(connection, fileName, change);
+            case CONTRACT -> contract(connection, fileName, change);
+        }
+    }
+
+    /**
+     * Builds the trigger function keeping both columns in sync. Expressions are evaluated over the row being written,
+     * so they refer to the columns of the table by name. A write to the new column that merely mirrors the old one,
+     * such as a backfill update, is not synced back, so a lossy reverse expression never alters existing values.
+     *
+     * @param change  the expand step
+     * @param newType the type of the new column
+     * @return the CREATE FUNCTION statement
+     */
+    public static String syncFunctionSql(ColumnChange change, String newType) {
+        String oldColumn = change.getColumn();
+        String newColumn = change.getNewColumn();
+        String forward = "SELECT " + change.forwardExpression() + " INTO %s FROM (SELECT NEW.*) AS row_values;";
+        String reverse = change.reverseExpression() == null ? null
+                : "SELECT " + change.reverseExpression() + " INTO NEW." + oldColumn + " FROM (SELECT NEW.*) AS row_values;";
+        StringBuilder body = new StringBuilder();
+        body.append("    IF TG_OP = 'INSERT' THEN\n")
+                .append("        IF NEW.").append(newColumn).append(" IS NULL THEN\n")
+                .append("            ").append(String.format(forward, "NEW." + newColumn)).append('\n');
+        if (reverse != null) {
+            body.append("        ELSIF NEW.").append(oldColumn).append(" IS NULL THEN\n")
+                    .append("            ").append(reverse).append('\n');
+        }
+        body.append("        END IF;\n")
+                .append("    ELSIF NEW.").append(oldColumn).append(" IS DISTINCT FROM OLD.").append(oldColumn).append(" THEN\n")
+                .append("        ").append(String.format(forward, "NEW." + newColumn)).append('\n');
+        if (reverse != null) {
+            body.append("    ELSIF NEW.").append(newColumn).append(" IS DISTINCT FROM OLD.").append(newColumn).append(" THEN\n")
+                    .append("        ").append(String.format(forward, "mirrored")).append('\n')
+                    .append("        IF NEW.").append(newColumn).append(" IS DISTINCT FROM mirrored THEN\n")
+                    .append("            ").append(reverse).append('\n')
+                    .append("        END IF;\n");
+        }
+        body.append("    END IF;\n");
+        return "CREATE OR REPLACE FUNCTION " + change.functionName() + "() RETURNS trigger LANGUAGE plpgsql AS $sync$\n" +
+                "DECLARE\n" +
+                "    mirrored " + newType + ";\n" +
+                "BEGIN\n" +
+                body +
+                "    RETURN NEW;\n" +
+                "END\n" +
+                "$sync$";
+    }
+
+    /**
+     * Adds the new column, installs the sync trigger and backfills the new column range by range.
+     *
+     * @param connection the migration connection
+     * @param fileName   the name of the migration file
+     * @param change     the expand step
+     * @param throttle   the throttle controller of the run
+     * @throws SQLException if a statement fails
+     */
+    private void expand(Connection connection, String fileName, ColumnChange change, ThrottleController throttle) throws SQLException {
+        String table = change.getTable();
+        ColumnInfo oldColumn = describeColumn(connection, table, change.getColumn());
+        String newType = change.getType() != null ? change.getType() : oldColumn.type;
+        String keyColumn = BackfillEngine.integerKeyColumn(connection, table);
+        if (keyColumn == null) {
+            throw new IllegalArgumentException("Expanding " + table + "." + change.getColumn() +
+                    " requires a single-column integer primary key for the backfill");
+        }
+        statementRunner.execute(connection, fileName, "ALTER TABLE " + table + " ADD COLUMN IF NOT EXISTS " +
+                change.getNewColumn() + " " + newType + ";\n" +
+                syncFunctionSql(change, newType) + ";\n" +
+                "DROP TRIGGER IF EXISTS " + change.triggerName() + " ON " + table + ";\n" +
+                "CREATE TRIGGER " + change.triggerName() + " BEFORE INSERT OR UPDATE ON " + table +
+                " FOR EACH ROW EXECUTE FUNCTION " + change.functionName() + "()");
+        // Rows written from now on are synced by the trigger, so the backfill only has to fill the rows before it
+        connection.commit();
+        log.info("Expanded {}.{} to {} {}; backfilling.", table, change.getColumn(), change.getNewColumn(), newType);
+
+        String forward = change.forwardExpression();
+        BackfillJob job = new BackfillJob(fileName, table, keyColumn,
+                "UPDATE " + table + " SET " + change.getNewColumn() + " = " + forward +
+                        " WHERE " + keyColumn + " >= ? AND " + keyColumn + " < ?" +
+                        " AND " + change.getNewColumn() + " IS NULL AND (" + forward + ") IS NOT NULL");
+        long rows = new BackfillEngine(throttle).run(job);
+        log.info("Backfilled {} row(s) of {}.{}.", rows, table, change.getNewColumn());
+    }
+
+    /**
+     * Completes the new column once reads have moved to it.
+     *
+     * @param connection the migration connection
+     * @param fileName   the name of the migration file
+     * @param change     the switch step
+     * @throws SQLException if a statement fails
+     */
+    private void switchOver(Connection connection, String fileName, ColumnChange change) throws SQLException {
+        String table = change.getTable();
+        ColumnInfo oldColumn = describeColumn(connection, table, change.getColumn());
+        ColumnInfo newColumn = describeColumn(connection, table, change.getNewColumn());
+        try (PreparedStatement pstmt = connection.prepareStatement("SELECT EXISTS (SELECT 1 FROM " + table +
+                " WHERE " + change.getNewColumn() + " IS NULL AND " + change.getColumn() + " IS NOT NULL)");
+             ResultSet rs = pstmt.executeQuery()) {
+            rs.next();
+            if (rs.getBoolean(1)) {
+                throw new IllegalStateException("Column " + table + "." + change.getNewColumn() +
+                        " is not completely backfilled; apply its expand step first");
+            }
+        }
+        connection.commit();
+        if (oldColumn.notNull && !newColumn.notNull) {
+            // A validated check constraint lets SET NOT NULL skip its full-table scan under ACCESS EXCLUSIVE lock
+            String constraint = change.constraintName();
+            statementRunner.execute(connection, fileName, "ALTER TABLE " + table + " DROP CONSTRAINT IF EXISTS " + constraint +
+                    ", ADD CONSTRAINT " + constraint + " CHECK (" + change.getNewColumn() + " IS NOT NULL) NOT VALID");
+            connection.commit();
+            statementRunner.execute(connection, fileName, "ALTER TABLE " + table + " VALIDATE CONSTRAINT " + constraint);
+            connection.commit();
+            // Instances writing only the new column must not fail on the old one until it is dropped
+            statementRunner.execute(connection, fileName, "ALTER TABLE " + table + " ALTER COLUMN " + change.getNewColumn() +
+                    " SET NOT NULL, DROP CONSTRAINT " + constraint + ", ALTER COLUMN " + change.getColumn() + " DROP NOT NULL");
+        }
+        if (oldColumn.defaultExpression != null && newColumn.defaultExpression == null && oldColumn.type.equals(newColumn.type)) {
+            statementRunner.execute(connection, fileName, "ALTER TABLE " + table + " ALTER COLUMN " + change.getNewColumn() +
+                    " SET DEFAULT " + oldColumn.defaultExpression);
+        }
+        log.info("Switched {}.{} over to {}.", table, change.getColumn(), change.getNewColumn());
+    }
+
+    /**
+     * Drops the sync trigger, its function and the old column.
+     *
+     * @param connection the migration connection
+     * @param fileName   the name of the migration file
+     * @param change     the contract step
+     * @throws SQLException if a statement fails
+     */
+    private void contract(Connection connection, String fileName, ColumnChange change) throws SQLException {
+        String table = change.getTable();
+        statementRunner.execute(connection, fileName,
+                "DROP TRIGGER IF EXISTS " + change.triggerName() + " ON " + table + ";\n" +
+                        "DROP FUNCTION IF EXISTS " + change.functionName() + "();\n" +
+                        "ALTER TABLE " + table + " DROP COLUMN IF EXISTS " + change.getColumn());
+        log.info("Contracted {}: dropped {} and its sync trigger.", table, change.getColumn());
+    }
+
+    private ColumnInfo describeColumn(Connection connection, String table, String column) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement(SELECT_COLUMN)) {
+            pstmt.setString(1, table);
+            pstmt.setString(2, column);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    throw new IllegalArgumentException("Column " + table + "." + column + " does not exist");
+                }
+                return new ColumnInfo(rs.getString(1), rs.getBoolean(2), rs.getString(3));
+            }
+        }
+    }
+
+    /**
+     * Type, nullability and default of a column as recorded in the catalog.
+     */
+    private static class ColumnInfo {
+        private final String type;
+        private final boolean notNull;
+        private final String defaultExpression;
+
+        ColumnInfo(String type, boolean notNull, String defaultExpression) {
+            this.type = type;
+            this.notNull = notNull;
+            this.defaultExpression = defaultExpression;
+        }
+    }
+}
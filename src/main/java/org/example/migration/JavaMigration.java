@@ -0,0 +1,45 @@
+package org.example.migration;
+
+import java.sql.SQLException;
+
+/**
+ * A migration implemented in Java, for data transformations that are impractical as a single SQL statement.
+ * Implementations are registered in META-INF/services/org.example.migration.JavaMigration and named like
+ * migration files, e.g. {@code V11__BackfillOrderTotals}: the class name gives the version and is recorded
+ * in migration_history. Java migrations run in their own transaction unit and may commit periodically through
+ * {@link BatchWriter}, so they should be written to be safely re-run after a partial failure.
+ */
+public interface JavaMigration {
+
+    /**
+     * Applies the migration.
+     *
+     * @param context the context providing the connection, a streaming reader and batch writers
+     * @throws SQLException if the migration fails
+     */
+    void migrate(JavaMigrationContext context) throws SQLException;
+
+    /**
+     * Checks whether the migration can be reverted. Rollback runs check this for every migration they would revert
+     * before changing anything.
+     *
+     * @return true if the migration overrides {@link #rollback}
+     */
+    default boolean supportsRollback() {
+        try {
+            return getClass().getMethod("rollback", JavaMigrationContext.class).getDeclaringClass() != JavaMigration.class;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reverts the migration. Runs inside the rollback transaction, so batch writers do not commit.
+     *
+     * @param context the context providing the connection, a streaming reader and batch writers
+     * @throws SQLException if the rollback fails
+     */
+    default void rollback(JavaMigrationContext context) throws SQLException {
+        throw new UnsupportedOperationException("Java migration " + getClass().getSimpleName() + " does not support rollback");
+    }
+}
@@ -0,0 +1,198 @@
+package org.example.migration;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.service.executor.StatisticsRefresher;
+import org.example.util.PropertiesUtils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The context a {@link JavaMigration} runs in.
+ * Rows are read on the migration connection through a WITH HOLD cursor, migration.java.fetch-size rows per fetch,
+ * so only one fetch is held in memory. The read sees the migration's own uncommitted changes and cannot wait on its
+ * locks, and the cursor stays open when the migration commits; from the first commit on, the server keeps the
+ * remaining rows of the cursor in a temporary store. Writes go through {@link BatchWriter}s on the migration connection, which send
+ * migration.java.batch-size rows per round trip and commit every migration.java.commit-every-batches batches.
+ * Batch writers and backfills are throttled by a {@link ThrottleController} while the database is under pressure.
+ * The context collects the tables the migration modifies: the targets of its writers and backfills and, before
+ * every commit of the migration connection, the tables its transaction modified.
+ */
+@Slf4j
+public class JavaMigrationContext implements AutoCloseable {
+    private final String migrationName;
+    private final Connection connection;
+    private final boolean periodicCommits;
+    private final ThrottleController throttle;
+    private final boolean ownsThrottle;
+    private final int fetchSize = PropertiesUtils.getIntProperty("migration.java.fetch-size", 1000);
+    private final int batchSize = PropertiesUtils.getIntProperty("migration.java.batch-size", 1000);
+    private final int commitEveryBatches = PropertiesUtils.getIntProperty("migration.java.commit-every-batches", 10);
+    private final Set<String> modifiedTables = new LinkedHashSet<>();
+    private int cursors;
+
+    /**
+     * Callback receiving the rows of a streamed query one at a time.
+     */
+    @FunctionalInterface
+    public interface RowHandler {
+        /**
+         * Handles the current row.
+         *
+         * @param row the result set positioned at the current row
+         * @throws SQLException if handling the row fails
+         */
+        void handle(ResultSet row) throws SQLException;
+    }
+
+    /**
+     * Constructs a new JavaMigrationContext.
+     *
+     * @param migrationName   the name of the migration
+     * @param connection      the migration connection with auto-commit disabled
+     * @param periodicCommits whether batch writers may commit the migration connection
+     */
+    public JavaMigrationContext(String migrationName, Connection connection, boolean periodicCommits) {
+        this(migrationName, connection, periodicCommits, ThrottleController.fromProperties(), true);
+    }
+
+    /**
+     * Constructs a new JavaMigrationContext sharing the throttle controller of the migration run.
+     *
+     * @param migrationName   the name of the migration
+     * @param connection      the migration connection with auto-commit disabled
+     * @param periodicCommits whether batch writers may commit the migration connection
+     * @param throttle        the throttle controller of the run, which stays open when the context is closed
+     */
+    public JavaMigrationContext(String migrationName, Connection connection, boolean periodicCommits, ThrottleController throttle) {
+        this(migrationName, connection, periodicCommits, throttle, false);
+    }
+
+    private JavaMigrationContext(String migrationName, Connection connection, boolean periodicCommits,
+                                 ThrottleController throttle, boolean ownsThrottle) {
+        this.migrationName = migrationName;
+        this.connection = connection;
+        this.periodicCommits = periodicCommits;
+        this.throttle = throttle;
+        this.ownsThrottle = ownsThrottle;
+    }
+
+    /**
+     * Retrieves the migration connection for statements that do not need streaming or batching.
+     *
+     * @return the migration connection
+     */
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Streams the rows of a query through a server-side cursor on the migration connection.
+     * The handler may write through batch writers, which may commit, while the rows are streamed.
+     *
+     * @param sql     the query
+     * @param handler the callback receiving each row
+     * @param params  the query parameters
+     * @return the number of rows streamed
+     * @throws SQLException if the query or the handler fails
+     */
+    public long forEachRow(String sql, RowHandler handler, Object... params) throws SQLException {
+        String cursor = "migration_rows_" + (++cursors);
+        try (PreparedStatement pstmt = connection.prepareStatement("DECLARE " + cursor + " NO SCROLL CURSOR WITH HOLD FOR " + sql)) {
+            for (int i = 0; i < params.length; i++) {
+                pstmt.setObject(i + 1, params[i]);
+            }
+            pstmt.execute();
+        }
+        long rows = 0;
+        try (Statement fetch = connection.createStatement()) {
+            boolean more = true;
+            while (more) {
+                more = false;
+                try (ResultSet rs = fetch.executeQuery("FETCH FORWARD " + fetchSize + " FROM " + cursor)) {
+                    while (rs.next()) {
+                        handler.handle(rs);
+                        rows++;
+                        more = true;
+                    }
+                }
+            }
+        } finally {
+            closeCursor(cursor);
+        }
+        return rows;
+    }
+
+    /**
+     * Creates a batch writer for a parameterized INSERT, UPDATE or DELETE statement.
+     *
+     * @param sql the statement
+     * @return the batch writer; it must be closed to flush the last batch
+     * @throws SQLException if the statement cannot be prepared
+     */
+    public BatchWriter writer(String sql) throws SQLException {
+        addModifiedTable(StatisticsRefresher.modifiedTable(sql));
+        return new BatchWriter(migrationName, connection, sql, batchSize, periodicCommits ? commitEveryBatches : 0,
+                throttle, modifiedTables);
+    }
+
+    /**
+     * Runs a parallel key-range backfill on separate connections. Every range is committed on its own,
+     * and a job that was interrupted resumes with its open ranges when the migration runs again.
+     *
+     * @param job the backfill job
+     * @return the number of rows processed in this run
+     */
+    public long backfill(BackfillJob job) {
+        String table = StatisticsRefresher.modifiedTable(job.getRangeSql());
+        addModifiedTable(table != null ? table : job.getTable());
+        return new BackfillEngine(throttle).run(job);
+    }
+
+    /**
+     * Collects the tables the migration has modified, including those modified in the open transaction of the
+     * migration connection; called before the executor commits the migration.
+     *
+     * @return the names of the modified tables
+     * @throws SQLException if the tables of the open transaction cannot be read
+     */
+    public Set<String> collectModifiedTables() throws SQLException {
+        modifiedTables.addAll(StatisticsRefresher.transactionModifiedTables(connection));
+        return modifiedTables;
+    }
+
+    /**
+     * Closes the throttle controller if the context created it.
+     */
+    @Override
+    public void close() {
+        if (ownsThrottle) {
+            throttle.close();
+        }
+    }
+
+    private void addModifiedTable(String table) {
+        if (table != null) {
+            modifiedTables.add(table);
+        }
+    }
+
+    /**
+     * Closes a cursor. A held cursor outlives the transaction, so it is closed explicitly; if the transaction has
+     * failed, closing is not possible until the executor rolls it back, and the failure is only logged.
+     *
+     * @param cursor the cursor name
+     */
+    private void closeCursor(String cursor) {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CLOSE " + cursor);
+        } catch (SQLException e) {
+            log.debug("Failed to close cursor {} of Java migration {}: {}", cursor, migrationName, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package org.example.migration;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.comparator.NaturalOrderComparator;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Discovers the Java migrations registered through {@link ServiceLoader}.
+ * The migrations are loaded once and keyed by class name, which follows the migration file naming.
+ */
+@Slf4j
+public class JavaMigrationRegistry {
+    private static final Pattern MIGRATION_NAME = Pattern.compile("V\\d+__\\w+");
+    private static Map<String, JavaMigration> migrations;
+
+    /**
+     * Retrieves the names of all Java migrations.
+     *
+     * @return the migration names in natural order
+     */
+    public static List<String> getMigrationNames() {
+        return List.copyOf(getMigrations().keySet());
+    }
+
+    /**
+     * Checks whether a migration name refers to a Java migration.
+     *
+     * @param name the migration name
+     * @return true if a Java migration with this name is registered
+     */
+    public static boolean isJavaMigration(String name) {
+        return getMigrations().containsKey(name);
+    }
+
+    /**
+     * Retrieves a Java migration by name.
+     *
+     * @param name the migration name
+     * @return the migration
+     */
+    public static JavaMigration getMigration(String name) {
+        JavaMigration migration = getMigrations().get(name);
+        if (migration == null) {
+            throw new IllegalArgumentException("Unknown Java migration: " + name);
+        }
+        return migration;
+    }
+
+    private static synchronized Map<String, JavaMigration> getMigrations() {
+        if (migrations == null) {
+            Map<String, JavaMigration> loaded = new TreeMap<>(new NaturalOrderComparator());
+            for (JavaMigration migration : ServiceLoader.load(JavaMigration.class)) {
+                String name = migration.getClass().getSimpleName();
+                if (!MIGRATION_NAME.matcher(name).matches()) {
+                    throw new IllegalStateException("Java migration class name must look like V<version>__<Description>: "
+                            + migration.getClass().getName());
+                }
+                loaded.put(name, migration);
+            }
+            log.info("Found {} Java migration(s): {}", loaded.size(), loaded.keySet());
+            migrations = Collections.unmodifiableMap(loaded);
+        }
+        return migrations;
+    }
+}
@@ -0,0 +1,12 @@
+package org.example.migration;
+
+import lombok.Data;
+
+/**
+ * A half-open range of primary key values, from start inclusive to end exclusive.
+ */
+@Data
+public class KeyRange {
+    private final long start;
+    private final long end;
+}
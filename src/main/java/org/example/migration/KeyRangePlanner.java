@@ -0,0 +1,50 @@
+package org.example.migration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a key space into ranges of roughly equal row counts for a backfill.
+ * When the planner statistics provide a histogram of the key column, its bounds are used as split points,
+ * because each histogram bucket holds about the same number of rows even if the keys are unevenly spread;
+ * buckets are subdivided evenly to reach the requested number of ranges. Without a histogram the key space
+ * between the minimum and maximum key is split evenly.
+ */
+public class KeyRangePlanner {
+
+    private KeyRangePlanner() {
+    }
+
+    /**
+     * Plans the key ranges of a backfill.
+     *
+     * @param minKey     the smallest key of the table
+     * @param maxKey     the largest key of the table
+     * @param histogram  the histogram bounds of the key column in ascending order, or an empty array
+     * @param rangeCount the desired number of ranges
+     * @return contiguous ranges covering all keys from minKey to maxKey
+     */
+    public static List<KeyRange> plan(long minKey, long maxKey, long[] histogram, int rangeCount) {
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(minKey);
+        for (long bound : histogram) {
+            if (bound > minKey && bound < maxKey && bound > bounds.get(bounds.size() - 1)) {
+                bounds.add(bound);
+            }
+        }
+        bounds.add(maxKey + 1);
+        int buckets = bounds.size() - 1;
+        int splitsPerBucket = Math.max(1, (int) Math.ceil((double) rangeCount / buckets));
+
+        List<KeyRange> ranges = new ArrayList<>();
+        for (int i = 0; i < buckets; i++) {
+            long start = bounds.get(i);
+            long end = bounds.get(i + 1);
+            long step = Math.max(1, (end - start + splitsPerBucket - 1) / splitsPerBucket);
+            for (long rangeStart = start; rangeStart < end; rangeStart += step) {
+                ranges.add(new KeyRange(rangeStart, Math.min(end, rangeStart + step)));
+            }
+        }
+        return ranges;
+    }
+}
@@ -0,0 +1,510 @@
+package org.example.migration;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.model.PartitionChange;
+import org.example.service.executor.LockAwareStatementRunner;
+import org.example.util.PropertiesUtils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts a large table to range partitioning without a maintenance window.
+ * <ul>
+ *     <li>Convert creates a partitioned shadow table with the columns, defaults, check constraints, indexes,
+ *     foreign keys, owner and grants of the table, one partition per interval from the oldest row up to
+ *     migration.partition.premake intervals ahead and a default partition. A trigger mirrors every insert, update and delete into the shadow
+ *     table, and the existing rows are copied in primary key ranges with the parallel, throttled and resumable
+ *     {@link BackfillEngine}, which reports progress and throughput. The copy locks the rows of a range while it
+ *     copies them, so rows deleted or updated concurrently are never copied in an outdated version.</li>
+ *     <li>Swap checks that the copy is complete and, in one short transaction, drops the trigger, renames the table
+ *     to &lt;table&gt;_unpartitioned, renames the shadow table to the table, moves the serial sequences over, and
+ *     recreates the other triggers of the table on the new table and the views on it, which would otherwise keep
+ *     pointing to the retired table. Triggers are only recreated at the swap, so they do not fire for the copy.</li>
+ * </ul>
+ * Until the swap, the conversion is rolled back by dropping the shadow table and the trigger.
+ * The primary key and the unique indexes of the shadow table are extended by the partition key, as partitioning
+ * requires, so uniqueness only holds per partition key value. The partition key must be NOT NULL. Tables with
+ * exclusion constraints, row-level security or materialized views on them are not converted.
+ */
+@Slf4j
+public class PartitionConversion {
+    private static final String SELECT_KEY_TYPE = """
+            SELECT format_type(a.atttypid, a.atttypmod), a.attnotnull
+            FROM pg_attribute a
+            WHERE a.attrelid = ?::regclass AND a.attname = ? AND a.attnum > 0 AND NOT a.attisdropped
+            """;
+    private static final String SELECT_BLOCKERS = """
+            WITH t AS (SELECT ?::regclass AS relid)
+            SELECT (SELECT count(*) FROM pg_attribute, t WHERE attrelid = t.relid AND attidentity <> ''),
+                   (SELECT count(*) FROM pg_constraint, t WHERE confrelid = t.relid AND contype = 'f'),
+                   (SELECT count(*) FROM pg_constraint, t WHERE conrelid = t.relid AND contype = 'x'),
+                   (SELECT c.relrowsecurity OR EXISTS (SELECT 1 FROM pg_policy WHERE polrelid = t.relid)
+                    FROM pg_class c, t WHERE c.oid = t.relid),
+                   (SELECT count(*) FROM pg_depend d
+                    JOIN pg_rewrite r ON r.oid = d.objid
+                    JOIN pg_class v ON v.oid = r.ev_class, t
+                    WHERE d.classid = 'pg_rewrite'::regclass AND d.refobjid = t.relid AND v.relkind = 'm')
+            """;
+    private static final String SELECT_PRIMARY_KEY = """
+            SELECT string_agg(quote_ident(a.attname), ', ' ORDER BY k.ord), bool_or(a.attname = ?)
+            FROM pg_index i
+            CROSS JOIN LATERAL unnest(i.indkey::int2[]) WITH ORDINALITY AS k(attnum, ord)
+            JOIN pg_attribute a ON a.attrelid = i.indrelid AND a.attnum = k.attnum
+            WHERE i.indrelid = ?::regclass AND i.indisprimary
+            """;
+    private static final String SELECT_INDEXES = """
+            SELECT pg_get_indexdef(i.indexrelid), i.indisunique
+            FROM pg_index i
+            WHERE i.indrelid = ?::regclass AND NOT i.indisprimary
+            """;
+    private static final String SELECT_FOREIGN_KEYS = """
+            SELECT quote_ident(conname), pg_get_constraintdef(oid)
+            FROM pg_constraint
+            WHERE conrelid = ?::regclass AND contype = 'f'
+            """;
+    private static final String SELECT_GRANTS = """
+            SELECT format('GRANT %1$s ON %2$s TO %3$s%4$s', a.privilege_type, ?,
+                          CASE a.grantee WHEN 0 THEN 'PUBLIC' ELSE quote_ident(pg_get_userbyid(a.grantee)) END,
+                          CASE WHEN a.is_grantable THEN ' WITH GRANT OPTION' ELSE '' END)
+            FROM pg_class c
+            CROSS JOIN LATERAL aclexplode(c.relacl) a
+            WHERE c.oid = ?::regclass AND a.grantee <> c.relowner
+            UNION ALL
+            SELECT format('GRANT %1$s (%2$s) ON %3$s TO %4$s%5$s', a.privilege_type, quote_ident(att.attname), ?,
+                          CASE a.grantee WHEN 0 THEN 'PUBLIC' ELSE quote_ident(pg_get_userbyid(a.grantee)) END,
+                          CASE WHEN a.is_grantable THEN ' WITH GRANT OPTION' ELSE '' END)
+            FROM pg_attribute att
+            CROSS JOIN LATERAL aclexplode(att.attacl) a
+            WHERE att.attrelid = ?::regclass AND att.attnum > 0 AND NOT att.attisdropped
+            """;
+    private static final String SELECT_OWNER = """
+            SELECT quote_ident(pg_get_userbyid(relowner)),
+                   array(SELECT inhrelid::regclass::text FROM pg_inherits WHERE inhparent = ?::regclass)
+            FROM pg_class
+            WHERE oid = ?::regclass
+            """;
+    private static final String SELECT_TRIGGERS = """
+            SELECT pg_get_triggerdef(oid)
+            FROM pg_trigger
+            WHERE tgrelid = ?::regclass AND NOT tgisinternal AND tgname <> ?
+            """;
+    private static final String SELECT_VIEWS = """
+            SELECT DISTINCT v.oid::regclass::text, coalesce(' WITH (' || array_to_string(v.reloptions, ', ') || ')', ''),
+                   pg_get_viewdef(v.oid)
+            FROM pg_depend d
+            JOIN pg_rewrite r ON r.oid = d.objid
+            JOIN pg_class v ON v.oid = r.ev_class
+            WHERE d.classid = 'pg_rewrite'::regclass AND d.refobjid = ?::regclass AND v.oid <> d.refobjid AND v.relkind = 'v'
+            """;
+    private static final String SELECT_TIME_BOUNDS = """
+            SELECT bound::text, (bound + ('1 ' || ?)::interval)::text
+            FROM generate_series(date_trunc(?, coalesce((SELECT min(%1$s) FROM %2$s), now())::timestamp),
+                                 greatest(coalesce((SELECT max(%1$s) FROM %2$s), now())::timestamp, now()::timestamp)
+                                     + ('1 ' || ?)::interval * ?,
+                                 ('1 ' || ?)::interval) AS bound
+            """;
+    private static final String SELECT_INTEGER_BOUNDS = """
+            SELECT bound::text, (bound + ?)::text
+            FROM generate_series((SELECT coalesce(min(%1$s), 0) - coalesce(min(%1$s), 0) %% ? FROM %2$s)::bigint,
+                                 (SELECT coalesce(max(%1$s), 0) FROM %2$s)::bigint + ? * ?,
+                                 ?) AS bound
+            """;
+    private static final String SELECT_SEQUENCES = """
+            SELECT s.oid::regclass::text, quote_ident(a.attname)
+            FROM pg_depend d
+            JOIN pg_class s ON s.oid = d.objid AND s.relkind = 'S'
+            JOIN pg_attribute a ON a.attrelid = d.refobjid AND a.attnum = d.refobjsubid
+            WHERE d.refobjid = ?::regclass AND d.classid = 'pg_class'::regclass AND d.deptype = 'a'
+            """;
+
+    private final LockAwareStatementRunner statementRunner;
+    private final int premake = PropertiesUtils.getIntProperty("migration.partition.premake", 3);
+
+    /**
+     * Constructs a new PartitionConversion.
+     *
+     * @param statementRunner the runner executing DDL with short lock timeouts
+     */
+    public PartitionConversion(LockAwareStatementRunner statementRunner) {
+        this.statementRunner = statementRunner;
+    }
+
+    /**
+     * Applies one step of a partition conversion. The caller records the migration and commits afterwards.
+     *
+     * @param connection the migration connection with auto-commit disabled
+     * @param fileName   the name of the migration file
+     * @param change     the partition conversion step
+     * @param throttle   the throttle controller of the run
+     * @throws SQLException if a statement fails
+     */
+    public void apply(Connection connection, String fileName, PartitionChange change, ThrottleController throttle) throws SQLException {
+        switch (change.getPhase()) {
+            case CONVERT -> convert(connection, fileName, change, throttle);
+            case SWAP -> swap(connection, fileName, change);
+        }
+    }
+
+    /**
+     * Builds the trigger function mirroring every row change of the table into the shadow table.
+     *
+     * @param change     the convert step
+     * @param keyColumn  the integer primary key column
+     * @return the CREATE FUNCTION statement
+     */
+    public static String syncFunctionSql(PartitionChange change, String keyColumn) {
+        String shadow = change.shadowTable();
+        String partitionKey = change.getPartitionKey();
+        return "CREATE OR REPLACE FUNCTION " + change.functionName() + "() RETURNS trigger LANGUAGE plpgsql AS $sync$\n" +
+                "BEGIN\n" +
+                "    IF TG_OP IN ('UPDATE', 'DELETE') THEN\n" +
+                "        DELETE FROM " + shadow + " WHERE " + keyColumn + " = OLD." + keyColumn +
+                " AND " + partitionKey + " = OLD." + partitionKey + ";\n" +
+                "    END IF;\n" +
+                "    IF TG_OP IN ('INSERT', 'UPDATE') THEN\n" +
+                "        INSERT INTO " + shadow + " SELECT (NEW).* ON CONFLICT DO NOTHING;\n" +
+                "    END IF;\n" +
+                "    RETURN NULL;\n" +
+                "END\n" +
+                "$sync$";
+    }
+
+    /**
+     * Creates the shadow table and its partitions, installs the sync trigger and copies the existing rows.
+     *
+     * @param connection the migration connection
+     * @param fileName   the name of the migration file
+     * @param change     the convert step
+     * @param throttle   the throttle controller of the run
+     * @throws SQLException if a statement fails
+     */
+    private void convert(Connection connection, String fileName, PartitionChange change, ThrottleController throttle) throws SQLException {
+        String table = change.getTable();
+        String shadow = change.shadowTable();
+        String keyColumn = BackfillEngine.integerKeyColumn(connection, table);
+        if (keyColumn == null) {
+            throw new IllegalArgumentException("Partitioning " + table + " requires a single-column integer primary key for the copy");
+        }
+        checkConvertible(connection, change);
+
+        List<String> statements = new ArrayList<>();
+        statements.add("CREATE TABLE IF NOT EXISTS " + shadow + " (LIKE " + table +
+                " INCLUDING DEFAULTS INCLUDING CONSTRAINTS INCLUDING STORAGE INCLUDING COMMENTS)" +
+                " PARTITION BY RANGE (" + change.getPartitionKey() + ")");
+        for (String[] bounds : partitionBounds(connection, change)) {
+            statements.add("CREATE TABLE IF NOT EXISTS " + change.partitionName(bounds[0]) + " PARTITION OF " + shadow +
+                    " FOR VALUES FROM ('" + bounds[0] + "') TO ('" + bounds[1] + "')");
+        }
+        statements.add("CREATE TABLE IF NOT EXISTS " + change.defaultPartitionName() + " PARTITION OF " + shadow + " DEFAULT");
+        statementRunner.execute(connection, fileName, String.join(";\n", statements));
+        connection.commit();
+
+        if (!hasPrimaryKey(connection, shadow)) {
+            List<String> keyAndIndexes = new ArrayList<>();
+            keyAndIndexes.add("ALTER TABLE " + shadow + " ADD PRIMARY KEY (" + shadowPrimaryKey(connection, change) + ")");
+            keyAndIndexes.addAll(shadowIndexes(connection, change));
+            keyAndIndexes.addAll(shadowForeignKeys(connection, change));
+            statementRunner.execute(connection, fileName, String.join(";\n", keyAndIndexes));
+        }
+        // Before the trigger, since it writes into the shadow table with the privileges of the application
+        statementRunner.execute(connection, fileName, String.join(";\n", shadowPrivileges(connection, change)));
+        statementRunner.execute(connection, fileName, syncFunctionSql(change, keyColumn) + ";\n" +
+                "DROP TRIGGER IF EXISTS " + change.triggerName() + " ON " + table + ";\n" +
+                "CREATE TRIGGER " + change.triggerName() + " AFTER INSERT OR UPDATE OR DELETE ON " + table +
+                " FOR EACH ROW EXECUTE FUNCTION " + change.functionName() + "()");
+        // Changes from now on are mirrored by the trigger, so the copy only has to bring over the rows before it
+        connection.commit();
+        log.info("Created {} partitioned by {} every {}; copying the rows of {}.", shadow, change.getPartitionKey(),
+                change.getInterval(), table);
+
+        BackfillJob job = new BackfillJob(change.copyJobName(), table, keyColumn,
+                "INSERT INTO " + shadow + " SELECT * FROM " + table + " WHERE " + keyColumn + " >= ? AND " + keyColumn + " < ?" +
+                        " FOR SHARE ON CONFLICT DO NOTHING");
+        long rows = new BackfillEngine(throttle).run(job);
+        log.info("Copied {} row(s) of {} into {}. Apply the swap step to switch over.", rows, table, shadow);
+    }
+
+    /**
+     * Swaps the shadow table in once all rows are copied.
+     *
+     * @param connection the migration connection
+     * @param fileName   the name of the migration file
+     * @param change     the swap step
+     * @throws SQLException if a statement fails
+     */
+    private void swap(Connection connection, String fileName, PartitionChange change) throws SQLException {
+        String table = change.getTable();
+        try (PreparedStatement pstmt = connection.prepareStatement(
+                "SELECT count(*), count(*) FILTER (WHERE completed_at IS NULL) FROM migration_backfill_range WHERE job_name = ?")) {
+            pstmt.setString(1, change.copyJobName());
+            try (ResultSet rs = pstmt.executeQuery()) {
+                rs.next();
+                if (rs.getLong(1) == 0 || rs.getLong(2) > 0) {
+                    throw new IllegalStateException("The rows of " + table + " are not completely copied; apply its partition step first");
+                }
+            }
+        }
+        List<String> statements = new ArrayList<>();
+        statements.add("LOCK TABLE " + table + " IN ACCESS EXCLUSIVE MODE");
+        statements.add("DROP TRIGGER IF EXISTS " + change.triggerName() + " ON " + table);
+        statements.add("DROP FUNCTION IF EXISTS " + change.functionName() + "()");
+        statements.addAll(shadowTriggers(connection, change));
+        // Read while the names still resolve to the table, so the recreated views resolve them to the new table
+        List<String> views = recreatedViews(connection, table);
+        statements.add("ALTER TABLE " + table + " RENAME TO " + change.retiredTableName());
+        statements.add("ALTER TABLE " + change.shadowTable() + " RENAME TO " + table.substring(table.lastIndexOf('.') + 1));
+        statements.addAll(views);
+        try (PreparedStatement pstmt = connection.prepareStatement(SELECT_SEQUENCES)) {
+            pstmt.setString(1, table);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    // Otherwise dropping the retired table would drop the sequences the new table's defaults use
+                    statements.add("ALTER SEQUENCE " + rs.getString(1) + " OWNED BY " + table + "." + rs.getString(2));
+                }
+            }
+        }
+        statementRunner.execute(connection, fileName, String.join(";\n", statements));
+        log.info("Swapped the partitioned table in for {}; the previous table is kept as {}.", table, change.retiredTableName());
+    }
+
+    /**
+     * Rewrites the definition of an index of the table for the shadow table. The index is left unnamed, so the
+     * index names of the original table stay free. A unique index is extended by the partition key, since the unique
+     * indexes of a partitioned table must contain it.
+     *
+     * @param indexDefinition the definition from pg_get_indexdef
+     * @param unique          whether the index is unique
+     * @param shadowTable     the shadow table
+     * @param partitionKey    the partition key column
+     * @return the CREATE INDEX statement for the shadow table
+     */
+    public static String shadowIndexSql(String indexDefinition, boolean unique, String shadowTable, String partitionKey) {
+        String sql = indexDefinition.replaceFirst("^CREATE (UNIQUE )?INDEX \\S+ ON (ONLY )?\\S+",
+                "CREATE " + (unique ? "UNIQUE " : "") + "INDEX ON " + shadowTable);
+        if (!unique) {
+            return sql;
+        }
+        int start = sql.indexOf('(', sql.indexOf(" USING "));
+        int end = closingParenthesis(sql, start);
+        for (String column : sql.substring(start + 1, end).split(",")) {
+            if (column.trim().split("\\s+")[0].equals(partitionKey)) {
+                return sql;
+            }
+        }
+        return sql.substring(0, end) + ", " + partitionKey + sql.substring(end);
+    }
+
+    private static int closingParenthesis(String sql, int open) {
+        int depth = 0;
+        boolean quoted = false;
+        for (int i = open; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '"' || c == '\'') {
+                quoted = !quoted;
+            } else if (!quoted && c == '(') {
+                depth++;
+            } else if (!quoted && c == ')' && --depth == 0) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unbalanced parentheses in index definition: " + sql);
+    }
+
+    private void checkConvertible(Connection connection, PartitionChange change) throws SQLException {
+        String table = change.getTable();
+        String keyType;
+        try (PreparedStatement pstmt = connection.prepareStatement(SELECT_KEY_TYPE)) {
+            pstmt.setString(1, table);
+            pstmt.setString(2, change.getPartitionKey());
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    throw new IllegalArgumentException("Column " + table + "." + change.getPartitionKey() + " does not exist");
+                }
+                keyType = rs.getString(1);
+                if (!rs.getBoolean(2)) {
+                    throw new IllegalArgumentException("Partition key " + table + "." + change.getPartitionKey() +
+                            " must be NOT NULL, since it becomes part of the primary key");
+                }
+            }
+        }
+        boolean timeKey = keyType.startsWith("timestamp") || keyType.equals("date");
+        boolean integerKey = keyType.equals("integer") || keyType.equals("bigint") || keyType.equals("smallint");
+        if (change.isTimeInterval() ? !timeKey : !integerKey) {
+            throw new IllegalArgumentException("Partition key " + table + "." + change.getPartitionKey() + " of type " + keyType +
+                    " cannot be partitioned every " + change.getInterval());
+        }
+        try (PreparedStatement pstmt = connection.prepareStatement(SELECT_BLOCKERS)) {
+            pstmt.setString(1, table);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                rs.next();
+                if (rs.getLong(1) > 0) {
+                    throw new IllegalArgumentException("Partitioning " + table + " does not support identity columns; use serial columns");
+                }
+                if (rs.getLong(2) > 0) {
+                    throw new IllegalArgumentException("Partitioning " + table + " is not possible while foreign keys reference it");
+                }
+                if (rs.getLong(3) > 0) {
+                    throw new IllegalArgumentException("Partitioning " + table + " does not support exclusion constraints");
+                }
+                if (rs.getBoolean(4)) {
+                    throw new IllegalArgumentException("Partitioning " + table + " does not support row-level security; " +
+                            "disable it and drop its policies first");
+                }
+                if (rs.getLong(5) > 0) {
+                    throw new IllegalArgumentException("Partitioning " + table + " is not possible while materialized views use it");
+                }
+            }
+        }
+    }
+
+    private List<String[]> partitionBounds(Connection connection, PartitionChange change) throws SQLException {
+        List<String[]> bounds = new ArrayList<>();
+        String sql = String.format(change.isTimeInterval() ? SELECT_TIME_BOUNDS : SELECT_INTEGER_BOUNDS,
+                change.getPartitionKey(), change.getTable());
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            if (change.isTimeInterval()) {
+                pstmt.setString(1, change.getInterval());
+                pstmt.setString(2, change.getInterval());
+                pstmt.setString(3, change.getInterval());
+                pstmt.setInt(4, premake);
+                pstmt.setString(5, change.getInterval());
+            } else {
+                long width = Long.parseLong(change.getInterval());
+                pstmt.setLong(1, width);
+                pstmt.setLong(2, width);
+                pstmt.setLong(3, width);
+                pstmt.setInt(4, premake);
+                pstmt.setLong(5, width);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    bounds.add(new String[]{rs.getString(1), rs.getString(2)});
+                }
+            }
+        }
+        return bounds;
+    }
+
+    private boolean hasPrimaryKey(Connection connection, String table) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement(
+                "SELECT EXISTS (SELECT 1 FROM pg_index WHERE indrelid = ?::regclass AND indisprimary)")) {
+            pstmt.setString(1, table);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                rs.next();
+                return rs.getBoolean(1);
+            }
+        }
+    }
+
+    private String shadowPrimaryKey(Connection connection, PartitionChange change) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement(SELECT_PRIMARY_KEY)) {
+            pstmt.setString(1, change.getPartitionKey());
+            pstmt.setString(2, change.getTable());
+            try (ResultSet rs = pstmt.executeQuery()) {
+                rs.next();
+                return rs.getBoolean(2) ? rs.getString(1) : rs.getString(1) + ", " + change.getPartitionKey();
+            }
+        }
+    }
+
+    private List<String> shadowIndexes(Connection connection, PartitionChange change) throws SQLException {
+        List<String> indexes = new ArrayList<>();
+        try (PreparedStatement pstmt = connection.prepareStatement(SELECT_INDEXES)) {
+            pstmt.setString(1, change.getTable());
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    // Partitioned indexes cannot be built concurrently, but the shadow table is still empty
+                    indexes.add(shadowIndexSql(rs.getString(1), rs.getBoolean(2), change.shadowTable(), change.getPartitionKey()));
+                }
+            }
+        }
+        return indexes;
+    }
+
+    private List<String> shadowForeignKeys(Connection connection, PartitionChange change) throws SQLException {
+        List<String> foreignKeys = new ArrayList<>();
+        try (PreparedStatement pstmt = connection.prepareStatement(SELECT_FOREIGN_KEYS)) {
+            pstmt.setString(1, change.getTable());
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    foreignKeys.add("ALTER TABLE " + change.shadowTable() + " ADD CONSTRAINT " + rs.getString(1) + " " + rs.getString(2));
+                }
+            }
+        }
+        return foreignKeys;
+    }
+
+    /**
+     * Builds the statements giving the shadow table and its partitions the owner and the table and column
+     * privileges of the table. The grants come first, while the migration user still owns the shadow table.
+     *
+     * @param connection the migration connection
+     * @param change     the convert step
+     * @return the GRANT and ALTER TABLE ... OWNER TO statements
+     * @throws SQLException if the catalog cannot be read
+     */
+    private List<String> shadowPrivileges(Connection connection, PartitionChange change) throws SQLException {
+        List<String> statements = new ArrayList<>();
+        String shadow = change.shadowTable();
+        try (PreparedStatement pstmt = connection.prepareStatement(SELECT_GRANTS)) {
+            pstmt.setString(1, shadow);
+            pstmt.setString(2, change.getTable());
+            pstmt.setString(3, shadow);
+            pstmt.setString(4, change.getTable());
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    statements.add(rs.getString(1));
+                }
+            }
+        }
+        try (PreparedStatement pstmt = connection.prepareStatement(SELECT_OWNER)) {
+            pstmt.setString(1, shadow);
+            pstmt.setString(2, change.getTable());
+            try (ResultSet rs = pstmt.executeQuery()) {
+                rs.next();
+                String owner = rs.getString(1);
+                statements.add("ALTER TABLE " + shadow + " OWNER TO " + owner);
+                for (String partition : (String[]) rs.getArray(2).getArray()) {
+                    statements.add("ALTER TABLE " + partition + " OWNER TO " + owner);
+                }
+            }
+        }
+        return statements;
+    }
+
+    private List<String> shadowTriggers(Connection connection, PartitionChange change) throws SQLException {
+        List<String> triggers = new ArrayList<>();
+        try (PreparedStatement pstmt = connection.prepareStatement(SELECT_TRIGGERS)) {
+            pstmt.setString(1, change.getTable());
+            pstmt.setString(2, change.triggerName());
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    triggers.add(rs.getString(1).replaceFirst(" ON (ONLY )?\\S+ ", " ON " + change.shadowTable() + " "));
+                }
+            }
+        }
+        return triggers;
+    }
+
+    private List<String> recreatedViews(Connection connection, String table) throws SQLException {
+        List<String> views = new ArrayList<>();
+        try (PreparedStatement pstmt = connection.prepareStatement(SELECT_VIEWS)) {
+            pstmt.setString(1, table);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    String definition = rs.getString(3).strip();
+                    if (definition.endsWith(";")) {
+                        definition = definition.substring(0, definition.length() - 1);
+                    }
+                    views.add("CREATE OR REPLACE VIEW " + rs.getString(1) + rs.getString(2) + " AS\n" + definition);
+                }
+            }
+        }
+        return views;
+    }
+}
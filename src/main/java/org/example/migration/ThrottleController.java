@@ -0,0 +1,276 @@
+package org.example.migration;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.model.ThrottleMetrics;
+import org.example.util.ConnectionListener;
+import org.example.util.ConnectionManager;
+import org.example.util.PropertiesUtils;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * ThrottleController slows down data migrations while the database is under pressure.
+ * Right after committing a batch, data migrations call {@link #throttle()}, so that a pause never holds a transaction
+ * open with its locks and snapshot. At most every migration.throttle.sample-interval-ms
+ * the controller samples the replication lag of the streaming replicas, the number of active client sessions and
+ * the WAL generation rate on a connection of its own, and compares each with its configured limit.
+ * Once a value exceeds its limit, every caller pauses until the next samples are below the limits again.
+ * Above 80% of a limit, each batch is delayed; the delay doubles with every such sample up to
+ * migration.throttle.max-delay-ms and halves again once the pressure is gone.
+ * A limit of zero or less disables that signal.
+ * Data migrations also stop at the next batch once the stop condition of the run holds, e.g. after its deadline,
+ * and report the connections they open besides the migration connection to the connection listener of the run,
+ * so that a shutdown can cancel their statements.
+ */
+@Slf4j
+public class ThrottleController implements AutoCloseable {
+    private static final double SLOW_DOWN_AT = 0.8;
+    private static final long MIN_DELAY_MS = 10;
+    private static final String SAMPLE = """
+            SELECT COALESCE((SELECT max(EXTRACT(EPOCH FROM replay_lag)) * 1000 FROM pg_stat_replication), 0)::BIGINT,
+                   (SELECT count(*) FROM pg_stat_activity
+                    WHERE state = 'active' AND backend_type = 'client backend' AND pid <> pg_backend_pid()),
+                   (pg_current_wal_lsn() - '0/0'::pg_lsn)::BIGINT
+            """;
+
+    private final boolean enabled;
+    private final long maxReplicationLagMs;
+    private final long maxActiveSessions;
+    private final long maxWalBytesPerSecond;
+    private final long sampleIntervalMs;
+    private final long maxDelayMs;
+    private final Supplier<Connection> connectionFactory;
+
+    private Connection connection;
+    private boolean sampled;
+    private long lastSampleNanos;
+    private long lastWalPosition = -1;
+    private double pressure;
+    private long delayMs;
+    private ThrottleMetrics metrics = new ThrottleMetrics();
+    private volatile BooleanSupplier stopCondition = () -> false;
+    private volatile ConnectionListener connectionListener = ConnectionListener.NONE;
+
+    /**
+     * Constructs a new ThrottleController.
+     *
+     * @param enabled              whether data migrations are throttled
+     * @param maxReplicationLagMs  the replay lag of the slowest replica at which to pause
+     * @param maxActiveSessions    the number of active client sessions at which to pause
+     * @param maxWalBytesPerSecond the WAL generation rate at which to pause
+     * @param sampleIntervalMs     the minimum time between two samples
+     * @param maxDelayMs           the maximum delay per batch while slowing down
+     * @param connectionFactory    opens the sampling connection
+     */
+    public ThrottleController(boolean enabled, long maxReplicationLagMs, long maxActiveSessions, long maxWalBytesPerSecond,
+                              long sampleIntervalMs, long maxDelayMs, Supplier<Connection> connectionFactory) {
+        this.enabled = enabled;
+        this.maxReplicationLagMs = maxReplicationLagMs;
+        this.maxActiveSessions = maxActiveSessions;
+        this.maxWalBytesPerSecond = maxWalBytesPerSecond;
+        this.sampleIntervalMs = sampleIntervalMs;
+        this.maxDelayMs = maxDelayMs;
+        this.connectionFactory = connectionFactory;
+    }
+
+    /**
+     * Creates a ThrottleController from application.properties.
+     *
+     * @return the configured throttle controller
+     */
+    public static ThrottleController fromProperties() {
+        return new ThrottleController(
+                Boolean.parseBoolean(PropertiesUtils.getProperty("migration.throttle.enabled", "false")),
+                PropertiesUtils.getIntProperty("migration.throttle.max-replication-lag-ms", 10000),
+                PropertiesUtils.getIntProperty("migration.throttle.max-active-sessions", 0),
+                PropertiesUtils.getIntProperty("migration.throttle.max-wal-bytes-per-second", 0),
+                PropertiesUtils.getIntProperty("migration.throttle.sample-interval-ms", 1000),
+                PropertiesUtils.getIntProperty("migration.throttle.max-delay-ms", 2000),
+                ConnectionManager::createConnection);
+    }
+
+    /**
+     * Waits as long as the database is under pressure. Called by data migrations right after a commit;
+     * safe to call from several workers at once.
+     */
+    public void throttle() {
+        checkStop();
+        if (!enabled) {
+            return;
+        }
+        long delay;
+        synchronized (this) {
+            if (!sampled || System.nanoTime() - lastSampleNanos >= sampleIntervalMs * 1_000_000L) {
+                sample();
+            }
+            if (pressure >= 1) {
+                pause();
+            }
+            delay = delayMs;
+            if (delay > 0) {
+                metrics.setDelayedBatches(metrics.getDelayedBatches() + 1);
+                metrics.setDelayedMs(metrics.getDelayedMs() + delay);
+            }
+        }
+        if (delay > 0) {
+            sleep(delay);
+        }
+    }
+
+    /**
+     * Stops the data migration if the stop condition of the run holds, without waiting. Called between batches
+     * that are not followed by a commit, where pausing would keep the transaction open.
+     *
+     * @throws IllegalStateException if the migration run is cancelled or past its deadline
+     */
+    public void checkStop() {
+        if (isStopping()) {
+            throw new IllegalStateException("Data migration stopped: the migration run is cancelled or past its deadline");
+        }
+    }
+
+    /**
+     * Sets the condition under which data migrations stop at their next batch instead of continuing.
+     * Completed batches and backfill ranges are kept, so the migration resumes when it runs again.
+     *
+     * @param stopCondition the condition, checked between batches and while paused
+     */
+    public void stopWhen(BooleanSupplier stopCondition) {
+        this.stopCondition = stopCondition;
+    }
+
+    /**
+     * Checks whether data migrations have to stop, e.g. so that a failed batch is not retried.
+     *
+     * @return true if the stop condition holds
+     */
+    public boolean isStopping() {
+        return stopCondition.getAsBoolean();
+    }
+
+    /**
+     * Sets the listener notified of the connections data migrations open besides the migration connection.
+     *
+     * @param connectionListener the listener of the run
+     */
+    public void trackConnectionsWith(ConnectionListener connectionListener) {
+        this.connectionListener = connectionListener;
+    }
+
+    /**
+     * Retrieves the listener notified of the connections data migrations open besides the migration connection.
+     *
+     * @return the listener of the run, or {@link ConnectionListener#NONE}
+     */
+    public ConnectionListener getConnectionListener() {
+        return connectionListener;
+    }
+
+    /**
+     * Returns the decisions since the previous call and starts counting anew.
+     *
+     * @return the throttle metrics
+     */
+    public synchronized ThrottleMetrics resetMetrics() {
+        ThrottleMetrics current = metrics;
+        metrics = new ThrottleMetrics();
+        return current;
+    }
+
+    /**
+     * Closes the sampling connection.
+     */
+    @Override
+    public synchronized void close() {
+        closeConnection();
+    }
+
+    /**
+     * Pauses while holding the monitor, so that every worker waits, until a sample is below all limits.
+     */
+    private void pause() {
+        long startedAt = System.currentTimeMillis();
+        metrics.setPauses(metrics.getPauses() + 1);
+        log.warn("Pausing data migration: database load at {}% of the limits.", Math.round(pressure * 100));
+        while (pressure >= 1 && !Thread.currentThread().isInterrupted() && !stopCondition.getAsBoolean()) {
+            sleep(sampleIntervalMs);
+            sample();
+        }
+        long pausedMs = System.currentTimeMillis() - startedAt;
+        metrics.setPausedMs(metrics.getPausedMs() + pausedMs);
+        log.info("Resuming data migration after {} ms.", pausedMs);
+    }
+
+    /**
+     * Samples the pressure signals and adjusts the delay per batch.
+     */
+    private void sample() {
+        long now = System.nanoTime();
+        try {
+            if (connection == null) {
+                connection = connectionFactory.get();
+                connection.setAutoCommit(true);
+            }
+            try (Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery(SAMPLE)) {
+                rs.next();
+                long lagMs = rs.getLong(1);
+                long activeSessions = rs.getLong(2);
+                long walPosition = rs.getLong(3);
+                long walBytesPerSecond = lastWalPosition < 0 || now == lastSampleNanos ? 0
+                        : (long) ((walPosition - lastWalPosition) * 1e9 / (now - lastSampleNanos));
+                lastWalPosition = walPosition;
+                pressure = Math.max(ratio(lagMs, maxReplicationLagMs),
+                        Math.max(ratio(activeSessions, maxActiveSessions), ratio(walBytesPerSecond, maxWalBytesPerSecond)));
+                metrics.setSamples(metrics.getSamples() + 1);
+                metrics.setMaxReplicationLagMs(Math.max(metrics.getMaxReplicationLagMs(), lagMs));
+                metrics.setMaxActiveSessions(Math.max(metrics.getMaxActiveSessions(), activeSessions));
+                metrics.setMaxWalBytesPerSecond(Math.max(metrics.getMaxWalBytesPerSecond(), walBytesPerSecond));
+            }
+        } catch (SQLException | RuntimeException e) {
+            // Sampling is best effort; the migration continues at full speed without a sample
+            log.warn("Failed to sample database load for throttling: {}", e.getMessage());
+            closeConnection();
+            pressure = 0;
+        }
+        sampled = true;
+        lastSampleNanos = now;
+        long previousDelayMs = delayMs;
+        if (pressure >= SLOW_DOWN_AT) {
+            delayMs = Math.min(maxDelayMs, Math.max(MIN_DELAY_MS, delayMs * 2));
+        } else {
+            delayMs = delayMs / 2 < MIN_DELAY_MS ? 0 : delayMs / 2;
+        }
+        if ((previousDelayMs == 0) != (delayMs == 0)) {
+            log.info(delayMs > 0 ? "Slowing down data migration: database load at {}% of the limits."
+                    : "Database load back to {}% of the limits; data migration at full speed.", Math.round(pressure * 100));
+        }
+    }
+
+    private static double ratio(long value, long limit) {
+        return limit > 0 ? (double) value / limit : 0;
+    }
+
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void closeConnection() {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                log.warn("Failed to close throttle connection", e);
+            }
+            connection = null;
+        }
+    }
+}
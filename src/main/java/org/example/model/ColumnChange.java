@@ -0,0 +1,182 @@
+package org.example.model;
+
+import lombok.Getter;
+
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Model class representing one step of an expand/contract column change, declared by header directives:
+ * <pre>
+ * -- @expand orders.price TO price_cents BIGINT
+ * -- @using (price * 100)::BIGINT
+ * -- @reverse (price_cents / 100.0)::NUMERIC(10, 2)
+ * </pre>
+ * {@code @expand} adds the new column, keeps both columns in sync with a trigger and backfills the new column;
+ * {@code @switch orders.price TO price_cents} completes the new column once reads have moved to it;
+ * {@code @contract orders.price TO price_cents} drops the trigger and the old column.
+ * Without a type the change is a rename. {@code @using} derives the new value from the row and defaults to the old
+ * column cast to the new type; {@code @reverse} derives the old value and defaults to the new column for renames.
+ * A type change without {@code @reverse} only syncs from the old to the new column.
+ */
+@Getter
+public class ColumnChange {
+    private static final Pattern STEP = Pattern.compile(
+            "^--\\s*@(expand|switch|contract)\\s+(\\S+)\\.([^\\s.]+)\\s+TO\\s+(\\S+)(?:\\s+(.+?))?\\s*$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern EXPRESSION = Pattern.compile("^--\\s*@(using|reverse)\\s+(.+?)\\s*$", Pattern.CASE_INSENSITIVE);
+    private static final int MAX_IDENTIFIER_LENGTH = 63;
+
+    /**
+     * Step of an expand/contract column change. Each step is a migration of its own.
+     */
+    public enum Phase {
+        EXPAND, SWITCH, CONTRACT
+    }
+
+    private final Phase phase;
+    private final String table;
+    private final String column;
+    private final String newColumn;
+    private final String type;
+    private final String using;
+    private final String reverse;
+
+    /**
+     * Constructs a new ColumnChange.
+     *
+     * @param phase     the step
+     * @param table     the table, optionally schema-qualified
+     * @param column    the old column
+     * @param newColumn the new column
+     * @param type      the type of the new column, or null to keep the type of the old column
+     * @param using     the expression deriving the new value, or null for the default
+     * @param reverse   the expression deriving the old value, or null for the default
+     */
+    public ColumnChange(Phase phase, String table, String column, String newColumn, String type, String using, String reverse) {
+        this.phase = phase;
+        this.table = table;
+        this.column = column;
+        this.newColumn = newColumn;
+        this.type = type;
+        this.using = using;
+        this.reverse = reverse;
+    }
+
+    /**
+     * Parses the column change directives from the comment lines at the top of a migration file.
+     *
+     * @param fileName the name of the migration file
+     * @param sql      the content of the migration file
+     * @return the column change, or null if the file declares none
+     */
+    public static ColumnChange parse(String fileName, String sql) {
+        Matcher step = null;
+        String using = null;
+        String reverse = null;
+        for (String line : sql.split("\\R")) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            if (!trimmed.startsWith("--")) {
+                break;
+            }
+            Matcher stepMatcher = STEP.matcher(trimmed);
+            Matcher expressionMatcher = EXPRESSION.matcher(trimmed);
+            if (stepMatcher.matches()) {
+                if (step != null) {
+                    throw new IllegalArgumentException("More than one column change step in " + fileName);
+                }
+                step = stepMatcher;
+            } else if (expressionMatcher.matches()) {
+                if (expressionMatcher.group(1).equalsIgnoreCase("using")) {
+                    using = expressionMatcher.group(2);
+                } else {
+                    reverse = expressionMatcher.group(2);
+                }
+            }
+        }
+        if (step == null) {
+            if (using != null || reverse != null) {
+                throw new IllegalArgumentException("@using and @reverse require an @expand directive in " + fileName);
+            }
+            return null;
+        }
+        Phase phase = Phase.valueOf(step.group(1).toUpperCase(Locale.ROOT));
+        if (phase != Phase.EXPAND && (step.group(5) != null || using != null || reverse != null)) {
+            throw new IllegalArgumentException("Only @expand takes a type, @using and @reverse in " + fileName);
+        }
+        return new ColumnChange(phase, step.group(2), step.group(3), step.group(4), step.group(5), using, reverse);
+    }
+
+    /**
+     * Retrieves the expression deriving the new column from a row.
+     *
+     * @return the SQL expression over the columns of the table
+     */
+    public String forwardExpression() {
+        if (using != null) {
+            return using;
+        }
+        return type == null ? column : column + "::" + type;
+    }
+
+    /**
+     * Retrieves the expression deriving the old column from a row.
+     *
+     * @return the SQL expression over the columns of the table, or null if the old column is not synced
+     */
+    public String reverseExpression() {
+        if (reverse != null) {
+            return reverse;
+        }
+        return type == null ? newColumn : null;
+    }
+
+    /**
+     * Retrieves the name shared by the sync trigger and its function.
+     *
+     * @return the unqualified trigger name
+     */
+    public String triggerName() {
+        String relation = table.substring(table.lastIndexOf('.') + 1);
+        return identifier(relation + "_" + column + "_" + newColumn + "_sync");
+    }
+
+    /**
+     * Retrieves the name of the check constraint used to make the new column NOT NULL without a long lock.
+     *
+     * @return the constraint name
+     */
+    public String constraintName() {
+        String relation = table.substring(table.lastIndexOf('.') + 1);
+        return identifier(relation + "_" + newColumn + "_not_null");
+    }
+
+    /**
+     * Retrieves the name of the check constraint used to make the old column NOT NULL again when the switch is
+     * rolled back.
+     *
+     * @return the constraint name
+     */
+    public String rollbackConstraintName() {
+        String relation = table.substring(table.lastIndexOf('.') + 1);
+        return identifier(relation + "_" + column + "_not_null");
+    }
+
+    /**
+     * Retrieves the name of the sync function, in the schema of the table.
+     *
+     * @return the function name, qualified if the table is
+     */
+    public String functionName() {
+        int dot = table.lastIndexOf('.');
+        return dot < 0 ? triggerName() : table.substring(0, dot + 1) + triggerName();
+    }
+
+    private static String identifier(String name) {
+        String identifier = name.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9_]", "_");
+        return identifier.length() > MAX_IDENTIFIER_LENGTH ? identifier.substring(0, MAX_IDENTIFIER_LENGTH) : identifier;
+    }
+}
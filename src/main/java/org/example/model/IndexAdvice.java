@@ -0,0 +1,29 @@
+package org.example.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Model class representing an indexing problem found in the live schema by the index advisor.
+ * Advice with a migration statement can be turned into a migration file; the rest is only reported.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class IndexAdvice {
+
+    /**
+     * Kind of an indexing problem.
+     */
+    public enum Kind {
+        UNINDEXED_FOREIGN_KEY, DUPLICATE_INDEX, UNUSED_INDEX, SEQUENTIAL_SCANS
+    }
+
+    private Kind kind;
+    private String tableName;
+    private String indexName;
+    private String message;
+    private String migrationSql;
+    private String rollbackSql;
+}
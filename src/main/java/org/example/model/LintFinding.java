@@ -0,0 +1,27 @@
+package org.example.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Model class representing a performance hazard found in a migration file by the linter.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class LintFinding {
+
+    /**
+     * Severity of a finding. Findings at or above the configured blocking severity stop the migration.
+     */
+    public enum Severity {
+        OFF, WARNING, ERROR
+    }
+
+    private String fileName;
+    private int statementIndex;
+    private String ruleId;
+    private Severity severity;
+    private String message;
+}
@@ -1,10 +1,12 @@
 package org.example.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
 import java.sql.Timestamp;
+import java.util.List;
 
 /**
  * Model class representing a record of a database migration.
@@ -12,8 +14,20 @@ import java.sql.Timestamp;
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class MigrationRecord {
     private String scriptName;
     private String status;
     private Timestamp appliedAt;
+    private List<String> retries;
+    private ThrottleMetrics throttle;
+    private ProgressMetrics progress;
+
+    public MigrationRecord(String scriptName, String status, Timestamp appliedAt) {
+        this(scriptName, status, appliedAt, null, null, null);
+    }
+
+    public MigrationRecord(String scriptName, String status, Timestamp appliedAt, List<String> retries) {
+        this(scriptName, status, appliedAt, retries, null, null);
+    }
 }
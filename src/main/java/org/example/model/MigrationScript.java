@@ -0,0 +1,157 @@
+package org.example.model;
+
+import lombok.Getter;
+import org.example.util.SqlStatementSplitter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Model class representing a parsed migration file.
+ * The file is split into statements once; every consumer (lint rules, executor) works on this representation.
+ * Comment lines at the top of the file may carry directives, e.g. {@code -- @session maintenance_work_mem=2GB}.
+ * Compressed migration files are not parsed up front: a streamed script only carries the header directives
+ * and its statements are read from the file while it is executed.
+ */
+@Getter
+public class MigrationScript {
+    private static final Pattern NON_TRANSACTIONAL = Pattern.compile(
+            "^(?:(?:CREATE|DROP)\\s+(?:UNIQUE\\s+)?INDEX\\s+CONCURRENTLY\\b|REINDEX\\b.*\\bCONCURRENTLY\\b"
+                    + "|ALTER\\s+TABLE\\b.*\\bDETACH\\s+PARTITION\\b.*\\bCONCURRENTLY\\b|VACUUM\\b"
+                    + "|CREATE\\s+DATABASE\\b|DROP\\s+DATABASE\\b|ALTER\\s+SYSTEM\\b)",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern SESSION_DIRECTIVE = Pattern.compile("^--\\s*@session\\s+([^=\\s]+)\\s*=\\s*(.+?)\\s*$");
+    private static final Pattern SETTING_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*(\\.[A-Za-z_][A-Za-z0-9_]*)?");
+
+    private final String fileName;
+    private final String sql;
+    private final List<String> statements;
+    private final List<String> normalizedStatements;
+    private final Map<String, String> sessionSettings;
+    private final ColumnChange columnChange;
+    private final PartitionChange partitionChange;
+    private final boolean streamed;
+
+    /**
+     * Constructs a new MigrationScript by parsing the given SQL.
+     *
+     * @param fileName the name of the migration file
+     * @param sql      the content of the migration file
+     */
+    public MigrationScript(String fileName, String sql) {
+        this(fileName, sql, SqlStatementSplitter.split(sql), false);
+    }
+
+    private MigrationScript(String fileName, String sql, List<String> statements, boolean streamed) {
+        this.fileName = fileName;
+        this.sql = sql;
+        this.statements = Collections.unmodifiableList(statements);
+        List<String> normalized = new ArrayList<>(statements.size());
+        for (String statement : statements) {
+            normalized.add(normalize(statement));
+        }
+        this.normalizedStatements = Collections.unmodifiableList(normalized);
+        this.sessionSettings = Collections.unmodifiableMap(parseSessionSettings(fileName, sql));
+        this.columnChange = ColumnChange.parse(fileName, sql);
+        this.partitionChange = PartitionChange.parse(fileName, sql);
+        if (columnChange != null && partitionChange != null) {
+            throw new IllegalArgumentException("A column change and a partition conversion cannot share a migration: " + fileName);
+        }
+        this.streamed = streamed;
+    }
+
+    /**
+     * Creates a script whose statements are streamed from the file at execution time.
+     *
+     * @param fileName the name of the migration file
+     * @param header   the comment lines at the top of the file
+     * @return a script with the header directives and no statements
+     */
+    public static MigrationScript streamed(String fileName, String header) {
+        return new MigrationScript(fileName, header, List.of(), true);
+    }
+
+    /**
+     * Checks whether the migration can run inside a transaction block.
+     * Statements such as CREATE INDEX CONCURRENTLY or VACUUM must run with auto-commit enabled; they are recognized
+     * by their leading keywords outside of comments and literals, so e.g. REFRESH MATERIALIZED VIEW CONCURRENTLY,
+     * which may run in a transaction, does not count.
+     * Streamed scripts are not inspected and always run inside a transaction.
+     * Online schema changes commit several times and always form a transaction unit of their own.
+     *
+     * @return true if all statements can run inside a transaction
+     */
+    public boolean isTransactional() {
+        if (isOnlineChange()) {
+            return false;
+        }
+        return streamed || statements.stream().noneMatch(statement ->
+                NON_TRANSACTIONAL.matcher(SqlStatementSplitter.stripCommentsAndLiterals(statement).strip()).find());
+    }
+
+    /**
+     * Checks whether the migration is a step of an expand/contract column change or of a partition conversion,
+     * which the executor applies instead of running statements.
+     *
+     * @return true if the file declares an online schema change
+     */
+    public boolean isOnlineChange() {
+        return columnChange != null || partitionChange != null;
+    }
+
+    /**
+     * Parses the {@code -- @session name=value} directives from the comment lines at the top of the file.
+     *
+     * @param fileName the name of the migration file
+     * @param sql      the content of the migration file
+     * @return the session settings in declaration order
+     */
+    private static Map<String, String> parseSessionSettings(String fileName, String sql) {
+        Map<String, String> settings = new LinkedHashMap<>();
+        for (String line : sql.split("\\R")) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            if (!trimmed.startsWith("--")) {
+                break;
+            }
+            Matcher directive = SESSION_DIRECTIVE.matcher(trimmed);
+            if (directive.matches()) {
+                String name = directive.group(1).toLowerCase(Locale.ROOT);
+                if (!SETTING_NAME.matcher(name).matches()) {
+                    throw new IllegalArgumentException("Invalid session setting name in " + fileName + ": " + name);
+                }
+                settings.put(name, unquote(directive.group(2)));
+            }
+        }
+        return settings;
+    }
+
+    private static String unquote(String value) {
+        if (value.length() >= 2 && value.startsWith("'") && value.endsWith("'")) {
+            return value.substring(1, value.length() - 1).replace("''", "'");
+        }
+        return value;
+    }
+
+    /**
+     * Normalizes a statement for pattern matching: comments are removed, whitespace is collapsed
+     * and the text is upper-cased.
+     *
+     * @param statement the statement
+     * @return the normalized statement
+     */
+    private static String normalize(String statement) {
+        String withoutComments = statement
+                .replaceAll("(?s)/\\*.*?\\*/", " ")
+                .replaceAll("--[^\\n]*", " ");
+        return withoutComments.replaceAll("\\s+", " ").trim().toUpperCase(Locale.ROOT);
+    }
+}
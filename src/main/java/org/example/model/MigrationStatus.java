@@ -0,0 +1,22 @@
+package org.example.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * Model class representing the migration status served by the migration daemon.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class MigrationStatus {
+    private int currentVersion;
+    private List<String> appliedMigrations;
+    private List<String> pendingMigrations;
+    private boolean locked;
+    private Timestamp lockChangedAt;
+}
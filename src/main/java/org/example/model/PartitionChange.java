@@ -0,0 +1,179 @@
+package org.example.model;
+
+import lombok.Getter;
+
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Model class representing one step of an online conversion of a table to range partitioning, declared by a
+ * header directive:
+ * <pre>
+ * -- @partition orders BY RANGE (created_at) EVERY month
+ * -- @partition-swap orders
+ * </pre>
+ * The first step creates the partitioned shadow table, keeps it in sync and copies the existing rows;
+ * the second swaps the shadow table in. Time keys are partitioned by day, week, month or year, integer keys by
+ * a fixed number of key values, e.g. {@code EVERY 1000000}.
+ */
+@Getter
+public class PartitionChange {
+    private static final Pattern CONVERT = Pattern.compile(
+            "^--\\s*@partition\\s+(\\S+)\\s+BY\\s+RANGE\\s*\\(\\s*([^\\s)]+)\\s*\\)\\s+EVERY\\s+(day|week|month|year|\\d+)\\s*$",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern SWAP = Pattern.compile("^--\\s*@partition-swap\\s+(\\S+)\\s*$", Pattern.CASE_INSENSITIVE);
+    private static final int MAX_IDENTIFIER_LENGTH = 63;
+
+    /**
+     * Step of a partition conversion. Each step is a migration of its own.
+     */
+    public enum Phase {
+        CONVERT, SWAP
+    }
+
+    private final Phase phase;
+    private final String table;
+    private final String partitionKey;
+    private final String interval;
+
+    /**
+     * Constructs a new PartitionChange.
+     *
+     * @param phase        the step
+     * @param table        the table, optionally schema-qualified
+     * @param partitionKey the partition key column, or null for the swap
+     * @param interval     day, week, month, year or a number of key values, or null for the swap
+     */
+    public PartitionChange(Phase phase, String table, String partitionKey, String interval) {
+        this.phase = phase;
+        this.table = table;
+        this.partitionKey = partitionKey;
+        this.interval = interval;
+    }
+
+    /**
+     * Parses the partition directive from the comment lines at the top of a migration file.
+     *
+     * @param fileName the name of the migration file
+     * @param sql      the content of the migration file
+     * @return the partition change, or null if the file declares none
+     */
+    public static PartitionChange parse(String fileName, String sql) {
+        PartitionChange change = null;
+        for (String line : sql.split("\\R")) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            if (!trimmed.startsWith("--")) {
+                break;
+            }
+            Matcher convert = CONVERT.matcher(trimmed);
+            Matcher swap = SWAP.matcher(trimmed);
+            PartitionChange parsed = null;
+            if (convert.matches()) {
+                parsed = new PartitionChange(Phase.CONVERT, convert.group(1), convert.group(2), convert.group(3).toLowerCase(Locale.ROOT));
+            } else if (swap.matches()) {
+                parsed = new PartitionChange(Phase.SWAP, swap.group(1), null, null);
+            } else if (trimmed.matches("^--\\s*@partition\\b.*")) {
+                throw new IllegalArgumentException("Invalid partition directive in " + fileName + ": " + trimmed);
+            }
+            if (parsed != null) {
+                if (change != null) {
+                    throw new IllegalArgumentException("More than one partition directive in " + fileName);
+                }
+                change = parsed;
+            }
+        }
+        return change;
+    }
+
+    /**
+     * Checks whether the partitions cover a time range rather than a range of integer keys.
+     *
+     * @return true for day, week, month or year partitions
+     */
+    public boolean isTimeInterval() {
+        return !Character.isDigit(interval.charAt(0));
+    }
+
+    /**
+     * Retrieves the name of the partitioned shadow table, in the schema of the table.
+     *
+     * @return the shadow table name, qualified if the table is
+     */
+    public String shadowTable() {
+        return qualified(relation() + "_partitioned");
+    }
+
+    /**
+     * Retrieves the name the original table is renamed to by the swap.
+     *
+     * @return the unqualified name of the original table after the swap
+     */
+    public String retiredTableName() {
+        return identifier(relation() + "_unpartitioned");
+    }
+
+    /**
+     * Retrieves the name shared by the sync trigger and its function.
+     *
+     * @return the unqualified trigger name
+     */
+    public String triggerName() {
+        return identifier(relation() + "_partition_sync");
+    }
+
+    /**
+     * Retrieves the name of the sync function, in the schema of the table.
+     *
+     * @return the function name, qualified if the table is
+     */
+    public String functionName() {
+        return qualified(triggerName());
+    }
+
+    /**
+     * Retrieves the name of the partition starting at a bound.
+     *
+     * @param lowerBound the lower bound of the partition as text
+     * @return the partition name, qualified if the table is
+     */
+    public String partitionName(String lowerBound) {
+        String suffix = isTimeInterval() ? lowerBound.substring(0, 10).replace("-", "") : lowerBound.replace("-", "m");
+        return qualified(identifier(relation() + "_p" + suffix));
+    }
+
+    /**
+     * Retrieves the name of the default partition, which takes rows outside the created partitions.
+     *
+     * @return the default partition name, qualified if the table is
+     */
+    public String defaultPartitionName() {
+        return qualified(identifier(relation() + "_default"));
+    }
+
+    /**
+     * Retrieves the name of the backfill job copying the rows, shared by both steps.
+     *
+     * @return the job name
+     */
+    public String copyJobName() {
+        return "partition " + table;
+    }
+
+    private String relation() {
+        return table.substring(table.lastIndexOf('.') + 1);
+    }
+
+    private String qualified(String name) {
+        int dot = table.lastIndexOf('.');
+        return dot < 0 ? name : table.substring(0, dot + 1) + name;
+    }
+
+    private static String identifier(String name) {
+        String identifier = name.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9_]", "_");
+        return identifier.length() > MAX_IDENTIFIER_LENGTH ? identifier.substring(0, MAX_IDENTIFIER_LENGTH) : identifier;
+    }
+}
@@ -0,0 +1,21 @@
+package org.example.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+
+/**
+ * Model class representing the progress of a long-running migration as last sampled by the progress monitor.
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ProgressMetrics {
+    private long samples;
+    private String command;
+    private String phase;
+    private String unit;
+    private long done;
+    private long total;
+    private long ratePerSecond;
+    private long maxRatePerSecond;
+    private Long historicalMs;
+}
@@ -0,0 +1,18 @@
+package org.example.model;
+
+import lombok.Data;
+
+/**
+ * Model class representing the decisions of the throttle controller during a data migration.
+ */
+@Data
+public class ThrottleMetrics {
+    private long samples;
+    private long pauses;
+    private long pausedMs;
+    private long delayedBatches;
+    private long delayedMs;
+    private long maxReplicationLagMs;
+    private long maxActiveSessions;
+    private long maxWalBytesPerSecond;
+}
@@ -0,0 +1,27 @@
+package org.example.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+/**
+ * Model class representing a complete event ("ph": "X") of the Chrome trace event format.
+ * Timestamps and durations are in microseconds.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TraceEvent {
+    private String name;
+    private String cat;
+    private String ph;
+    private long ts;
+    private long dur;
+    private long pid;
+    private long tid;
+    private Map<String, String> args;
+}
@@ -0,0 +1,483 @@
+package org.example.service;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.example.util.PropertiesUtils;
+import org.example.util.SqlStatementSplitter;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Service class for capturing and restoring before-images of rows changed by data migrations.
+ * Before an UPDATE or DELETE runs, the rows it is about to change are copied into migration_before_image,
+ * packed as JSONB arrays of up to migration.data.before-image.batch-size rows per side-table row.
+ * Rolling back deletes the rows a captured statement touched and re-inserts their before-images, one set-based
+ * statement each per captured statement. Only single-table statements that keep the primary key of the rows are
+ * captured, so the touched rows are found by the captured keys; anything else is rejected before the migration runs.
+ */
+@Slf4j
+public class BeforeImageService {
+    private static final String IDENTIFIER = "((?:\"[^\"]+\"|[\\w$]+)(?:\\.(?:\"[^\"]+\"|[\\w$]+))?)";
+    private static final Pattern UPDATE_HEAD = Pattern.compile(
+            "^UPDATE\\s+(?:ONLY\\s+)?" + IDENTIFIER + "(?:\\s+(?:AS\\s+)?(?!SET\\b)([\\w$]+))?\\s+SET\\s",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern DELETE_HEAD = Pattern.compile(
+            "^DELETE\\s+FROM\\s+(?:ONLY\\s+)?" + IDENTIFIER + "(?:\\s+(?:AS\\s+)?(?!WHERE\\b|USING\\b|RETURNING\\b)([\\w$]+))?(?=\\s|$)",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern DATA_MODIFYING_WITH = Pattern.compile("[()]\\s*(UPDATE|DELETE)\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern ASSIGNED_COLUMN = Pattern.compile("^(\"(?:[^\"]|\"\")+\"|[\\w$]+)");
+
+    private static final String SELECT_PRIMARY_KEY = """
+            SELECT a.attname
+            FROM pg_index i
+            JOIN pg_attribute a ON a.attrelid = i.indrelid AND a.attnum = ANY(i.indkey)
+            WHERE i.indrelid = ?::regclass AND i.indisprimary
+            """;
+    private static final String SELECT_COLUMNS = """
+            SELECT a.attname
+            FROM pg_attribute a
+            WHERE a.attrelid = ?::regclass AND a.attnum > 0 AND NOT a.attisdropped AND a.attgenerated = ''
+            ORDER BY a.attnum
+            """;
+    private static final String SELECT_BLOCKING_REFERENCES = """
+            SELECT conname
+            FROM pg_constraint
+            WHERE contype = 'f' AND confrelid = ?::regclass AND NOT (confdeltype = 'a' AND condeferrable)
+            """;
+
+    private final boolean enabled = Boolean.parseBoolean(PropertiesUtils.getProperty("migration.data.before-image.enabled", "false"));
+    private final int batchSize = PropertiesUtils.getIntProperty("migration.data.before-image.batch-size", 1000);
+
+    /**
+     * Checks whether before-image capture is enabled.
+     *
+     * @return true if UPDATE and DELETE statements are captured before they run
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Checks whether a statement changes existing rows and therefore needs a before-image.
+     * A WITH statement needs one if its main statement or one of its common table expressions is an UPDATE or
+     * DELETE; such statements cannot be captured and are rejected by {@link #parseTarget(String)}.
+     * Locking clauses such as SELECT ... FOR UPDATE do not change rows.
+     *
+     * @param statement the SQL statement
+     * @return true if the statement is an UPDATE or DELETE, or a WITH statement changing rows
+     */
+    public boolean requiresCapture(String statement) {
+        String keyword = firstKeyword(statement);
+        return keyword.equals("UPDATE") || keyword.equals("DELETE")
+                || (keyword.equals("WITH") && DATA_MODIFYING_WITH.matcher(SqlStatementSplitter.stripCommentsAndLiterals(statement)).find());
+    }
+
+    /**
+     * Checks that all statements of a migration that need a before-image can be captured, before any of them runs.
+     *
+     * @param statements the statements of the migration
+     * @throws IllegalStateException naming the first statement that cannot be captured
+     */
+    public void validate(List<String> statements) {
+        for (String statement : statements) {
+            if (requiresCapture(statement)) {
+                parseTarget(statement);
+            }
+        }
+    }
+
+    /**
+     * Captures the rows the given UPDATE or DELETE statement is about to change.
+     * Must be called in the same transaction, right before the statement is executed.
+     *
+     * @param connection     the database connection
+     * @param version        the version of the migration
+     * @param statementIndex the position of the statement within the migration
+     * @param statement      the UPDATE or DELETE statement
+     * @throws SQLException if the capture fails
+     */
+    public void capture(Connection connection, int version, int statementIndex, String statement) throws SQLException {
+        TargetRows target = parseTarget(statement);
+        List<String> primaryKey = findPrimaryKey(connection, target.table);
+        if (primaryKey.isEmpty()) {
+            throw new IllegalStateException("Cannot capture before-image of table without primary key: " + target.table);
+        }
+        if (target.update) {
+            checkRestorable(connection, target, primaryKey, statement);
+        }
+        String rowReference = target.alias != null ? target.alias : unqualified(target.table);
+        String captureSql = "INSERT INTO migration_before_image (version, statement_index, table_name, batch_no, row_count, rows) " +
+                "SELECT ?, ?, ?, batch_no, count(*), jsonb_agg(row_data) " +
+                "FROM (SELECT to_jsonb(" + rowReference + ") AS row_data, (row_number() OVER () - 1) / ? AS batch_no " +
+                "FROM " + target.table + (target.alias != null ? " " + target.alias : "") +
+                (target.where != null ? " WHERE " + target.where : "") + ") captured " +
+                "GROUP BY batch_no";
+        try (PreparedStatement pstmt = connection.prepareStatement(captureSql)) {
+            pstmt.setInt(1, version);
+            pstmt.setInt(2, statementIndex);
+            pstmt.setString(3, target.table);
+            pstmt.setInt(4, batchSize);
+            int batches = pstmt.executeUpdate();
+            log.info("Captured before-image of {} for migration version {} in {} batch(es)", target.table, version, batches);
+        }
+    }
+
+    /**
+     * Checks whether before-images were captured for a migration version.
+     *
+     * @param connection the database connection
+     * @param version    the version of the migration
+     * @return true if the migration can be rolled back from before-images
+     */
+    public boolean hasBeforeImages(Connection connection, int version) {
+        try (PreparedStatement pstmt = connection.prepareStatement("SELECT 1 FROM migration_before_image WHERE version = ? LIMIT 1")) {
+            pstmt.setInt(1, version);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next();
+            }
+        } catch (SQLException e) {
+            log.error("Failed to look up before-images of version " + version, e);
+            throw new RuntimeException("Critical error while looking up before-images of version " + version, e);
+        }
+    }
+
+    /**
+     * Restores the rows captured for a migration version.
+     * Statements are restored in reverse order: the rows with the captured primary keys are deleted and the
+     * before-images are re-inserted with OVERRIDING SYSTEM VALUE, so identity columns get their captured values too.
+     * Foreign keys are deferred for the rest of the transaction, so rows referencing the restored rows survive.
+     * The before-images are kept until the version is archived, see {@link #prune(Connection, int)}.
+     *
+     * @param connection the database connection
+     * @param version    the version of the migration
+     * @throws SQLException if the restore fails
+     */
+    public void restore(Connection connection, int version) throws SQLException {
+        List<String[]> capturedStatements = new ArrayList<>();
+        try (PreparedStatement pstmt = connection.prepareStatement(
+                "SELECT DISTINCT statement_index, table_name FROM migration_before_image WHERE version = ? ORDER BY statement_index DESC")) {
+            pstmt.setInt(1, version);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    capturedStatements.add(new String[]{rs.getString("statement_index"), rs.getString("table_name")});
+                }
+            }
+        }
+        if (!capturedStatements.isEmpty()) {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("SET CONSTRAINTS ALL DEFERRED");
+            }
+        }
+        for (String[] captured : capturedStatements) {
+            String table = captured[1];
+            int statementIndex = Integer.parseInt(captured[0]);
+            List<String> primaryKey = findPrimaryKey(connection, table);
+            List<String> columns = findColumns(connection, table);
+            String capturedRows = "FROM migration_before_image b " +
+                    "CROSS JOIN LATERAL jsonb_populate_recordset(NULL::" + table + ", b.rows) r " +
+                    "WHERE b.version = ? AND b.statement_index = ?";
+            String deleteSql = "DELETE FROM " + table + " WHERE (" + String.join(", ", primaryKey) + ") IN " +
+                    "(SELECT " + prefixed(primaryKey) + " " + capturedRows + ")";
+            String insertSql = "INSERT INTO " + table + " (" + String.join(", ", columns) + ") OVERRIDING SYSTEM VALUE " +
+                    "SELECT " + prefixed(columns) + " " + capturedRows;
+            int deleted = executeRestoreStep(connection, deleteSql, version, statementIndex);
+            int restored = executeRestoreStep(connection, insertSql, version, statementIndex);
+            log.info("Restored {} row(s) of {} from before-image of version {}, replacing {} changed row(s)",
+                    restored, table, version, deleted);
+        }
+    }
+
+    /**
+     * Removes the before-images of a migration version once its history record has been archived,
+     * whether or not they were restored.
+     *
+     * @param connection the database connection
+     * @param version    the version of the migration
+     * @throws SQLException if the delete fails
+     */
+    public void prune(Connection connection, int version) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement("DELETE FROM migration_before_image WHERE version = ?")) {
+            pstmt.setInt(1, version);
+            int pruned = pstmt.executeUpdate();
+            if (pruned > 0) {
+                log.info("Pruned {} before-image batch(es) of archived version {}", pruned, version);
+            }
+        }
+    }
+
+    /**
+     * Removes the before-images of a table captured up to a contract step, which dropped a column of the table with
+     * its data; the captured rows no longer match the table and the versions before the contract cannot be restored.
+     *
+     * @param connection the database connection
+     * @param table      the contracted table
+     * @param version    the version of the contract step
+     * @throws SQLException if the delete fails
+     */
+    public void pruneTable(Connection connection, String table, int version) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement(
+                "DELETE FROM migration_before_image WHERE version <= ? AND to_regclass(table_name) = to_regclass(?)")) {
+            pstmt.setInt(1, version);
+            pstmt.setString(2, table);
+            int pruned = pstmt.executeUpdate();
+            if (pruned > 0) {
+                log.info("Pruned {} before-image batch(es) of {} up to contracted version {}", pruned, table, version);
+            }
+        }
+    }
+
+    /**
+     * Parses the target table, alias, assigned columns and condition of an UPDATE or DELETE statement.
+     * Clauses are found at the top level of the statement only, so subqueries, string literals and quoted
+     * identifiers containing WHERE, FROM or USING do not end the clause they appear in.
+     *
+     * @param statement the statement
+     * @return the rows targeted by the statement
+     * @throws IllegalStateException if the statement is not a single-table UPDATE or DELETE
+     */
+    public static TargetRows parseTarget(String statement) {
+        String sql = SqlStatementSplitter.stripLeadingComments(statement).trim();
+        Matcher update = UPDATE_HEAD.matcher(sql);
+        Matcher delete = DELETE_HEAD.matcher(sql);
+        boolean isUpdate = update.find();
+        Matcher head = isUpdate ? update : delete;
+        if (!isUpdate && !delete.find()) {
+            throw unsupported(statement);
+        }
+        String body = sql.substring(head.end());
+        int where = findTopLevelKeyword(body, "WHERE");
+        int returning = findTopLevelKeyword(body, "RETURNING");
+        int end = returning >= 0 ? returning : body.length();
+        String beforeWhere = body.substring(0, where >= 0 && where < end ? where : end);
+        if (isUpdate ? findTopLevelKeyword(beforeWhere, "FROM") >= 0 : !beforeWhere.isBlank()) {
+            throw unsupported(statement);
+        }
+        String condition = where >= 0 && where < end ? body.substring(where + "WHERE".length(), end).trim() : null;
+        if (condition != null && condition.regionMatches(true, 0, "CURRENT OF", 0, "CURRENT OF".length())) {
+            throw unsupported(statement);
+        }
+        List<String> assignedColumns = new ArrayList<>();
+        if (isUpdate) {
+            for (String assignment : splitTopLevel(beforeWhere)) {
+                String target = assignment.trim();
+                if (target.startsWith("(")) {
+                    int close = target.indexOf(')');
+                    for (String column : target.substring(1, close < 0 ? target.length() : close).split(",")) {
+                        assignedColumns.add(columnName(column.trim(), statement));
+                    }
+                } else {
+                    assignedColumns.add(columnName(target, statement));
+                }
+            }
+        }
+        return new TargetRows(head.group(1), head.group(2), condition, isUpdate, assignedColumns);
+    }
+
+    /**
+     * Rejects an UPDATE whose rows cannot be restored by deleting and re-inserting them: the touched rows are found
+     * by the captured primary keys, so the statement must not change them, and the delete must neither be blocked
+     * nor cascade through foreign keys referencing the table.
+     *
+     * @param connection the database connection
+     * @param target     the parsed UPDATE
+     * @param primaryKey the quoted primary key columns of the table
+     * @param statement  the statement, for the error message
+     * @throws SQLException if the catalog lookup fails
+     */
+    private void checkRestorable(Connection connection, TargetRows target, List<String> primaryKey, String statement) throws SQLException {
+        for (String column : target.assignedColumns) {
+            if (primaryKey.contains(column)) {
+                throw new IllegalStateException("Cannot capture before-image of an UPDATE that changes primary key column " +
+                        column + " of " + target.table + ": " + statement);
+            }
+        }
+        List<String> references = queryNames(connection, SELECT_BLOCKING_REFERENCES, target.table);
+        if (!references.isEmpty()) {
+            throw new IllegalStateException("Cannot capture before-image of " + target.table + ": restoring it deletes and " +
+                    "re-inserts rows, which foreign keys " + String.join(", ", references) + " would block or cascade; " +
+                    "only DEFERRABLE foreign keys with ON DELETE NO ACTION may reference it");
+        }
+    }
+
+    private int executeRestoreStep(Connection connection, String sql, int version, int statementIndex) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            pstmt.setInt(1, version);
+            pstmt.setInt(2, statementIndex);
+            return pstmt.executeUpdate();
+        }
+    }
+
+    private static String prefixed(List<String> columns) {
+        List<String> selectList = new ArrayList<>();
+        for (String column : columns) {
+            selectList.add("r." + column);
+        }
+        return String.join(", ", selectList);
+    }
+
+    /**
+     * Extracts the column an assignment of a SET clause writes to, without subscripts or field names.
+     *
+     * @param assignment the assignment, starting with the column
+     * @param statement  the statement, for the error message
+     * @return the quoted column name as stored in the catalog
+     */
+    private static String columnName(String assignment, String statement) {
+        Matcher matcher = ASSIGNED_COLUMN.matcher(assignment);
+        if (!matcher.find()) {
+            throw unsupported(statement);
+        }
+        String name = matcher.group(1);
+        return name.startsWith("\"")
+                ? quoteIdentifier(name.substring(1, name.length() - 1).replace("\"\"", "\""))
+                : quoteIdentifier(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Splits SQL text on commas outside of parentheses, string literals and quoted identifiers.
+     *
+     * @param sql the SQL text
+     * @return the comma-separated parts
+     */
+    private static List<String> splitTopLevel(String sql) {
+        List<String> parts = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            char ch = sql.charAt(i);
+            if (ch == '\'' || ch == '"') {
+                int close = sql.indexOf(ch, i + 1);
+                while (close >= 0 && close + 1 < sql.length() && sql.charAt(close + 1) == ch) {
+                    close = sql.indexOf(ch, close + 2);
+                }
+                if (close < 0) {
+                    break;
+                }
+                i = close;
+            } else if (ch == '(') {
+                depth++;
+            } else if (ch == ')') {
+                depth--;
+            } else if (ch == ',' && depth == 0) {
+                parts.add(sql.substring(start, i));
+                start = i + 1;
+            }
+        }
+        parts.add(sql.substring(start));
+        return parts;
+    }
+
+    /**
+     * Finds a keyword outside of parentheses, string literals and quoted identifiers.
+     *
+     * @param sql     the SQL text
+     * @param keyword the upper-case keyword
+     * @return the position of the keyword, or -1 if it does not occur at the top level
+     */
+    private static int findTopLevelKeyword(String sql, String keyword) {
+        int depth = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            char ch = sql.charAt(i);
+            if (ch == '\'' || ch == '"') {
+                int close = sql.indexOf(ch, i + 1);
+                while (close >= 0 && close + 1 < sql.length() && sql.charAt(close + 1) == ch) {
+                    close = sql.indexOf(ch, close + 2);
+                }
+                if (close < 0) {
+                    return -1;
+                }
+                i = close;
+            } else if (ch == '(') {
+                depth++;
+            } else if (ch == ')') {
+                depth--;
+            } else if (depth == 0 && sql.regionMatches(true, i, keyword, 0, keyword.length())
+                    && (i == 0 || !isIdentifierPart(sql.charAt(i - 1)))
+                    && (i + keyword.length() == sql.length() || !isIdentifierPart(sql.charAt(i + keyword.length())))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isIdentifierPart(char ch) {
+        return Character.isLetterOrDigit(ch) || ch == '_' || ch == '$' || ch == '.' || ch == '"';
+    }
+
+    private static IllegalStateException unsupported(String statement) {
+        return new IllegalStateException("Before-image capture supports single-table UPDATE and DELETE statements only " +
+                "(no UPDATE ... FROM, DELETE ... USING, WHERE CURRENT OF or data-modifying WITH); rewrite the statement " +
+                "or disable migration.data.before-image.enabled: " + statement);
+    }
+
+    private List<String> findPrimaryKey(Connection connection, String table) throws SQLException {
+        return queryNames(connection, SELECT_PRIMARY_KEY, table);
+    }
+
+    private List<String> findColumns(Connection connection, String table) throws SQLException {
+        return queryNames(connection, SELECT_COLUMNS, table);
+    }
+
+    private List<String> queryNames(Connection connection, String sql, String table) throws SQLException {
+        List<String> names = new ArrayList<>();
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            pstmt.setString(1, table);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    names.add(quoteIdentifier(rs.getString(1)));
+                }
+            }
+        }
+        return names;
+    }
+
+    private static String quoteIdentifier(String name) {
+        return "\"" + name.replace("\"", "\"\"") + "\"";
+    }
+
+    private static String unqualified(String table) {
+        if (table.endsWith("\"")) {
+            return table.substring(table.lastIndexOf('"', table.length() - 2));
+        }
+        int dot = table.lastIndexOf('.');
+        return dot < 0 ? table : table.substring(dot + 1);
+    }
+
+    private static String firstKeyword(String statement) {
+        String sql = SqlStatementSplitter.stripLeadingComments(statement);
+        int end = 0;
+        while (end < sql.length() && Character.isLetter(sql.charAt(end))) {
+            end++;
+        }
+        return sql.substring(0, end).toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * The table, alias, assigned columns and condition targeted by an UPDATE or DELETE statement.
+     */
+    @Getter
+    public static class TargetRows {
+        private final String table;
+        private final String alias;
+        private final String where;
+        private final boolean update;
+        private final List<String> assignedColumns;
+
+        TargetRows(String table, String alias, String where, boolean update, List<String> assignedColumns) {
+            this.table = table;
+            this.alias = alias;
+            this.where = where;
+            this.update = update;
+            this.assignedColumns = assignedColumns;
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package org.example.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.migration.JavaMigrationRegistry;
+import org.example.model.IndexAdvice;
+import org.example.util.ConnectionManager;
+import org.example.util.MigrationFileReader;
+import org.example.util.PropertiesUtils;
+import org.example.util.paths.MigrationPaths;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Service class for finding indexing problems in the live schema and proposing migrations for them.
+ * The catalog and the statistics views are read with one bulk query per kind of problem:
+ * foreign keys without an index on their columns, indexes duplicating another index, indexes never scanned
+ * and tables read mostly by large sequential scans. Missing foreign key indexes and duplicate indexes are turned
+ * into CREATE INDEX CONCURRENTLY and DROP INDEX CONCURRENTLY migration files with the next free version numbers,
+ * ready for review; unused indexes and sequential scans depend on the workload and are only reported.
+ */
+@Slf4j
+public class IndexAdvisor {
+    private static final int MAX_IDENTIFIER_LENGTH = 63;
+    private static final String USER_SCHEMAS = """
+            n.nspname NOT IN ('pg_catalog', 'information_schema')
+            AND n.nspname NOT LIKE 'pg\\_toast%' AND n.nspname NOT LIKE 'pg\\_temp%'
+            """;
+    private static final String UNINDEXED_FOREIGN_KEYS = """
+            SELECT quote_ident(n.nspname) || '.' || quote_ident(c.relname), c.relname, co.conname,
+                   string_agg(quote_ident(a.attname), ', ' ORDER BY k.ord), string_agg(a.attname, '_' ORDER BY k.ord)
+            FROM pg_constraint co
+            JOIN pg_class c ON c.oid = co.conrelid
+            JOIN pg_namespace n ON n.oid = c.relnamespace
+            CROSS JOIN LATERAL unnest(co.conkey) WITH ORDINALITY AS k(attnum, ord)
+            JOIN pg_attribute a ON a.attrelid = co.conrelid AND a.attnum = k.attnum
+            WHERE co.contype = 'f' AND
+            """ + USER_SCHEMAS + """
+              AND NOT EXISTS (
+                  SELECT 1 FROM pg_index i
+                  WHERE i.indrelid = co.conrelid AND i.indpred IS NULL
+                    AND (i.indkey::int2[])[0:array_length(co.conkey, 1) - 1] @> co.conkey)
+            GROUP BY n.nspname, c.relname, co.conname
+            ORDER BY 1, 3
+            """;
+    private static final String DUPLICATE_INDEXES = """
+            WITH indexes AS (
+                SELECT quote_ident(n.nspname) || '.' || quote_ident(c.relname) AS table_name,
+                       quote_ident(n.nspname) || '.' || quote_ident(ic.relname) AS index_name,
+                       pg_get_indexdef(i.indexrelid) AS definition,
+                       co.oid IS NOT NULL AS constraint_backed,
+                       row_number() OVER w AS rank,
+                       first_value(quote_ident(n.nspname) || '.' || quote_ident(ic.relname)) OVER w AS kept_index
+                FROM pg_index i
+                JOIN pg_class c ON c.oid = i.indrelid
+                JOIN pg_namespace n ON n.oid = c.relnamespace
+                JOIN pg_class ic ON ic.oid = i.indexrelid
+                LEFT JOIN pg_constraint co ON co.conindid = i.indexrelid AND co.contype IN ('p', 'u', 'x')
+                WHERE
+            """ + USER_SCHEMAS + """
+                WINDOW w AS (PARTITION BY i.indrelid, i.indkey::text, i.indclass::text, i.indcollation::text,
+                                          coalesce(pg_get_expr(i.indexprs, i.indrelid), ''),
+                                          coalesce(pg_get_expr(i.indpred, i.indrelid), '')
+                             ORDER BY co.oid IS NULL, i.indisunique DESC, ic.relname)
+            )
+            SELECT table_name, index_name, definition, kept_index
+            FROM indexes
+            WHERE rank > 1 AND NOT constraint_backed
+            ORDER BY 1, 2
+            """;
+    private static final String UNUSED_INDEXES = """
+            SELECT quote_ident(s.schemaname) || '.' || quote_ident(s.relname),
+                   quote_ident(s.schemaname) || '.' || quote_ident(s.indexrelname),
+                   pg_relation_size(s.indexrelid)
+            FROM pg_stat_user_indexes s
+            JOIN pg_index i ON i.indexrelid = s.indexrelid
+            WHERE s.idx_scan = 0 AND NOT i.indisunique AND NOT i.indisprimary
+              AND pg_relation_size(s.indexrelid) >= ?
+              AND NOT EXISTS (
+                  SELECT 1 FROM pg_constraint fk
+                  WHERE fk.contype = 'f' AND fk.conrelid = i.indrelid
+                    AND (i.indkey::int2[])[0:array_length(fk.conkey, 1) - 1] @> fk.conkey)
+            ORDER BY 3 DESC
+            """;
+    private static final String SEQUENTIAL_SCANS = """
+            SELECT quote_ident(schemaname) || '.' || quote_ident(relname), seq_scan, seq_tup_read,
+                   coalesce(idx_scan, 0), n_live_tup
+            FROM pg_stat_user_tables
+            WHERE seq_scan >= ? AND seq_tup_read / greatest(seq_scan, 1) >= ?
+            ORDER BY seq_tup_read DESC
+            """;
+
+    private final long minSequentialScans = PropertiesUtils.getIntProperty("migration.advise.seq-scan.min-scans", 1000);
+    private final long minRowsPerSequentialScan = PropertiesUtils.getIntProperty("migration.advise.seq-scan.min-rows-per-scan", 10000);
+    private final long minUnusedIndexBytes = PropertiesUtils.getIntProperty("migration.advise.unused.min-bytes", 1048576);
+
+    /**
+     * Analyzes the live schema, logs the advice and writes migration files for the advice that has a migration.
+     *
+     * @return the names of the written migration files, without their rollback files
+     */
+    public List<String> advise() {
+        try (Connection connection = ConnectionManager.getConnection()) {
+            List<IndexAdvice> advice = analyze(connection);
+            logAdvice(advice);
+            Map<String, String> files = migrationFiles(advice, nextVersion(connection));
+            List<String> written = new ArrayList<>();
+            for (Map.Entry<String, String> file : files.entrySet()) {
+                Path path = Paths.get(MigrationPaths.MIGRATION_DIRECTORY, file.getKey());
+                Files.writeString(path, file.getValue());
+                if (MigrationFileReader.isMigrationFileName(file.getKey())) {
+                    written.add(file.getKey());
+                    log.info("Generated migration file for review: {}", path);
+                }
+            }
+            log.info("Index advice: {} finding(s), {} migration file(s) generated.", advice.size(), written.size());
+            return written;
+        } catch (SQLException | IOException e) {
+            log.error("Error while generating index advice", e);
+            throw new RuntimeException("Critical error while generating index advice", e);
+        }
+    }
+
+    /**
+     * Reads the catalog and the statistics views and collects the indexing problems.
+     *
+     * @param connection the database connection
+     * @return the advice, grouped by kind
+     * @throws SQLException if a query fails
+     */
+    public List<IndexAdvice> analyze(Connection connection) throws SQLException {
+        List<IndexAdvice> advice = new ArrayList<>();
+        try (PreparedStatement pstmt = connection.prepareStatement(UNINDEXED_FOREIGN_KEYS);
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                advice.add(unindexedForeignKey(rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getString(5)));
+            }
+        }
+        try (PreparedStatement pstmt = connection.prepareStatement(DUPLICATE_INDEXES);
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                String indexName = rs.getString(2);
+                advice.add(new IndexAdvice(IndexAdvice.Kind.DUPLICATE_INDEX, rs.getString(1), indexName,
+                        "Index " + indexName + " duplicates " + rs.getString(4) + " and only slows down writes.",
+                        "DROP INDEX CONCURRENTLY IF EXISTS " + indexName + ";\n", rs.getString(3) + ";\n"));
+            }
+        }
+        try (PreparedStatement pstmt = connection.prepareStatement(UNUSED_INDEXES)) {
+            pstmt.setLong(1, minUnusedIndexBytes);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    advice.add(new IndexAdvice(IndexAdvice.Kind.UNUSED_INDEX, rs.getString(1), rs.getString(2),
+                            String.format("Index %s (%d bytes) was not scanned since the statistics were reset. " +
+                                    "Check replicas and rare jobs before dropping it.", rs.getString(2), rs.getLong(3)),
+                            null, null));
+                }
+            }
+        }
+        try (PreparedStatement pstmt = connection.prepareStatement(SEQUENTIAL_SCANS)) {
+            pstmt.setLong(1, minSequentialScans);
+            pstmt.setLong(2, minRowsPerSequentialScan);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    advice.add(new IndexAdvice(IndexAdvice.Kind.SEQUENTIAL_SCANS, rs.getString(1), null,
+                            String.format("%d sequential scans read %d rows (%d index scans, %d live rows). " +
+                                            "Look up the filtering columns of its queries in pg_stat_statements.",
+                                    rs.getLong(2), rs.getLong(3), rs.getLong(4), rs.getLong(5)),
+                            null, null));
+                }
+            }
+        }
+        return advice;
+    }
+
+    /**
+     * Builds the advice for a foreign key without a supporting index.
+     *
+     * @param tableName      the qualified, quoted table name
+     * @param relationName   the unquoted table name
+     * @param constraintName the name of the foreign key constraint
+     * @param columns        the quoted foreign key columns, comma-separated
+     * @param columnNames    the unquoted foreign key columns, joined by underscores
+     * @return the advice with its migration
+     */
+    public static IndexAdvice unindexedForeignKey(String tableName, String relationName, String constraintName,
+                                                  String columns, String columnNames) {
+        String indexName = indexName(relationName, columnNames);
+        String schema = tableName.substring(0, tableName.lastIndexOf('.') + 1);
+        return new IndexAdvice(IndexAdvice.Kind.UNINDEXED_FOREIGN_KEY, tableName, indexName,
+                "Foreign key " + constraintName + " on " + tableName + " (" + columns + ") has no index; " +
+                        "deletes and key updates on the referenced table scan " + tableName + ".",
+                "CREATE INDEX CONCURRENTLY IF NOT EXISTS " + indexName + "\n    ON " + tableName + " (" + columns + ");\n",
+                "DROP INDEX IF EXISTS " + schema + indexName + ";\n");
+    }
+
+    /**
+     * Builds the migration and rollback files for the advice that has a migration, one migration per index,
+     * because concurrent index builds run outside a transaction and each should be rolled back on its own.
+     *
+     * @param advice       the advice
+     * @param firstVersion the version of the first migration file
+     * @return the file contents by file name, in version order
+     */
+    public static Map<String, String> migrationFiles(List<IndexAdvice> advice, int firstVersion) {
+        Map<String, String> files = new LinkedHashMap<>();
+        int version = firstVersion;
+        for (IndexAdvice item : advice) {
+            if (item.getMigrationSql() == null) {
+                continue;
+            }
+            String action = item.getKind() == IndexAdvice.Kind.DUPLICATE_INDEX ? "Drop_duplicate_index_" : "Index_foreign_key_";
+            String target = item.getIndexName().substring(item.getIndexName().lastIndexOf('.') + 1);
+            // The natural order of migration files concatenates all digits of a name, so only the version may contain digits
+            String fileName = "V" + version + "__" + action + target.replaceAll("[^A-Za-z]+", "_").replaceAll("^_|_$", "") + ".sql";
+            files.put(fileName, "-- Generated by the index advisor: " + item.getMessage() + "\n" + item.getMigrationSql());
+            files.put(MigrationFileReader.rollbackFileName(fileName), item.getRollbackSql());
+            version++;
+        }
+        return files;
+    }
+
+    /**
+     * Logs every piece of advice.
+     *
+     * @param advice the advice
+     */
+    public void logAdvice(List<IndexAdvice> advice) {
+        for (IndexAdvice item : advice) {
+            log.warn("[{}] {}: {}", item.getKind(), item.getTableName(), item.getMessage());
+        }
+    }
+
+    /**
+     * Derives an index name from the table and columns, shortened to the identifier length limit of PostgreSQL.
+     *
+     * @param relationName the unquoted table name
+     * @param columnNames  the unquoted column names, joined by underscores
+     * @return the index name, quoted if needed
+     */
+    private static String indexName(String relationName, String columnNames) {
+        String name = ("idx_" + relationName + "_" + columnNames).toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9_]", "_");
+        return name.length() > MAX_IDENTIFIER_LENGTH ? name.substring(0, MAX_IDENTIFIER_LENGTH) : name;
+    }
+
+    /**
+     * Determines the next version not used by a migration file, a Java migration or the migration history.
+     *
+     * @param connection the database connection
+     * @return the next free version
+     * @throws SQLException if reading the history fails
+     */
+    private static int nextVersion(Connection connection) throws SQLException {
+        int version;
+        try (PreparedStatement pstmt = connection.prepareStatement("SELECT COALESCE(MAX(version), 0) FROM migration_history");
+             ResultSet rs = pstmt.executeQuery()) {
+            rs.next();
+            version = rs.getInt(1);
+        }
+        int latestDefined = Stream.concat(MigrationFileReader.getMigrationFiles().stream(), JavaMigrationRegistry.getMigrationNames().stream())
+                .mapToInt(MigrationFileReader::getVersion)
+                .max()
+                .orElse(0);
+        return Math.max(version, latestDefined) + 1;
+    }
+}
@@ -3,14 +3,18 @@ package org.example.service;
 import lombok.extern.slf4j.Slf4j;
 import org.example.comparator.NaturalOrderComparator;
 import org.example.util.ConnectionManager;
+import org.example.util.MigrationFileReader;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Service class for managing migration history records in the database.
@@ -74,10 +78,24 @@ public class MigrationHistoryService {
      * @param migrationFile the name of the migration file
      */
     public void recordMigration(Connection connection, String migrationFile) {
-        String insertMigrationRecord = "INSERT INTO migration_history (version, script_name) VALUES (?, ?)";
+        recordMigration(connection, migrationFile, null, null);
+    }
+
+    /**
+     * Records a new migration in the migration history together with its checksum and execution time.
+     *
+     * @param connection      the database connection
+     * @param migrationFile   the name of the migration file
+     * @param checksum        the checksum of the migration file, or null if unknown
+     * @param executionTimeMs the execution time in milliseconds, or null if unknown
+     */
+    public void recordMigration(Connection connection, String migrationFile, String checksum, Long executionTimeMs) {
+        String insertMigrationRecord = "INSERT INTO migration_history (version, script_name, checksum, execution_time_ms) VALUES (?, ?, ?, ?)";
         try (PreparedStatement pstmt = connection.prepareStatement(insertMigrationRecord)) {
-            pstmt.setInt(1, Integer.parseInt(getVersionFromFileName(migrationFile))); // Используем целочисленное значение
+            pstmt.setInt(1, MigrationFileReader.getVersion(migrationFile)); // Используем целочисленное значение
             pstmt.setString(2, migrationFile);
+            pstmt.setString(3, checksum);
+            pstmt.setObject(4, executionTimeMs, Types.BIGINT);
             pstmt.executeUpdate();
             log.info("Recorded migration: {}", migrationFile);
         } catch (SQLException e) {
@@ -86,6 +104,24 @@ public class MigrationHistoryService {
         }
     }
 
+    /**
+     * Builds the history insert of a migration as SQL text, for submissions that combine several statements.
+     *
+     * @param migrationFile             the name of the migration file
+     * @param checksum                  the checksum of the migration file, or null if unknown
+     * @param executionTimeMsExpression the SQL expression computing the execution time in milliseconds
+     * @return the INSERT statement with the values as literals
+     */
+    public String buildRecordMigrationStatement(String migrationFile, String checksum, String executionTimeMsExpression) {
+        return "INSERT INTO migration_history (version, script_name, checksum, execution_time_ms) VALUES ("
+                + MigrationFileReader.getVersion(migrationFile) + ", " + quoteLiteral(migrationFile) + ", "
+                + (checksum == null ? "NULL" : quoteLiteral(checksum)) + ", " + executionTimeMsExpression + ")";
+    }
+
+    private static String quoteLiteral(String value) {
+        return "'" + value.replace("'", "''") + "'";
+    }
+
     /**
      * Retrieves a list of applied migrations from the migration history.
      *
@@ -110,14 +146,43 @@ public class MigrationHistoryService {
         return appliedMigrations;
     }
 
+    /**
+     * Retrieves the applied migrations together with their recorded checksums.
+     *
+     * @param connection the database connection
+     * @return the checksum of every applied migration by file name; the checksum is null if it was not recorded
+     */
+    public Map<String, String> getAppliedChecksums(Connection connection) {
+        Map<String, String> appliedChecksums = new HashMap<>();
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT script_name, checksum FROM migration_history")) {
+            while (rs.next()) {
+                appliedChecksums.put(rs.getString("script_name"), rs.getString("checksum"));
+            }
+        } catch (SQLException e) {
+            log.error("Failed to retrieve applied migration checksums", e);
+            throw new RuntimeException("Critical error while retrieving applied migration checksums", e);
+        }
+        return appliedChecksums;
+    }
+
     /**
      * Removes a migration record from the migration history.
+     * The removed row is moved to migration_history_archive in the same statement,
+     * so migration_history only holds applied migrations while the audit trail is kept.
      *
      * @param connection    the database connection
      * @param migrationFile the name of the migration file to remove
      */
     public void removeMigrationRecord(Connection connection, String migrationFile) {
-        String deleteMigrationRecord = "DELETE FROM migration_history WHERE script_name = ?";
+        String deleteMigrationRecord = """
+                WITH removed AS (
+                    DELETE FROM migration_history WHERE script_name = ?
+                    RETURNING version, script_name, checksum, applied_at, execution_time_ms
+                )
+                INSERT INTO migration_history_archive (version, script_name, checksum, applied_at, execution_time_ms)
+                SELECT version, script_name, checksum, applied_at, execution_time_ms FROM removed
+                """;
         try (PreparedStatement pstmt = connection.prepareStatement(deleteMigrationRecord)) {
             pstmt.setString(1, migrationFile);
             pstmt.executeUpdate();
@@ -127,14 +192,4 @@ public class MigrationHistoryService {
             throw new RuntimeException("Critical error while removing migration record: " + migrationFile, e);
         }
     }
-
-    /**
-     * Extracts the version from the migration file name.
-     *
-     * @param fileName the name of the migration file
-     * @return the version extracted from the file name
-     */
-    private String getVersionFromFileName(String fileName) {
-        return fileName.split("__")[0].replace("V", "");
-    }
 }
@@ -0,0 +1,187 @@
+package org.example.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.comparator.NaturalOrderComparator;
+import org.example.model.LintFinding;
+import org.example.model.MigrationScript;
+import org.example.util.MigrationFileReader;
+import org.example.util.PropertiesUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Service class for statically analyzing migration files for slow or blocking patterns before they run.
+ * Files are parsed once and checked in parallel. Every rule's severity is configurable through
+ * lint.rule.&lt;rule-id&gt;.severity (off, warning, error); findings at or above lint.block-on stop the migration.
+ */
+@Slf4j
+public class MigrationLinter {
+
+    /**
+     * The lint rules. Each rule inspects one normalized statement and returns a message if it matches.
+     */
+    public enum Rule {
+        NON_CONCURRENT_INDEX("non-concurrent-index", LintFinding.Severity.WARNING, statement ->
+                statement.matches("^CREATE (UNIQUE )?INDEX .*") && !statement.contains(" CONCURRENTLY ")
+                        ? "CREATE INDEX blocks writes to the table for the whole build; use CREATE INDEX CONCURRENTLY"
+                        : null),
+        VOLATILE_DEFAULT("volatile-default", LintFinding.Severity.ERROR, statement ->
+                statement.startsWith("ALTER TABLE ") && VOLATILE_DEFAULT_PATTERN.matcher(statement).find()
+                        ? "ADD COLUMN with a volatile default rewrites the whole table under an ACCESS EXCLUSIVE lock; " +
+                        "add the column without a default and backfill it in batches"
+                        : null),
+        UNBOUNDED_DML("unbounded-dml", LintFinding.Severity.WARNING, MigrationLinter::checkUnboundedDml),
+        FOREIGN_KEY_WITHOUT_NOT_VALID("fk-not-valid", LintFinding.Severity.WARNING, statement ->
+                statement.startsWith("ALTER TABLE ") && ADD_FOREIGN_KEY.matcher(statement).find()
+                        && !statement.contains(" NOT VALID")
+                        ? "Adding a foreign key validates all existing rows while blocking writes; add it NOT VALID " +
+                        "and run VALIDATE CONSTRAINT in a later migration"
+                        : null),
+        TABLE_REWRITE_TYPE_CHANGE("table-rewrite", LintFinding.Severity.ERROR, statement ->
+                statement.startsWith("ALTER TABLE ") && ALTER_COLUMN_TYPE.matcher(statement).find()
+                        ? "Changing a column type usually rewrites the table and its indexes under an ACCESS EXCLUSIVE lock; " +
+                        "use an expand/contract column change instead"
+                        : null);
+
+        private final String id;
+        private final LintFinding.Severity defaultSeverity;
+        private final Function<String, String> check;
+
+        Rule(String id, LintFinding.Severity defaultSeverity, Function<String, String> check) {
+            this.id = id;
+            this.defaultSeverity = defaultSeverity;
+            this.check = check;
+        }
+
+        /**
+         * Retrieves the configured severity of the rule.
+         *
+         * @return the severity from application.properties, or the rule's default
+         */
+        public LintFinding.Severity severity() {
+            String configured = PropertiesUtils.getProperty("lint.rule." + id + ".severity", defaultSeverity.name());
+            return LintFinding.Severity.valueOf(configured.toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private static final Pattern VOLATILE_DEFAULT_PATTERN = Pattern.compile(
+            " ADD (COLUMN )?.* DEFAULT .*\\b(RANDOM|CLOCK_TIMESTAMP|TIMEOFDAY|GEN_RANDOM_UUID|UUID_GENERATE_V[1-4]|NEXTVAL)\\s*\\(");
+    private static final Pattern ADD_FOREIGN_KEY = Pattern.compile(" ADD (CONSTRAINT \\S+ )?FOREIGN KEY ");
+    private static final Pattern ALTER_COLUMN_TYPE = Pattern.compile(" ALTER (COLUMN )?\\S+ (SET DATA )?TYPE ");
+    private static final Pattern KEY_RANGE = Pattern.compile("\\b(ID|\\w+_ID)\\s*(BETWEEN|<|<=|>|>=|=|IN)\\s");
+
+    private final boolean enabled = Boolean.parseBoolean(PropertiesUtils.getProperty("lint.enabled", "true"));
+    private final LintFinding.Severity blockOn = LintFinding.Severity.valueOf(
+            PropertiesUtils.getProperty("lint.block-on", "error").toUpperCase(Locale.ROOT));
+
+    /**
+     * Parses and lints the given migration files in parallel.
+     *
+     * @param migrationFiles the migration file names
+     * @return the findings ordered by file and statement
+     */
+    public List<LintFinding> lintFiles(List<String> migrationFiles) {
+        if (!enabled) {
+            return List.of();
+        }
+        return lint(migrationFiles.parallelStream()
+                .map(MigrationFileReader::readMigrationScript)
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Lints already parsed migrations in parallel.
+     *
+     * @param scripts the parsed migrations
+     * @return the findings ordered by file and statement
+     */
+    public List<LintFinding> lint(Collection<MigrationScript> scripts) {
+        if (!enabled) {
+            return List.of();
+        }
+        return scripts.parallelStream()
+                .flatMap(script -> lint(script).stream())
+                .sorted(Comparator.comparing(LintFinding::getFileName, new NaturalOrderComparator())
+                        .thenComparingInt(LintFinding::getStatementIndex))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Lints a single parsed migration.
+     *
+     * @param script the parsed migration
+     * @return the findings of all enabled rules
+     */
+    public List<LintFinding> lint(MigrationScript script) {
+        List<LintFinding> findings = new ArrayList<>();
+        List<String> statements = script.getNormalizedStatements();
+        for (Rule rule : Rule.values()) {
+            LintFinding.Severity severity = rule.severity();
+            if (severity == LintFinding.Severity.OFF) {
+                continue;
+            }
+            for (int i = 0; i < statements.size(); i++) {
+                String message = rule.check.apply(statements.get(i));
+                if (message != null) {
+                    findings.add(new LintFinding(script.getFileName(), i + 1, rule.id, severity, message));
+                }
+            }
+        }
+        return findings;
+    }
+
+    /**
+     * Checks whether a finding blocks the migration.
+     *
+     * @param finding the finding
+     * @return true if the finding's severity reaches lint.block-on
+     */
+    public boolean isBlocking(LintFinding finding) {
+        return blockOn != LintFinding.Severity.OFF && finding.getSeverity().compareTo(blockOn) >= 0;
+    }
+
+    /**
+     * Logs the findings, one line per finding.
+     *
+     * @param findings the findings
+     */
+    public void logFindings(List<LintFinding> findings) {
+        for (LintFinding finding : findings) {
+            String line = String.format("[%s] %s statement %d (%s): %s", finding.getSeverity(), finding.getFileName(),
+                    finding.getStatementIndex(), finding.getRuleId(), finding.getMessage());
+            if (finding.getSeverity() == LintFinding.Severity.ERROR) {
+                log.error(line);
+            } else {
+                log.warn(line);
+            }
+        }
+    }
+
+    /**
+     * Flags UPDATE and DELETE statements that change an unbounded set of rows in one statement.
+     *
+     * @param statement the normalized statement
+     * @return the finding message, or null
+     */
+    private static String checkUnboundedDml(String statement) {
+        if (!statement.startsWith("UPDATE ") && !statement.startsWith("DELETE ")) {
+            return null;
+        }
+        int where = statement.indexOf(" WHERE ");
+        if (where < 0) {
+            return "UPDATE/DELETE without WHERE changes every row of the table in one transaction; process it in key-range batches";
+        }
+        if (!KEY_RANGE.matcher(statement.substring(where)).find() && !statement.contains(" LIMIT ")) {
+            return "UPDATE/DELETE is not bounded by a key range, so it may change any number of rows in one transaction " +
+                    "and hold their locks until commit; process it in key-range batches";
+        }
+        return null;
+    }
+}
@@ -1,6 +1,7 @@
 package org.example.service;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -9,18 +10,35 @@ import lombok.extern.slf4j.Slf4j;
 
 /**
  * Service class for managing migration locks in the database.
+ * The lock row records the backend holding it. The lock is committed for the whole run, so a process that dies
+ * without releasing it, e.g. killed after a shutdown grace period, would otherwise leave it locked forever; a lock
+ * whose backend no longer exists in pg_stat_activity is therefore treated as free and can be taken over.
  */
 @Slf4j
 public class MigrationLockService {
+    /**
+     * The channel on which the migrating process announces the start and the end of a migration run.
+     */
+    public static final String MIGRATION_CHANNEL = "migration_events";
+
+    /**
+     * Condition on a migration_lock row that holds while the backend that took the lock still exists.
+     * The backend start distinguishes a reused pid; it is null for sessions of other roles without pg_read_all_stats.
+     */
+    public static final String OWNER_ALIVE = """
+            EXISTS (SELECT 1 FROM pg_stat_activity a WHERE a.pid = migration_lock.locked_by_pid
+                    AND (a.backend_start IS NULL OR a.backend_start = migration_lock.locked_by_backend_start))""";
+
+    private static final String OWN_BACKEND_START = "(SELECT backend_start FROM pg_stat_activity WHERE pid = pg_backend_pid())";
 
     /**
-     * Checks if the migration process is currently locked.
+     * Checks if the migration process is currently locked by a backend that still exists.
      *
      * @param connection the database connection
      * @return true if the migration process is locked, false otherwise
      */
     public boolean isLocked(Connection connection) {
-        String sql = "SELECT locked FROM migration_lock WHERE id = 1";
+        String sql = "SELECT locked AND " + OWNER_ALIVE + " AS locked FROM migration_lock WHERE id = 1";
         try (Statement stmt = connection.createStatement();
              ResultSet rs = stmt.executeQuery(sql)) {
             if (rs.next()) {
@@ -36,22 +54,73 @@ public class MigrationLockService {
     }
 
     /**
-     * Locks the migration process to prevent concurrent migrations.
+     * Locks the migration process to prevent concurrent migrations, unless another live process holds the lock.
+     * Checking and taking the lock is one statement: a process racing for the lock waits for the other's
+     * transaction and then sees the lock as taken. A lock left behind by a backend that no longer exists is taken over.
      *
      * @param connection the database connection
+     * @return true if the lock was acquired, false if another process holds it
      */
-    public void lock(Connection connection) {
-        String sql = "INSERT INTO migration_lock (id, locked) VALUES (1, TRUE) " +
-                "ON CONFLICT (id) DO UPDATE SET locked = EXCLUDED.locked, locked_at = CURRENT_TIMESTAMP";
+    public boolean tryLock(Connection connection) {
+        String sql = "INSERT INTO migration_lock (id, locked, locked_by_pid, locked_by_backend_start) " +
+                "VALUES (1, TRUE, pg_backend_pid(), " + OWN_BACKEND_START + ") " +
+                "ON CONFLICT (id) DO UPDATE SET locked = EXCLUDED.locked, locked_at = CURRENT_TIMESTAMP, " +
+                "locked_by_pid = EXCLUDED.locked_by_pid, locked_by_backend_start = EXCLUDED.locked_by_backend_start " +
+                "WHERE NOT migration_lock.locked OR NOT " + OWNER_ALIVE;
         try (Statement stmt = connection.createStatement()) {
-            stmt.execute(sql);
-            log.info("Process locked");
+            boolean acquired = stmt.executeUpdate(sql) == 1;
+            log.info(acquired ? "Process locked" : "Lock is held by another process");
+            return acquired;
         } catch (SQLException e) {
             log.error("Error locking process", e);
             throw new RuntimeException("Critical error while locking process", e);
         }
     }
 
+    /**
+     * Moves the lock to the backend of a new connection after the connection holding it was lost, unless another
+     * process has taken it over in the meantime.
+     *
+     * @param connection  the new connection
+     * @param previousPid the backend pid of the lost connection
+     * @return true if the lock is now held by the new connection
+     */
+    public boolean reclaim(Connection connection, int previousPid) {
+        String sql = "UPDATE migration_lock SET locked_by_pid = pg_backend_pid(), locked_by_backend_start = " +
+                OWN_BACKEND_START + " WHERE id = 1 AND locked AND locked_by_pid = ?";
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            pstmt.setInt(1, previousPid);
+            boolean reclaimed = pstmt.executeUpdate() == 1;
+            log.info(reclaimed ? "Lock moved to the new connection" : "Lock was taken over by another process");
+            return reclaimed;
+        } catch (SQLException e) {
+            log.error("Error reclaiming lock", e);
+            throw new RuntimeException("Critical error while reclaiming lock", e);
+        }
+    }
+
+    /**
+     * Unlocks the migration process from another connection, e.g. after the connection holding the lock was lost,
+     * unless another process has taken the lock over in the meantime.
+     *
+     * @param connection the database connection
+     * @param ownerPid   the backend pid of the connection that took the lock
+     */
+    public void unlock(Connection connection, int ownerPid) {
+        String sql = "UPDATE migration_lock SET locked = FALSE, locked_at = CURRENT_TIMESTAMP WHERE id = 1 AND locked_by_pid = ?";
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            pstmt.setInt(1, ownerPid);
+            if (pstmt.executeUpdate() == 1) {
+                log.info("Process unlocked");
+            } else {
+                log.warn("Lock is no longer held by backend {}; left it unchanged", ownerPid);
+            }
+        } catch (SQLException e) {
+            log.error("Error unlocking process", e);
+            throw new RuntimeException("Critical error while unlocking process", e);
+        }
+    }
+
     /**
      * Unlocks the migration process to allow future migrations.
      *
@@ -67,4 +136,40 @@ public class MigrationLockService {
             throw new RuntimeException("Critical error while unlocking process", e);
         }
     }
+
+    /**
+     * Announces the start of a migration run to processes watching the lock.
+     * The notification is delivered when the lock is committed and carries the current migration version,
+     * e.g. {@code LOCKED:11}.
+     *
+     * @param connection the database connection holding the lock
+     */
+    public void notifyLocked(Connection connection) {
+        notify(connection, "LOCKED");
+    }
+
+    /**
+     * Announces the end of a migration run to processes waiting for it.
+     * The notification is delivered when the current transaction commits, together with the unlock,
+     * and carries the status and the resulting migration version, e.g. {@code SUCCESS:12}.
+     *
+     * @param connection the database connection holding the lock
+     * @param status     the outcome of the run, SUCCESS or FAILED
+     */
+    public void notifyCompletion(Connection connection, String status) {
+        notify(connection, status);
+    }
+
+    private void notify(Connection connection, String status) {
+        String sql = "SELECT pg_notify(?, ? || ':' || coalesce((SELECT MAX(version) FROM migration_history), 0))";
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            pstmt.setString(1, MIGRATION_CHANNEL);
+            pstmt.setString(2, status);
+            pstmt.execute();
+            log.info("Announced migration run state: {}", status);
+        } catch (SQLException e) {
+            log.error("Error announcing migration run state", e);
+            throw new RuntimeException("Critical error while announcing migration run state", e);
+        }
+    }
 }
@@ -1,8 +1,12 @@
 package org.example.service;
 
+import org.example.service.executor.MigrationCoordinator;
+import org.example.service.executor.MigrationDaemon;
 import org.example.service.executor.MigrationExecutor;
 import org.example.service.executor.MigrationStatusPrinter;
+import org.example.service.executor.MigrationWatcher;
 import org.example.service.executor.RollbackExecutor;
+import org.example.util.PropertiesUtils;
 
 /**
  * MigrationService handles the migration operations, including applying migrations,
@@ -13,8 +17,14 @@ public class MigrationService {
     private final MigrationExecutor migrationExecutor;
     private final RollbackExecutor rollbackExecutor;
     private final MigrationStatusPrinter statusPrinter;
+    private final MigrationWatcher migrationWatcher;
+    private final MigrationCoordinator migrationCoordinator;
+    private final MigrationDaemon migrationDaemon;
+    private final boolean coordinated = Boolean.parseBoolean(PropertiesUtils.getProperty("migration.coordination.enabled", "false"));
     private final MigrationHistoryService historyService;
     private final MigrationLockService lockService;
+    private final SchemaFingerprintService fingerprintService;
+    private final IndexAdvisor indexAdvisor;
 
     /**
      * Constructs a new MigrationService with the specified history and lock services.
@@ -22,16 +32,78 @@ public class MigrationService {
     public MigrationService() {
         this.historyService = new MigrationHistoryService();
         this.lockService = new MigrationLockService();
+        this.fingerprintService = new SchemaFingerprintService();
+        this.indexAdvisor = new IndexAdvisor();
         this.migrationExecutor = new MigrationExecutor(historyService, lockService);
         this.rollbackExecutor = new RollbackExecutor(historyService);
         this.statusPrinter = new MigrationStatusPrinter(historyService);
+        this.migrationWatcher = new MigrationWatcher(migrationExecutor, historyService);
+        this.migrationCoordinator = new MigrationCoordinator(migrationExecutor, lockService);
+        this.migrationDaemon = new MigrationDaemon(historyService);
     }
 
     /**
      * Applies all pending migrations and generates reports for the applied migrations.
+     * In coordinated mode, a node that finds another node migrating waits until that node has finished.
      */
     public void migrate() {
-        migrationExecutor.migrate();
+        if (coordinated) {
+            migrationCoordinator.migrateOrWait();
+        } else {
+            migrationExecutor.migrate();
+        }
+    }
+
+    /**
+     * Verifies that the live schema matches the schema recorded after the latest migration.
+     *
+     * @return true if no schema drift was detected
+     */
+    public boolean verify() {
+        return fingerprintService.verify();
+    }
+
+    /**
+     * Starts applying new migration files as soon as they are saved to the migration directory.
+     */
+    public void startWatching() {
+        migrationWatcher.start();
+    }
+
+    /**
+     * Stops watching the migration directory.
+     */
+    public void stopWatching() {
+        migrationWatcher.stop();
+    }
+
+    /**
+     * Starts serving the cached migration status over the local HTTP endpoint.
+     */
+    public void startDaemon() {
+        migrationDaemon.start();
+    }
+
+    /**
+     * Stops serving the migration status.
+     */
+    public void stopDaemon() {
+        migrationDaemon.stop();
+    }
+
+    /**
+     * Lints all pending migrations for slow or blocking patterns.
+     */
+    public void lint() {
+        migrationExecutor.lint();
+    }
+
+    /**
+     * Reports indexing problems of the live schema and generates migration files for missing foreign key indexes
+     * and duplicate indexes, to be reviewed and applied with migrate.
+     */
+    public void advise() {
+        indexAdvisor.advise();
     }
 
     /**
@@ -0,0 +1,177 @@
+package org.example.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.model.MigrationScript;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Service class for repeatable migrations (R__*.sql), which define views, functions, procedures and triggers.
+ * A repeatable migration is re-applied only when the checksum of its file differs from the one stored in
+ * migration_repeatable, so unchanged files are skipped without executing anything. Changed files are applied
+ * together with the repeatable migrations that depend on them, in dependency order: a file depends on another
+ * if it references an object the other one creates.
+ */
+@Slf4j
+public class RepeatableMigrationService {
+    private static final Pattern CREATED_OBJECT = Pattern.compile(
+            "^CREATE (OR REPLACE )?(MATERIALIZED )?(VIEW|FUNCTION|PROCEDURE|TRIGGER|AGGREGATE) (IF NOT EXISTS )?([\\w$.\"]+)");
+
+    /**
+     * Retrieves the stored checksums of all applied repeatable migrations.
+     *
+     * @param connection the database connection
+     * @return the checksum by file name
+     */
+    public Map<String, String> getAppliedChecksums(Connection connection) {
+        Map<String, String> checksums = new HashMap<>();
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT script_name, checksum FROM migration_repeatable")) {
+            while (rs.next()) {
+                checksums.put(rs.getString("script_name"), rs.getString("checksum"));
+            }
+        } catch (SQLException e) {
+            log.error("Failed to retrieve repeatable migration checksums", e);
+            throw new RuntimeException("Critical error while retrieving repeatable migration checksums", e);
+        }
+        return checksums;
+    }
+
+    /**
+     * Records that a repeatable migration was applied with the given checksum.
+     *
+     * @param connection      the database connection
+     * @param fileName        the name of the repeatable migration file
+     * @param checksum        the checksum of the applied file
+     * @param executionTimeMs the execution time in milliseconds
+     */
+    public void recordRepeatable(Connection connection, String fileName, String checksum, long executionTimeMs) {
+        String sql = "INSERT INTO migration_repeatable (script_name, checksum, execution_time_ms) VALUES (?, ?, ?) " +
+                "ON CONFLICT (script_name) DO UPDATE SET checksum = EXCLUDED.checksum, " +
+                "execution_time_ms = EXCLUDED.execution_time_ms, applied_at = CURRENT_TIMESTAMP";
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            pstmt.setString(1, fileName);
+            pstmt.setString(2, checksum);
+            pstmt.setObject(3, executionTimeMs, Types.BIGINT);
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            log.error("Failed to record repeatable migration: " + fileName, e);
+            throw new RuntimeException("Critical error while recording repeatable migration: " + fileName, e);
+        }
+    }
+
+    /**
+     * Determines which repeatable migrations to apply and in which order.
+     * The changed migrations and everything that transitively depends on them are returned with every
+     * migration after the migrations it depends on; independent migrations keep their natural file order.
+     *
+     * @param scripts the parsed repeatable migrations
+     * @param changed the names of the migrations whose checksum changed
+     * @return the migrations to apply, in dependency order
+     */
+    public static List<String> plan(Collection<MigrationScript> scripts, Set<String> changed) {
+        Map<String, Set<String>> createdBy = new HashMap<>();
+        for (MigrationScript script : scripts) {
+            for (String object : createdObjects(script)) {
+                createdBy.computeIfAbsent(object, key -> new HashSet<>()).add(script.getFileName());
+            }
+        }
+        Map<String, Set<String>> dependents = new HashMap<>();
+        Map<String, Integer> unresolved = new HashMap<>();
+        for (MigrationScript script : scripts) {
+            dependents.putIfAbsent(script.getFileName(), new HashSet<>());
+            unresolved.putIfAbsent(script.getFileName(), 0);
+        }
+        for (MigrationScript script : scripts) {
+            String body = String.join(" ", script.getNormalizedStatements());
+            Set<String> dependencies = new HashSet<>();
+            for (Map.Entry<String, Set<String>> created : createdBy.entrySet()) {
+                if (Pattern.compile("(?<![\\w$])" + Pattern.quote(created.getKey()) + "(?![\\w$])").matcher(body).find()) {
+                    dependencies.addAll(created.getValue());
+                }
+            }
+            dependencies.remove(script.getFileName());
+            for (String dependency : dependencies) {
+                dependents.get(dependency).add(script.getFileName());
+            }
+            unresolved.put(script.getFileName(), dependencies.size());
+        }
+
+        Set<String> selected = new HashSet<>();
+        Deque<String> toVisit = new ArrayDeque<>(changed);
+        while (!toVisit.isEmpty()) {
+            String file = toVisit.pop();
+            if (dependents.containsKey(file) && selected.add(file)) {
+                toVisit.addAll(dependents.get(file));
+            }
+        }
+
+        List<String> ordered = new ArrayList<>();
+        PriorityQueue<String> ready = new PriorityQueue<>();
+        unresolved.forEach((file, count) -> {
+            if (count == 0) {
+                ready.add(file);
+            }
+        });
+        int sorted = 0;
+        while (!ready.isEmpty()) {
+            String file = ready.poll();
+            sorted++;
+            if (selected.contains(file)) {
+                ordered.add(file);
+            }
+            for (String dependent : dependents.get(file)) {
+                if (unresolved.merge(dependent, -1, Integer::sum) == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+        if (sorted < unresolved.size()) {
+            List<String> cyclic = new ArrayList<>();
+            unresolved.forEach((file, count) -> {
+                if (count > 0) {
+                    cyclic.add(file);
+                }
+            });
+            throw new IllegalStateException("Repeatable migrations depend on each other in a cycle: " + cyclic);
+        }
+        return ordered;
+    }
+
+    /**
+     * Finds the unqualified, upper-cased names of the objects a repeatable migration creates.
+     *
+     * @param script the parsed repeatable migration
+     * @return the created object names
+     */
+    private static Set<String> createdObjects(MigrationScript script) {
+        Set<String> objects = new HashSet<>();
+        for (String statement : script.getNormalizedStatements()) {
+            Matcher matcher = CREATED_OBJECT.matcher(statement);
+            if (matcher.find()) {
+                String name = matcher.group(5);
+                int dot = name.lastIndexOf('.');
+                objects.add(name.substring(dot + 1).replace("\"", "").toUpperCase(Locale.ROOT));
+            }
+        }
+        return objects;
+    }
+}
@@ -0,0 +1,212 @@
+package org.example.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.util.ConnectionManager;
+import org.example.util.PropertiesUtils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Service class for detecting schema drift through catalog fingerprints.
+ * After each migration the tables, columns, indexes and constraints of all user schemas are described by a few
+ * bulk pg_catalog queries, computed and written entirely on the server. Their SHA-256 fingerprint is stored with
+ * the history row; the per-object definitions are only kept for the latest recording, in the single row of
+ * migration_schema_snapshot, so the history does not grow by a copy of the catalog per migration. Verification
+ * compares the live fingerprint with the one recorded for the latest migration in a single query and only diffs
+ * the objects when the fingerprints differ.
+ * The tool's own metadata tables are left out, because metadata upgrades change them outside of migrations.
+ */
+@Slf4j
+public class SchemaFingerprintService {
+    private static final String CATALOG_OBJECTS = """
+            WITH rels AS (
+                SELECT c.oid, quote_ident(n.nspname) || '.' || quote_ident(c.relname) AS qualified_name, c.relkind
+                FROM pg_class c
+                JOIN pg_namespace n ON n.oid = c.relnamespace
+                WHERE c.relkind IN ('r', 'p', 'v', 'm', 'f')
+                  AND n.nspname NOT IN ('pg_catalog', 'information_schema')
+                  AND n.nspname NOT LIKE 'pg\\_toast%' AND n.nspname NOT LIKE 'pg\\_temp%'
+                  AND c.relname NOT IN ('migration_history', 'migration_lock', 'migration_schema_version',
+                                        'migration_history_archive', 'migration_before_image', 'migration_backfill_range',
+                                        'migration_repeatable', 'migration_schema_snapshot')
+            ), objects AS (
+                SELECT 'relation ' || r.qualified_name AS object, r.relkind::text AS definition
+                FROM rels r
+                UNION ALL
+                SELECT 'column ' || r.qualified_name || '.' || quote_ident(a.attname),
+                       format_type(a.atttypid, a.atttypmod)
+                           || CASE WHEN a.attnotnull THEN ' NOT NULL' ELSE '' END
+                           || coalesce(' DEFAULT ' || pg_get_expr(d.adbin, d.adrelid), '')
+                FROM rels r
+                JOIN pg_attribute a ON a.attrelid = r.oid AND a.attnum > 0 AND NOT a.attisdropped
+                LEFT JOIN pg_attrdef d ON d.adrelid = a.attrelid AND d.adnum = a.attnum
+                UNION ALL
+                SELECT 'index ' || r.qualified_name || '.' || quote_ident(ic.relname), pg_get_indexdef(i.indexrelid)
+                FROM rels r
+                JOIN pg_index i ON i.indrelid = r.oid
+                JOIN pg_class ic ON ic.oid = i.indexrelid
+                UNION ALL
+                SELECT 'constraint ' || r.qualified_name || '.' || quote_ident(co.conname), pg_get_constraintdef(co.oid)
+                FROM rels r
+                JOIN pg_constraint co ON co.conrelid = r.oid
+            ), live AS (
+                SELECT encode(sha256(convert_to(coalesce(string_agg(object || '=' || definition, E'\\n' ORDER BY object), ''), 'UTF8')), 'hex') AS fingerprint,
+                       coalesce(jsonb_object_agg(object, definition), '{}'::jsonb) AS objects
+                FROM objects
+            )
+            """;
+    private static final String RECORD_FINGERPRINT = CATALOG_OBJECTS + """
+            , recorded AS (
+                UPDATE migration_history h
+                SET schema_fingerprint = live.fingerprint
+                FROM live
+                WHERE h.script_name = ?
+            )
+            INSERT INTO migration_schema_snapshot (id, script_name, schema_objects)
+            SELECT 1, ?, live.objects FROM live
+            ON CONFLICT (id) DO UPDATE
+            SET script_name = EXCLUDED.script_name, schema_objects = EXCLUDED.schema_objects, recorded_at = CURRENT_TIMESTAMP
+            """;
+    private static final String VERIFY_FINGERPRINT = CATALOG_OBJECTS + """
+            SELECT h.script_name, h.schema_fingerprint, live.fingerprint
+            FROM live
+            LEFT JOIN (SELECT script_name, schema_fingerprint FROM migration_history ORDER BY version DESC LIMIT 1) h ON TRUE
+            """;
+    private static final String SNAPSHOT_SCRIPT_NAME = "SELECT script_name FROM migration_schema_snapshot WHERE id = 1";
+    private static final String DIFF_OBJECTS = CATALOG_OBJECTS + """
+            SELECT coalesce(e.key, o.object) AS object, e.value AS expected, o.definition AS actual
+            FROM jsonb_each_text((SELECT schema_objects FROM migration_schema_snapshot WHERE id = 1)) e
+            FULL JOIN objects o ON o.object = e.key
+            WHERE e.value IS DISTINCT FROM o.definition
+            ORDER BY 1
+            """;
+
+    private final boolean enabled = Boolean.parseBoolean(PropertiesUtils.getProperty("migration.fingerprint.enabled", "false"));
+
+    /**
+     * Records the fingerprint of the current schema with the history row of a migration, and replaces the
+     * schema snapshot with the current object definitions.
+     * Must be called in the migration's transaction, after the migration was recorded.
+     *
+     * @param connection    the database connection
+     * @param migrationFile the name of the migration
+     */
+    public void recordFingerprint(Connection connection, String migrationFile) {
+        if (!enabled) {
+            return;
+        }
+        try (PreparedStatement pstmt = connection.prepareStatement(RECORD_FINGERPRINT)) {
+            pstmt.setString(1, migrationFile);
+            pstmt.setString(2, migrationFile);
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            log.error("Failed to record schema fingerprint of migration: " + migrationFile, e);
+            throw new RuntimeException("Critical error while recording schema fingerprint of migration: " + migrationFile, e);
+        }
+    }
+
+    /**
+     * Records the fingerprint of the current schema again with the history row of the latest migration, after
+     * repeatable migrations changed objects such as views and functions without a history row of their own.
+     * Must be called in the transaction of the repeatable migrations.
+     *
+     * @param connection the database connection
+     */
+    public void recordLatestFingerprint(Connection connection) {
+        if (!enabled) {
+            return;
+        }
+        String latestMigration;
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT script_name FROM migration_history ORDER BY version DESC LIMIT 1")) {
+            latestMigration = rs.next() ? rs.getString(1) : null;
+        } catch (SQLException e) {
+            log.error("Failed to look up the latest migration", e);
+            throw new RuntimeException("Critical error while looking up the latest migration", e);
+        }
+        if (latestMigration != null) {
+            recordFingerprint(connection, latestMigration);
+        }
+    }
+
+    /**
+     * Verifies that the live schema matches the schema recorded after the latest migration.
+     * Differences are logged per object.
+     *
+     * @return true if the schema matches, false if it drifted or no fingerprint was recorded
+     */
+    public boolean verify() {
+        try (Connection connection = ConnectionManager.getConnection()) {
+            String scriptName;
+            String expected;
+            String actual;
+            try (PreparedStatement pstmt = connection.prepareStatement(VERIFY_FINGERPRINT);
+                 ResultSet rs = pstmt.executeQuery()) {
+                rs.next();
+                scriptName = rs.getString(1);
+                expected = rs.getString(2);
+                actual = rs.getString(3);
+            }
+            if (scriptName == null) {
+                log.info("No migrations applied; live schema fingerprint is {}.", actual);
+                return false;
+            }
+            if (expected == null) {
+                log.warn("No schema fingerprint was recorded for the latest migration {}; set migration.fingerprint.enabled=true " +
+                        "and apply a migration to record one.", scriptName);
+                return false;
+            }
+            if (expected.equals(actual)) {
+                log.info("Schema matches migration {} (fingerprint {}).", scriptName, actual);
+                return true;
+            }
+            log.warn("Schema drift detected: the live schema differs from the schema recorded after migration {}.", scriptName);
+            logDifferences(connection, scriptName);
+            return false;
+        } catch (SQLException e) {
+            log.error("Failed to verify schema fingerprint", e);
+            throw new RuntimeException("Critical error while verifying schema fingerprint", e);
+        }
+    }
+
+    /**
+     * Logs the objects whose definitions differ from the ones recorded after a migration.
+     * The definitions are only kept for the latest recording; after a rollback they belong to a rolled back
+     * migration and the differences cannot be listed.
+     *
+     * @param connection    the database connection
+     * @param migrationFile the name of the migration the schema was recorded after
+     * @throws SQLException if the comparison fails
+     */
+    private void logDifferences(Connection connection, String migrationFile) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(SNAPSHOT_SCRIPT_NAME)) {
+            String snapshotScriptName = rs.next() ? rs.getString(1) : null;
+            if (!migrationFile.equals(snapshotScriptName)) {
+                log.warn("The object definitions were recorded after {}, not after {}; the differences cannot be listed.",
+                        snapshotScriptName, migrationFile);
+                return;
+            }
+        }
+        try (PreparedStatement pstmt = connection.prepareStatement(DIFF_OBJECTS)) {
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    String object = rs.getString("object");
+                    String expected = rs.getString("expected");
+                    String actual = rs.getString("actual");
+                    if (expected == null) {
+                        log.warn("Unexpected {}: {}", object, actual);
+                    } else if (actual == null) {
+                        log.warn("Missing {}: {}", object, expected);
+                    } else {
+                        log.warn("Changed {}: expected {}, actual {}", object, expected, actual);
+                    }
+                }
+            }
+        }
+    }
+}
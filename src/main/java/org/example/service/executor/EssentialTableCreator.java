@@ -13,9 +13,12 @@ import java.sql.Statement;
 @Slf4j
 public class EssentialTableCreator {
 
+    private final MetadataSchemaUpgrader schemaUpgrader = new MetadataSchemaUpgrader();
+
     /**
      * Creates essential tables (migration_history and migration_lock) if they do not exist.
-     * This method ensures that the necessary tables for migration management are present in the database.
+     * This method ensures that the necessary tables for migration management are present in the database
+     * and brings them up to the latest metadata schema version.
      */
     public void createEssentialTablesIfNotExists() {
         String createMigrationHistoryTable = """
@@ -39,6 +42,7 @@ public class EssentialTableCreator {
             stmt.execute(createMigrationHistoryTable);
             stmt.execute(createMigrationLockTable);
             log.info("Essential tables created successfully");
+            schemaUpgrader.upgrade(connection);
         } catch (SQLException e) {
             log.error("Error creating essential tables", e);
             throw new RuntimeException("Critical error while creating essential tables", e);
@@ -0,0 +1,303 @@
+package org.example.service.executor;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.util.ConnectionManager;
+import org.example.util.PropertiesUtils;
+import org.example.util.SqlStateClassifier;
+import org.example.util.SqlStatementSplitter;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * LockAwareStatementRunner executes migration SQL so that DDL never waits long for a lock.
+ * DDL runs with a short lock_timeout and is retried in short attempts until a deadline, instead of waiting
+ * in the lock queue (and making every later query on the table queue behind it). While an attempt waits,
+ * a side connection reports the sessions blocking it and the sessions queued behind it, and can cancel
+ * blockers whose transactions are older than a configured age. Cancelling a query does not end an idle
+ * transaction, so blockers idle in transaction are terminated instead.
+ */
+@Slf4j
+public class LockAwareStatementRunner {
+    private static final Pattern DDL_PATTERN = Pattern.compile(
+            "\\b(ALTER|CREATE|DROP|TRUNCATE|REINDEX|CLUSTER|LOCK)\\s", Pattern.CASE_INSENSITIVE);
+    private static final String LOCK_NOT_AVAILABLE = "55P03";
+
+    private static final String SELECT_BLOCKERS = """
+            SELECT b.pid, b.usename, b.state,
+                   COALESCE(EXTRACT(EPOCH FROM now() - b.xact_start), 0)::BIGINT AS xact_age_seconds,
+                   left(b.query, 200) AS query
+            FROM unnest(pg_blocking_pids(?)) AS blocker(pid)
+            JOIN pg_stat_activity b ON b.pid = blocker.pid
+            """;
+    private static final String COUNT_QUEUED = "SELECT count(*) FROM pg_stat_activity WHERE ? = ANY(pg_blocking_pids(pid))";
+
+    private final long lockTimeoutMs;
+    private final long deadlineMs;
+    private final long retryPauseMs;
+    private final long monitorIntervalMs;
+    private final long cancelBlockersAfterSeconds;
+    private volatile Runnable checkpoint = () -> {
+    };
+    private final ScheduledExecutorService monitorScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "lock-monitor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Constructs a new LockAwareStatementRunner configured from application.properties.
+     */
+    public LockAwareStatementRunner() {
+        this.lockTimeoutMs = PropertiesUtils.getIntProperty("migration.ddl.lock-timeout-ms", 2000);
+        this.deadlineMs = PropertiesUtils.getIntProperty("migration.ddl.deadline-ms", 300000);
+        this.retryPauseMs = PropertiesUtils.getIntProperty("migration.ddl.retry-pause-ms", 1000);
+        this.monitorIntervalMs = PropertiesUtils.getIntProperty("migration.ddl.monitor-interval-ms", 500);
+        this.cancelBlockersAfterSeconds = PropertiesUtils.getIntProperty("migration.ddl.cancel-blockers-after-seconds", 0);
+    }
+
+    /**
+     * Sets the check run before every retry of a lock attempt, so that a stopping run does not keep waiting for locks.
+     *
+     * @param checkpoint the check, which throws if the run has to stop
+     */
+    public void checkpointWith(Runnable checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Executes the SQL of a migration on a connection inside an open transaction.
+     * Statements without DDL are executed directly; DDL keywords inside comments and string literals do not count.
+     *
+     * @param connection the database connection
+     * @param file       the migration file the SQL belongs to, used for logging
+     * @param sql        the SQL to execute
+     * @throws SQLException if the SQL fails
+     * @throws LockDeadlineExceededException if the SQL still cannot get its locks when the deadline passes
+     * @throws IllegalStateException if the run has to stop while waiting for locks
+     */
+    @SuppressWarnings("try")
+    public void execute(Connection connection, String file, String sql) throws SQLException {
+        if (lockTimeoutMs <= 0 || !DDL_PATTERN.matcher(SqlStatementSplitter.stripCommentsAndLiterals(sql)).find()) {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute(sql);
+            }
+            return;
+        }
+
+        int backendPid = queryBackendPid(connection);
+        String previousLockTimeout = setLockTimeout(connection, lockTimeoutMs + "ms");
+        long deadline = System.currentTimeMillis() + deadlineMs;
+        for (int attempt = 1; ; attempt++) {
+            Savepoint savepoint = connection.setSavepoint();
+            try (BlockerMonitor ignored = new BlockerMonitor(file, backendPid);
+                 Statement stmt = connection.createStatement()) {
+                stmt.execute(sql);
+                connection.releaseSavepoint(savepoint);
+                setLockTimeout(connection, previousLockTimeout);
+                if (attempt > 1) {
+                    log.info("Acquired locks for {} after {} attempts", file, attempt);
+                }
+                return;
+            } catch (SQLException e) {
+                if (!LOCK_NOT_AVAILABLE.equals(SqlStateClassifier.findSqlState(e))) {
+                    throw e;
+                }
+                connection.rollback(savepoint);
+                if (System.currentTimeMillis() + retryPauseMs >= deadline) {
+                    log.error("Could not acquire locks for {} within {} ms", file, deadlineMs);
+                    throw new LockDeadlineExceededException("Could not acquire locks for " + file + " within " + deadlineMs + " ms", e);
+                }
+                log.warn("Lock timeout of {} ms hit by {} (attempt {}), retrying in {} ms",
+                        lockTimeoutMs, file, attempt, retryPauseMs);
+            }
+            sleep(retryPauseMs);
+            checkpoint.run();
+        }
+    }
+
+    /**
+     * Logs the sessions blocking the migration backend and the number of sessions queued behind it,
+     * and cancels blockers that exceed the configured transaction age. A blocker that is idle in transaction has no
+     * query to cancel and keeps its locks until its transaction ends, so its backend is terminated.
+     *
+     * @param sideConnection the monitoring connection
+     * @param file           the migration file, used for logging
+     * @param backendPid     the process id of the migration backend
+     * @throws SQLException if the catalog queries fail
+     */
+    private void reportBlockers(Connection sideConnection, String file, int backendPid) throws SQLException {
+        List<String> blockers = new ArrayList<>();
+        Map<Integer, String> blockersToCancel = new LinkedHashMap<>();
+        try (PreparedStatement pstmt = sideConnection.prepareStatement(SELECT_BLOCKERS)) {
+            pstmt.setInt(1, backendPid);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    int pid = rs.getInt("pid");
+                    long ageSeconds = rs.getLong("xact_age_seconds");
+                    blockers.add("pid=" + pid + " user=" + rs.getString("usename") + " state=" + rs.getString("state")
+                            + " xact_age=" + ageSeconds + "s query=" + rs.getString("query"));
+                    if (cancelBlockersAfterSeconds > 0 && ageSeconds >= cancelBlockersAfterSeconds) {
+                        blockersToCancel.put(pid, rs.getString("state"));
+                    }
+                }
+            }
+        }
+        if (blockers.isEmpty()) {
+            return;
+        }
+        int queued = 0;
+        try (PreparedStatement pstmt = sideConnection.prepareStatement(COUNT_QUEUED)) {
+            pstmt.setInt(1, backendPid);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    queued = rs.getInt(1);
+                }
+            }
+        }
+        log.warn("Migration {} is waiting for a lock; {} session(s) queued behind it; blocked by: {}", file, queued, blockers);
+        for (Map.Entry<Integer, String> blocker : blockersToCancel.entrySet()) {
+            String function = cancelFunction(blocker.getValue());
+            try (PreparedStatement pstmt = sideConnection.prepareStatement("SELECT " + function + "(?)")) {
+                pstmt.setInt(1, blocker.getKey());
+                pstmt.execute();
+                log.warn("Stopped blocking backend {} ({}) older than {} s with {}",
+                        blocker.getKey(), blocker.getValue(), cancelBlockersAfterSeconds, function);
+            }
+        }
+    }
+
+    /**
+     * Chooses how to stop a blocking backend.
+     *
+     * @param state the state of the backend in pg_stat_activity
+     * @return pg_terminate_backend for sessions idle in transaction, pg_cancel_backend otherwise
+     */
+    private static String cancelFunction(String state) {
+        return state != null && state.startsWith("idle in transaction") ? "pg_terminate_backend" : "pg_cancel_backend";
+    }
+
+    /**
+     * Retrieves the process id of the backend serving the connection.
+     *
+     * @param connection the database connection
+     * @return the backend process id
+     * @throws SQLException if the query fails
+     */
+    private int queryBackendPid(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT pg_backend_pid()")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    /**
+     * Sets lock_timeout for the rest of the current transaction.
+     *
+     * @param connection the database connection
+     * @param value      the new lock_timeout value
+     * @return the previous lock_timeout value
+     * @throws SQLException if the setting cannot be changed
+     */
+    private String setLockTimeout(Connection connection, String value) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement(
+                "SELECT current_setting('lock_timeout'), set_config('lock_timeout', ?, true)")) {
+            pstmt.setString(1, value);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                rs.next();
+                return rs.getString(1);
+            }
+        }
+    }
+
+    /**
+     * Pauses between lock attempts.
+     *
+     * @param millis the pause in milliseconds
+     */
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for locks", e);
+        }
+    }
+
+    /**
+     * Periodically reports the sessions blocking one lock attempt, for as long as the try-with-resources block
+     * around the attempt is open.
+     * The side connection is only opened once the attempt has waited for a full monitor interval, and it is
+     * used and closed exclusively on the single monitor thread.
+     */
+    private class BlockerMonitor implements AutoCloseable {
+        private final String file;
+        private final int backendPid;
+        private final ScheduledFuture<?> task;
+        private Connection sideConnection;
+
+        BlockerMonitor(String file, int backendPid) {
+            this.file = file;
+            this.backendPid = backendPid;
+            this.task = monitorScheduler.scheduleWithFixedDelay(this::poll, monitorIntervalMs, monitorIntervalMs, TimeUnit.MILLISECONDS);
+        }
+
+        private void poll() {
+            try {
+                if (sideConnection == null) {
+                    sideConnection = ConnectionManager.createConnection();
+                }
+                reportBlockers(sideConnection, file, backendPid);
+            } catch (SQLException | RuntimeException e) {
+                log.warn("Failed to inspect lock waits of {}", file, e);
+            }
+        }
+
+        @Override
+        public void close() {
+            task.cancel(false);
+            monitorScheduler.execute(() -> {
+                if (sideConnection != null) {
+                    try {
+                        sideConnection.close();
+                    } catch (SQLException e) {
+                        log.warn("Failed to close lock monitor connection", e);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Signals that DDL could not get its locks before the deadline, after retrying with short lock timeouts.
+     * It keeps the lock_not_available SQLSTATE, but the retries are already spent, so the retry policy does not
+     * retry the transaction unit again.
+     */
+    public static class LockDeadlineExceededException extends SQLException {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Constructs a new LockDeadlineExceededException.
+         *
+         * @param message the error message
+         * @param cause   the lock timeout error of the last attempt
+         */
+        public LockDeadlineExceededException(String message, SQLException cause) {
+            super(message, LOCK_NOT_AVAILABLE, cause);
+        }
+    }
+}
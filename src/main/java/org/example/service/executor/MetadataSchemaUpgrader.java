@@ -0,0 +1,214 @@
+package org.example.service.executor;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * MetadataSchemaUpgrader evolves the tool's own metadata tables through ordered, versioned upgrade steps.
+ * Applied steps are recorded in migration_schema_version, so each step runs exactly once per database.
+ */
+@Slf4j
+public class MetadataSchemaUpgrader {
+    private static final long UPGRADE_LOCK_KEY = "DBMigrationManager.metadata".hashCode();
+
+    private static final String CREATE_HISTORY_ARCHIVE = """
+            CREATE TABLE IF NOT EXISTS migration_history_archive (
+                version INTEGER NOT NULL,
+                script_name VARCHAR(255) NOT NULL,
+                checksum VARCHAR(64),
+                applied_at TIMESTAMP,
+                archived_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+            )
+            """;
+
+    private static final List<UpgradeStep> UPGRADE_STEPS = List.of(
+            new UpgradeStep(1, "Index migration_history.version", List.of(
+                    "CREATE INDEX IF NOT EXISTS idx_migration_history_version ON migration_history (version)")),
+            new UpgradeStep(2, "Unique migration_history.script_name", List.of(
+                    // Duplicates are moved to the archive rather than deleted, so it is created ahead of step 4
+                    CREATE_HISTORY_ARCHIVE,
+                    """
+                    WITH removed AS (
+                        DELETE FROM migration_history a USING migration_history b
+                        WHERE a.script_name = b.script_name AND a.id < b.id
+                        RETURNING a.version, a.script_name, a.applied_at
+                    )
+                    INSERT INTO migration_history_archive (version, script_name, applied_at)
+                    SELECT version, script_name, applied_at FROM removed
+                    """,
+                    "CREATE UNIQUE INDEX IF NOT EXISTS uq_migration_history_script_name ON migration_history (script_name)")),
+            new UpgradeStep(3, "Checksum and timing columns", List.of(
+                    "ALTER TABLE migration_history ADD COLUMN IF NOT EXISTS checksum VARCHAR(64)",
+                    "ALTER TABLE migration_history ADD COLUMN IF NOT EXISTS execution_time_ms BIGINT")),
+            new UpgradeStep(4, "History archive table", List.of(
+                    CREATE_HISTORY_ARCHIVE,
+                    "CREATE INDEX IF NOT EXISTS idx_migration_history_archive_version ON migration_history_archive (version)")),
+            new UpgradeStep(5, "Before-image table for data migrations", List.of(
+                    """
+                    CREATE TABLE IF NOT EXISTS migration_before_image (
+                        id BIGSERIAL PRIMARY KEY,
+                        version INTEGER NOT NULL,
+                        statement_index INTEGER NOT NULL,
+                        table_name VARCHAR(255) NOT NULL,
+                        batch_no INTEGER NOT NULL,
+                        row_count INTEGER NOT NULL,
+                        rows JSONB NOT NULL,
+                        captured_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+                    )
+                    """,
+                    "CREATE INDEX IF NOT EXISTS idx_migration_before_image_version ON migration_before_image (version, statement_index)")),
+            new UpgradeStep(6, "Key ranges of backfill jobs", List.of(
+                    """
+                    CREATE TABLE IF NOT EXISTS migration_backfill_range (
+                        job_name VARCHAR(255) NOT NULL,
+                        range_start BIGINT NOT NULL,
+                        range_end BIGINT NOT NULL,
+                        rows_processed BIGINT,
+                        completed_at TIMESTAMP,
+                        PRIMARY KEY (job_name, range_start)
+                    )
+                    """)),
+            new UpgradeStep(7, "Schema fingerprint columns", List.of(
+                    "ALTER TABLE migration_history ADD COLUMN IF NOT EXISTS schema_fingerprint VARCHAR(64)",
+                    "ALTER TABLE migration_history ADD COLUMN IF NOT EXISTS schema_objects JSONB")),
+            new UpgradeStep(8, "Repeatable migration table", List.of(
+                    """
+                    CREATE TABLE IF NOT EXISTS migration_repeatable (
+                        script_name VARCHAR(255) PRIMARY KEY,
+                        checksum VARCHAR(64) NOT NULL,
+                        execution_time_ms BIGINT,
+                        applied_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+                    )
+                    """)),
+            new UpgradeStep(9, "Timing column of the history archive", List.of(
+                    "ALTER TABLE migration_history_archive ADD COLUMN IF NOT EXISTS execution_time_ms BIGINT")),
+            new UpgradeStep(10, "Single schema snapshot instead of object definitions per history row", List.of(
+                    """
+                    CREATE TABLE IF NOT EXISTS migration_schema_snapshot (
+                        id INTEGER PRIMARY KEY CHECK (id = 1),
+                        script_name VARCHAR(255) NOT NULL,
+                        schema_objects JSONB NOT NULL,
+                        recorded_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+                    )
+                    """,
+                    """
+                    INSERT INTO migration_schema_snapshot (id, script_name, schema_objects)
+                    SELECT 1, script_name, schema_objects FROM migration_history
+                    WHERE schema_objects IS NOT NULL
+                    ORDER BY version DESC LIMIT 1
+                    ON CONFLICT (id) DO NOTHING
+                    """,
+                    "ALTER TABLE migration_history DROP COLUMN IF EXISTS schema_objects")),
+            new UpgradeStep(11, "Backend holding the migration lock", List.of(
+                    "ALTER TABLE migration_lock ADD COLUMN IF NOT EXISTS locked_by_pid INTEGER",
+                    "ALTER TABLE migration_lock ADD COLUMN IF NOT EXISTS locked_by_backend_start TIMESTAMPTZ"))
+    );
+
+    /**
+     * Applies all metadata upgrade steps that have not been applied yet.
+     * Every step runs in its own transaction together with its version record, under a transaction-scoped
+     * advisory lock so that concurrently starting instances do not upgrade the same database twice.
+     *
+     * @param connection the database connection
+     */
+    public void upgrade(Connection connection) {
+        try {
+            boolean autoCommit = connection.getAutoCommit();
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("""
+                        CREATE TABLE IF NOT EXISTS migration_schema_version (
+                            version INTEGER PRIMARY KEY,
+                            description VARCHAR(255) NOT NULL,
+                            applied_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+                        )
+                        """);
+            }
+            connection.setAutoCommit(false);
+            try {
+                for (UpgradeStep step : UPGRADE_STEPS) {
+                    applyStep(connection, step);
+                }
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            log.error("Failed to upgrade metadata schema", e);
+            throw new RuntimeException("Critical error while upgrading metadata schema", e);
+        }
+    }
+
+    /**
+     * Applies a single upgrade step unless it is already recorded.
+     *
+     * @param connection the database connection
+     * @param step       the upgrade step
+     * @throws SQLException if the step fails
+     */
+    private void applyStep(Connection connection, UpgradeStep step) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("SELECT pg_advisory_xact_lock(" + UPGRADE_LOCK_KEY + ")");
+        }
+        if (isApplied(connection, step.version)) {
+            connection.commit();
+            return;
+        }
+        try (Statement stmt = connection.createStatement()) {
+            for (int i = 0; i < step.statements.size(); i++) {
+                stmt.execute(step.statements.get(i));
+                if (stmt.getUpdateCount() > 0) {
+                    log.info("Metadata schema upgrade {}, statement {}: {} row(s) affected", step.version, i + 1, stmt.getUpdateCount());
+                }
+            }
+        }
+        try (PreparedStatement pstmt = connection.prepareStatement(
+                "INSERT INTO migration_schema_version (version, description) VALUES (?, ?)")) {
+            pstmt.setInt(1, step.version);
+            pstmt.setString(2, step.description);
+            pstmt.executeUpdate();
+        }
+        connection.commit();
+        log.info("Applied metadata schema upgrade {}: {}", step.version, step.description);
+    }
+
+    /**
+     * Checks whether the given upgrade step version is already recorded.
+     *
+     * @param connection the database connection
+     * @param version    the upgrade step version
+     * @return true if the step has been applied
+     * @throws SQLException if the query fails
+     */
+    private boolean isApplied(Connection connection, int version) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement(
+                "SELECT 1 FROM migration_schema_version WHERE version = ?")) {
+            pstmt.setInt(1, version);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    /**
+     * A single versioned change to the metadata schema.
+     */
+    private static class UpgradeStep {
+        private final int version;
+        private final String description;
+        private final List<String> statements;
+
+        UpgradeStep(int version, String description, List<String> statements) {
+            this.version = version;
+            this.description = description;
+            this.statements = statements;
+        }
+    }
+}
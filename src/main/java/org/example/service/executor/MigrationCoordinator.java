@@ -0,0 +1,132 @@
+package org.example.service.executor;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.service.MigrationLockService;
+import org.example.util.ConnectionManager;
+import org.example.util.PropertiesUtils;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * MigrationCoordinator lets several nodes start at the same time while exactly one of them migrates.
+ * Every node listens on the migration channel before it looks at the lock, so no notification can be missed
+ * between the check and the wait. The lock is checked and taken in one statement and committed before the first
+ * migration, so exactly one node gets it and the others see it at once instead of waiting on its row lock.
+ * The node that gets the lock migrates; the others block until it announces
+ * SUCCESS or FAILED with the resulting version. Because notifications are not persisted, the waiting nodes also
+ * re-check the lock every migration.coordination.poll-interval-ms, and give up after
+ * migration.coordination.timeout-ms, so neither a lost notification nor a crashed migrator keeps them forever.
+ */
+@Slf4j
+public class MigrationCoordinator {
+    private final MigrationExecutor migrationExecutor;
+    private final MigrationLockService lockService;
+    private final long timeoutMs = PropertiesUtils.getIntProperty("migration.coordination.timeout-ms", 600000);
+    private final int pollIntervalMs = PropertiesUtils.getIntProperty("migration.coordination.poll-interval-ms", 5000);
+
+    /**
+     * Constructs a new MigrationCoordinator.
+     *
+     * @param migrationExecutor the executor used when this node becomes the migrator
+     * @param lockService       the service for checking the migration lock
+     */
+    public MigrationCoordinator(MigrationExecutor migrationExecutor, MigrationLockService lockService) {
+        this.migrationExecutor = migrationExecutor;
+        this.lockService = lockService;
+    }
+
+    /**
+     * Applies pending migrations, or waits until the node that is already migrating has finished.
+     *
+     * @return the migration version the database is at once the migration run has ended
+     */
+    public int migrateOrWait() {
+        try (Connection listener = ConnectionManager.createConnection()) {
+            listener.setAutoCommit(true);
+            try (Statement stmt = listener.createStatement()) {
+                stmt.execute("LISTEN " + MigrationLockService.MIGRATION_CHANNEL);
+            }
+            if (!lockService.isLocked(listener)) {
+                migrationExecutor.migrate();
+            }
+            return awaitMigrator(listener);
+        } catch (SQLException e) {
+            log.error("Failed to coordinate migration", e);
+            throw new RuntimeException("Critical error while coordinating migration", e);
+        }
+    }
+
+    /**
+     * Waits until no node holds the migration lock.
+     *
+     * @param listener the connection listening on the migration channel
+     * @return the migration version announced by the migrator, or the current version if the lock was released
+     * without a notification
+     * @throws SQLException if waiting for notifications fails
+     */
+    private int awaitMigrator(Connection listener) throws SQLException {
+        PGConnection pgConnection = listener.unwrap(PGConnection.class);
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        boolean waiting = false;
+        while (true) {
+            PGNotification[] notifications = pgConnection.getNotifications(waiting ? pollIntervalMs : 1);
+            if (notifications != null) {
+                for (PGNotification notification : notifications) {
+                    if (MigrationLockService.MIGRATION_CHANNEL.equals(notification.getName())
+                            && !notification.getParameter().startsWith("LOCKED:")) {
+                        return handleNotification(notification.getParameter());
+                    }
+                }
+            }
+            if (!lockService.isLocked(listener)) {
+                return currentVersion(listener);
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                log.error("Timed out after {} ms waiting for the migrating node", timeoutMs);
+                throw new RuntimeException("Critical error: timed out waiting for the migrating node");
+            }
+            if (!waiting) {
+                log.info("Another node is migrating; waiting for it to finish.");
+                waiting = true;
+            }
+        }
+    }
+
+    /**
+     * Interprets a completion notification of the migrating node.
+     *
+     * @param payload the notification payload, STATUS:VERSION
+     * @return the announced version if the run succeeded
+     */
+    private int handleNotification(String payload) {
+        int separator = payload.lastIndexOf(':');
+        String status = payload.substring(0, separator);
+        int version = Integer.parseInt(payload.substring(separator + 1));
+        if (!"SUCCESS".equals(status)) {
+            log.error("The migrating node reported {} at version {}", status, version);
+            throw new RuntimeException("Critical error: migration failed on the migrating node at version " + version);
+        }
+        log.info("The migrating node finished at version {}", version);
+        return version;
+    }
+
+    /**
+     * Retrieves the current migration version.
+     *
+     * @param connection the database connection
+     * @return the highest applied version, or 0
+     * @throws SQLException if the query fails
+     */
+    private int currentVersion(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT coalesce(MAX(version), 0) FROM migration_history")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}
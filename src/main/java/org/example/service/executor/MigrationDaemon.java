@@ -0,0 +1,369 @@
+package org.example.service.executor;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+import org.example.comparator.NaturalOrderComparator;
+import org.example.migration.JavaMigrationRegistry;
+import org.example.model.MigrationStatus;
+import org.example.service.MigrationHistoryService;
+import org.example.service.MigrationLockService;
+import org.example.util.ConnectionManager;
+import org.example.util.MigrationFileReader;
+import org.example.util.PropertiesUtils;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * MigrationDaemon serves the migration status over a local HTTP endpoint, so readiness probes and other status
+ * readers cost nothing on the database. It keeps one connection that listens on the migration channel and an
+ * in-memory snapshot of the current version, the applied and pending migrations and the lock state. The snapshot is
+ * refreshed when a migration run announces that it took the lock or completed, and every migration.daemon.refresh-ms
+ * otherwise; a refresh only reads the version, the number of applied migrations, a hash over their names and
+ * application times, and the lock row, and reloads the migration history only when these changed, so a rollback
+ * followed by a migration that leaves the version and the count unchanged is noticed too. GET /status returns the snapshot as JSON with an ETag and answers 304 Not Modified to a matching
+ * If-None-Match. If the database becomes unreachable, the last snapshot keeps being served and the connection is
+ * reopened on the next refresh.
+ */
+@Slf4j
+public class MigrationDaemon {
+    private static final String PROBE_SQL = """
+            SELECT (SELECT coalesce(MAX(version), 0) FROM migration_history),
+                   (SELECT count(*) FROM migration_history),
+                   (SELECT coalesce(sum(hashtext(script_name || '@' || coalesce(applied_at::TEXT, ''))), 0) FROM migration_history),
+                   (SELECT locked AND %s FROM migration_lock WHERE id = 1),
+                   (SELECT locked_at FROM migration_lock WHERE id = 1)
+            """.formatted(MigrationLockService.OWNER_ALIVE);
+    private static final int MAX_WAIT_SLICE_MS = 1000;
+
+    private final MigrationHistoryService historyService;
+    private final String bindAddress = PropertiesUtils.getProperty("migration.daemon.bind-address", "127.0.0.1");
+    private final int port = PropertiesUtils.getIntProperty("migration.daemon.port", 8089);
+    private final long refreshMs = PropertiesUtils.getIntProperty("migration.daemon.refresh-ms", 30000);
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private volatile Snapshot snapshot;
+    private volatile boolean running;
+    private Connection connection;
+    private long historyCount = -1;
+    private long historyHash;
+    private List<String> appliedMigrations = List.of();
+    private HttpServer server;
+    private Thread refreshThread;
+
+    /**
+     * Constructs a new MigrationDaemon.
+     *
+     * @param historyService the service for loading the applied migrations
+     */
+    public MigrationDaemon(MigrationHistoryService historyService) {
+        this.historyService = historyService;
+    }
+
+    /**
+     * Loads the first snapshot, starts the HTTP endpoint and starts refreshing the snapshot in a background thread.
+     */
+    public synchronized void start() {
+        if (running) {
+            log.warn("The migration daemon is already running.");
+            return;
+        }
+        try {
+            refresh();
+        } catch (SQLException e) {
+            closeConnection();
+            log.error("Failed to load the migration status", e);
+            throw new RuntimeException("Critical error while loading the migration status", e);
+        }
+        try {
+            server = HttpServer.create(new InetSocketAddress(bindAddress, port), 0);
+        } catch (IOException e) {
+            closeConnection();
+            log.error("Failed to bind the status endpoint to {}:{}", bindAddress, port, e);
+            throw new RuntimeException("Critical error while starting the status endpoint on " + bindAddress + ":" + port, e);
+        }
+        server.createContext("/status", this::handleStatus);
+        server.start();
+
+        running = true;
+        refreshThread = new Thread(this::refreshLoop, "migration-daemon");
+        refreshThread.setDaemon(true);
+        refreshThread.start();
+        log.info("Serving the migration status on http://{}:{}/status (version {}, {} pending).", bindAddress,
+                server.getAddress().getPort(), snapshot.status.getCurrentVersion(), snapshot.status.getPendingMigrations().size());
+    }
+
+    /**
+     * Stops the HTTP endpoint and the refresh thread and closes the connection.
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        server.stop(0);
+        try {
+            refreshThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeConnection();
+        refreshThread = null;
+        server = null;
+        log.info("Stopped the migration daemon.");
+    }
+
+    /**
+     * Computes the entity tag of a response body.
+     *
+     * @param body the response body
+     * @return the quoted strong entity tag
+     */
+    public static String etag(byte[] body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+            return "\"" + HexFormat.of().formatHex(digest, 0, 16) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Checks whether an If-None-Match header matches the current entity tag, using the weak comparison
+     * that HTTP prescribes for If-None-Match.
+     *
+     * @param ifNoneMatch the header value, or null
+     * @param etag        the current entity tag
+     * @return true if the client's copy is current
+     */
+    public static boolean matchesETag(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        String current = etag.startsWith("W/") ? etag.substring(2) : etag;
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*")) {
+                return true;
+            }
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(current)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Determines the migrations that have not been applied.
+     *
+     * @param migrations the migration file names and Java migration names
+     * @param applied    the applied migration names
+     * @return the pending migrations in natural order
+     */
+    public static List<String> pendingMigrations(Collection<String> migrations, Collection<String> applied) {
+        Set<String> appliedSet = new HashSet<>(applied);
+        List<String> pending = new ArrayList<>();
+        for (String migration : migrations) {
+            if (!appliedSet.contains(migration)) {
+                pending.add(migration);
+            }
+        }
+        pending.sort(new NaturalOrderComparator());
+        return pending;
+    }
+
+    /**
+     * Waits for a notification or the refresh interval and refreshes the snapshot, until stopped.
+     * The wait is split into short slices so that stopping the daemon does not wait for a full interval.
+     */
+    private void refreshLoop() {
+        while (running) {
+            try {
+                if (connection == null) {
+                    refresh();
+                }
+                awaitInvalidation();
+                if (running) {
+                    refresh();
+                }
+            } catch (SQLException | RuntimeException e) {
+                log.warn("Failed to refresh the migration status; serving the last snapshot: {}", e.getMessage());
+                closeConnection();
+                pause(refreshMs);
+            }
+        }
+    }
+
+    /**
+     * Waits until a migration run announces its start or completion or the refresh interval has passed.
+     *
+     * @throws SQLException if waiting for notifications fails
+     */
+    private void awaitInvalidation() throws SQLException {
+        PGConnection pgConnection = connection.unwrap(PGConnection.class);
+        long deadline = System.currentTimeMillis() + refreshMs;
+        while (running) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return;
+            }
+            PGNotification[] notifications = pgConnection.getNotifications((int) Math.min(remaining, MAX_WAIT_SLICE_MS));
+            if (notifications != null) {
+                for (PGNotification notification : notifications) {
+                    if (MigrationLockService.MIGRATION_CHANNEL.equals(notification.getName())) {
+                        log.info("Migration run {} ({}); refreshing the migration status.",
+                                notification.getParameter().startsWith("LOCKED:") ? "started" : "completed",
+                                notification.getParameter());
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the version, the number and hash of the applied migrations and the lock state, reloads the applied
+     * migrations if the history changed and publishes a new snapshot if the status changed.
+     *
+     * @throws SQLException if a query fails
+     */
+    private void refresh() throws SQLException {
+        if (connection == null) {
+            connection = ConnectionManager.createConnection();
+            connection.setAutoCommit(true);
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("LISTEN " + MigrationLockService.MIGRATION_CHANNEL);
+            }
+        }
+        int version;
+        long count;
+        long hash;
+        boolean locked;
+        Timestamp lockChangedAt;
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(PROBE_SQL)) {
+            rs.next();
+            version = rs.getInt(1);
+            count = rs.getLong(2);
+            hash = rs.getLong(3);
+            locked = rs.getBoolean(4);
+            lockChangedAt = rs.getTimestamp(5);
+        }
+        Snapshot current = snapshot;
+        if (current == null || count != historyCount || hash != historyHash || version != current.status.getCurrentVersion()) {
+            appliedMigrations = List.copyOf(historyService.getAppliedMigrations(connection));
+            historyCount = count;
+            historyHash = hash;
+        }
+        List<String> migrations = new ArrayList<>(MigrationFileReader.getMigrationFiles());
+        migrations.addAll(JavaMigrationRegistry.getMigrationNames());
+        MigrationStatus status = new MigrationStatus(version, appliedMigrations,
+                pendingMigrations(migrations, appliedMigrations), locked, lockChangedAt);
+        if (current == null || !current.status.equals(status)) {
+            snapshot = new Snapshot(status, serialize(status));
+            log.info("Migration status changed: version {}, {} applied, {} pending, {}.", version,
+                    appliedMigrations.size(), status.getPendingMigrations().size(), locked ? "locked" : "unlocked");
+        }
+    }
+
+    /**
+     * Answers a status request from the in-memory snapshot.
+     *
+     * @param exchange the HTTP exchange
+     * @throws IOException if the response cannot be written
+     */
+    private void handleStatus(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String method = exchange.getRequestMethod();
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            Snapshot current = snapshot;
+            exchange.getResponseHeaders().set("ETag", current.etag);
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            if (matchesETag(exchange.getRequestHeaders().getFirst("If-None-Match"), current.etag)) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            if (method.equals("HEAD")) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, current.body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(current.body);
+            }
+        }
+    }
+
+    private byte[] serialize(MigrationStatus status) {
+        try {
+            return objectMapper.writeValueAsBytes(status);
+        } catch (JsonProcessingException e) {
+            log.error("Failed to serialize the migration status", e);
+            throw new RuntimeException("Critical error while serializing the migration status", e);
+        }
+    }
+
+    private void closeConnection() {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                log.warn("Failed to close the daemon connection", e);
+            }
+            connection = null;
+        }
+    }
+
+    private void pause(long millis) {
+        long deadline = System.currentTimeMillis() + millis;
+        try {
+            while (running && System.currentTimeMillis() < deadline) {
+                Thread.sleep(Math.min(MAX_WAIT_SLICE_MS, Math.max(1, deadline - System.currentTimeMillis())));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * An immutable migration status together with its serialized body and entity tag.
+     */
+    private static class Snapshot {
+        private final MigrationStatus status;
+        private final byte[] body;
+        private final String etag;
+
+        Snapshot(MigrationStatus status, byte[] body) {
+            this.status = status;
+            this.body = body;
+            this.etag = etag(body);
+        }
+    }
+}
@@ -1,30 +1,77 @@
 package org.example.service.executor;
 
 import lombok.extern.slf4j.Slf4j;
+import org.example.comparator.NaturalOrderComparator;
+import org.example.migration.ExpandContractMigration;
+import org.example.migration.JavaMigrationContext;
+import org.example.migration.JavaMigrationRegistry;
+import org.example.migration.PartitionConversion;
+import org.example.migration.ThrottleController;
+import org.example.model.ColumnChange;
+import org.example.model.LintFinding;
 import org.example.model.MigrationRecord;
+import org.example.model.MigrationScript;
+import org.example.model.PartitionChange;
+import org.example.model.ProgressMetrics;
+import org.example.model.ThrottleMetrics;
+import org.example.service.BeforeImageService;
 import org.example.service.MigrationHistoryService;
+import org.example.service.MigrationLinter;
 import org.example.service.MigrationLockService;
 import org.example.service.MigrationReportService;
+import org.example.service.RepeatableMigrationService;
+import org.example.service.SchemaFingerprintService;
 import org.example.util.ConnectionManager;
 import org.example.util.MigrationFileReader;
 import org.example.util.MigrationRollbackGenerator;
+import org.example.util.PhaseTracer;
+import org.example.util.SqlStateClassifier;
+import org.example.util.SqlStatementSplitter;
 import org.example.util.paths.ReportPaths;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.sql.Timestamp;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * MigrationExecutor handles the execution of database migrations.
  */
 @Slf4j
 public class MigrationExecutor {
+    private static final int CONNECTION_CHECK_TIMEOUT_SECONDS = 5;
+
     private final MigrationHistoryService historyService;
     private final MigrationLockService lockService;
     private final MigrationReportService reportService = new MigrationReportService();
+    private final TransactionPolicy transactionPolicy = TransactionPolicy.fromProperties();
+    private final LockAwareStatementRunner statementRunner = new LockAwareStatementRunner();
+    private final BeforeImageService beforeImageService = new BeforeImageService();
+    private final MigrationLinter linter = new MigrationLinter();
+    private final SessionTuner sessionTuner = new SessionTuner();
+    private final SchemaFingerprintService fingerprintService = new SchemaFingerprintService();
+    private final RepeatableMigrationService repeatableService = new RepeatableMigrationService();
+    private final MigrationPacker packer = MigrationPacker.fromProperties();
+    private final StatisticsRefresher statisticsRefresher = new StatisticsRefresher();
+    private final ExpandContractMigration columnChanges = new ExpandContractMigration(statementRunner);
+    private final PartitionConversion partitionConversions = new PartitionConversion(statementRunner);
+    private final ProgressMonitor progressMonitor = new ProgressMonitor();
+    private PhaseTracer tracer = new PhaseTracer("migrate");
+    private ThrottleController throttle = ThrottleController.fromProperties();
+    private RunGuard runGuard;
+    private Set<String> modifiedTables = new LinkedHashSet<>();
 
     /**
      * Constructs a new MigrationExecutor with the specified history and lock services.
@@ -40,87 +87,793 @@ public class MigrationExecutor {
     /**
      * Applies all pending migrations and generates reports for the applied migrations.
      * This method ensures that migrations are not concurrently applied by using a locking mechanism.
+     * Pending migrations are committed in units defined by the configured {@link TransactionPolicy}.
      */
     public void migrate() {
+        migrate(this::getPendingMigrations, true);
+    }
+
+    /**
+     * Applies the given migration files, which the caller knows to be pending, without listing the migration
+     * directory or loading the migration history. Rollback files are generated for these files only.
+     *
+     * @param migrationFiles the pending migration file names in execution order
+     * @return the records of the migrations applied in this run
+     */
+    public List<MigrationRecord> migrate(List<String> migrationFiles) {
+        return migrate(connection -> migrationFiles, false);
+    }
+
+    /**
+     * Applies pending migrations under the migration lock.
+     *
+     * @param pendingMigrationsLookup determines the pending migrations once the lock is held
+     * @param scanAllRollbackFiles    whether to generate missing rollback files for the whole directory
+     *                                instead of only for the migrations applied in this run
+     * @return the records of the migrations applied in this run
+     */
+    @SuppressWarnings("try")
+    private List<MigrationRecord> migrate(Function<Connection, List<String>> pendingMigrationsLookup, boolean scanAllRollbackFiles) {
         Connection connection = null;
-        List<MigrationRecord> appliedThisRun = new ArrayList<>();
+        List<MigrationRecord> appliedThisRun = Collections.synchronizedList(new ArrayList<>());
+        boolean lockHeld = false;
+        tracer = new PhaseTracer("migrate");
+        throttle = ThrottleController.fromProperties();
+        modifiedTables = new LinkedHashSet<>();
+        runGuard = new RunGuard(cleanupConnection -> releaseAfterShutdown(cleanupConnection, appliedThisRun));
+        throttle.stopWhen(runGuard::isStopping);
+        throttle.trackConnectionsWith(runGuard);
+        statementRunner.checkpointWith(runGuard::checkpoint);
         try {
-            connection = ConnectionManager.getConnection();
-            connection.setAutoCommit(false);
+            try (PhaseTracer.Span span = tracer.start("connect")) {
+                connection = ConnectionManager.getConnection();
+                connection.setAutoCommit(false);
+                runGuard.attach(connection);
+            }
 
-            if (lockService.isLocked(connection)) {
-                log.warn("Migration is already in progress by another process.");
-                return;
+            try (PhaseTracer.Span span = tracer.start("acquire-lock")) {
+                if (!lockService.tryLock(connection)) {
+                    log.warn("Migration is already in progress by another process.");
+                    connection.commit();
+                    return appliedThisRun;
+                }
+                lockService.notifyLocked(connection);
+                // Committed on its own, so that the lock survives the rollback of a failed or retried unit
+                connection.commit();
+                lockHeld = true;
             }
 
-            lockService.lock(connection);
+            List<String> pendingMigrations = pendingMigrationsLookup.apply(connection);
 
-            List<String> migrationFiles = MigrationFileReader.getMigrationFiles();
-            List<String> appliedMigrations = historyService.getAppliedMigrations(connection);
+            Map<String, MigrationScript> pendingScripts;
+            try (PhaseTracer.Span span = tracer.start("parse")) {
+                pendingScripts = pendingMigrations.parallelStream()
+                        .filter(file -> !JavaMigrationRegistry.isJavaMigration(file))
+                        .map(MigrationFileReader::readMigrationScript)
+                        .collect(Collectors.toMap(MigrationScript::getFileName, script -> script));
+            }
+            List<LintFinding> findings;
+            try (PhaseTracer.Span span = tracer.start("lint")) {
+                findings = linter.lint(pendingScripts.values());
+            }
+            linter.logFindings(findings);
+            long blockingFindings = findings.stream().filter(linter::isBlocking).count();
+            if (blockingFindings > 0) {
+                log.error("Migration blocked by {} lint finding(s). Fix the migrations or lower the rule severity.", blockingFindings);
+                lockService.notifyCompletion(connection, "FAILED");
+                lockService.unlock(connection);
+                connection.commit();
+                return appliedThisRun;
+            }
 
-            for (String file : migrationFiles) {
-                if (appliedMigrations.contains(file)) {
-                    log.info("Migration already applied: {}", file);
-                    continue;
+            RetryPolicy retryPolicy = RetryPolicy.fromProperties();
+            List<List<String>> units = transactionPolicy.partition(pendingMigrations,
+                    file -> !pendingScripts.containsKey(file) || !pendingScripts.get(file).isTransactional());
+            for (List<String> unit : units) {
+                checkpoint(connection, appliedThisRun);
+                try (PhaseTracer.Span span = tracer.start("unit", String.join(", ", unit))) {
+                    connection = applyUnit(unit, pendingScripts, connection, retryPolicy, appliedThisRun);
                 }
+            }
+            try (PhaseTracer.Span span = tracer.start("repeatable-migrations")) {
+                applyRepeatableMigrations(connection, appliedThisRun);
+            }
 
-                applyMigration(file, connection, appliedThisRun);
+            try (PhaseTracer.Span span = tracer.start("commit")) {
+                connection.commit();
             }
 
-            MigrationRollbackGenerator.generateRollbackFiles();
+            try (PhaseTracer.Span span = tracer.start("generate-rollback-files")) {
+                if (scanAllRollbackFiles) {
+                    MigrationRollbackGenerator.generateRollbackFiles();
+                } else {
+                    MigrationRollbackGenerator.generateRollbackFiles(pendingMigrations);
+                }
+            }
 
-            connection.commit();
+            try (PhaseTracer.Span span = tracer.start("write-report")) {
+                reportService.generateJSONReport(appliedThisRun, ReportPaths.MIGRATE_REPORT_DIRECTORY + "migration_report.json");
+            }
 
-            reportService.generateJSONReport(appliedThisRun, ReportPaths.MIGRATE_REPORT_DIRECTORY + "migration_report.json");
+            try (PhaseTracer.Span span = tracer.start("release-lock")) {
+                lockService.notifyCompletion(connection, "SUCCESS");
+                lockService.unlock(connection);
+                connection.commit();
+            }
 
-            lockService.unlock(connection);
+            try (PhaseTracer.Span span = tracer.start("analyze")) {
+                statisticsRefresher.refresh(modifiedTables);
+            }
         } catch (SQLException e) {
-            handleMigrationException(connection, e);
+            if (lockHeld) {
+                releaseLockIfConnectionLost(connection);
+            }
+            handleMigrationException(connection, e, lockHeld);
+        } catch (RuntimeException e) {
+            if (lockHeld) {
+                announceFailure(connection);
+                releaseLockIfConnectionLost(connection);
+            }
+            throw e;
         } finally {
             closeConnection(connection);
+            throttle.close();
+            tracer.finish();
+            runGuard.close();
+        }
+        return appliedThisRun;
+    }
+
+    /**
+     * Lints all pending migrations and logs the findings without applying anything.
+     */
+    @SuppressWarnings("try")
+    public void lint() {
+        Connection connection = null;
+        tracer = new PhaseTracer("lint");
+        try {
+            connection = ConnectionManager.getConnection();
+            List<String> pendingMigrations = getPendingMigrations(connection);
+            List<LintFinding> findings;
+            try (PhaseTracer.Span span = tracer.start("lint")) {
+                findings = linter.lintFiles(pendingMigrations.stream()
+                        .filter(file -> !JavaMigrationRegistry.isJavaMigration(file))
+                        .collect(Collectors.toList()));
+            }
+            linter.logFindings(findings);
+            long blockingFindings = findings.stream().filter(linter::isBlocking).count();
+            log.info("Linted {} pending migration(s): {} finding(s), {} blocking.", pendingMigrations.size(), findings.size(), blockingFindings);
+        } finally {
+            closeConnection(connection);
+            tracer.finish();
+        }
+    }
+
+    /**
+     * Determines the migration files and Java migrations that have not been applied yet.
+     *
+     * @param connection the database connection
+     * @return the pending migration file names in execution order
+     */
+    @SuppressWarnings("try")
+    private List<String> getPendingMigrations(Connection connection) {
+        List<String> migrationFiles;
+        try (PhaseTracer.Span span = tracer.start("list-migrations")) {
+            migrationFiles = new ArrayList<>(MigrationFileReader.getMigrationFiles());
+            migrationFiles.addAll(JavaMigrationRegistry.getMigrationNames());
+            migrationFiles.sort(new NaturalOrderComparator());
+        }
+        Set<String> appliedMigrations;
+        try (PhaseTracer.Span span = tracer.start("load-history")) {
+            appliedMigrations = new HashSet<>(historyService.getAppliedMigrations(connection));
+        }
+
+        List<String> pendingMigrations = new ArrayList<>();
+        for (String file : migrationFiles) {
+            if (appliedMigrations.contains(file)) {
+                log.info("Migration already applied: {}", file);
+                continue;
+            }
+            pendingMigrations.add(file);
+        }
+        return pendingMigrations;
+    }
+
+    /**
+     * Applies a transaction unit of migrations and commits it.
+     * Transient failures (serialization failures, deadlocks, lock timeouts, lost connections) roll back the unit
+     * and retry it with backoff as long as the retry policy allows; a lost connection is re-acquired first.
+     * On any other failure, in grouped mode every migration runs under its own savepoint, so the failing migration
+     * is rolled back alone and the migrations before it in the unit are still committed. Otherwise a failure
+     * rolls back the whole unit. In both cases the lock is released and the migration process stops.
+     *
+     * @param unit           the migration files of the unit
+     * @param scripts        the parsed pending migrations by file name
+     * @param connection     the database connection
+     * @param retryPolicy    the retry policy of this run
+     * @param appliedThisRun the list of applied migration records in this run
+     * @return the connection to continue with, which differs from the given one if it had to be re-acquired
+     * @throws SQLException if recovering from a failure fails
+     */
+    @SuppressWarnings("try")
+    private Connection applyUnit(List<String> unit, Map<String, MigrationScript> scripts, Connection connection,
+                                 RetryPolicy retryPolicy, List<MigrationRecord> appliedThisRun) throws SQLException {
+        if (unit.size() == 1 && JavaMigrationRegistry.isJavaMigration(unit.get(0))) {
+            applyJavaMigration(unit.get(0), connection, appliedThisRun);
+            return connection;
+        }
+        if (unit.size() == 1 && scripts.get(unit.get(0)).isOnlineChange()) {
+            applyOnlineChange(scripts.get(unit.get(0)), connection, appliedThisRun);
+            return connection;
+        }
+        if (unit.size() == 1 && !scripts.get(unit.get(0)).isTransactional()) {
+            applyOutsideTransaction(scripts.get(unit.get(0)), connection, appliedThisRun);
+            return connection;
+        }
+        List<List<MigrationScript>> packs = packer.pack(
+                unit.stream().map(scripts::get).collect(Collectors.toList()), this::isPackable);
+        List<String> retries = new ArrayList<>();
+        for (int attempt = 1; ; attempt++) {
+            List<MigrationRecord> appliedInUnit = new ArrayList<>();
+            String currentFile = null;
+            Savepoint savepoint = null;
+            try {
+                for (List<MigrationScript> pack : packs) {
+                    currentFile = pack.get(0).getFileName();
+                    if (pack.size() > 1 && applyPack(pack, connection, appliedInUnit)) {
+                        continue;
+                    }
+                    for (MigrationScript script : pack) {
+                        currentFile = script.getFileName();
+                        runGuard.checkpoint();
+                        savepoint = transactionPolicy.usesSavepoints() ? connection.setSavepoint() : null;
+                        try (PhaseTracer.Span span = tracer.start("migration", currentFile)) {
+                            applyMigration(script, connection, appliedInUnit);
+                        }
+                        if (savepoint != null) {
+                            connection.releaseSavepoint(savepoint);
+                            savepoint = null;
+                        }
+                    }
+                }
+                currentFile = null;
+                try (PhaseTracer.Span span = tracer.start("commit")) {
+                    connection.commit();
+                }
+                if (!retries.isEmpty()) {
+                    appliedInUnit.forEach(record -> record.setRetries(retries));
+                }
+                appliedThisRun.addAll(appliedInUnit);
+                return connection;
+            } catch (SQLException | RuntimeException e) {
+                // A shutdown cancels the statement or terminates the backend, which must not be retried on a new connection
+                if (!runGuard.isStopping() && retryPolicy.shouldRetry(e, attempt)) {
+                    String reason = "attempt " + attempt + ": " + SqlStateClassifier.findSqlState(e) + " " + e.getMessage();
+                    retries.add(reason);
+                    log.warn("Transient failure while applying {}, retrying the transaction unit ({})",
+                            currentFile != null ? currentFile : "commit", reason);
+                    connection = recoverForRetry(connection, e);
+                    retryPolicy.backoff(attempt);
+                    continue;
+                }
+                String failedFile = currentFile != null ? currentFile : unit.get(unit.size() - 1);
+                if (savepoint != null) {
+                    connection.rollback(savepoint);
+                    connection.commit();
+                    appliedThisRun.addAll(appliedInUnit);
+                    log.error("Failed to apply migration: {}. Rolled back this migration and kept {} earlier migration(s) of its group.",
+                            failedFile, appliedInUnit.size(), e);
+                } else {
+                    connection.rollback(); // Rollback transaction in case of failure
+                    log.error("Failed to apply migration: {}. Rolled back all changes of the current transaction.", failedFile, e);
+                }
+                appliedThisRun.add(new MigrationRecord(failedFile, "FAILED", new Timestamp(System.currentTimeMillis()),
+                        retries.isEmpty() ? null : retries));
+                lockService.unlock(connection); // Release lock
+                reportService.generateJSONReport(appliedThisRun, ReportPaths.MIGRATE_REPORT_DIRECTORY + "migration_report.json");
+                throw new RuntimeException("Critical error during migration application", e);
+            }
+        }
+    }
+
+    /**
+     * Checks whether a migration may be combined with others into one submission.
+     * Migrations with session settings, streamed migrations and migrations whose before-images are captured
+     * need statements of their own, and migrations that cannot run inside a transaction need auto-commit;
+     * they are applied one by one.
+     *
+     * @param script the parsed migration file
+     * @return true if the migration may be packed
+     */
+    private boolean isPackable(MigrationScript script) {
+        return !script.isStreamed()
+                && script.isTransactional()
+                && sessionTuner.resolve(script).isEmpty()
+                && !(beforeImageService.isEnabled() && script.getStatements().stream().anyMatch(beforeImageService::requiresCapture));
+    }
+
+    /**
+     * Applies a pack of small migrations and their history inserts in one submission under a savepoint.
+     * If the submission fails, the savepoint is rolled back and the caller applies the migrations one by one,
+     * so that the failing file is identified and handled as usual.
+     *
+     * @param pack          the migrations of the pack
+     * @param connection    the database connection
+     * @param appliedInUnit the list of applied migration records in the current transaction unit
+     * @return true if the pack was applied, false if it has to be applied one by one
+     * @throws SQLException if the connection was lost or the savepoint cannot be rolled back
+     */
+    @SuppressWarnings("try")
+    private boolean applyPack(List<MigrationScript> pack, Connection connection, List<MigrationRecord> appliedInUnit) throws SQLException {
+        List<String> files = pack.stream().map(MigrationScript::getFileName).collect(Collectors.toList());
+        String submission = packer.buildSubmission(pack, (script, executionTimeMs) -> historyService.buildRecordMigrationStatement(
+                script.getFileName(), MigrationFileReader.calculateChecksum(script.getFileName()), executionTimeMs));
+        runGuard.checkpoint();
+        Map<String, String> previousSettings = sessionTuner.apply(connection, runSettings(), true);
+        Savepoint savepoint = connection.setSavepoint();
+        try (PhaseTracer.Span span = tracer.start("pack", String.join(", ", files))) {
+            statementRunner.execute(connection, String.join(", ", files), submission);
+            connection.releaseSavepoint(savepoint);
+        } catch (SQLException e) {
+            if (SqlStateClassifier.isConnectionLoss(e)) {
+                throw e;
+            }
+            connection.rollback(savepoint);
+            sessionTuner.restore(connection, previousSettings, true);
+            log.warn("Packed submission of {} migrations failed ({}); applying them one by one.", files.size(), e.getMessage());
+            return false;
+        }
+        sessionTuner.restore(connection, previousSettings, true);
+        // Intermediate schemas of a pack are never visible, so only the last migration gets a fingerprint
+        fingerprintService.recordFingerprint(connection, files.get(files.size() - 1));
+        pack.forEach(script -> modifiedTables.addAll(StatisticsRefresher.modifiedTables(script)));
+        for (String file : files) {
+            appliedInUnit.add(new MigrationRecord(file, "SUCCESS", new Timestamp(System.currentTimeMillis())));
+        }
+        log.info("Successfully applied {} packed migrations: {}", files.size(), files);
+        return true;
+    }
+
+    /**
+     * Prepares the connection for retrying a transaction unit.
+     * The unit is rolled back; if the connection was lost it is re-acquired. The lock was committed before the
+     * first unit, so it is held across both; after a reconnect it is moved to the new backend.
+     *
+     * @param connection the connection the unit failed on
+     * @param error      the transient error
+     * @return the connection to retry on
+     * @throws SQLException if the connection cannot be prepared
+     */
+    private Connection recoverForRetry(Connection connection, Throwable error) throws SQLException {
+        if (SqlStateClassifier.isConnectionLoss(error) || connection.isClosed()) {
+            int previousPid = runGuard.getBackendPid();
+            Connection newConnection = ConnectionManager.reconnect();
+            newConnection.setAutoCommit(false);
+            runGuard.attach(newConnection);
+            // The lock records the lost backend, so other processes would soon see it as stale
+            if (!lockService.reclaim(newConnection, previousPid)) {
+                newConnection.rollback();
+                throw new IllegalStateException("The migration lock was taken over by another process while reconnecting");
+            }
+            newConnection.commit();
+            return newConnection;
         }
+        connection.rollback();
+        return connection;
     }
 
     /**
      * Applies a single migration file.
      * This method executes the SQL statements in the migration file and records the migration.
+     * The migration's session settings are applied for the rest of the transaction and reset afterwards.
      *
-     * @param file            the migration file
+     * @param script          the parsed migration file
      * @param connection      the database connection
-     * @param appliedThisRun  the list of applied migration records in this run
+     * @param appliedInUnit   the list of applied migration records in the current transaction unit
+     * @throws SQLException if the migration fails
      */
-    private void applyMigration(String file, Connection connection, List<MigrationRecord> appliedThisRun) {
+    private void applyMigration(MigrationScript script, Connection connection, List<MigrationRecord> appliedInUnit) throws SQLException {
+        String file = script.getFileName();
+        long startedAt = System.currentTimeMillis();
+        Map<String, String> previousSettings = sessionTuner.apply(connection, script, true, runSettings());
+        throttle.resetMetrics();
+        ProgressMetrics progress;
+        try (ProgressMonitor.Watch watch = progressMonitor.watch(file, connection, List.of())) {
+            if (script.isStreamed()) {
+                executeStreamed(script, connection, beforeImageService.isEnabled());
+            } else if (beforeImageService.isEnabled()) {
+                executeWithBeforeImages(script, connection);
+            } else {
+                statementRunner.execute(connection, file, script.getSql());
+            }
+            progress = watch.getMetrics();
+        }
+        sessionTuner.restore(connection, previousSettings, true);
+        historyService.recordMigration(connection, file, MigrationFileReader.calculateChecksum(file),
+                System.currentTimeMillis() - startedAt);
+        fingerprintService.recordFingerprint(connection, file);
+        modifiedTables.addAll(StatisticsRefresher.modifiedTables(script));
+        MigrationRecord record = new MigrationRecord(file, "SUCCESS", new Timestamp(System.currentTimeMillis()));
+        record.setThrottle(throttleDecisions());
+        record.setProgress(progress);
+        appliedInUnit.add(record);
+        log.info("Successfully applied migration: {}", file);
+    }
+
+    /**
+     * Applies a migration that cannot run inside a transaction block, such as CREATE INDEX CONCURRENTLY.
+     * Its statements run one by one with auto-commit enabled, so a failure cannot be rolled back: statements
+     * before the failing one stay applied, and a failed concurrent index build leaves an INVALID index behind.
+     *
+     * @param script         the parsed migration file
+     * @param connection     the database connection
+     * @param appliedThisRun the list of applied migration records in this run
+     * @throws SQLException if switching the transaction mode fails
+     */
+    @SuppressWarnings("try")
+    private void applyOutsideTransaction(MigrationScript script, Connection connection,
+                                         List<MigrationRecord> appliedThisRun) throws SQLException {
+        String file = script.getFileName();
+        connection.commit();
+        connection.setAutoCommit(true);
+        Map<String, String> previousSettings = Map.of();
         try {
-            String sql = MigrationFileReader.readMigrationFile(file);
-            try (Statement stmt = connection.createStatement()) {
-                stmt.execute(sql);
-                historyService.recordMigration(connection, file);
-                appliedThisRun.add(new MigrationRecord(file, "SUCCESS", new Timestamp(System.currentTimeMillis())));
-                log.info("Successfully applied migration: {}", file);
+            long startedAt = System.currentTimeMillis();
+            previousSettings = sessionTuner.apply(connection, script, false, runSettings());
+            List<String> statements = script.getStatements();
+            ProgressMetrics progress;
+            try (ProgressMonitor.Watch watch = progressMonitor.watch(file, connection, List.of())) {
+                for (int i = 0; i < statements.size(); i++) {
+                    runGuard.checkpoint();
+                    try (PhaseTracer.Span span = tracer.start("statement", file + " #" + i);
+                         Statement stmt = connection.createStatement()) {
+                        stmt.execute(statements.get(i));
+                    }
+                }
+                progress = watch.getMetrics();
+            }
+            historyService.recordMigration(connection, file, MigrationFileReader.calculateChecksum(file),
+                    System.currentTimeMillis() - startedAt);
+            fingerprintService.recordFingerprint(connection, file);
+            modifiedTables.addAll(StatisticsRefresher.modifiedTables(script));
+            MigrationRecord record = new MigrationRecord(file, "SUCCESS", new Timestamp(System.currentTimeMillis()));
+            record.setProgress(progress);
+            appliedThisRun.add(record);
+            log.info("Successfully applied migration outside a transaction: {}", file);
+        } catch (SQLException | RuntimeException e) {
+            appliedThisRun.add(new MigrationRecord(file, "FAILED", new Timestamp(System.currentTimeMillis())));
+            log.error("Failed to apply migration: {}. It ran outside a transaction, so statements before the failing one " +
+                    "remain applied and must be cleaned up manually.", file, e);
+            lockService.unlock(connection); // Release lock
+            reportService.generateJSONReport(appliedThisRun, ReportPaths.MIGRATE_REPORT_DIRECTORY + "migration_report.json");
+            throw new RuntimeException("Critical error during migration application", e);
+        } finally {
+            try {
+                sessionTuner.restore(connection, previousSettings, false);
             } catch (SQLException e) {
-                appliedThisRun.add(new MigrationRecord(file, "FAILED", new Timestamp(System.currentTimeMillis())));
-                connection.rollback(); // Rollback transaction in case of failure
-                lockService.unlock(connection); // Release lock
-                log.error("Failed to apply migration: {}. Rolled back all changes.", file, e);
-                throw new RuntimeException("Critical error during migration application", e);
+                log.warn("Failed to restore session settings after {}", file, e);
             }
-        } catch (SQLException e) {
-            log.error("Failed to apply migration: {}", file, e);
+            connection.setAutoCommit(false);
+        }
+    }
+
+    /**
+     * Applies the repeatable migrations whose checksum changed since they were last applied, together with the
+     * repeatable migrations depending on them, in one transaction after the versioned migrations.
+     * Unchanged repeatable migrations are skipped after comparing checksums, without reading them for execution.
+     * The schema fingerprint of the latest migration is recorded again, so that verify does not report the objects
+     * of the repeatable migrations as drift.
+     *
+     * @param connection     the database connection
+     * @param appliedThisRun the list of applied migration records in this run
+     * @throws SQLException if committing fails
+     */
+    @SuppressWarnings("try")
+    private void applyRepeatableMigrations(Connection connection, List<MigrationRecord> appliedThisRun) throws SQLException {
+        List<String> files = MigrationFileReader.getRepeatableMigrationFiles();
+        if (files.isEmpty()) {
+            return;
+        }
+        Map<String, String> appliedChecksums = repeatableService.getAppliedChecksums(connection);
+        Map<String, String> checksums = files.parallelStream()
+                .collect(Collectors.toMap(file -> file, MigrationFileReader::calculateChecksum));
+        Set<String> changed = files.stream()
+                .filter(file -> !checksums.get(file).equals(appliedChecksums.get(file)))
+                .collect(Collectors.toSet());
+        if (changed.isEmpty()) {
+            log.info("All {} repeatable migration(s) are unchanged.", files.size());
+            return;
+        }
+        Map<String, MigrationScript> scripts = files.parallelStream()
+                .map(MigrationFileReader::readMigrationScript)
+                .collect(Collectors.toMap(MigrationScript::getFileName, script -> script));
+        List<String> plan = RepeatableMigrationService.plan(scripts.values(), changed);
+        log.info("Applying {} repeatable migration(s) ({} changed, {} unchanged): {}",
+                plan.size(), changed.size(), files.size() - changed.size(), plan);
+        List<MigrationRecord> appliedRepeatables = new ArrayList<>();
+        String currentFile = null;
+        try {
+            for (String file : plan) {
+                currentFile = file;
+                runGuard.checkpoint();
+                long startedAt = System.currentTimeMillis();
+                MigrationScript script = scripts.get(file);
+                ProgressMetrics progress;
+                try (PhaseTracer.Span span = tracer.start("migration", file);
+                     ProgressMonitor.Watch watch = progressMonitor.watch(file, connection, List.of())) {
+                    if (script.isStreamed()) {
+                        executeStreamed(script, connection, false);
+                    } else {
+                        statementRunner.execute(connection, file, script.getSql());
+                    }
+                    progress = watch.getMetrics();
+                }
+                repeatableService.recordRepeatable(connection, file, checksums.get(file), System.currentTimeMillis() - startedAt);
+                modifiedTables.addAll(StatisticsRefresher.modifiedTables(script));
+                MigrationRecord record = new MigrationRecord(file, "SUCCESS", new Timestamp(System.currentTimeMillis()));
+                record.setProgress(progress);
+                appliedRepeatables.add(record);
+            }
+            fingerprintService.recordLatestFingerprint(connection);
+            connection.commit();
+            appliedThisRun.addAll(appliedRepeatables);
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            appliedThisRun.add(new MigrationRecord(currentFile, "FAILED", new Timestamp(System.currentTimeMillis())));
+            log.error("Failed to apply repeatable migration: {}. Rolled back all repeatable migrations of this run.", currentFile, e);
+            lockService.unlock(connection); // Release lock
+            reportService.generateJSONReport(appliedThisRun, ReportPaths.MIGRATE_REPORT_DIRECTORY + "migration_report.json");
+            throw new RuntimeException("Critical error during migration application", e);
+        }
+    }
+
+    /**
+     * Applies a Java migration in a transaction unit of its own.
+     * The migration's batch writers may commit periodically, so a failure only rolls back the work since the
+     * last commit; the migration is recorded once it has completed.
+     *
+     * @param name           the name of the Java migration
+     * @param connection     the database connection
+     * @param appliedThisRun the list of applied migration records in this run
+     * @throws SQLException if committing the previous unit fails
+     */
+    private void applyJavaMigration(String name, Connection connection, List<MigrationRecord> appliedThisRun) throws SQLException {
+        connection.commit();
+        throttle.resetMetrics();
+        try (JavaMigrationContext context = new JavaMigrationContext(name, connection, true, throttle)) {
+            long startedAt = System.currentTimeMillis();
+            ProgressMetrics progress;
+            try (ProgressMonitor.Watch watch = progressMonitor.watch(name, connection, List.of())) {
+                JavaMigrationRegistry.getMigration(name).migrate(context);
+                progress = watch.getMetrics();
+            }
+            if (statisticsRefresher.isEnabled()) {
+                modifiedTables.addAll(context.collectModifiedTables());
+            }
+            historyService.recordMigration(connection, name, null, System.currentTimeMillis() - startedAt);
+            fingerprintService.recordFingerprint(connection, name);
+            connection.commit();
+            MigrationRecord record = new MigrationRecord(name, "SUCCESS", new Timestamp(System.currentTimeMillis()));
+            record.setThrottle(throttleDecisions());
+            record.setProgress(progress);
+            appliedThisRun.add(record);
+            log.info("Successfully applied Java migration: {}", name);
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            appliedThisRun.add(new MigrationRecord(name, "FAILED", new Timestamp(System.currentTimeMillis())));
+            log.error("Failed to apply Java migration: {}. Batches committed before the failure remain applied.", name, e);
+            lockService.unlock(connection); // Release lock
+            reportService.generateJSONReport(appliedThisRun, ReportPaths.MIGRATE_REPORT_DIRECTORY + "migration_report.json");
             throw new RuntimeException("Critical error during migration application", e);
         }
     }
 
+    /**
+     * Applies a step of an expand/contract column change or of a partition conversion in a transaction unit of its own.
+     * The step commits as it goes, e.g. after every backfill range, so a failure keeps the work committed before it;
+     * the steps are idempotent and the migration resumes when it runs again. It is recorded once it has completed.
+     *
+     * @param script         the parsed migration file
+     * @param connection     the database connection
+     * @param appliedThisRun the list of applied migration records in this run
+     * @throws SQLException if committing the previous unit fails
+     */
+    @SuppressWarnings("try")
+    private void applyOnlineChange(MigrationScript script, Connection connection, List<MigrationRecord> appliedThisRun) throws SQLException {
+        String file = script.getFileName();
+        ColumnChange columnChange = script.getColumnChange();
+        PartitionChange partitionChange = script.getPartitionChange();
+        connection.commit();
+        throttle.resetMetrics();
+        try {
+            long startedAt = System.currentTimeMillis();
+            List<String> backfillJobs = columnChange != null ? List.of(file) : List.of(partitionChange.copyJobName());
+            ProgressMetrics progress;
+            try (PhaseTracer.Span span = tracer.start("migration", file);
+                 ProgressMonitor.Watch watch = progressMonitor.watch(file, connection, backfillJobs)) {
+                if (columnChange != null) {
+                    columnChanges.apply(connection, file, columnChange, throttle);
+                } else {
+                    partitionConversions.apply(connection, file, partitionChange, throttle);
+                }
+                progress = watch.getMetrics();
+            }
+            if (columnChange != null && columnChange.getPhase() == ColumnChange.Phase.CONTRACT) {
+                beforeImageService.pruneTable(connection, columnChange.getTable(), MigrationFileReader.getVersion(file));
+            }
+            historyService.recordMigration(connection, file, MigrationFileReader.calculateChecksum(file),
+                    System.currentTimeMillis() - startedAt);
+            fingerprintService.recordFingerprint(connection, file);
+            connection.commit();
+            if (columnChange != null && columnChange.getPhase() == ColumnChange.Phase.EXPAND) {
+                modifiedTables.add(columnChange.getTable());
+            } else if (partitionChange != null && partitionChange.getPhase() == PartitionChange.Phase.CONVERT) {
+                modifiedTables.add(partitionChange.shadowTable());
+            }
+            MigrationRecord record = new MigrationRecord(file, "SUCCESS", new Timestamp(System.currentTimeMillis()));
+            record.setThrottle(throttleDecisions());
+            record.setProgress(progress);
+            appliedThisRun.add(record);
+            log.info("Successfully applied online schema change: {}", file);
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            appliedThisRun.add(new MigrationRecord(file, "FAILED", new Timestamp(System.currentTimeMillis())));
+            log.error("Failed to apply online schema change: {}. Work committed before the failure remains applied; " +
+                    "the step resumes when the migration runs again.", file, e);
+            lockService.unlock(connection); // Release lock
+            reportService.generateJSONReport(appliedThisRun, ReportPaths.MIGRATE_REPORT_DIRECTORY + "migration_report.json");
+            throw new RuntimeException("Critical error during migration application", e);
+        }
+    }
+
+    /**
+     * Executes a migration statement by statement, capturing the before-image of every UPDATE and DELETE
+     * right before it runs, so that the migration can be rolled back exactly.
+     *
+     * @param script     the parsed migration file
+     * @param connection the database connection
+     * @throws SQLException if a statement or a capture fails
+     */
+    @SuppressWarnings("try")
+    private void executeWithBeforeImages(MigrationScript script, Connection connection) throws SQLException {
+        String file = script.getFileName();
+        List<String> statements = script.getStatements();
+        if (statements.stream().noneMatch(beforeImageService::requiresCapture)) {
+            statementRunner.execute(connection, file, script.getSql());
+            return;
+        }
+        beforeImageService.validate(statements);
+        int version = MigrationFileReader.getVersion(file);
+        for (int i = 0; i < statements.size(); i++) {
+            String statement = statements.get(i);
+            if (beforeImageService.requiresCapture(statement)) {
+                try (PhaseTracer.Span span = tracer.start("capture-before-image", file + " #" + i)) {
+                    beforeImageService.capture(connection, version, i, statement);
+                }
+            }
+            try (PhaseTracer.Span span = tracer.start("statement", file + " #" + i)) {
+                statementRunner.execute(connection, file, statement);
+            }
+        }
+    }
+
+    /**
+     * Executes a compressed migration while decompressing it: statements are split off the stream and run
+     * one at a time, so only the current statement is held in memory.
+     *
+     * @param script              the streamed migration file
+     * @param connection          the database connection
+     * @param captureBeforeImages whether to capture the before-image of UPDATE and DELETE statements
+     * @throws SQLException if a statement or a capture fails
+     */
+    @SuppressWarnings("try")
+    private void executeStreamed(MigrationScript script, Connection connection, boolean captureBeforeImages) throws SQLException {
+        String file = script.getFileName();
+        int index = 0;
+        try (Reader reader = MigrationFileReader.openMigrationFile(file)) {
+            SqlStatementSplitter splitter = new SqlStatementSplitter(reader);
+            String statement;
+            while ((statement = splitter.nextStatement()) != null) {
+                runGuard.checkpoint();
+                if (captureBeforeImages && beforeImageService.requiresCapture(statement)) {
+                    try (PhaseTracer.Span span = tracer.start("capture-before-image", file + " #" + index)) {
+                        beforeImageService.capture(connection, MigrationFileReader.getVersion(file), index, statement);
+                    }
+                }
+                try (PhaseTracer.Span span = tracer.start("statement", file + " #" + index)) {
+                    statementRunner.execute(connection, file, statement);
+                }
+                String table = StatisticsRefresher.modifiedTable(statement);
+                if (table != null) {
+                    modifiedTables.add(table);
+                }
+                index++;
+            }
+        } catch (IOException e) {
+            log.error("Error reading compressed migration file: " + file, e);
+            throw new RuntimeException("Critical error while reading migration file: " + file, e);
+        }
+        log.info("Executed {} streamed statement(s) from {}", index, file);
+    }
+
+    /**
+     * Retrieves the session settings the run imposes on SQL migrations.
+     *
+     * @return the statement_timeout derived from the statement timeout and the deadline, or no settings
+     */
+    private Map<String, String> runSettings() {
+        String statementTimeout = runGuard.statementTimeout();
+        return statementTimeout == null ? Map.of() : Map.of("statement_timeout", statementTimeout);
+    }
+
+    /**
+     * Stops the run before the next transaction unit if it has been cancelled or has passed its deadline.
+     * The lock is released and the report of the migrations applied so far is written.
+     *
+     * @param connection     the database connection
+     * @param appliedThisRun the list of applied migration records in this run
+     */
+    private void checkpoint(Connection connection, List<MigrationRecord> appliedThisRun) {
+        try {
+            runGuard.checkpoint();
+        } catch (IllegalStateException e) {
+            log.error("{}; stopping before the next migration. {} migration(s) of this run were applied.",
+                    e.getMessage(), appliedThisRun.size());
+            lockService.unlock(connection); // Release lock
+            reportService.generateJSONReport(appliedThisRun, ReportPaths.MIGRATE_REPORT_DIRECTORY + "migration_report.json");
+            throw new RuntimeException("Critical error: migration run stopped", e);
+        }
+    }
+
+    /**
+     * Releases the lock and writes the partial report from the shutdown hook, after the run did not stop in time
+     * and its backend was terminated.
+     *
+     * @param connection     a connection of the shutdown hook
+     * @param appliedThisRun the list of applied migration records in this run
+     */
+    private void releaseAfterShutdown(Connection connection, List<MigrationRecord> appliedThisRun) {
+        lockService.unlock(connection, runGuard.getBackendPid());
+        lockService.notifyCompletion(connection, "FAILED");
+        List<MigrationRecord> records;
+        synchronized (appliedThisRun) {
+            records = new ArrayList<>(appliedThisRun);
+        }
+        reportService.generateJSONReport(records, ReportPaths.MIGRATE_REPORT_DIRECTORY + "migration_report.json");
+    }
+
+    /**
+     * Collects the throttle decisions taken since the last reset, for the migration report.
+     *
+     * @return the throttle metrics, or null if the throttle did not sample the database
+     */
+    private ThrottleMetrics throttleDecisions() {
+        ThrottleMetrics metrics = throttle.resetMetrics();
+        if (metrics.getSamples() == 0) {
+            return null;
+        }
+        if (metrics.getPauses() > 0 || metrics.getDelayedBatches() > 0) {
+            log.info("Throttled data migration: {} pause(s) for {} ms, {} delayed batch(es) for {} ms.",
+                    metrics.getPauses(), metrics.getPausedMs(), metrics.getDelayedBatches(), metrics.getDelayedMs());
+        }
+        return metrics;
+    }
+
     /**
      * Handles exceptions during the migration process.
      * This method rolls back the transaction and releases the lock in case of an error.
      *
      * @param connection the database connection
      * @param e          the exception thrown
+     * @param lockHeld   whether this process holds the migration lock
      */
-    private void handleMigrationException(Connection connection, Exception e) {
+    private void handleMigrationException(Connection connection, Exception e, boolean lockHeld) {
         if (connection != null) {
             try {
                 connection.rollback();
+                if (lockHeld) {
+                    announceFailure(connection);
+                }
                 lockService.unlock(connection);
             } catch (SQLException rollbackEx) {
                 log.error("Failed to rollback transaction", rollbackEx);
@@ -131,6 +884,44 @@ public class MigrationExecutor {
         throw new RuntimeException("Critical error during migration process", e);
     }
 
+    /**
+     * Releases the lock on a connection of its own if the migration connection was lost. The lock is committed
+     * when the run starts, so unlike the work of the failed unit it does not disappear together with the session.
+     *
+     * @param connection the migration connection
+     */
+    private void releaseLockIfConnectionLost(Connection connection) {
+        try {
+            if (connection != null && connection.isValid(CONNECTION_CHECK_TIMEOUT_SECONDS)) {
+                return;
+            }
+        } catch (SQLException e) {
+            log.debug("Failed to check the migration connection: {}", e.getMessage());
+        }
+        try (Connection cleanup = ConnectionManager.createConnection()) {
+            cleanup.setAutoCommit(true);
+            lockService.unlock(cleanup, runGuard.getBackendPid());
+            lockService.notifyCompletion(cleanup, "FAILED");
+            log.warn("Released the migration lock on a new connection after losing the migration connection.");
+        } catch (SQLException | RuntimeException e) {
+            log.error("Failed to release the migration lock after losing the migration connection; reset migration_lock manually.", e);
+        }
+    }
+
+    /**
+     * Tells waiting processes that the migration run failed. A failure to notify is only logged,
+     * because waiting processes fall back to polling the lock.
+     *
+     * @param connection the database connection holding the lock
+     */
+    private void announceFailure(Connection connection) {
+        try {
+            lockService.notifyCompletion(connection, "FAILED");
+        } catch (RuntimeException notifyError) {
+            log.warn("Failed to announce the failed migration run", notifyError);
+        }
+    }
+
     /**
      * Closes the database connection.
      * This method sets auto-commit mode back to true and closes the connection.
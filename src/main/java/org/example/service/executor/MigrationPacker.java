@@ -0,0 +1,113 @@
+package org.example.service.executor;
+
+import lombok.Getter;
+import org.example.model.MigrationScript;
+import org.example.util.PropertiesUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Predicate;
+
+/**
+ * MigrationPacker combines consecutive small migrations of a transaction unit into one multi-statement
+ * submission, together with their history inserts, so that applying them costs one round trip instead of
+ * several per migration. This matters when the database is far away, e.g. a managed database over a WAN link.
+ * A pack holds at most migration.pack.max-migrations files and migration.pack.max-bytes of SQL.
+ * Each history insert measures the time since the previous one on the server, so execution times stay per migration.
+ */
+@Getter
+public class MigrationPacker {
+    private static final String PACK_CLOCK = "migration.pack_clock";
+    private static final String RESET_CLOCK = "SELECT set_config('" + PACK_CLOCK + "', clock_timestamp()::text, true)";
+    private static final String ELAPSED_MS =
+            "(EXTRACT(EPOCH FROM clock_timestamp() - current_setting('" + PACK_CLOCK + "')::timestamptz) * 1000)::BIGINT";
+
+    private final boolean enabled;
+    private final int maxBytes;
+    private final int maxMigrations;
+
+    /**
+     * Constructs a new MigrationPacker.
+     *
+     * @param enabled       whether migrations are packed
+     * @param maxBytes      the maximum SQL size of a pack in bytes
+     * @param maxMigrations the maximum number of migrations in a pack
+     */
+    public MigrationPacker(boolean enabled, int maxBytes, int maxMigrations) {
+        this.enabled = enabled;
+        this.maxBytes = maxBytes;
+        this.maxMigrations = maxMigrations;
+    }
+
+    /**
+     * Creates a MigrationPacker from application.properties.
+     *
+     * @return the configured packer
+     */
+    public static MigrationPacker fromProperties() {
+        return new MigrationPacker(
+                Boolean.parseBoolean(PropertiesUtils.getProperty("migration.pack.enabled", "false")),
+                PropertiesUtils.getIntProperty("migration.pack.max-bytes", 65536),
+                PropertiesUtils.getIntProperty("migration.pack.max-migrations", 50));
+    }
+
+    /**
+     * Splits the migrations of a transaction unit into packs, keeping their order.
+     * Consecutive packable migrations share a pack up to the limits; every other migration forms a pack of its own.
+     * A migration that cannot run inside a transaction is never packed, since a pack runs under a savepoint.
+     *
+     * @param scripts  the parsed migrations of the unit in execution order
+     * @param packable identifies migrations that may be packed
+     * @return the packs in execution order
+     */
+    public List<List<MigrationScript>> pack(List<MigrationScript> scripts, Predicate<MigrationScript> packable) {
+        List<List<MigrationScript>> packs = new ArrayList<>();
+        List<MigrationScript> current = new ArrayList<>();
+        int currentBytes = 0;
+        for (MigrationScript script : scripts) {
+            int bytes = script.getSql().getBytes(StandardCharsets.UTF_8).length;
+            if (!enabled || !script.isTransactional() || !packable.test(script) || bytes > maxBytes) {
+                if (!current.isEmpty()) {
+                    packs.add(current);
+                    current = new ArrayList<>();
+                    currentBytes = 0;
+                }
+                packs.add(List.of(script));
+                continue;
+            }
+            if (!current.isEmpty() && (current.size() >= maxMigrations || currentBytes + bytes > maxBytes)) {
+                packs.add(current);
+                current = new ArrayList<>();
+                currentBytes = 0;
+            }
+            current.add(script);
+            currentBytes += bytes;
+        }
+        if (!current.isEmpty()) {
+            packs.add(current);
+        }
+        return packs;
+    }
+
+    /**
+     * Builds the submission of a pack: the statements of every migration followed by its history insert.
+     *
+     * @param pack             the migrations of the pack
+     * @param historyStatement builds the history insert of a migration given the SQL expression of its execution time
+     * @return the multi-statement SQL text
+     */
+    public String buildSubmission(List<MigrationScript> pack, BiFunction<MigrationScript, String, String> historyStatement) {
+        StringBuilder sql = new StringBuilder(RESET_CLOCK).append(";\n");
+        for (MigrationScript script : pack) {
+            for (String statement : script.getStatements()) {
+                // A statement may end with a line comment, so the terminator goes on a line of its own
+                sql.append(statement).append("\n;\n");
+            }
+            sql.append(historyStatement.apply(script, ELAPSED_MS)).append(";\n");
+            sql.append(RESET_CLOCK).append(";\n");
+        }
+        return sql.toString();
+    }
+}
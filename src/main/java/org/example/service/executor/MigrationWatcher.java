@@ -0,0 +1,282 @@
+package org.example.service.executor;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.comparator.NaturalOrderComparator;
+import org.example.model.MigrationRecord;
+import org.example.model.MigrationScript;
+import org.example.service.MigrationHistoryService;
+import org.example.util.ConnectionManager;
+import org.example.util.MigrationFileReader;
+import org.example.util.PropertiesUtils;
+import org.example.util.paths.MigrationPaths;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MigrationWatcher applies new migration files as soon as they are saved, for local development.
+ * It registers a WatchService on the migration directory and keeps the manifest of migration files and the
+ * applied migrations with their checksums in memory, so an event only costs reading the changed files:
+ * the directory is not listed and the migration history is not reloaded. Editors usually write a file in
+ * several bursts, so changes are collected until the directory has been quiet for migration.watch.debounce-ms.
+ * A new file is only applied once it is complete: it has statements or a directive, it was last modified at least
+ * the debounce interval ago, and its size and modification time do not change while it is read. Otherwise it is
+ * deferred and checked again with the next batch of changes, or after the debounce interval, instead of being
+ * recorded with partial content.
+ * Modifying a migration that is already applied does not re-apply it; a warning is logged instead.
+ */
+@Slf4j
+public class MigrationWatcher {
+    private final MigrationExecutor migrationExecutor;
+    private final MigrationHistoryService historyService;
+    private final long debounceMs = PropertiesUtils.getIntProperty("migration.watch.debounce-ms", 300);
+
+    private final Set<String> manifest = new TreeSet<>(new NaturalOrderComparator().thenComparing(Comparator.naturalOrder()));
+    private final Map<String, String> appliedChecksums = new HashMap<>();
+    private final Set<String> deferred = new TreeSet<>(new NaturalOrderComparator().thenComparing(Comparator.naturalOrder()));
+    private WatchService watchService;
+    private Thread watchThread;
+
+    /**
+     * Constructs a new MigrationWatcher.
+     *
+     * @param migrationExecutor the executor used to apply new migrations
+     * @param historyService    the service for loading the applied migrations once at start
+     */
+    public MigrationWatcher(MigrationExecutor migrationExecutor, MigrationHistoryService historyService) {
+        this.migrationExecutor = migrationExecutor;
+        this.historyService = historyService;
+    }
+
+    /**
+     * Loads the manifest and the applied migrations, applies migrations that are already pending
+     * and starts watching the migration directory in a background thread.
+     */
+    public synchronized void start() {
+        if (watchThread != null) {
+            log.warn("Migration directory is already being watched.");
+            return;
+        }
+        Path directory = Paths.get(MigrationPaths.MIGRATION_DIRECTORY);
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException e) {
+            log.error("Failed to watch migration directory: " + directory, e);
+            throw new RuntimeException("Critical error while watching migration directory: " + directory, e);
+        }
+
+        manifest.addAll(MigrationFileReader.getMigrationFiles());
+        try (Connection connection = ConnectionManager.getConnection()) {
+            appliedChecksums.putAll(historyService.getAppliedChecksums(connection));
+        } catch (SQLException e) {
+            log.error("Failed to load applied migrations", e);
+            throw new RuntimeException("Critical error while loading applied migrations", e);
+        }
+        List<String> pending = new ArrayList<>();
+        for (String file : manifest) {
+            if (!appliedChecksums.containsKey(file) && isComplete(file)) {
+                pending.add(file);
+            }
+        }
+        applyNewMigrations(pending, true);
+
+        watchThread = new Thread(this::watchLoop, "migration-watch");
+        watchThread.setDaemon(true);
+        watchThread.start();
+        log.info("Watching {} for new migrations ({} known, {} applied).", directory, manifest.size(), appliedChecksums.size());
+    }
+
+    /**
+     * Stops watching the migration directory and waits for a migration in progress to finish.
+     */
+    public synchronized void stop() {
+        if (watchThread == null) {
+            return;
+        }
+        try {
+            watchService.close();
+            watchThread.join();
+        } catch (IOException e) {
+            log.warn("Failed to close the watch service", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        watchThread = null;
+        manifest.clear();
+        appliedChecksums.clear();
+        deferred.clear();
+        log.info("Stopped watching the migration directory.");
+    }
+
+    /**
+     * Waits for directory events, debounces them and processes each quiet batch of changed files.
+     * While files are deferred, the wait ends after the debounce interval, so they are checked again
+     * even if no further event arrives.
+     */
+    private void watchLoop() {
+        try {
+            while (true) {
+                Set<String> changed = new TreeSet<>(new NaturalOrderComparator().thenComparing(Comparator.naturalOrder()));
+                WatchKey key = deferred.isEmpty() ? watchService.take() : watchService.poll(debounceMs, TimeUnit.MILLISECONDS);
+                while (key != null) {
+                    collectChangedFiles(key, changed);
+                    key = watchService.poll(debounceMs, TimeUnit.MILLISECONDS);
+                }
+                changed.addAll(deferred);
+                try {
+                    processChanges(changed);
+                } catch (RuntimeException e) {
+                    log.error("Failed to process changed migration files {}; fix them and save again.", changed, e);
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            log.debug("Watch service closed.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void collectChangedFiles(WatchKey key, Set<String> changed) {
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                log.warn("Missed file system events; re-reading the migration directory.");
+                changed.addAll(MigrationFileReader.getMigrationFiles());
+                changed.addAll(manifest);
+                continue;
+            }
+            String fileName = event.context().toString();
+            if (MigrationFileReader.isMigrationFileName(fileName)) {
+                changed.add(fileName);
+            }
+        }
+        key.reset();
+    }
+
+    /**
+     * Updates the manifest from the changed files, warns about changed applied migrations
+     * and applies the migrations that are new.
+     *
+     * @param changed the changed migration file names in natural order
+     */
+    private void processChanges(Set<String> changed) {
+        List<String> newMigrations = new ArrayList<>();
+        boolean repeatableChanged = false;
+        for (String file : changed) {
+            if (MigrationFileReader.isRepeatable(file)) {
+                repeatableChanged = true;
+                continue;
+            }
+            boolean exists = Files.exists(Paths.get(MigrationPaths.MIGRATION_DIRECTORY, file));
+            if (!exists) {
+                manifest.remove(file);
+                deferred.remove(file);
+                if (appliedChecksums.containsKey(file)) {
+                    log.warn("Applied migration {} was deleted; the database still contains its changes.", file);
+                }
+                continue;
+            }
+            manifest.add(file);
+            if (!appliedChecksums.containsKey(file)) {
+                if (isComplete(file)) {
+                    deferred.remove(file);
+                    newMigrations.add(file);
+                } else if (deferred.add(file)) {
+                    log.info("Waiting for {} to be completely written.", file);
+                }
+                continue;
+            }
+            String checksum = MigrationFileReader.calculateChecksum(file);
+            String appliedChecksum = appliedChecksums.get(file);
+            if (appliedChecksum != null && !appliedChecksum.equals(checksum)) {
+                log.warn("Applied migration {} was modified; the change is not applied. " +
+                        "Roll it back or add a new migration instead.", file);
+                appliedChecksums.put(file, checksum);
+            }
+        }
+        applyNewMigrations(newMigrations, repeatableChanged);
+    }
+
+    /**
+     * Applies the given new migrations and adds the successful ones to the in-memory applied set.
+     * Changed repeatable migrations are applied by every migration run.
+     *
+     * @param newMigrations     the new migration file names in natural order
+     * @param repeatableChanged whether a repeatable migration file changed
+     */
+    private void applyNewMigrations(List<String> newMigrations, boolean repeatableChanged) {
+        if (newMigrations.isEmpty() && !repeatableChanged) {
+            return;
+        }
+        log.info("Applying new migration(s): {}{}", newMigrations, repeatableChanged ? " and changed repeatable migrations" : "");
+        try {
+            markApplied(migrationExecutor.migrate(newMigrations));
+        } catch (RuntimeException e) {
+            log.error("Failed to apply new migration(s) {}; fix the failing file and save it again.", newMigrations, e);
+            try (Connection connection = ConnectionManager.getConnection()) {
+                appliedChecksums.clear();
+                appliedChecksums.putAll(historyService.getAppliedChecksums(connection));
+            } catch (SQLException closeError) {
+                log.warn("Failed to close the database connection", closeError);
+            }
+        }
+    }
+
+    /**
+     * Checks whether a new migration file is completely written: it has statements or a directive, it has not
+     * been modified within the debounce interval, and its size and modification time stay the same while it is read.
+     * A file that cannot be read yet, e.g. a partly written compressed file, is not complete.
+     *
+     * @param file the migration file name
+     * @return true if the file can be applied
+     */
+    private boolean isComplete(String file) {
+        Path path = Paths.get(MigrationPaths.MIGRATION_DIRECTORY, file);
+        try {
+            BasicFileAttributes before = Files.readAttributes(path, BasicFileAttributes.class);
+            if (System.currentTimeMillis() - before.lastModifiedTime().toMillis() < debounceMs) {
+                return false;
+            }
+            boolean hasContent;
+            if (MigrationFileReader.isCompressed(file)) {
+                hasContent = !MigrationFileReader.readFirstStatement(file).isBlank();
+            } else {
+                MigrationScript script = MigrationFileReader.readMigrationScript(file);
+                hasContent = !script.getStatements().isEmpty() || script.isOnlineChange();
+            }
+            BasicFileAttributes after = Files.readAttributes(path, BasicFileAttributes.class);
+            return hasContent && before.size() == after.size() && before.lastModifiedTime().equals(after.lastModifiedTime());
+        } catch (IOException | RuntimeException e) {
+            log.debug("Migration file {} is not readable yet: {}", file, e.getMessage());
+            return false;
+        }
+    }
+
+    private void markApplied(List<MigrationRecord> records) {
+        for (MigrationRecord record : records) {
+            if ("SUCCESS".equals(record.getStatus()) && !MigrationFileReader.isRepeatable(record.getScriptName())) {
+                appliedChecksums.put(record.getScriptName(), MigrationFileReader.calculateChecksum(record.getScriptName()));
+            }
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package org.example.service.executor;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.model.ProgressMetrics;
+import org.example.util.ConnectionManager;
+import org.example.util.PropertiesUtils;
+import org.postgresql.PGConnection;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ProgressMonitor reports the progress of migrations that run for a long time, such as an index build or a large
+ * data update, while the migration connection is busy with the statement. Every migration.progress.interval-ms it
+ * samples, on a side connection of its own, the progress views of the migration's backend
+ * (pg_stat_progress_create_index, pg_stat_progress_cluster and pg_stat_progress_vacuum) and the completed ranges of
+ * the migration's backfill jobs. From two samples of the same phase it derives the throughput and the remaining time
+ * of that phase; the previous execution time of the same script, recorded for repeatable migrations and in the
+ * history archive for rolled back ones, gives an estimate for the whole migration. Each sample is logged and the last
+ * one is added to the migration report. Migrations that finish within the interval never open the side connection.
+ */
+@Slf4j
+public class ProgressMonitor {
+    private static final String PROGRESS_SQL = """
+            SELECT 'CREATE INDEX', phase,
+                   CASE WHEN tuples_total > 0 THEN tuples_done ELSE blocks_done END,
+                   CASE WHEN tuples_total > 0 THEN tuples_total ELSE blocks_total END,
+                   CASE WHEN tuples_total > 0 THEN 'tuples' ELSE 'blocks' END
+            FROM pg_stat_progress_create_index WHERE pid = ?
+            UNION ALL
+            SELECT command, phase, heap_blks_scanned, heap_blks_total, 'blocks'
+            FROM pg_stat_progress_cluster WHERE pid = ?
+            UNION ALL
+            SELECT 'VACUUM', phase, heap_blks_scanned, heap_blks_total, 'blocks'
+            FROM pg_stat_progress_vacuum WHERE pid = ?
+            """;
+    private static final String BACKFILL_SQL = """
+            SELECT count(completed_at), count(*), coalesce(sum(rows_processed), 0)
+            FROM migration_backfill_range WHERE job_name = ANY (?)
+            """;
+    private static final String ACTIVITY_SQL = "SELECT state, wait_event_type, wait_event FROM pg_stat_activity WHERE pid = ?";
+    private static final String HISTORICAL_SQL = """
+            SELECT execution_time_ms FROM (
+                SELECT execution_time_ms, applied_at AS recorded_at FROM migration_repeatable WHERE script_name = ?
+                UNION ALL
+                SELECT execution_time_ms, archived_at FROM migration_history_archive WHERE script_name = ?
+            ) timings
+            WHERE execution_time_ms IS NOT NULL
+            ORDER BY recorded_at DESC
+            LIMIT 1
+            """;
+
+    private final boolean enabled = Boolean.parseBoolean(PropertiesUtils.getProperty("migration.progress.enabled", "false"));
+    private final long intervalMs = PropertiesUtils.getIntProperty("migration.progress.interval-ms", 10000);
+
+    /**
+     * The monitoring of one migration. Closing it stops sampling and closes the side connection.
+     */
+    public class Watch implements AutoCloseable {
+        private final String migration;
+        private final int backendPid;
+        private final List<String> backfillJobs;
+        private final long startedAt = System.currentTimeMillis();
+        private final ScheduledExecutorService scheduler;
+        private Connection sideConnection;
+        private ProgressMetrics metrics;
+        private String baselinePhase;
+        private long baselineDone;
+        private long baselineAt;
+        private long lastBackfillRows = -1;
+        private long lastBackfillAt;
+
+        private Watch(String migration, int backendPid, List<String> backfillJobs) {
+            this.migration = migration;
+            this.backendPid = backendPid;
+            this.backfillJobs = backfillJobs;
+            if (backendPid == 0) {
+                this.scheduler = null;
+                return;
+            }
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "migration-progress");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::sample, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Retrieves the last progress sample, for the migration report.
+         *
+         * @return a copy of the progress metrics, or null if the migration finished before the first sample
+         */
+        public synchronized ProgressMetrics getMetrics() {
+            if (metrics == null) {
+                return null;
+            }
+            ProgressMetrics copy = new ProgressMetrics();
+            copy.setSamples(metrics.getSamples());
+            copy.setCommand(metrics.getCommand());
+            copy.setPhase(metrics.getPhase());
+            copy.setUnit(metrics.getUnit());
+            copy.setDone(metrics.getDone());
+            copy.setTotal(metrics.getTotal());
+            copy.setRatePerSecond(metrics.getRatePerSecond());
+            copy.setMaxRatePerSecond(metrics.getMaxRatePerSecond());
+            copy.setHistoricalMs(metrics.getHistoricalMs());
+            return copy;
+        }
+
+        @Override
+        public void close() {
+            if (scheduler == null) {
+                return;
+            }
+            scheduler.shutdownNow();
+            try {
+                scheduler.awaitTermination(intervalMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (this) {
+                if (sideConnection != null) {
+                    try {
+                        sideConnection.close();
+                    } catch (SQLException e) {
+                        log.warn("Failed to close the progress monitor connection", e);
+                    }
+                    sideConnection = null;
+                }
+            }
+        }
+
+        /**
+         * Takes one progress sample and logs it. A failing sample stops the monitoring of this migration,
+         * since progress reporting must not interfere with the migration itself.
+         */
+        private synchronized void sample() {
+            try {
+                if (sideConnection == null) {
+                    sideConnection = ConnectionManager.createConnection();
+                    sideConnection.setAutoCommit(true);
+                    metrics = new ProgressMetrics();
+                    metrics.setHistoricalMs(historicalMs());
+                }
+                long now = System.currentTimeMillis();
+                metrics.setSamples(metrics.getSamples() + 1);
+                String progress = sampleProgressViews(now);
+                if (progress == null && !backfillJobs.isEmpty()) {
+                    progress = sampleBackfill(now);
+                }
+                if (progress == null) {
+                    progress = sampleActivity();
+                }
+                long elapsedMs = now - startedAt;
+                String history = "";
+                if (metrics.getHistoricalMs() != null) {
+                    long remaining = historicalRemainingMs(metrics.getHistoricalMs(), elapsedMs);
+                    history = remaining > 0 ? ", about " + formatDuration(remaining) + " left by its last run"
+                            : ", running longer than its last run (" + formatDuration(metrics.getHistoricalMs()) + ")";
+                }
+                log.info("Progress of {} after {}: {}{}", migration, formatDuration(elapsedMs), progress, history);
+            } catch (SQLException | RuntimeException e) {
+                log.warn("Stopped reporting the progress of {}: {}", migration, e.getMessage());
+                scheduler.shutdown();
+            }
+        }
+
+        private String sampleProgressViews(long now) throws SQLException {
+            try (PreparedStatement pstmt = sideConnection.prepareStatement(PROGRESS_SQL)) {
+                pstmt.setInt(1, backendPid);
+                pstmt.setInt(2, backendPid);
+                pstmt.setInt(3, backendPid);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next()) {
+                        return null;
+                    }
+                    return observe(rs.getString(1), rs.getString(2), rs.getLong(3), rs.getLong(4), rs.getString(5), now);
+                }
+            }
+        }
+
+        private String sampleBackfill(long now) throws SQLException {
+            Array jobs = sideConnection.createArrayOf("varchar", backfillJobs.toArray());
+            try (PreparedStatement pstmt = sideConnection.prepareStatement(BACKFILL_SQL)) {
+                pstmt.setArray(1, jobs);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    rs.next();
+                    if (rs.getLong(2) == 0) {
+                        return null;
+                    }
+                    long rows = rs.getLong(3);
+                    String rowRate = "";
+                    if (lastBackfillRows >= 0 && now > lastBackfillAt) {
+                        rowRate = ", " + (rows - lastBackfillRows) * 1000 / (now - lastBackfillAt) + " rows/s";
+                    }
+                    lastBackfillRows = rows;
+                    lastBackfillAt = now;
+                    return observe("BACKFILL", "copying ranges", rs.getLong(1), rs.getLong(2), "ranges", now) +
+                            ", " + rows + " row(s)" + rowRate;
+                }
+            }
+        }
+
+        private String sampleActivity() throws SQLException {
+            try (PreparedStatement pstmt = sideConnection.prepareStatement(ACTIVITY_SQL)) {
+                pstmt.setInt(1, backendPid);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next()) {
+                        return "backend " + backendPid + " not found";
+                    }
+                    String waitEvent = rs.getString(3);
+                    return rs.getString(1) + (waitEvent != null ? ", waiting on " + rs.getString(2) + ":" + waitEvent : "");
+                }
+            }
+        }
+
+        /**
+         * Records a sample of a phase and describes it. The throughput is measured from the first sample of the
+         * phase, because each phase counts different work.
+         *
+         * @param command the command making progress
+         * @param phase   the current phase of the command
+         * @param done    the work done in the phase
+         * @param total   the total work of the phase, or 0 if unknown
+         * @param unit    the unit of work
+         * @param now     the time of the sample
+         * @return the description of the sample
+         */
+        private String observe(String command, String phase, long done, long total, String unit, long now) {
+            String phaseKey = command + "/" + phase;
+            if (!phaseKey.equals(baselinePhase) || done < baselineDone) {
+                baselinePhase = phaseKey;
+                baselineDone = done;
+                baselineAt = now;
+            }
+            long rate = now > baselineAt ? (done - baselineDone) * 1000 / (now - baselineAt) : 0;
+            metrics.setCommand(command);
+            metrics.setPhase(phase);
+            metrics.setUnit(unit);
+            metrics.setDone(done);
+            metrics.setTotal(total);
+            metrics.setRatePerSecond(rate);
+            metrics.setMaxRatePerSecond(Math.max(metrics.getMaxRatePerSecond(), rate));
+
+            StringBuilder description = new StringBuilder(command).append(", ").append(phase);
+            if (total > 0) {
+                description.append(", ").append(done).append('/').append(total).append(' ').append(unit)
+                        .append(String.format(" (%.1f%%)", done * 100.0 / total));
+                if (now > baselineAt) {
+                    description.append(", ").append(rate).append(' ').append(unit).append("/s");
+                    long remaining = remainingMs(done - baselineDone, now - baselineAt, total - done);
+                    if (remaining >= 0) {
+                        description.append(", phase done in about ").append(formatDuration(remaining));
+                    }
+                }
+            }
+            return description.toString();
+        }
+
+        private Long historicalMs() throws SQLException {
+            try (PreparedStatement pstmt = sideConnection.prepareStatement(HISTORICAL_SQL)) {
+                pstmt.setString(1, migration);
+                pstmt.setString(2, migration);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    return rs.next() ? rs.getLong(1) : null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts monitoring a migration running on the given connection; use the watch in a try-with-resources block
+     * around the execution of the migration.
+     *
+     * @param migration    the name of the migration
+     * @param connection   the migration connection
+     * @param backfillJobs the names of the backfill jobs the migration runs, if any
+     * @return the running watch, which does nothing if progress reporting is disabled
+     */
+    public Watch watch(String migration, Connection connection, List<String> backfillJobs) {
+        int backendPid = 0;
+        if (enabled && intervalMs > 0) {
+            try {
+                backendPid = connection.unwrap(PGConnection.class).getBackendPID();
+            } catch (SQLException e) {
+                log.warn("Cannot report the progress of {}: {}", migration, e.getMessage());
+            }
+        }
+        return new Watch(migration, backendPid, backfillJobs);
+    }
+
+    /**
+     * Estimates the remaining time of a phase from the work done since its first sample.
+     *
+     * @param doneSinceBaseline the work done since the first sample of the phase
+     * @param elapsedMs         the time since the first sample of the phase
+     * @param remainingWork     the work left in the phase
+     * @return the estimated remaining milliseconds, or -1 if no progress was measured yet
+     */
+    public static long remainingMs(long doneSinceBaseline, long elapsedMs, long remainingWork) {
+        if (doneSinceBaseline <= 0 || elapsedMs <= 0) {
+            return -1;
+        }
+        return (long) ((double) remainingWork * elapsedMs / doneSinceBaseline);
+    }
+
+    /**
+     * Estimates the remaining time of a migration from the execution time of its previous run.
+     *
+     * @param historicalMs the execution time of the previous run
+     * @param elapsedMs    the time the migration has been running
+     * @return the estimated remaining milliseconds, or 0 if the migration runs longer than before
+     */
+    public static long historicalRemainingMs(long historicalMs, long elapsedMs) {
+        return Math.max(0, historicalMs - elapsedMs);
+    }
+
+    /**
+     * Formats a duration for progress messages, e.g. 1h 05m, 4m 12s or 37s.
+     *
+     * @param millis the duration in milliseconds
+     * @return the formatted duration
+     */
+    public static String formatDuration(long millis) {
+        long seconds = millis / 1000;
+        if (seconds >= 3600) {
+            return String.format("%dh %02dm", seconds / 3600, seconds % 3600 / 60);
+        }
+        if (seconds >= 60) {
+            return String.format("%dm %02ds", seconds / 60, seconds % 60);
+        }
+        return seconds + "s";
+    }
+}
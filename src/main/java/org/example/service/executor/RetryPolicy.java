@@ -0,0 +1,106 @@
+package org.example.service.executor;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.util.PropertiesUtils;
+import org.example.util.SqlStateClassifier;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * RetryPolicy decides whether a failed transaction unit is retried and how long to wait before the next attempt.
+ * A policy instance tracks the retry budget of a single run and must not be shared between runs.
+ */
+@Slf4j
+public class RetryPolicy {
+    private final int maxAttempts;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private int remainingBudget;
+
+    /**
+     * Constructs a new RetryPolicy.
+     *
+     * @param maxAttempts the maximum number of attempts per transaction unit, including the first one
+     * @param baseDelayMs the delay before the first retry in milliseconds
+     * @param maxDelayMs  the upper bound for the delay between attempts in milliseconds
+     * @param budget      the total number of retries allowed for the whole run
+     */
+    public RetryPolicy(int maxAttempts, long baseDelayMs, long maxDelayMs, int budget) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.remainingBudget = budget;
+    }
+
+    /**
+     * Creates a RetryPolicy for a new run from application.properties.
+     *
+     * @return the configured retry policy
+     */
+    public static RetryPolicy fromProperties() {
+        return new RetryPolicy(
+                PropertiesUtils.getIntProperty("migration.retry.max-attempts", 3),
+                PropertiesUtils.getIntProperty("migration.retry.base-delay-ms", 200),
+                PropertiesUtils.getIntProperty("migration.retry.max-delay-ms", 10000),
+                PropertiesUtils.getIntProperty("migration.retry.budget", 10));
+    }
+
+    /**
+     * Checks whether the failed attempt should be retried and consumes one retry from the budget if so.
+     * Lock timeouts that the statement runner already retried until its deadline are not retried again.
+     * The budget may be shared by several worker threads.
+     *
+     * @param error   the error of the failed attempt
+     * @param attempt the number of the failed attempt, starting at 1
+     * @return true if the work should be retried
+     */
+    public synchronized boolean shouldRetry(Throwable error, int attempt) {
+        if (!SqlStateClassifier.isTransient(error)) {
+            return false;
+        }
+        for (Throwable current = error; current != null; current = current.getCause() == current ? null : current.getCause()) {
+            if (current instanceof LockAwareStatementRunner.LockDeadlineExceededException) {
+                log.warn("Locks were already retried until the DDL lock deadline; not retrying the unit");
+                return false;
+            }
+        }
+        if (attempt >= maxAttempts) {
+            log.warn("Transient error persisted after {} attempts", attempt);
+            return false;
+        }
+        if (remainingBudget <= 0) {
+            log.warn("Retry budget of this run is exhausted");
+            return false;
+        }
+        remainingBudget--;
+        return true;
+    }
+
+    /**
+     * Calculates the jittered exponential backoff before the next attempt.
+     * Half of the exponential delay is fixed and the other half is random, which spreads out
+     * processes that failed on the same contention.
+     *
+     * @param attempt the number of the failed attempt, starting at 1
+     * @return the delay in milliseconds
+     */
+    public long backoffDelay(int attempt) {
+        long exponential = Math.min(maxDelayMs, baseDelayMs << Math.min(attempt - 1, 20));
+        long half = exponential / 2;
+        return half + ThreadLocalRandom.current().nextLong(half + 1);
+    }
+
+    /**
+     * Waits for the backoff delay of the given attempt.
+     *
+     * @param attempt the number of the failed attempt, starting at 1
+     */
+    public void backoff(int attempt) {
+        try {
+            Thread.sleep(backoffDelay(attempt));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting to retry", e);
+        }
+    }
+}
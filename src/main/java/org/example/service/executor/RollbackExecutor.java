@@ -1,12 +1,17 @@
 package org.example.service.executor;
 
 import lombok.extern.slf4j.Slf4j;
+import org.example.migration.JavaMigrationContext;
+import org.example.migration.JavaMigrationRegistry;
 import org.example.model.MigrationRecord;
+import org.example.service.BeforeImageService;
 import org.example.service.MigrationHistoryService;
 import org.example.service.MigrationLockService;
 import org.example.service.MigrationReportService;
 import org.example.util.ConnectionManager;
 import org.example.util.MigrationFileReader;
+import org.example.util.PhaseTracer;
+import org.example.util.SqlStatementSplitter;
 import org.example.util.paths.ReportPaths;
 
 import java.sql.Connection;
@@ -23,6 +28,7 @@ public class RollbackExecutor {
     private final MigrationHistoryService historyService;
     private final MigrationLockService lockService = new MigrationLockService();
     private final MigrationReportService reportService = new MigrationReportService();
+    private final BeforeImageService beforeImageService = new BeforeImageService();
 
     /**
      * Constructs a new RollbackExecutor with the specified history service.
@@ -36,36 +42,46 @@ public class RollbackExecutor {
     /**
      * Rolls back the last applied migration and generates reports for the rollbacks.
      */
+    @SuppressWarnings("try")
     public void rollback() {
         Connection connection = null;
         List<MigrationRecord> rollbackThisRun = new ArrayList<>();
+        PhaseTracer tracer = new PhaseTracer("rollback");
         try {
-            connection = ConnectionManager.getConnection();
-            connection.setAutoCommit(false);
-
-            if (lockService.isLocked(connection)) {
-                log.warn("Migration is already in progress by another process.");
+            connection = connect(tracer);
+            if (!acquireLock(connection, tracer)) {
                 return;
             }
 
-            lockService.lock(connection);
-
-            List<String> appliedMigrations = historyService.getAppliedMigrations(connection);
+            List<String> appliedMigrations;
+            try (PhaseTracer.Span span = tracer.start("load-history")) {
+                appliedMigrations = historyService.getAppliedMigrations(connection);
+            }
             if (!appliedMigrations.isEmpty()) {
                 String firstMigration = appliedMigrations.remove(0);
-                rollbackMigration(firstMigration, connection, rollbackThisRun);
-                connection.commit();
-                reportService.generateJSONReport(rollbackThisRun, ReportPaths.ROLLBACK_REPORT_DIRECTORY + "rollback_report.json");
+                checkRollbackSupported(List.of(firstMigration));
+                try (PhaseTracer.Span span = tracer.start("rollback-migration", firstMigration)) {
+                    rollbackMigration(firstMigration, connection, rollbackThisRun);
+                }
+                try (PhaseTracer.Span span = tracer.start("commit")) {
+                    connection.commit();
+                }
+                try (PhaseTracer.Span span = tracer.start("write-report")) {
+                    reportService.generateJSONReport(rollbackThisRun, ReportPaths.ROLLBACK_REPORT_DIRECTORY + "rollback_report.json");
+                }
                 log.info("Successfully rolled back migration: {}", firstMigration);
             } else {
                 log.info("No migrations to rollback.");
             }
 
-            lockService.unlock(connection);
-        } catch (SQLException e) {
+            try (PhaseTracer.Span span = tracer.start("release-lock")) {
+                lockService.unlock(connection);
+            }
+        } catch (SQLException | RuntimeException e) {
             handleRollbackException(connection, e);
         } finally {
             closeConnection(connection);
+            tracer.finish();
         }
     }
 
@@ -74,38 +90,100 @@ public class RollbackExecutor {
      *
      * @param targetVersion the target version to rollback to
      */
+    @SuppressWarnings("try")
     public void rollback(String targetVersion) {
         Connection connection = null;
         List<MigrationRecord> rollbackThisRun = new ArrayList<>();
+        PhaseTracer tracer = new PhaseTracer("rollback");
         try {
-            connection = ConnectionManager.getConnection();
-            connection.setAutoCommit(false);
-
-            if (lockService.isLocked(connection)) {
-                log.warn("Migration is already in progress by another process.");
+            connection = connect(tracer);
+            if (!acquireLock(connection, tracer)) {
                 return;
             }
 
-            lockService.lock(connection);
-
-            List<String> migrationsToRollback = historyService.getMigrationsToRollback(connection, targetVersion);
+            List<String> migrationsToRollback;
+            try (PhaseTracer.Span span = tracer.start("load-history")) {
+                migrationsToRollback = historyService.getMigrationsToRollback(connection, targetVersion);
+            }
+            checkRollbackSupported(migrationsToRollback);
             for (String migrationFile : migrationsToRollback) {
-                rollbackMigration(migrationFile, connection, rollbackThisRun);
+                try (PhaseTracer.Span span = tracer.start("rollback-migration", migrationFile)) {
+                    rollbackMigration(migrationFile, connection, rollbackThisRun);
+                }
+            }
+            try (PhaseTracer.Span span = tracer.start("commit")) {
+                connection.commit();
+            }
+            try (PhaseTracer.Span span = tracer.start("write-report")) {
+                reportService.generateJSONReport(rollbackThisRun, ReportPaths.ROLLBACK_REPORT_DIRECTORY + "rollback_report.json");
             }
-            connection.commit();
-            reportService.generateJSONReport(rollbackThisRun, ReportPaths.ROLLBACK_REPORT_DIRECTORY + "rollback_report.json");
             log.info("Successfully rolled back to version: {}", targetVersion);
 
-            lockService.unlock(connection);
-        } catch (SQLException e) {
+            try (PhaseTracer.Span span = tracer.start("release-lock")) {
+                lockService.unlock(connection);
+            }
+        } catch (SQLException | RuntimeException e) {
             handleRollbackException(connection, e);
         } finally {
             closeConnection(connection);
+            tracer.finish();
+        }
+    }
+
+    /**
+     * Opens the connection of a rollback run.
+     *
+     * @param tracer the tracer of the run
+     * @return the database connection with auto-commit disabled
+     * @throws SQLException if auto-commit cannot be disabled
+     */
+    @SuppressWarnings("try")
+    private Connection connect(PhaseTracer tracer) throws SQLException {
+        try (PhaseTracer.Span span = tracer.start("connect")) {
+            Connection connection = ConnectionManager.getConnection();
+            connection.setAutoCommit(false);
+            return connection;
+        }
+    }
+
+    /**
+     * Acquires the migration lock unless another process holds it.
+     *
+     * @param connection the database connection
+     * @param tracer     the tracer of the run
+     * @return true if the lock was acquired
+     */
+    @SuppressWarnings("try")
+    private boolean acquireLock(Connection connection, PhaseTracer tracer) {
+        try (PhaseTracer.Span span = tracer.start("acquire-lock")) {
+            if (!lockService.tryLock(connection)) {
+                log.warn("Migration is already in progress by another process.");
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Checks that every Java migration about to be rolled back implements its rollback, so that a run does not
+     * fail half-way after reverting the migrations before it.
+     *
+     * @param migrations the migrations to roll back
+     * @throws IllegalStateException if a Java migration does not support rollback
+     */
+    private void checkRollbackSupported(List<String> migrations) {
+        for (String migration : migrations) {
+            if (JavaMigrationRegistry.isJavaMigration(migration) && !JavaMigrationRegistry.getMigration(migration).supportsRollback()) {
+                log.error("Java migration {} does not support rollback; nothing was rolled back.", migration);
+                throw new IllegalStateException("Java migration " + migration + " does not support rollback");
+            }
         }
     }
 
     /**
      * Rolls back a single migration file.
+     * Rows captured as before-images when the migration ran are restored first; the rollback file then
+     * reverts the schema changes of the migration. Java migrations are reverted by their rollback method.
      *
      * @param migrationFile the migration file to rollback
      * @param connection the database connection
@@ -113,12 +191,25 @@ public class RollbackExecutor {
      */
     private void rollbackMigration(String migrationFile, Connection connection, List<MigrationRecord> rollbackThisRun) {
         try {
-            String rollbackFile = migrationFile.replace(".sql", "_rollback.sql");
-            String rollbackSql = MigrationFileReader.readMigrationFile(rollbackFile);
-            try (Statement stmt = connection.createStatement()) {
-                stmt.execute(rollbackSql);
+            int version = MigrationFileReader.getVersion(migrationFile);
+            if (beforeImageService.hasBeforeImages(connection, version)) {
+                beforeImageService.restore(connection, version);
+            }
+            if (JavaMigrationRegistry.isJavaMigration(migrationFile)) {
+                try (JavaMigrationContext context = new JavaMigrationContext(migrationFile, connection, false)) {
+                    JavaMigrationRegistry.getMigration(migrationFile).rollback(context);
+                }
+            } else {
+                String rollbackFile = MigrationFileReader.rollbackFileName(migrationFile);
+                String rollbackSql = MigrationFileReader.readMigrationFile(rollbackFile);
+                if (!SqlStatementSplitter.split(rollbackSql).isEmpty()) {
+                    try (Statement stmt = connection.createStatement()) {
+                        stmt.execute(rollbackSql);
+                    }
+                }
             }
             historyService.removeMigrationRecord(connection, migrationFile);
+            beforeImageService.prune(connection, version);
             rollbackThisRun.add(new MigrationRecord(migrationFile, "ROLLED BACK", new java.sql.Timestamp(System.currentTimeMillis())));
         } catch (SQLException e) {
             log.error("Failed to rollback migration: {}", migrationFile, e);
@@ -128,6 +219,8 @@ public class RollbackExecutor {
 
     /**
      * Handles exceptions during the rollback process.
+     * The transaction is rolled back before the connection is closed, because closing it re-enables auto-commit,
+     * which would commit a partial rollback.
      *
      * @param connection the database connection
      * @param e the exception thrown
@@ -0,0 +1,230 @@
+package org.example.service.executor;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.util.ConnectionListener;
+import org.example.util.ConnectionManager;
+import org.example.util.PropertiesUtils;
+import org.postgresql.PGConnection;
+import org.postgresql.core.BaseConnection;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * RunGuard bounds a migration run in time and stops it cleanly when the process is asked to shut down.
+ * <ul>
+ *     <li>migration.deadline-ms limits the whole run: the executor checks it before every migration, data
+ *     migrations check it between batches, and no statement may run past it.</li>
+ *     <li>migration.statement-timeout-ms limits every statement of a SQL migration through statement_timeout,
+ *     capped by the time left until the deadline.</li>
+ *     <li>A JVM shutdown hook, such as on SIGTERM from a deploy orchestrator, cancels the statements running on the
+ *     migration connection and on the connections data migrations opened besides it, e.g. for backfills, the way
+ *     Statement.cancel() does, and stops the run at its next check. A stopping run does not retry, so a cancelled
+ *     or terminated statement does not reconnect. The executor then rolls back the current unit, releases the lock
+ *     and writes the report as for any failure. If the run has not stopped within migration.shutdown.grace-ms, the
+ *     hook terminates the backends of all these connections, so that no statement keeps running on the server, and
+ *     releases the lock on a connection of its own.</li>
+ * </ul>
+ */
+@Slf4j
+public class RunGuard implements ConnectionListener, AutoCloseable {
+    private final long deadlineMs = PropertiesUtils.getIntProperty("migration.deadline-ms", 0);
+    private final long statementTimeoutMs = PropertiesUtils.getIntProperty("migration.statement-timeout-ms", 0);
+    private final long shutdownGraceMs = PropertiesUtils.getIntProperty("migration.shutdown.grace-ms", 10000);
+    private final long startedAt = System.currentTimeMillis();
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private final Consumer<Connection> releaseAfterShutdown;
+    private final Thread shutdownHook = new Thread(this::onShutdown, "migration-shutdown");
+    private final Set<Connection> workerConnections = ConcurrentHashMap.newKeySet();
+
+    private volatile Connection connection;
+    private volatile int backendPid;
+    private volatile boolean cancelled;
+
+    /**
+     * Constructs a new RunGuard for one run and registers its shutdown hook.
+     *
+     * @param releaseAfterShutdown releases the migration lock and writes the partial report on the given connection
+     *                             if the run does not stop within the grace period
+     */
+    public RunGuard(Consumer<Connection> releaseAfterShutdown) {
+        this.releaseAfterShutdown = releaseAfterShutdown;
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+        if (deadlineMs > 0) {
+            log.info("Migration run deadline: {} ms.", deadlineMs);
+        }
+    }
+
+    /**
+     * Sets the connection the run's statements execute on; called again when the connection is re-acquired.
+     *
+     * @param connection the migration connection
+     */
+    public void attach(Connection connection) {
+        this.connection = connection;
+        try {
+            this.backendPid = connection.unwrap(PGConnection.class).getBackendPID();
+        } catch (SQLException e) {
+            log.warn("Cannot determine the backend of the migration connection: {}", e.getMessage());
+            this.backendPid = 0;
+        }
+    }
+
+    /**
+     * Retrieves the backend pid of the migration connection, which the migration lock records as its owner.
+     *
+     * @return the backend pid, or 0 if it is unknown
+     */
+    public int getBackendPid() {
+        return backendPid;
+    }
+
+    /**
+     * Tracks a connection a data migration opened besides the migration connection, so that a shutdown cancels its
+     * statement too. A connection opened after the shutdown signal is cancelled right away.
+     *
+     * @param connection the new connection
+     */
+    @Override
+    public void opened(Connection connection) {
+        workerConnections.add(connection);
+        if (cancelled) {
+            cancel(connection);
+        }
+    }
+
+    /**
+     * Stops tracking a connection of a data migration.
+     *
+     * @param connection the connection being closed
+     */
+    @Override
+    public void closed(Connection connection) {
+        workerConnections.remove(connection);
+    }
+
+    /**
+     * Checks whether the run has to stop, because of a shutdown signal or because its deadline has passed.
+     *
+     * @return true if the run has to stop
+     */
+    public boolean isStopping() {
+        return cancelled || (deadlineMs > 0 && remainingMs() <= 0);
+    }
+
+    /**
+     * Stops the run if it has been cancelled or has passed its deadline.
+     *
+     * @throws IllegalStateException if the run has to stop
+     */
+    public void checkpoint() {
+        if (cancelled) {
+            throw new IllegalStateException("Migration run cancelled by a shutdown signal");
+        }
+        if (deadlineMs > 0 && remainingMs() <= 0) {
+            throw new IllegalStateException("Migration run exceeded its deadline of " + deadlineMs + " ms");
+        }
+    }
+
+    /**
+     * Retrieves the statement_timeout for the next migration.
+     *
+     * @return the timeout, e.g. 30000ms, or null if statements are not limited
+     */
+    public String statementTimeout() {
+        long timeoutMs = effectiveTimeoutMs(statementTimeoutMs, deadlineMs > 0 ? Math.max(1, remainingMs()) : 0);
+        return timeoutMs > 0 ? timeoutMs + "ms" : null;
+    }
+
+    /**
+     * Computes the statement timeout from the configured limit and the time left until the deadline.
+     *
+     * @param statementTimeoutMs the configured statement timeout, or 0 for none
+     * @param remainingMs        the time left until the deadline, or 0 without a deadline
+     * @return the smaller of both limits, or 0 if there is neither
+     */
+    public static long effectiveTimeoutMs(long statementTimeoutMs, long remainingMs) {
+        if (statementTimeoutMs <= 0) {
+            return Math.max(0, remainingMs);
+        }
+        return remainingMs > 0 ? Math.min(statementTimeoutMs, remainingMs) : statementTimeoutMs;
+    }
+
+    /**
+     * Marks the run as finished and removes the shutdown hook.
+     */
+    @Override
+    public void close() {
+        finished.countDown();
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // The JVM is shutting down and the hook is already running
+            log.debug("Shutdown in progress; the shutdown hook stays registered.");
+        }
+    }
+
+    private long remainingMs() {
+        return startedAt + deadlineMs - System.currentTimeMillis();
+    }
+
+    /**
+     * Cancels the running statements and waits for the run to stop; releases the lock itself if it does not.
+     */
+    private void onShutdown() {
+        cancelled = true;
+        log.warn("Shutdown signal received; cancelling the migration run.");
+        Connection current = connection;
+        if (current != null) {
+            cancel(current);
+        }
+        workerConnections.forEach(this::cancel);
+        try {
+            if (finished.await(shutdownGraceMs, TimeUnit.MILLISECONDS)) {
+                log.info("Migration run stopped after the shutdown signal.");
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.error("Migration run did not stop within {} ms; terminating its backends and releasing the lock.", shutdownGraceMs);
+        List<Integer> backendPids = new ArrayList<>();
+        if (backendPid != 0) {
+            backendPids.add(backendPid);
+        }
+        for (Connection worker : workerConnections) {
+            try {
+                backendPids.add(worker.unwrap(PGConnection.class).getBackendPID());
+            } catch (SQLException e) {
+                log.warn("Cannot determine the backend of a data migration connection: {}", e.getMessage());
+            }
+        }
+        try (Connection cleanup = ConnectionManager.createConnection()) {
+            try (PreparedStatement pstmt = cleanup.prepareStatement("SELECT pg_terminate_backend(?)")) {
+                for (int pid : backendPids) {
+                    pstmt.setInt(1, pid);
+                    pstmt.execute();
+                }
+            }
+            releaseAfterShutdown.accept(cleanup);
+        } catch (SQLException | RuntimeException e) {
+            log.error("Failed to release the migration lock after the shutdown signal; reset migration_lock manually.", e);
+        }
+    }
+
+    private void cancel(Connection connection) {
+        try {
+            connection.unwrap(BaseConnection.class).cancelQuery();
+        } catch (SQLException e) {
+            log.warn("Failed to cancel the running statement: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package org.example.service.executor;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.model.MigrationScript;
+import org.example.util.PropertiesUtils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * SessionTuner scopes server settings such as maintenance_work_mem, work_mem, synchronous_commit or
+ * max_parallel_maintenance_workers to a single migration. Defaults come from migration.session.&lt;name&gt;
+ * properties and are overridden by the {@code -- @session name=value} directives of the migration file.
+ * Inside a transaction the settings are applied with set_config(..., true), the equivalent of SET LOCAL, so a
+ * rollback discards them; otherwise they are set for the session. In both cases the previous values are
+ * restored once the migration is done, so the next migration on the connection starts from the same settings.
+ * Settings that only take effect at commit, such as synchronous_commit, are not restored inside a transaction:
+ * they have to stay in effect until the transaction unit commits, and expire with it.
+ */
+@Slf4j
+public class SessionTuner {
+    private static final Set<String> COMMIT_SETTINGS = Set.of("synchronous_commit", "commit_delay", "commit_siblings");
+
+    private final Map<String, String> defaults = PropertiesUtils.getPropertiesWithPrefix("migration.session.");
+
+    /**
+     * Resolves the settings for a migration.
+     *
+     * @param script the parsed migration file
+     * @return the configured defaults overridden by the migration's directives
+     */
+    public Map<String, String> resolve(MigrationScript script) {
+        Map<String, String> settings = new LinkedHashMap<>(defaults);
+        settings.putAll(script.getSessionSettings());
+        return settings;
+    }
+
+    /**
+     * Applies the settings of a migration.
+     *
+     * @param connection the database connection
+     * @param script     the parsed migration file
+     * @param local      whether to scope the settings to the current transaction
+     * @return the previous values of the changed settings, to be passed to {@link #restore}
+     * @throws SQLException if a setting is unknown or its value is invalid
+     */
+    public Map<String, String> apply(Connection connection, MigrationScript script, boolean local) throws SQLException {
+        return apply(connection, script, local, Map.of());
+    }
+
+    /**
+     * Applies the settings of a migration together with settings of the run, such as its statement_timeout.
+     * The run's settings override the configured defaults, and the migration's directives override both.
+     *
+     * @param connection  the database connection
+     * @param script      the parsed migration file
+     * @param local       whether to scope the settings to the current transaction
+     * @param runSettings the settings of the run
+     * @return the previous values of the changed settings, to be passed to {@link #restore}
+     * @throws SQLException if a setting is unknown or its value is invalid
+     */
+    public Map<String, String> apply(Connection connection, MigrationScript script, boolean local,
+                                     Map<String, String> runSettings) throws SQLException {
+        Map<String, String> settings = new LinkedHashMap<>(defaults);
+        settings.putAll(runSettings);
+        settings.putAll(script.getSessionSettings());
+        Map<String, String> previous = apply(connection, settings, local);
+        if (!settings.isEmpty()) {
+            log.info("Session settings for {}: {}", script.getFileName(), settings);
+        }
+        return previous;
+    }
+
+    /**
+     * Applies the given settings.
+     *
+     * @param connection the database connection
+     * @param settings   the settings to apply
+     * @param local      whether to scope the settings to the current transaction
+     * @return the previous values of the changed settings, to be passed to {@link #restore}
+     * @throws SQLException if a setting is unknown or its value is invalid
+     */
+    public Map<String, String> apply(Connection connection, Map<String, String> settings, boolean local) throws SQLException {
+        Map<String, String> previous = new LinkedHashMap<>();
+        for (Map.Entry<String, String> setting : settings.entrySet()) {
+            previous.put(setting.getKey(), setConfig(connection, setting.getKey(), setting.getValue(), local));
+        }
+        return previous;
+    }
+
+    /**
+     * Restores settings changed by {@link #apply}. Inside a transaction, settings read at commit are left to expire
+     * with the transaction, so that they apply to its commit.
+     *
+     * @param connection the database connection
+     * @param previous   the previous values of the changed settings
+     * @param local      whether the settings were scoped to the current transaction
+     * @throws SQLException if a setting cannot be restored
+     */
+    public void restore(Connection connection, Map<String, String> previous, boolean local) throws SQLException {
+        for (Map.Entry<String, String> setting : previous.entrySet()) {
+            if (local && COMMIT_SETTINGS.contains(setting.getKey().toLowerCase(Locale.ROOT))) {
+                continue;
+            }
+            setConfig(connection, setting.getKey(), setting.getValue(), local);
+        }
+    }
+
+    /**
+     * Changes a setting.
+     *
+     * @param connection the database connection
+     * @param name       the setting name
+     * @param value      the new value
+     * @param local      whether to scope the change to the current transaction
+     * @return the previous value
+     * @throws SQLException if the setting cannot be changed
+     */
+    private String setConfig(Connection connection, String name, String value, boolean local) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement("SELECT current_setting(?), set_config(?, ?, ?)")) {
+            pstmt.setString(1, name);
+            pstmt.setString(2, name);
+            pstmt.setString(3, value);
+            pstmt.setBoolean(4, local);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                rs.next();
+                return rs.getString(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package org.example.service.executor;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.model.MigrationScript;
+import org.example.util.ConnectionPool;
+import org.example.util.PropertiesUtils;
+import org.example.util.SqlStatementSplitter;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * StatisticsRefresher runs ANALYZE on the tables a migration run modified, right after the run has committed,
+ * so the planner does not work with stale statistics until autovacuum gets to them.
+ * Modified tables are found by parsing the DML and table-rewriting DDL of SQL migrations; for Java migrations,
+ * whose statements are not known, from pg_stat_xact_user_tables of the migration connection before each commit,
+ * which only counts the current transaction of that connection, and from the tables their writers and backfills target.
+ * The tables are analyzed in parallel on migration.analyze.workers connections within migration.analyze.budget-ms.
+ * With migration.analyze.vacuum enabled, tables whose dead tuples reach migration.analyze.vacuum-dead-ratio of
+ * their live tuples get VACUUM (ANALYZE) instead.
+ */
+@Slf4j
+public class StatisticsRefresher {
+    private static final String TABLE = "((?:\"[^\"]+\"|[\\w$]+)(?:\\.(?:\"[^\"]+\"|[\\w$]+))?)";
+    private static final List<Pattern> MODIFYING_STATEMENTS = List.of(
+            Pattern.compile("^INSERT\\s+INTO\\s+" + TABLE, Pattern.CASE_INSENSITIVE),
+            Pattern.compile("^UPDATE\\s+(?:ONLY\\s+)?" + TABLE, Pattern.CASE_INSENSITIVE),
+            Pattern.compile("^DELETE\\s+FROM\\s+(?:ONLY\\s+)?" + TABLE, Pattern.CASE_INSENSITIVE),
+            Pattern.compile("^MERGE\\s+INTO\\s+(?:ONLY\\s+)?" + TABLE, Pattern.CASE_INSENSITIVE),
+            Pattern.compile("^COPY\\s+" + TABLE + "[\\s(]", Pattern.CASE_INSENSITIVE),
+            Pattern.compile("^TRUNCATE\\s+(?:TABLE\\s+)?(?:ONLY\\s+)?" + TABLE, Pattern.CASE_INSENSITIVE),
+            Pattern.compile("^CREATE\\s+(?:UNLOGGED\\s+)?TABLE\\s+(?:IF\\s+NOT\\s+EXISTS\\s+)?" + TABLE + "(?:\\s*\\([^)]*\\))?\\s+AS\\s",
+                    Pattern.CASE_INSENSITIVE),
+            Pattern.compile("^ALTER\\s+TABLE\\s+(?:IF\\s+EXISTS\\s+)?(?:ONLY\\s+)?" + TABLE + "\\s.*\\bTYPE\\b",
+                    Pattern.CASE_INSENSITIVE | Pattern.DOTALL));
+    private static final String SELECT_TRANSACTION_MODIFICATIONS = """
+            SELECT quote_ident(schemaname) || '.' || quote_ident(relname)
+            FROM pg_stat_xact_user_tables
+            WHERE n_tup_ins + n_tup_upd + n_tup_del > 0
+            """;
+
+    private final boolean enabled = Boolean.parseBoolean(PropertiesUtils.getProperty("migration.analyze.enabled", "false"));
+    private final int workers = PropertiesUtils.getIntProperty("migration.analyze.workers", 2);
+    private final long budgetMs = PropertiesUtils.getIntProperty("migration.analyze.budget-ms", 60000);
+    private final boolean vacuum = Boolean.parseBoolean(PropertiesUtils.getProperty("migration.analyze.vacuum", "false"));
+    private final double vacuumDeadRatio = Double.parseDouble(PropertiesUtils.getProperty("migration.analyze.vacuum-dead-ratio", "0.2"));
+
+    /**
+     * Finds the tables whose contents a migration changes.
+     *
+     * @param script the parsed migration file
+     * @return the table names as written in the migration
+     */
+    public static Set<String> modifiedTables(MigrationScript script) {
+        Set<String> tables = new LinkedHashSet<>();
+        for (String statement : script.getStatements()) {
+            String table = modifiedTable(statement);
+            if (table != null) {
+                tables.add(table);
+            }
+        }
+        return tables;
+    }
+
+    /**
+     * Finds the table whose contents a statement changes.
+     *
+     * @param statement the SQL statement
+     * @return the table name as written in the statement, or null if the statement does not change table contents
+     */
+    public static String modifiedTable(String statement) {
+        String stripped = SqlStatementSplitter.stripLeadingComments(statement);
+        for (Pattern pattern : MODIFYING_STATEMENTS) {
+            Matcher matcher = pattern.matcher(stripped);
+            if (matcher.find()) {
+                return matcher.group(1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks whether statistics are refreshed after a run.
+     *
+     * @return true if enabled
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Finds the tables the current transaction of a connection has modified so far. The counters of
+     * pg_stat_xact_user_tables belong to the connection's own transaction, so other sessions do not show up;
+     * they are lost on commit, so this has to be called before every commit.
+     *
+     * @param connection the database connection with an open transaction
+     * @return the qualified names of the modified tables
+     * @throws SQLException if the query fails
+     */
+    public static Set<String> transactionModifiedTables(Connection connection) throws SQLException {
+        Set<String> tables = new LinkedHashSet<>();
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(SELECT_TRANSACTION_MODIFICATIONS)) {
+            while (rs.next()) {
+                tables.add(rs.getString(1));
+            }
+        }
+        return tables;
+    }
+
+    /**
+     * Analyzes the given tables in parallel within the time budget. Failures are logged and do not fail the run,
+     * since the migrations are already committed.
+     *
+     * @param tables the modified tables
+     */
+    public void refresh(Set<String> tables) {
+        if (!enabled || tables.isEmpty()) {
+            return;
+        }
+        long deadline = System.currentTimeMillis() + budgetMs;
+        int workerCount = Math.min(workers, tables.size());
+        ExecutorService executor = Executors.newFixedThreadPool(workerCount, runnable -> {
+            Thread thread = new Thread(runnable, "analyze");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (ConnectionPool pool = new ConnectionPool(workerCount)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (String table : tables) {
+                futures.add(executor.submit(() -> refreshTable(pool, table, deadline)));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get(Math.max(1, deadline - System.currentTimeMillis()) + 1000, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    future.cancel(true);
+                } catch (Exception e) {
+                    log.warn("Failed to refresh statistics", e);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Analyzes one table, or vacuums it if it has many dead tuples, with a statement timeout of the remaining budget.
+     *
+     * @param pool     the connection pool
+     * @param table    the table name
+     * @param deadline the end of the time budget
+     */
+    private void refreshTable(ConnectionPool pool, String table, long deadline) {
+        long remainingMs = deadline - System.currentTimeMillis();
+        if (remainingMs <= 0) {
+            log.warn("Skipped ANALYZE of {}: the budget of {} ms is used up.", table, budgetMs);
+            return;
+        }
+        Connection connection = pool.acquire();
+        try (Statement stmt = connection.createStatement()) {
+            connection.setAutoCommit(true);
+            stmt.execute("SET statement_timeout = " + remainingMs);
+            String command = vacuum && hasHeavyChurn(connection, table) ? "VACUUM (ANALYZE) " : "ANALYZE ";
+            long startedAt = System.currentTimeMillis();
+            stmt.execute(command + table);
+            log.info("{}{} took {} ms", command, table, System.currentTimeMillis() - startedAt);
+        } catch (SQLException e) {
+            log.warn("Failed to refresh statistics of {}: {}", table, e.getMessage());
+        } finally {
+            pool.release(connection);
+        }
+    }
+
+    private boolean hasHeavyChurn(Connection connection, String table) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement(
+                "SELECT n_dead_tup, n_live_tup FROM pg_stat_user_tables WHERE relid = ?::regclass")) {
+            pstmt.setString(1, table);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() && rs.getLong(1) >= vacuumDeadRatio * Math.max(1, rs.getLong(2));
+            }
+        }
+    }
+}
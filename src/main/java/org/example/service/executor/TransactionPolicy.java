@@ -0,0 +1,118 @@
+package org.example.service.executor;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.example.util.PropertiesUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * TransactionPolicy decides how pending migrations are grouped into transactions.
+ * The mode is read from the migration.transaction.mode property:
+ * per-migration (one transaction per file), grouped (migration.transaction.group-size files per transaction,
+ * with a savepoint per file) or all (a single transaction for the whole run).
+ */
+@Slf4j
+@Getter
+public class TransactionPolicy {
+
+    /**
+     * Supported transaction grouping modes.
+     */
+    public enum Mode {
+        PER_MIGRATION, GROUPED, ALL
+    }
+
+    private final Mode mode;
+    private final int groupSize;
+
+    /**
+     * Constructs a new TransactionPolicy.
+     *
+     * @param mode      the transaction grouping mode
+     * @param groupSize the number of migrations per transaction in grouped mode
+     */
+    public TransactionPolicy(Mode mode, int groupSize) {
+        if (groupSize < 1) {
+            throw new IllegalArgumentException("Transaction group size must be positive: " + groupSize);
+        }
+        this.mode = mode;
+        this.groupSize = groupSize;
+    }
+
+    /**
+     * Creates a TransactionPolicy from application.properties.
+     *
+     * @return the configured transaction policy
+     */
+    public static TransactionPolicy fromProperties() {
+        String modeValue = PropertiesUtils.getProperty("migration.transaction.mode", "all");
+        Mode mode;
+        try {
+            mode = Mode.valueOf(modeValue.toUpperCase().replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            log.error("Unknown transaction mode: {}", modeValue);
+            throw new RuntimeException("Unknown transaction mode: " + modeValue, e);
+        }
+        return new TransactionPolicy(mode, PropertiesUtils.getIntProperty("migration.transaction.group-size", 10));
+    }
+
+    /**
+     * Splits the pending migrations into transaction units according to the mode.
+     *
+     * @param pendingMigrations the pending migration file names in execution order
+     * @return the transaction units, each of which is committed on its own
+     */
+    public List<List<String>> partition(List<String> pendingMigrations) {
+        return partition(pendingMigrations, file -> false);
+    }
+
+    /**
+     * Splits the pending migrations into transaction units according to the mode.
+     * Migrations that cannot run inside a transaction block always form a unit of their own.
+     *
+     * @param pendingMigrations the pending migration file names in execution order
+     * @param nonTransactional  identifies migrations that must run outside a transaction
+     * @return the transaction units, each of which is committed on its own
+     */
+    public List<List<String>> partition(List<String> pendingMigrations, Predicate<String> nonTransactional) {
+        List<List<String>> units = new ArrayList<>();
+        List<String> run = new ArrayList<>();
+        for (String file : pendingMigrations) {
+            if (nonTransactional.test(file)) {
+                units.addAll(partitionRun(run));
+                units.add(List.of(file));
+                run = new ArrayList<>();
+            } else {
+                run.add(file);
+            }
+        }
+        units.addAll(partitionRun(run));
+        return units;
+    }
+
+    private List<List<String>> partitionRun(List<String> run) {
+        int unitSize = switch (mode) {
+            case PER_MIGRATION -> 1;
+            case GROUPED -> groupSize;
+            case ALL -> Math.max(1, run.size());
+        };
+        List<List<String>> units = new ArrayList<>();
+        for (int i = 0; i < run.size(); i += unitSize) {
+            units.add(new ArrayList<>(run.subList(i, Math.min(i + unitSize, run.size()))));
+        }
+        return units;
+    }
+
+    /**
+     * Checks whether each migration in a unit is guarded by its own savepoint.
+     * Savepoints let a grouped unit keep the migrations that succeeded before a failing one.
+     *
+     * @return true if savepoints are used
+     */
+    public boolean usesSavepoints() {
+        return mode == Mode.GROUPED;
+    }
+}
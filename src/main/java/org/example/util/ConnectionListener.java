@@ -0,0 +1,31 @@
+package org.example.util;
+
+import java.sql.Connection;
+
+/**
+ * Callback notified when a connection is opened or closed for work besides the migration connection, such as the
+ * connections of a backfill, so that the owner of the run can cancel their statements when it has to stop.
+ */
+public interface ConnectionListener {
+    /**
+     * A listener that ignores all connections.
+     */
+    ConnectionListener NONE = new ConnectionListener() {
+    };
+
+    /**
+     * Called after a connection has been opened.
+     *
+     * @param connection the new connection
+     */
+    default void opened(Connection connection) {
+    }
+
+    /**
+     * Called before a connection is closed.
+     *
+     * @param connection the connection being closed
+     */
+    default void closed(Connection connection) {
+    }
+}
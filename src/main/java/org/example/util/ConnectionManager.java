@@ -37,4 +37,38 @@ public class ConnectionManager {
         }
         return connection;
     }
+
+    /**
+     * Discards the current connection and creates a new one.
+     * Used after the connection was lost, for example because of a network reset or a server restart.
+     *
+     * @return the new database connection
+     */
+    public static Connection reconnect() {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                log.warn("Failed to close lost database connection", e);
+            }
+            connection = null;
+        }
+        log.info("Re-acquiring database connection.");
+        return getConnection();
+    }
+
+    /**
+     * Creates a new, independent database connection that is not shared with the rest of the tool.
+     * The caller is responsible for closing it.
+     *
+     * @return the new database connection
+     */
+    public static Connection createConnection() {
+        try {
+            return DriverManager.getConnection(url, username, password);
+        } catch (SQLException e) {
+            log.error("Failed to create database connection", e);
+            throw new RuntimeException("Critical error while creating database connection", e);
+        }
+    }
 }
@@ -0,0 +1,131 @@
+package org.example.util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A bounded pool of independent database connections for work that runs on several connections at once.
+ * Connections are opened lazily, up to the pool size, and closed together when the pool is closed.
+ * A {@link ConnectionListener} is notified of every connection the pool opens and closes.
+ */
+@Slf4j
+public class ConnectionPool implements AutoCloseable {
+    private final int size;
+    private final BlockingQueue<Connection> idle;
+    private final List<Connection> all = new ArrayList<>();
+    private final ConnectionListener listener;
+
+    /**
+     * Constructs a new ConnectionPool.
+     *
+     * @param size the maximum number of connections
+     */
+    public ConnectionPool(int size) {
+        this(size, ConnectionListener.NONE);
+    }
+
+    /**
+     * Constructs a new ConnectionPool that reports its connections to a listener.
+     *
+     * @param size     the maximum number of connections
+     * @param listener the listener notified when the pool opens or closes a connection
+     */
+    public ConnectionPool(int size, ConnectionListener listener) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Connection pool size must be positive: " + size);
+        }
+        this.size = size;
+        this.idle = new ArrayBlockingQueue<>(size);
+        this.listener = listener;
+    }
+
+    /**
+     * Acquires a connection, opening a new one if the pool is not full yet, or waiting for one to be released.
+     *
+     * @return a connection with auto-commit disabled
+     */
+    public Connection acquire() {
+        Connection connection = idle.poll();
+        if (connection != null) {
+            return connection;
+        }
+        synchronized (all) {
+            if (all.size() < size) {
+                connection = open();
+                all.add(connection);
+                return connection;
+            }
+        }
+        try {
+            return idle.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for a pooled connection", e);
+        }
+    }
+
+    /**
+     * Returns a connection to the pool.
+     *
+     * @param connection the connection acquired from this pool
+     */
+    public void release(Connection connection) {
+        idle.offer(connection);
+    }
+
+    /**
+     * Replaces a broken connection with a new one.
+     *
+     * @param connection the broken connection acquired from this pool
+     * @return a new connection with auto-commit disabled
+     */
+    public Connection replace(Connection connection) {
+        closeQuietly(connection);
+        Connection replacement = open();
+        synchronized (all) {
+            all.remove(connection);
+            all.add(replacement);
+        }
+        return replacement;
+    }
+
+    /**
+     * Closes all connections of the pool.
+     */
+    @Override
+    public void close() {
+        synchronized (all) {
+            all.forEach(this::closeQuietly);
+            all.clear();
+        }
+        idle.clear();
+    }
+
+    private Connection open() {
+        Connection connection = ConnectionManager.createConnection();
+        try {
+            connection.setAutoCommit(false);
+        } catch (SQLException e) {
+            closeQuietly(connection);
+            log.error("Failed to configure pooled connection", e);
+            throw new RuntimeException("Critical error while configuring pooled connection", e);
+        }
+        listener.opened(connection);
+        return connection;
+    }
+
+    private void closeQuietly(Connection connection) {
+        listener.closed(connection);
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            log.warn("Failed to close pooled connection", e);
+        }
+    }
+}
@@ -1,13 +1,29 @@
 package org.example.util;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import io.airlift.compress.zstd.ZstdInputStream;
 
 import lombok.extern.slf4j.Slf4j;
 import org.example.comparator.NaturalOrderComparator;
+import org.example.model.MigrationScript;
 import org.example.util.paths.MigrationPaths;
 
 /**
@@ -17,17 +33,70 @@ import org.example.util.paths.MigrationPaths;
 public class MigrationFileReader {
 
     /**
-     * Retrieves a list of migration files from the migrations directory.
+     * Retrieves a list of versioned migration files from the migrations directory.
      *
      * @return a list of migration file names
      */
     public static List<String> getMigrationFiles() {
-        try {
-            return Files.list(Paths.get(MigrationPaths.MIGRATION_DIRECTORY))
-                    .filter(path -> path.toString().endsWith(".sql"))
-                    .filter(path -> !path.toString().contains("_rollback"))
+        return listSqlFiles(false);
+    }
+
+    /**
+     * Retrieves a list of repeatable migration files (R__*.sql) from the migrations directory.
+     *
+     * @return a list of repeatable migration file names
+     */
+    public static List<String> getRepeatableMigrationFiles() {
+        return listSqlFiles(true);
+    }
+
+    /**
+     * Checks whether a migration file is a repeatable migration.
+     *
+     * @param fileName the name of the migration file
+     * @return true if the file name starts with R__
+     */
+    public static boolean isRepeatable(String fileName) {
+        return fileName.startsWith("R__");
+    }
+
+    /**
+     * Checks whether a file name denotes a migration file: plain SQL or gzip/zstd compressed SQL.
+     *
+     * @param fileName the file name
+     * @return true if the file is a migration file and not a rollback file
+     */
+    public static boolean isMigrationFileName(String fileName) {
+        return (fileName.endsWith(".sql") || isCompressed(fileName)) && !fileName.contains("_rollback");
+    }
+
+    /**
+     * Checks whether a migration file is compressed.
+     *
+     * @param fileName the name of the migration file
+     * @return true if the file ends with .sql.gz or .sql.zst
+     */
+    public static boolean isCompressed(String fileName) {
+        return fileName.endsWith(".sql.gz") || fileName.endsWith(".sql.zst");
+    }
+
+    /**
+     * Determines the name of the rollback file of a migration file. Rollback files are never compressed.
+     *
+     * @param fileName the name of the migration file
+     * @return the name of the rollback file
+     */
+    public static String rollbackFileName(String fileName) {
+        return fileName.substring(0, fileName.lastIndexOf(".sql")) + "_rollback.sql";
+    }
+
+    private static List<String> listSqlFiles(boolean repeatable) {
+        try (Stream<Path> paths = Files.list(Paths.get(MigrationPaths.MIGRATION_DIRECTORY))) {
+            return paths
                     .map(path -> path.getFileName().toString())
-                    .sorted(new NaturalOrderComparator())
+                    .filter(MigrationFileReader::isMigrationFileName)
+                    .filter(fileName -> isRepeatable(fileName) == repeatable)
+                    .sorted(repeatable ? Comparator.naturalOrder() : new NaturalOrderComparator())
                     .collect(Collectors.toList());
         } catch (IOException e) {
             log.error("Error reading migration files", e);
@@ -49,4 +118,113 @@ public class MigrationFileReader {
             throw new RuntimeException("Critical error while reading migration file: " + fileName, e);
         }
     }
+
+    /**
+     * Reads and parses a migration file.
+     *
+     * @param fileName the name of the migration file
+     * @return the parsed migration
+     */
+    public static MigrationScript readMigrationScript(String fileName) {
+        if (isCompressed(fileName)) {
+            return MigrationScript.streamed(fileName, readHeader(fileName));
+        }
+        return new MigrationScript(fileName, readMigrationFile(fileName));
+    }
+
+    /**
+     * Opens a migration file for reading, decompressing gzip and zstd files on the fly.
+     * The content is never inflated as a whole, so files larger than the available memory can be read.
+     *
+     * @param fileName the name of the migration file
+     * @return a reader over the SQL text
+     */
+    public static Reader openMigrationFile(String fileName) {
+        try {
+            InputStream input = Files.newInputStream(Paths.get(MigrationPaths.MIGRATION_DIRECTORY, fileName));
+            try {
+                if (fileName.endsWith(".gz")) {
+                    input = new GZIPInputStream(input, 65536);
+                } else if (fileName.endsWith(".zst")) {
+                    input = new ZstdInputStream(new BufferedInputStream(input, 65536));
+                }
+            } catch (IOException e) {
+                input.close();
+                throw e;
+            }
+            return new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8), 65536);
+        } catch (IOException e) {
+            log.error("Error opening migration file: " + fileName, e);
+            throw new RuntimeException("Critical error while opening migration file: " + fileName, e);
+        }
+    }
+
+    /**
+     * Reads the first statement of a migration file without reading the rest of it.
+     *
+     * @param fileName the name of the migration file
+     * @return the first statement, or an empty string if the file has none
+     */
+    public static String readFirstStatement(String fileName) {
+        try (Reader reader = openMigrationFile(fileName)) {
+            String statement = new SqlStatementSplitter(reader).nextStatement();
+            return statement != null ? statement : "";
+        } catch (IOException e) {
+            log.error("Error reading migration file: " + fileName, e);
+            throw new RuntimeException("Critical error while reading migration file: " + fileName, e);
+        }
+    }
+
+    /**
+     * Reads the leading comment lines of a migration file, which may contain directives.
+     *
+     * @param fileName the name of the migration file
+     * @return the header lines
+     */
+    private static String readHeader(String fileName) {
+        StringBuilder header = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(openMigrationFile(fileName))) {
+            String line;
+            while ((line = reader.readLine()) != null && (line.isBlank() || line.trim().startsWith("--"))) {
+                header.append(line).append('\n');
+            }
+        } catch (IOException e) {
+            log.error("Error reading migration file: " + fileName, e);
+            throw new RuntimeException("Critical error while reading migration file: " + fileName, e);
+        }
+        return header.toString();
+    }
+
+    /**
+     * Calculates the SHA-256 checksum of a migration file.
+     * The file is streamed through the digest, so its size does not affect memory usage.
+     * Compressed files are checksummed on their compressed bytes, which is faster than inflating them.
+     *
+     * @param fileName the name of the migration file
+     * @return the hex-encoded checksum
+     */
+    public static String calculateChecksum(String fileName) {
+        try (InputStream input = Files.newInputStream(Paths.get(MigrationPaths.MIGRATION_DIRECTORY, fileName))) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (IOException | NoSuchAlgorithmException e) {
+            log.error("Error calculating checksum of migration file: " + fileName, e);
+            throw new RuntimeException("Critical error while calculating checksum of migration file: " + fileName, e);
+        }
+    }
+
+    /**
+     * Extracts the version number from a migration file name such as V7__Add_Last_Login_To_Users.sql.
+     *
+     * @param fileName the name of the migration file
+     * @return the version of the migration
+     */
+    public static int getVersion(String fileName) {
+        return Integer.parseInt(fileName.split("__")[0].replace("V", ""));
+    }
 }
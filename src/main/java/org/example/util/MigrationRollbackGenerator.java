@@ -1,7 +1,8 @@
 package org.example.util;
 
 import lombok.extern.slf4j.Slf4j;
-import org.example.comparator.NaturalOrderComparator;
+import org.example.model.ColumnChange;
+import org.example.model.PartitionChange;
 import org.example.util.paths.MigrationPaths;
 
 import java.io.IOException;
@@ -9,7 +10,6 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * Utility class for generating rollback SQL scripts for migrations.
@@ -17,25 +17,44 @@ import java.util.stream.Collectors;
 @Slf4j
 public class MigrationRollbackGenerator {
     /**
-     * Generates rollback SQL files for the given migration files.
+     * Generates rollback SQL files for all migration files that do not have one yet.
      */
     public static void generateRollbackFiles() {
+        generateRollbackFiles(MigrationFileReader.getMigrationFiles());
+    }
+
+    /**
+     * Generates rollback SQL files for the given migration files.
+     *
+     * @param migrationFiles the migration file names
+     */
+    public static void generateRollbackFiles(List<String> migrationFiles) {
         try {
-            List<String> migrationFiles = Files.list(Paths.get(MigrationPaths.MIGRATION_DIRECTORY))
-                    .filter(path -> path.toString().endsWith(".sql"))
-                    .filter(path -> !path.toString().contains("_rollback"))
-                    .map(path -> path.toString())
-                    .sorted(new NaturalOrderComparator())
-                    .collect(Collectors.toList());
-            for (String migrationFile : migrationFiles) {
-                String rollbackFile = migrationFile.replace(".sql", "_rollback.sql");
-                Path rollbackPath = Path.of(rollbackFile);
+            for (String migrationFileName : migrationFiles) {
+                if (!MigrationFileReader.isMigrationFileName(migrationFileName)) {
+                    continue;
+                }
+                Path migrationFile = Paths.get(MigrationPaths.MIGRATION_DIRECTORY, migrationFileName);
+                Path rollbackPath = Paths.get(MigrationPaths.MIGRATION_DIRECTORY, MigrationFileReader.rollbackFileName(migrationFileName));
                 if (!Files.exists(rollbackPath)) {
-                    String rollbackSql = generateRollbackSql(new String(Files.readAllBytes(Paths.get(migrationFile))));
+                    // Compressed migrations are usually bulk loads; only their first statement is inspected
+                    String migrationSql = MigrationFileReader.isCompressed(migrationFileName)
+                            ? MigrationFileReader.readFirstStatement(migrationFileName)
+                            : new String(Files.readAllBytes(migrationFile));
+                    ColumnChange columnChange = ColumnChange.parse(migrationFileName, migrationSql);
+                    PartitionChange partitionChange = PartitionChange.parse(migrationFileName, migrationSql);
+                    String rollbackSql;
+                    if (columnChange != null) {
+                        rollbackSql = generateColumnChangeRollbackSql(migrationFileName, columnChange);
+                    } else if (partitionChange != null) {
+                        rollbackSql = generatePartitionRollbackSql(partitionChange);
+                    } else {
+                        rollbackSql = generateRollbackSql(migrationSql);
+                    }
                     Files.write(rollbackPath, rollbackSql.getBytes());
-                    log.info("Generated rollback file: {}", rollbackFile);
+                    log.info("Generated rollback file: {}", rollbackPath);
                 } else {
-                    log.info("Rollback file already exists: {}", rollbackFile);
+                    log.info("Rollback file already exists: {}", rollbackPath);
                 }
             }
         } catch (IOException e) {
@@ -67,12 +86,10 @@ public class MigrationRollbackGenerator {
             rollbackSql.append("DELETE FROM ").append(tableName).append(" WHERE role_name IN (").append(conditions).append(");");
         } else if (migrationSql.contains("UPDATE")) {
             String tableName = migrationSql.split("UPDATE")[1].split("SET")[0].trim();
-            String setClause = migrationSql.split("SET")[1].split("WHERE")[0].trim();
-            String whereClause = migrationSql.split("WHERE")[1].trim();
-            rollbackSql.append("UPDATE ").append(tableName).append(" SET ").append(setClause).append(" WHERE ").append(whereClause);
+            rollbackSql.append(dataChangeRollbackNote("UPDATE", tableName));
         } else if (migrationSql.contains("DELETE FROM")) {
             String tableName = migrationSql.split("DELETE FROM")[1].split("WHERE")[0].trim();
-            rollbackSql.append("INSERT INTO ").append(tableName).append(" (SELECT * FROM change_log WHERE table_name = '").append(tableName).append("' AND operation = 'DELETE' ORDER BY change_time DESC LIMIT 1);");
+            rollbackSql.append(dataChangeRollbackNote("DELETE", tableName));
         } else if (migrationSql.contains("CREATE INDEX")) {
             String indexName = migrationSql.split("CREATE INDEX")[1].split(" ON ")[0].trim();
             rollbackSql.append("DROP INDEX IF EXISTS ").append(indexName).append(";");
@@ -118,6 +135,89 @@ public class MigrationRollbackGenerator {
         return rollbackSql.toString();
     }
 
+    /**
+     * Generates the rollback SQL script for a step of an expand/contract column change.
+     * Expand and switch are undone; contract dropped the old column with its data and cannot be undone.
+     *
+     * @param migrationFileName the name of the migration file
+     * @param change            the column change step
+     * @return the generated rollback SQL script
+     */
+    private static String generateColumnChangeRollbackSql(String migrationFileName, ColumnChange change) {
+        String table = change.getTable();
+        return switch (change.getPhase()) {
+            case EXPAND -> "DROP TRIGGER IF EXISTS " + change.triggerName() + " ON " + table + ";\n" +
+                    "DROP FUNCTION IF EXISTS " + change.functionName() + "();\n" +
+                    "ALTER TABLE " + table + " DROP COLUMN IF EXISTS " + change.getNewColumn() + ";\n" +
+                    "DELETE FROM migration_backfill_range WHERE job_name = '" + migrationFileName.replace("'", "''") + "';\n";
+            case SWITCH -> generateSwitchRollbackSql(change);
+            case CONTRACT -> "-- " + table + "." + change.getColumn() + " was dropped with its data and cannot be restored " +
+                    "automatically. Add it again with a new expand step from " + change.getNewColumn() + ".\n";
+        };
+    }
+
+    /**
+     * Generates the rollback SQL script for a switch step. The switch moved NOT NULL from the old to the new column
+     * only if the old column had it, so the script checks the new column before moving it back, again through a
+     * check constraint that is validated before SET NOT NULL. The default the switch copied to the new column is
+     * dropped; expand adds the new column without one.
+     *
+     * @param change the switch step
+     * @return the generated rollback SQL script
+     */
+    private static String generateSwitchRollbackSql(ColumnChange change) {
+        String table = change.getTable();
+        String constraint = change.rollbackConstraintName();
+        return "DO $$\n" +
+                "BEGIN\n" +
+                "    IF EXISTS (SELECT 1 FROM pg_attribute WHERE attrelid = '" + table.replace("'", "''") + "'::regclass" +
+                " AND attname = '" + change.getNewColumn().replace("'", "''") + "' AND attnotnull) THEN\n" +
+                "        ALTER TABLE " + table + " DROP CONSTRAINT IF EXISTS " + constraint +
+                ", ADD CONSTRAINT " + constraint + " CHECK (" + change.getColumn() + " IS NOT NULL) NOT VALID;\n" +
+                "        ALTER TABLE " + table + " VALIDATE CONSTRAINT " + constraint + ";\n" +
+                "        ALTER TABLE " + table + " ALTER COLUMN " + change.getColumn() + " SET NOT NULL, DROP CONSTRAINT " +
+                constraint + ", ALTER COLUMN " + change.getNewColumn() + " DROP NOT NULL;\n" +
+                "    END IF;\n" +
+                "END $$;\n" +
+                "ALTER TABLE " + table + " ALTER COLUMN " + change.getNewColumn() + " DROP DEFAULT;\n";
+    }
+
+    /**
+     * Generates the rollback SQL script for a step of a partition conversion.
+     * Until the swap, the conversion is undone by dropping the shadow table and its sync trigger.
+     *
+     * @param change the partition conversion step
+     * @return the generated rollback SQL script
+     */
+    private static String generatePartitionRollbackSql(PartitionChange change) {
+        String table = change.getTable();
+        return switch (change.getPhase()) {
+            case CONVERT -> "DROP TRIGGER IF EXISTS " + change.triggerName() + " ON " + table + ";\n" +
+                    "DROP FUNCTION IF EXISTS " + change.functionName() + "();\n" +
+                    "DROP TABLE IF EXISTS " + change.shadowTable() + ";\n" +
+                    "DELETE FROM migration_backfill_range WHERE job_name = '" + change.copyJobName().replace("'", "''") + "';\n";
+            case SWAP -> "-- The partitioned table replaced " + table + " and cannot be swapped back automatically. " +
+                    "The previous table is kept as " + change.retiredTableName() + " but no longer receives changes.\n";
+        };
+    }
+
+    /**
+     * Generates the rollback note for an UPDATE or DELETE migration.
+     * Changed rows cannot be derived from the statement itself; they are restored from the before-images
+     * captured while the migration ran.
+     *
+     * @param operation the data-changing operation
+     * @param tableName the changed table
+     * @return the rollback SQL comment
+     */
+    private static String dataChangeRollbackNote(String operation, String tableName) {
+        if (Boolean.parseBoolean(PropertiesUtils.getProperty("migration.data.before-image.enabled", "false"))) {
+            return "-- " + operation + " on " + tableName + " is rolled back from the before-images in migration_before_image.\n";
+        }
+        return "-- " + operation + " on " + tableName + " cannot be rolled back automatically: " +
+                "enable migration.data.before-image.enabled to capture before-images.\n";
+    }
+
     private static String generateDeleteConditions(String migrationSql) {
         String valuesPart = migrationSql.split("VALUES")[1].trim();
         String[] valueGroups = valuesPart.split("\\),\\s*\\(");
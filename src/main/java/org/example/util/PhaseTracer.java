@@ -0,0 +1,145 @@
+package org.example.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.example.model.TraceEvent;
+import org.example.util.paths.ReportPaths;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * PhaseTracer records the phases of one migrate or rollback run as spans, such as listing the migration
+ * directory, loading the history, acquiring the lock, applying each migration, committing and writing reports.
+ * When migration.trace.enabled is set, the spans are written to reports/trace/ in the Chrome trace event format,
+ * which chrome://tracing and Perfetto open as a timeline. Independently of the file, phases slower than
+ * migration.trace.slow-phase-ms are logged as a summary at the end of the run.
+ * Spans may be recorded from several threads; at most migration.trace.max-events spans are kept per run.
+ */
+@Slf4j
+public class PhaseTracer {
+    private static final DateTimeFormatter FILE_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss");
+
+    private final boolean enabled = Boolean.parseBoolean(PropertiesUtils.getProperty("migration.trace.enabled", "false"));
+    private final long slowPhaseMs = PropertiesUtils.getIntProperty("migration.trace.slow-phase-ms", 1000);
+    private final int maxEvents = PropertiesUtils.getIntProperty("migration.trace.max-events", 100000);
+
+    private final String runName;
+    private final long startNanos = System.nanoTime();
+    private final ConcurrentLinkedQueue<TraceEvent> events = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger eventCount = new AtomicInteger();
+    private final AtomicInteger droppedCount = new AtomicInteger();
+
+    /**
+     * A running span. Closing it records the span.
+     * A span is only opened for the scope of a try-with-resources block and never referenced inside it, so methods
+     * that trace their phases suppress the "try" lint warning about the unreferenced resource.
+     */
+    public class Span implements AutoCloseable {
+        private final String name;
+        private final String detail;
+        private final long spanStartNanos = System.nanoTime();
+
+        private Span(String name, String detail) {
+            this.name = name;
+            this.detail = detail;
+        }
+
+        @Override
+        public void close() {
+            record(name, detail, spanStartNanos, System.nanoTime());
+        }
+    }
+
+    /**
+     * Constructs a new PhaseTracer for one run.
+     *
+     * @param runName the name of the run, e.g. migrate or rollback
+     */
+    public PhaseTracer(String runName) {
+        this.runName = runName;
+    }
+
+    /**
+     * Starts a span; use it in a try-with-resources block.
+     *
+     * @param name the phase name
+     * @return the running span
+     */
+    public Span start(String name) {
+        return new Span(name, null);
+    }
+
+    /**
+     * Starts a span with a detail, such as the migration file a phase works on.
+     *
+     * @param name   the phase name
+     * @param detail the detail shown with the span
+     * @return the running span
+     */
+    public Span start(String name, String detail) {
+        return new Span(name, detail);
+    }
+
+    /**
+     * Writes the trace file if tracing is enabled and logs the phases that exceeded the slow-phase threshold.
+     */
+    public void finish() {
+        long totalMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        List<TraceEvent> slow = events.stream()
+                .filter(event -> event.getDur() >= TimeUnit.MILLISECONDS.toMicros(slowPhaseMs))
+                .sorted(Comparator.comparingLong(TraceEvent::getDur).reversed())
+                .collect(Collectors.toList());
+        if (slowPhaseMs > 0 && !slow.isEmpty()) {
+            log.warn("{} took {} ms; {} phase(s) exceeded {} ms:", runName, totalMs, slow.size(), slowPhaseMs);
+            for (TraceEvent event : slow) {
+                String detail = event.getArgs() != null ? " " + event.getArgs().get("detail") : "";
+                log.warn("  {}{}: {} ms", event.getName(), detail, TimeUnit.MICROSECONDS.toMillis(event.getDur()));
+            }
+        } else {
+            log.debug("{} took {} ms; no phase exceeded {} ms.", runName, totalMs, slowPhaseMs);
+        }
+        if (enabled) {
+            writeTrace();
+        }
+    }
+
+    private void record(String name, String detail, long spanStartNanos, long spanEndNanos) {
+        if (eventCount.incrementAndGet() > maxEvents) {
+            droppedCount.incrementAndGet();
+            return;
+        }
+        events.add(new TraceEvent(name, runName, "X",
+                TimeUnit.NANOSECONDS.toMicros(spanStartNanos - startNanos),
+                TimeUnit.NANOSECONDS.toMicros(spanEndNanos - spanStartNanos),
+                ProcessHandle.current().pid(), Thread.currentThread().getId(),
+                detail != null ? Map.of("detail", detail) : null));
+    }
+
+    private void writeTrace() {
+        Path path = Paths.get(ReportPaths.TRACE_DIRECTORY, runName + "_" + LocalDateTime.now().format(FILE_TIMESTAMP) + ".json");
+        try {
+            Files.createDirectories(path.getParent());
+            new ObjectMapper().writeValue(path.toFile(), Map.of("traceEvents", new ArrayList<>(events), "displayTimeUnit", "ms"));
+            if (droppedCount.get() > 0) {
+                log.warn("Trace reached migration.trace.max-events; {} span(s) were dropped.", droppedCount.get());
+            }
+            log.info("Trace written to {}", path);
+        } catch (IOException e) {
+            // The trace is diagnostic output; failing to write it must not fail the run
+            log.warn("Failed to write trace file: {}", path, e);
+        }
+    }
+}
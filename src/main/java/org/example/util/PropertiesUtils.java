@@ -2,12 +2,16 @@ package org.example.util;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Properties;
+import java.util.TreeSet;
 
 import lombok.extern.slf4j.Slf4j;
 
 /**
  * Utility class for loading and accessing properties from the application.properties file.
+ * A JVM system property with the same key, e.g. {@code -Ddb.url=...}, overrides the value from the file.
  */
 @Slf4j
 public class PropertiesUtils {
@@ -34,6 +38,55 @@ public class PropertiesUtils {
      * @return the property value, or null if the key is not found
      */
     public static String getProperty(String key) {
-        return properties.getProperty(key);
+        return System.getProperty(key, properties.getProperty(key));
+    }
+
+    /**
+     * Retrieves the property value associated with the specified key, falling back to a default value.
+     *
+     * @param key          the property key
+     * @param defaultValue the value returned if the key is not found
+     * @return the property value, or the default value if the key is not found
+     */
+    public static String getProperty(String key, String defaultValue) {
+        String value = getProperty(key);
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+
+    /**
+     * Retrieves the integer property value associated with the specified key, falling back to a default value.
+     *
+     * @param key          the property key
+     * @param defaultValue the value returned if the key is not found
+     * @return the property value as an integer, or the default value if the key is not found
+     */
+    public static int getIntProperty(String key, int defaultValue) {
+        String value = getProperty(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            log.error("Invalid integer value for property {}: {}", key, value);
+            throw new RuntimeException("Invalid integer value for property " + key + ": " + value, e);
+        }
+    }
+
+    /**
+     * Retrieves all properties whose keys start with the specified prefix.
+     *
+     * @param prefix the key prefix
+     * @return the property values by key with the prefix removed, in key order
+     */
+    public static Map<String, String> getPropertiesWithPrefix(String prefix) {
+        Map<String, String> result = new LinkedHashMap<>();
+        for (String key : new TreeSet<>(properties.stringPropertyNames())) {
+            String value = getProperty(key, null);
+            if (key.startsWith(prefix) && value != null) {
+                result.put(key.substring(prefix.length()), value);
+            }
+        }
+        return result;
     }
 }
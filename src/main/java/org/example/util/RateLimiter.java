@@ -0,0 +1,84 @@
+package org.example.util;
+
+/**
+ * A thread-safe token bucket limiting a rate of units per second, such as rows written by a backfill.
+ * Work is paid for after it is done: a caller that overdraws the bucket waits until its debt is refilled,
+ * so batches of unknown size can be throttled without estimating them upfront.
+ * The rate can be changed while the limiter is in use; a rate of zero or less disables the limit.
+ */
+public class RateLimiter {
+    private double ratePerSecond;
+    private double available;
+    private long lastRefillNanos = System.nanoTime();
+
+    /**
+     * Constructs a new RateLimiter.
+     *
+     * @param ratePerSecond the allowed units per second, or zero or less for no limit
+     */
+    public RateLimiter(double ratePerSecond) {
+        this.ratePerSecond = ratePerSecond;
+        this.available = Math.max(ratePerSecond, 0);
+    }
+
+    /**
+     * Changes the allowed rate.
+     *
+     * @param ratePerSecond the allowed units per second, or zero or less for no limit
+     */
+    public synchronized void setRate(double ratePerSecond) {
+        refill();
+        this.ratePerSecond = ratePerSecond;
+        this.available = Math.min(available, Math.max(ratePerSecond, 0));
+    }
+
+    /**
+     * Retrieves the allowed rate.
+     *
+     * @return the allowed units per second, or zero or less for no limit
+     */
+    public synchronized double getRate() {
+        return ratePerSecond;
+    }
+
+    /**
+     * Records completed work and waits until the bucket is no longer overdrawn.
+     *
+     * @param units the number of units of work completed
+     */
+    public void acquire(long units) {
+        long waitNanos = reserve(units);
+        if (waitNanos <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while throttled", e);
+        }
+    }
+
+    /**
+     * Takes units from the bucket.
+     *
+     * @param units the number of units of work completed
+     * @return how long the caller has to wait in nanoseconds
+     */
+    synchronized long reserve(long units) {
+        if (ratePerSecond <= 0) {
+            return 0;
+        }
+        refill();
+        available -= units;
+        return available >= 0 ? 0 : (long) (-available / ratePerSecond * 1_000_000_000L);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        if (ratePerSecond > 0) {
+            available = Math.min(ratePerSecond, available + (now - lastRefillNanos) / 1_000_000_000.0 * ratePerSecond);
+        }
+        lastRefillNanos = now;
+    }
+}
@@ -0,0 +1,66 @@
+package org.example.util;
+
+import java.sql.SQLException;
+import java.util.Set;
+
+/**
+ * Utility class for classifying SQL errors as transient (safe to retry) or fatal.
+ */
+public class SqlStateClassifier {
+
+    private static final Set<String> TRANSIENT_SQL_STATES = Set.of(
+            "40001", // serialization_failure
+            "40P01", // deadlock_detected
+            "55P03", // lock_not_available (lock_timeout)
+            "57P01", // admin_shutdown
+            "57P02", // crash_shutdown
+            "57P03", // cannot_connect_now
+            "53300"  // too_many_connections
+    );
+
+    private static final String CONNECTION_EXCEPTION_CLASS = "08";
+
+    /**
+     * Checks whether the error, or any SQL error it wraps, is transient.
+     *
+     * @param error the error to classify
+     * @return true if retrying the failed work may succeed
+     */
+    public static boolean isTransient(Throwable error) {
+        String sqlState = findSqlState(error);
+        return sqlState != null
+                && (TRANSIENT_SQL_STATES.contains(sqlState) || sqlState.startsWith(CONNECTION_EXCEPTION_CLASS));
+    }
+
+    /**
+     * Checks whether the error indicates that the database connection was lost.
+     *
+     * @param error the error to classify
+     * @return true if the connection has to be re-acquired before retrying
+     */
+    public static boolean isConnectionLoss(Throwable error) {
+        String sqlState = findSqlState(error);
+        return sqlState != null && (sqlState.startsWith(CONNECTION_EXCEPTION_CLASS) || sqlState.startsWith("57P0"));
+    }
+
+    /**
+     * Finds the first SQLSTATE in the cause chain of the error.
+     *
+     * @param error the error to inspect
+     * @return the SQLSTATE, or null if the error carries none
+     */
+    public static String findSqlState(Throwable error) {
+        Throwable current = error;
+        while (current != null) {
+            if (current instanceof SQLException sqlException) {
+                for (SQLException next = sqlException; next != null; next = next.getNextException()) {
+                    if (next.getSQLState() != null) {
+                        return next.getSQLState();
+                    }
+                }
+            }
+            current = current.getCause() == current ? null : current.getCause();
+        }
+        return null;
+    }
+}
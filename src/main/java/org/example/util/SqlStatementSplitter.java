@@ -0,0 +1,304 @@
+package org.example.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Splits SQL text into individual statements on top-level semicolons.
+ * Semicolons inside string literals, quoted identifiers, dollar-quoted bodies and comments are ignored.
+ * The input is consumed incrementally, so statements can be read from a stream of any size.
+ */
+public class SqlStatementSplitter {
+    private static final int NO_LOOKAHEAD = -2;
+    private static final Pattern DOLLAR_QUOTED = Pattern.compile("(?s)\\$(\\w*)\\$.*\\$\\1\\$");
+
+    private final Reader reader;
+    private int lookahead = NO_LOOKAHEAD;
+
+    /**
+     * Constructs a new SqlStatementSplitter reading from the given reader.
+     *
+     * @param reader the SQL source
+     */
+    public SqlStatementSplitter(Reader reader) {
+        this.reader = reader instanceof BufferedReader ? reader : new BufferedReader(reader);
+    }
+
+    /**
+     * Splits the given SQL text into statements.
+     *
+     * @param sql the SQL text
+     * @return the statements without their terminating semicolons
+     */
+    public static List<String> split(String sql) {
+        SqlStatementSplitter splitter = new SqlStatementSplitter(new StringReader(sql));
+        List<String> statements = new ArrayList<>();
+        try {
+            String statement;
+            while ((statement = splitter.nextStatement()) != null) {
+                statements.add(statement);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return statements;
+    }
+
+    /**
+     * Reads the next statement.
+     * Comments are kept as part of the statement text; pieces consisting only of comments and whitespace are skipped.
+     *
+     * @return the next statement without its terminating semicolon, or null at the end of the input
+     * @throws IOException if reading the input fails
+     */
+    public String nextStatement() throws IOException {
+        StringBuilder statement = new StringBuilder();
+        boolean hasContent = false;
+        int c;
+        while ((c = read()) != -1) {
+            char ch = (char) c;
+            if (ch == ';') {
+                if (hasContent) {
+                    return statement.toString().trim();
+                }
+                statement.setLength(0);
+                continue;
+            }
+            statement.append(ch);
+            switch (ch) {
+                case '\'' -> {
+                    hasContent = true;
+                    readQuoted(statement, '\'', isEscapeStringPrefix(statement));
+                }
+                case '"' -> {
+                    hasContent = true;
+                    readQuoted(statement, '"', false);
+                }
+                case '-' -> {
+                    if (peek() == '-') {
+                        readLineComment(statement);
+                    } else {
+                        hasContent = true;
+                    }
+                }
+                case '/' -> {
+                    if (peek() == '*') {
+                        readBlockComment(statement);
+                    } else {
+                        hasContent = true;
+                    }
+                }
+                case '$' -> {
+                    hasContent = true;
+                    readDollarQuoted(statement);
+                }
+                default -> {
+                    if (!Character.isWhitespace(ch)) {
+                        hasContent = true;
+                    }
+                }
+            }
+        }
+        return hasContent ? statement.toString().trim() : null;
+    }
+
+    /**
+     * Removes leading comments and whitespace from a statement.
+     *
+     * @param statement the statement
+     * @return the statement starting at its first keyword
+     */
+    public static String stripLeadingComments(String statement) {
+        String result = statement.stripLeading();
+        while (true) {
+            if (result.startsWith("--")) {
+                int end = result.indexOf('\n');
+                result = end < 0 ? "" : result.substring(end + 1).stripLeading();
+            } else if (result.startsWith("/*")) {
+                int end = result.indexOf("*/");
+                result = end < 0 ? "" : result.substring(end + 2).stripLeading();
+            } else {
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Removes comments and the contents of string literals and dollar-quoted bodies from a statement, so that
+     * keywords can be matched without hits inside them. Comments become a space and literals become {@code ''};
+     * quoted identifiers are kept.
+     *
+     * @param statement the statement
+     * @return the statement text outside of comments and literals
+     */
+    public static String stripCommentsAndLiterals(String statement) {
+        try {
+            return new SqlStatementSplitter(new StringReader(statement)).readStripped();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private String readStripped() throws IOException {
+        StringBuilder text = new StringBuilder();
+        int c;
+        while ((c = read()) != -1) {
+            char ch = (char) c;
+            int start = text.length();
+            text.append(ch);
+            switch (ch) {
+                case '\'' -> {
+                    readQuoted(text, '\'', isEscapeStringPrefix(text));
+                    replace(text, start, "''");
+                }
+                case '"' -> readQuoted(text, '"', false);
+                case '-' -> {
+                    if (peek() == '-') {
+                        readLineComment(text);
+                        replace(text, start, " ");
+                    }
+                }
+                case '/' -> {
+                    if (peek() == '*') {
+                        readBlockComment(text);
+                        replace(text, start, " ");
+                    }
+                }
+                case '$' -> {
+                    readDollarQuoted(text);
+                    if (DOLLAR_QUOTED.matcher(text.substring(start)).matches()) {
+                        replace(text, start, "''");
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+        return text.toString();
+    }
+
+    private static void replace(StringBuilder text, int start, String replacement) {
+        text.setLength(start);
+        text.append(replacement);
+    }
+
+    private boolean isEscapeStringPrefix(StringBuilder statement) {
+        int quoteIndex = statement.length() - 1;
+        if (quoteIndex < 1) {
+            return false;
+        }
+        char prefix = statement.charAt(quoteIndex - 1);
+        boolean standalone = quoteIndex < 2 || !Character.isLetterOrDigit(statement.charAt(quoteIndex - 2));
+        return (prefix == 'E' || prefix == 'e') && standalone;
+    }
+
+    private void readQuoted(StringBuilder statement, char quote, boolean backslashEscapes) throws IOException {
+        int c;
+        while ((c = read()) != -1) {
+            char ch = (char) c;
+            statement.append(ch);
+            if (backslashEscapes && ch == '\\') {
+                int escaped = read();
+                if (escaped != -1) {
+                    statement.append((char) escaped);
+                }
+            } else if (ch == quote) {
+                if (peek() == quote) {
+                    statement.append((char) read());
+                } else {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void readLineComment(StringBuilder statement) throws IOException {
+        int c;
+        while ((c = read()) != -1) {
+            statement.append((char) c);
+            if (c == '\n') {
+                return;
+            }
+        }
+    }
+
+    private void readBlockComment(StringBuilder statement) throws IOException {
+        statement.append((char) read());
+        int depth = 1;
+        int c;
+        while ((c = read()) != -1) {
+            char ch = (char) c;
+            statement.append(ch);
+            if (ch == '/' && peek() == '*') {
+                statement.append((char) read());
+                depth++;
+            } else if (ch == '*' && peek() == '/') {
+                statement.append((char) read());
+                if (--depth == 0) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void readDollarQuoted(StringBuilder statement) throws IOException {
+        int dollarIndex = statement.length() - 1;
+        if (dollarIndex > 0 && (Character.isLetterOrDigit(statement.charAt(dollarIndex - 1)) || statement.charAt(dollarIndex - 1) == '_')) {
+            return;
+        }
+        if (peek() != '$' && !(peek() != -1 && (Character.isLetter(peek()) || peek() == '_'))) {
+            return;
+        }
+        StringBuilder tag = new StringBuilder();
+        while (peek() != -1 && (Character.isLetterOrDigit(peek()) || peek() == '_')) {
+            tag.append((char) read());
+        }
+        statement.append(tag);
+        if (peek() != '$') {
+            return;
+        }
+        statement.append((char) read());
+        String delimiter = "$" + tag + "$";
+        int bodyStart = statement.length();
+        int c;
+        while ((c = read()) != -1) {
+            statement.append((char) c);
+            if (c == '$' && statement.length() - bodyStart >= delimiter.length()
+                    && endsWith(statement, delimiter)) {
+                return;
+            }
+        }
+    }
+
+    private static boolean endsWith(StringBuilder statement, String suffix) {
+        int offset = statement.length() - suffix.length();
+        for (int i = 0; i < suffix.length(); i++) {
+            if (statement.charAt(offset + i) != suffix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int peek() throws IOException {
+        if (lookahead == NO_LOOKAHEAD) {
+            lookahead = reader.read();
+        }
+        return lookahead;
+    }
+
+    private int read() throws IOException {
+        if (lookahead != NO_LOOKAHEAD) {
+            int c = lookahead;
+            lookahead = NO_LOOKAHEAD;
+            return c;
+        }
+        return reader.read();
+    }
+}
@@ -2,9 +2,10 @@ package org.example.util.paths;
 
 /**
  * Utility class for storing migration file paths as constants.
+ * The directory can be overridden with the migration.directory system property.
  */
 public class MigrationPaths {
 
-    public static final String MIGRATION_DIRECTORY = "src/main/resources/db/migrations";
+    public static final String MIGRATION_DIRECTORY = System.getProperty("migration.directory", "src/main/resources/db/migrations");
 
 }
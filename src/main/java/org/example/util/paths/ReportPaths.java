@@ -2,10 +2,13 @@ package org.example.util.paths;
 
 /**
  * Utility class for storing report file paths as constants.
+ * The base directory can be overridden with the migration.reports.directory system property.
  */
 public class ReportPaths {
 
-    public static final String MIGRATE_REPORT_DIRECTORY = "reports/migrate/";
-    public static final String ROLLBACK_REPORT_DIRECTORY = "reports/rollback/";
+    public static final String REPORT_DIRECTORY = System.getProperty("migration.reports.directory", "reports/");
+    public static final String MIGRATE_REPORT_DIRECTORY = REPORT_DIRECTORY + "migrate/";
+    public static final String ROLLBACK_REPORT_DIRECTORY = REPORT_DIRECTORY + "rollback/";
+    public static final String TRACE_DIRECTORY = REPORT_DIRECTORY + "trace/";
 
 }
@@ -0,0 +1,83 @@
+package org.example;
+
+import org.example.service.BeforeImageService;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BeforeImageServiceTest {
+
+    @Test
+    public void testQuotedIdentifiers() {
+        BeforeImageService.TargetRows target = BeforeImageService.parseTarget(
+                "UPDATE \"Sales\".\"Order Items\" AS i SET qty = 0 WHERE i.\"Where\" = 'a WHERE b'");
+
+        assertEquals("\"Sales\".\"Order Items\"", target.getTable());
+        assertEquals("i", target.getAlias());
+        assertEquals("i.\"Where\" = 'a WHERE b'", target.getWhere());
+    }
+
+    @Test
+    public void testOnly() {
+        BeforeImageService.TargetRows update = BeforeImageService.parseTarget("UPDATE ONLY public.orders o SET status = 'x' WHERE o.id > 5");
+        BeforeImageService.TargetRows delete = BeforeImageService.parseTarget("DELETE FROM ONLY orders WHERE id = 1 RETURNING id");
+
+        assertEquals("public.orders", update.getTable());
+        assertEquals("o", update.getAlias());
+        assertEquals("o.id > 5", update.getWhere());
+        assertEquals("orders", delete.getTable());
+        assertNull(delete.getAlias());
+        assertEquals("id = 1", delete.getWhere());
+    }
+
+    @Test
+    public void testSubqueriesStayInTheirClause() {
+        BeforeImageService.TargetRows target = BeforeImageService.parseTarget(
+                "UPDATE orders SET total = (SELECT sum(amount) FROM items WHERE items.order_id = orders.id) " +
+                        "WHERE id IN (SELECT order_id FROM refunds WHERE processed)");
+
+        assertEquals("orders", target.getTable());
+        assertEquals("id IN (SELECT order_id FROM refunds WHERE processed)", target.getWhere());
+        assertNull(BeforeImageService.parseTarget("DELETE FROM orders").getWhere());
+    }
+
+    @Test
+    public void testJoinsAreRejected() {
+        assertThrows(IllegalStateException.class, () -> BeforeImageService.parseTarget(
+                "UPDATE orders o SET total = s.total FROM sums s WHERE s.order_id = o.id"));
+        assertThrows(IllegalStateException.class, () -> BeforeImageService.parseTarget(
+                "DELETE FROM orders o USING customers c WHERE c.id = o.customer_id AND c.blocked"));
+        assertThrows(IllegalStateException.class, () -> BeforeImageService.parseTarget(
+                "DELETE FROM orders WHERE CURRENT OF order_cursor"));
+    }
+
+    @Test
+    public void testCaptureAgreesWithParsing() {
+        BeforeImageService service = new BeforeImageService();
+
+        assertFalse(service.requiresCapture("WITH due AS (SELECT id FROM orders FOR UPDATE) SELECT count(*) FROM due"));
+        assertFalse(service.requiresCapture("WITH n AS (SELECT 'UPDATE' AS note) SELECT * FROM n -- (DELETE"));
+        assertTrue(service.requiresCapture("WITH gone AS (DELETE FROM orders WHERE id < 10 RETURNING id) SELECT count(*) FROM gone"));
+        assertTrue(service.requiresCapture("WITH ids AS (SELECT id FROM stale) UPDATE orders SET status = 'x' WHERE id IN (SELECT id FROM ids)"));
+
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> service.validate(List.of(
+                "UPDATE orders SET status = 'x' WHERE id = 1",
+                "WITH gone AS (DELETE FROM orders WHERE id < 10 RETURNING id) SELECT count(*) FROM gone")));
+        assertTrue(e.getMessage().contains("data-modifying WITH"));
+        service.validate(List.of("WITH due AS (SELECT id FROM orders FOR UPDATE) SELECT count(*) FROM due"));
+    }
+
+    @Test
+    public void testAssignedColumns() {
+        BeforeImageService.TargetRows update = BeforeImageService.parseTarget(
+                "UPDATE orders SET \"Total\" = f(a, b), (status, Note) = ('x', 'y, z'), tags[1] = 'a' WHERE id = 1");
+        BeforeImageService.TargetRows delete = BeforeImageService.parseTarget("DELETE FROM orders WHERE id = 1");
+
+        assertTrue(update.isUpdate());
+        assertEquals(List.of("\"Total\"", "\"status\"", "\"note\"", "\"tags\""), update.getAssignedColumns());
+        assertFalse(delete.isUpdate());
+        assertEquals(List.of(), delete.getAssignedColumns());
+    }
+}
@@ -0,0 +1,36 @@
+package org.example;
+
+import org.example.model.IndexAdvice;
+import org.example.service.IndexAdvisor;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IndexAdvisorTest {
+
+    @Test
+    public void testGeneratesMigrationPerIndexWithNextVersions() {
+        IndexAdvice foreignKey = IndexAdvisor.unindexedForeignKey(
+                "public.user_roles", "user_roles", "user_roles_role_id_fkey", "role_id", "role_id");
+        IndexAdvice duplicate = new IndexAdvice(IndexAdvice.Kind.DUPLICATE_INDEX, "public.orders", "public.idx_orders_user_id2",
+                "Index public.idx_orders_user_id2 duplicates public.idx_orders_user_id and only slows down writes.",
+                "DROP INDEX CONCURRENTLY IF EXISTS public.idx_orders_user_id2;\n",
+                "CREATE INDEX idx_orders_user_id2 ON public.orders USING btree (user_id);\n");
+        IndexAdvice unused = new IndexAdvice(IndexAdvice.Kind.UNUSED_INDEX, "public.orders", "public.idx_orders_status",
+                "Index public.idx_orders_status was not scanned.", null, null);
+
+        Map<String, String> files = IndexAdvisor.migrationFiles(List.of(foreignKey, unused, duplicate), 11);
+
+        assertEquals(List.of("V11__Index_foreign_key_idx_user_roles_role_id.sql",
+                "V11__Index_foreign_key_idx_user_roles_role_id_rollback.sql",
+                "V12__Drop_duplicate_index_idx_orders_user_id.sql",
+                "V12__Drop_duplicate_index_idx_orders_user_id_rollback.sql"), List.copyOf(files.keySet()));
+        assertTrue(files.get("V11__Index_foreign_key_idx_user_roles_role_id.sql")
+                .contains("CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_user_roles_role_id\n    ON public.user_roles (role_id);"));
+        assertEquals("DROP INDEX IF EXISTS public.idx_user_roles_role_id;\n",
+                files.get("V11__Index_foreign_key_idx_user_roles_role_id_rollback.sql"));
+    }
+}
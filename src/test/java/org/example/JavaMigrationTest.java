@@ -0,0 +1,28 @@
+package org.example;
+
+import org.example.migration.JavaMigration;
+import org.example.migration.JavaMigrationContext;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JavaMigrationTest {
+
+    @Test
+    public void testSupportsRollbackOnlyWhenOverridden() {
+        JavaMigration forwardOnly = context -> {
+        };
+        JavaMigration reversible = new JavaMigration() {
+            @Override
+            public void migrate(JavaMigrationContext context) {
+            }
+
+            @Override
+            public void rollback(JavaMigrationContext context) {
+            }
+        };
+
+        assertFalse(forwardOnly.supportsRollback());
+        assertTrue(reversible.supportsRollback());
+    }
+}
@@ -0,0 +1,42 @@
+package org.example;
+
+import org.example.migration.KeyRange;
+import org.example.migration.KeyRangePlanner;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class KeyRangePlannerTest {
+
+    @Test
+    public void testEvenSplitWithoutHistogram() {
+        List<KeyRange> ranges = KeyRangePlanner.plan(1, 100, new long[0], 4);
+
+        assertEquals(List.of(new KeyRange(1, 26), new KeyRange(26, 51), new KeyRange(51, 76), new KeyRange(76, 101)), ranges);
+    }
+
+    @Test
+    public void testHistogramBoundsAreSplitPoints() {
+        List<KeyRange> ranges = KeyRangePlanner.plan(1, 1000, new long[]{1, 10, 20, 1000}, 3);
+
+        assertEquals(List.of(new KeyRange(1, 10), new KeyRange(10, 20), new KeyRange(20, 1001)), ranges);
+    }
+
+    @Test
+    public void testRangesCoverKeySpaceContiguously() {
+        List<KeyRange> ranges = KeyRangePlanner.plan(-5, 1_000_003, new long[]{-5, 7, 500, 90_000, 1_000_003}, 50);
+
+        assertEquals(-5, ranges.get(0).getStart());
+        assertEquals(1_000_004, ranges.get(ranges.size() - 1).getEnd());
+        for (int i = 1; i < ranges.size(); i++) {
+            assertEquals(ranges.get(i - 1).getEnd(), ranges.get(i).getStart());
+        }
+    }
+
+    @Test
+    public void testSingleKey() {
+        assertEquals(List.of(new KeyRange(42, 43)), KeyRangePlanner.plan(42, 42, new long[0], 8));
+    }
+}
@@ -0,0 +1,34 @@
+package org.example;
+
+import org.example.service.executor.MigrationDaemon;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MigrationDaemonTest {
+
+    @Test
+    public void testETagMatching() {
+        String etag = MigrationDaemon.etag("{\"currentVersion\":3}".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(etag, MigrationDaemon.etag("{\"currentVersion\":3}".getBytes(StandardCharsets.UTF_8)));
+        assertNotEquals(etag, MigrationDaemon.etag("{\"currentVersion\":4}".getBytes(StandardCharsets.UTF_8)));
+        assertTrue(MigrationDaemon.matchesETag(etag, etag));
+        assertTrue(MigrationDaemon.matchesETag("\"other\", W/" + etag, etag));
+        assertTrue(MigrationDaemon.matchesETag("*", etag));
+        assertFalse(MigrationDaemon.matchesETag("\"other\"", etag));
+        assertFalse(MigrationDaemon.matchesETag(null, etag));
+    }
+
+    @Test
+    public void testPendingMigrationsInNaturalOrder() {
+        List<String> pending = MigrationDaemon.pendingMigrations(
+                List.of("V10__Create_Roles_Table.sql", "V2__Create_Users_Table.sql", "V1__Init.sql", "V3__Backfill_Users"),
+                List.of("V1__Init.sql", "V2__Create_Users_Table.sql"));
+
+        assertEquals(List.of("V3__Backfill_Users", "V10__Create_Roles_Table.sql"), pending);
+    }
+}
@@ -0,0 +1,67 @@
+package org.example;
+
+import org.example.model.LintFinding;
+import org.example.model.MigrationScript;
+import org.example.service.MigrationLinter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MigrationLinterTest {
+
+    private MigrationLinter linter;
+
+    @BeforeEach
+    public void setUp() {
+        linter = new MigrationLinter();
+    }
+
+    private List<String> ruleIds(String sql) {
+        return linter.lint(new MigrationScript("V1__Test.sql", sql)).stream().map(LintFinding::getRuleId).toList();
+    }
+
+    @Test
+    public void testNonConcurrentIndex() {
+        assertEquals(List.of("non-concurrent-index"), ruleIds("CREATE INDEX idx_orders_user_id\n    ON orders (user_id);"));
+        assertEquals(List.of(), ruleIds("CREATE INDEX CONCURRENTLY idx_orders_user_id ON orders (user_id);"));
+    }
+
+    @Test
+    public void testVolatileDefault() {
+        assertEquals(List.of("volatile-default"), ruleIds("ALTER TABLE users ADD COLUMN token UUID DEFAULT gen_random_uuid();"));
+        assertEquals(List.of(), ruleIds("ALTER TABLE users ADD COLUMN last_login TIMESTAMP;"));
+    }
+
+    @Test
+    public void testUnboundedDml() {
+        assertEquals(List.of("unbounded-dml"), ruleIds("UPDATE products\nSET price = price * 1.1\nWHERE created_at < '2023-01-01';"));
+        assertEquals(List.of("unbounded-dml"), ruleIds("DELETE FROM orders;"));
+        assertEquals(List.of(), ruleIds("UPDATE products SET price = 1 WHERE id BETWEEN 1 AND 1000;"));
+    }
+
+    @Test
+    public void testForeignKeyWithoutNotValid() {
+        assertEquals(List.of("fk-not-valid"), ruleIds("ALTER TABLE orders ADD CONSTRAINT fk_user FOREIGN KEY (user_id) REFERENCES users(id);"));
+        assertEquals(List.of(), ruleIds("ALTER TABLE orders ADD CONSTRAINT fk_user FOREIGN KEY (user_id) REFERENCES users(id) NOT VALID;"));
+    }
+
+    @Test
+    public void testTableRewriteTypeChange() {
+        List<LintFinding> findings = linter.lint(new MigrationScript("V2__Test.sql",
+                "-- widen prices\nALTER TABLE products ALTER COLUMN price TYPE NUMERIC(12, 2);"));
+
+        assertEquals(1, findings.size());
+        assertEquals("table-rewrite", findings.get(0).getRuleId());
+        assertEquals(LintFinding.Severity.ERROR, findings.get(0).getSeverity());
+        assertTrue(linter.isBlocking(findings.get(0)));
+    }
+
+    @Test
+    public void testConcurrentIndexIsNotTransactional() {
+        assertFalse(new MigrationScript("V3__Test.sql", "CREATE INDEX CONCURRENTLY idx ON t (c);").isTransactional());
+        assertTrue(new MigrationScript("V4__Test.sql", "CREATE INDEX idx ON t (c);").isTransactional());
+    }
+}
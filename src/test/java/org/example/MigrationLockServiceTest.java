@@ -5,6 +5,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -13,6 +14,8 @@ import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
 public class MigrationLockServiceTest {
+    private static final String IS_LOCKED_SQL = "SELECT locked AND " + MigrationLockService.OWNER_ALIVE +
+            " AS locked FROM migration_lock WHERE id = 1";
 
     private MigrationLockService lockService;
     private Connection connection;
@@ -32,55 +35,95 @@ public class MigrationLockServiceTest {
 
     @Test
     public void testIsLocked() throws SQLException {
-        when(statement.executeQuery("SELECT locked FROM migration_lock WHERE id = 1")).thenReturn(resultSet);
+        when(statement.executeQuery(IS_LOCKED_SQL)).thenReturn(resultSet);
         when(resultSet.next()).thenReturn(true);
         when(resultSet.getBoolean("locked")).thenReturn(true);
 
         boolean isLocked = lockService.isLocked(connection);
 
         assertTrue(isLocked);
-        verify(statement).executeQuery("SELECT locked FROM migration_lock WHERE id = 1");
+        verify(statement).executeQuery(IS_LOCKED_SQL);
         verify(resultSet).next();
         verify(resultSet).getBoolean("locked");
     }
 
     @Test
     public void testIsNotLocked() throws SQLException {
-        when(statement.executeQuery("SELECT locked FROM migration_lock WHERE id = 1")).thenReturn(resultSet);
+        when(statement.executeQuery(IS_LOCKED_SQL)).thenReturn(resultSet);
         when(resultSet.next()).thenReturn(true);
         when(resultSet.getBoolean("locked")).thenReturn(false);
 
         boolean isLocked = lockService.isLocked(connection);
 
         assertFalse(isLocked);
-        verify(statement).executeQuery("SELECT locked FROM migration_lock WHERE id = 1");
+        verify(statement).executeQuery(IS_LOCKED_SQL);
         verify(resultSet).next();
         verify(resultSet).getBoolean("locked");
     }
 
     @Test
     public void testIsLockedSQLException() throws SQLException {
-        when(statement.executeQuery("SELECT locked FROM migration_lock WHERE id = 1")).thenThrow(new SQLException());
+        when(statement.executeQuery(IS_LOCKED_SQL)).thenThrow(new SQLException());
 
         assertThrows(RuntimeException.class, () -> lockService.isLocked(connection));
-        verify(statement).executeQuery("SELECT locked FROM migration_lock WHERE id = 1");
+        verify(statement).executeQuery(IS_LOCKED_SQL);
     }
 
     @Test
-    public void testLock() throws SQLException {
-        lockService.lock(connection);
+    public void testTryLock() throws SQLException {
+        when(statement.executeUpdate(anyString())).thenReturn(1);
 
-        verify(statement).execute("INSERT INTO migration_lock (id, locked) VALUES (1, TRUE) " +
-                "ON CONFLICT (id) DO UPDATE SET locked = EXCLUDED.locked, locked_at = CURRENT_TIMESTAMP");
+        assertTrue(lockService.tryLock(connection));
+        verify(statement).executeUpdate(argThat((String sql) -> sql.startsWith(
+                "INSERT INTO migration_lock (id, locked, locked_by_pid, locked_by_backend_start) VALUES (1, TRUE, pg_backend_pid(), ")));
     }
 
     @Test
-    public void testLockSQLException() throws SQLException {
-        doThrow(new SQLException()).when(statement).execute(anyString());
+    public void testTryLockTakesOverStaleLock() throws SQLException {
+        // The row is locked, but its backend is gone: the conflict update applies and the lock is taken over
+        when(statement.executeUpdate(anyString())).thenReturn(1);
+
+        assertTrue(lockService.tryLock(connection));
+        verify(statement).executeUpdate(argThat((String sql) ->
+                sql.endsWith("WHERE NOT migration_lock.locked OR NOT " + MigrationLockService.OWNER_ALIVE)));
+    }
+
+    @Test
+    public void testReclaimAfterReconnect() throws SQLException {
+        PreparedStatement preparedStatement = mock(PreparedStatement.class);
+        when(connection.prepareStatement(anyString())).thenReturn(preparedStatement);
+        when(preparedStatement.executeUpdate()).thenReturn(1, 0);
+
+        assertTrue(lockService.reclaim(connection, 4242));
+        assertFalse(lockService.reclaim(connection, 4242));
+        verify(preparedStatement, times(2)).setInt(1, 4242);
+    }
+
+    @Test
+    public void testUnlockOnlyOwnLock() throws SQLException {
+        PreparedStatement preparedStatement = mock(PreparedStatement.class);
+        when(connection.prepareStatement(anyString())).thenReturn(preparedStatement);
+
+        lockService.unlock(connection, 4242);
+
+        verify(connection).prepareStatement(
+                "UPDATE migration_lock SET locked = FALSE, locked_at = CURRENT_TIMESTAMP WHERE id = 1 AND locked_by_pid = ?");
+        verify(preparedStatement).setInt(1, 4242);
+        verify(preparedStatement).executeUpdate();
+    }
 
-        assertThrows(RuntimeException.class, () -> lockService.lock(connection));
-        verify(statement).execute("INSERT INTO migration_lock (id, locked) VALUES (1, TRUE) " +
-                "ON CONFLICT (id) DO UPDATE SET locked = EXCLUDED.locked, locked_at = CURRENT_TIMESTAMP");
+    @Test
+    public void testTryLockHeldByAnotherProcess() throws SQLException {
+        when(statement.executeUpdate(anyString())).thenReturn(0);
+
+        assertFalse(lockService.tryLock(connection));
+    }
+
+    @Test
+    public void testTryLockSQLException() throws SQLException {
+        when(statement.executeUpdate(anyString())).thenThrow(new SQLException());
+
+        assertThrows(RuntimeException.class, () -> lockService.tryLock(connection));
     }
 
     @Test
@@ -97,4 +140,16 @@ public class MigrationLockServiceTest {
         assertThrows(RuntimeException.class, () -> lockService.unlock(connection));
         verify(statement).execute("UPDATE migration_lock SET locked = FALSE, locked_at = CURRENT_TIMESTAMP WHERE id = 1");
     }
+
+    @Test
+    public void testNotifyCompletion() throws SQLException {
+        PreparedStatement preparedStatement = mock(PreparedStatement.class);
+        when(connection.prepareStatement(anyString())).thenReturn(preparedStatement);
+
+        lockService.notifyCompletion(connection, "SUCCESS");
+
+        verify(preparedStatement).setString(1, MigrationLockService.MIGRATION_CHANNEL);
+        verify(preparedStatement).setString(2, "SUCCESS");
+        verify(preparedStatement).execute();
+    }
 }
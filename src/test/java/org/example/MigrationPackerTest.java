@@ -0,0 +1,65 @@
+package org.example;
+
+import org.example.model.MigrationScript;
+import org.example.service.executor.MigrationPacker;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MigrationPackerTest {
+
+    private final List<MigrationScript> scripts = List.of(
+            new MigrationScript("V1__A.sql", "ALTER TABLE users ADD COLUMN a INT;"),
+            new MigrationScript("V2__B.sql", "ALTER TABLE users ADD COLUMN b INT;"),
+            new MigrationScript("V3__C.sql", "-- @session work_mem=1GB\nUPDATE users SET a = 1 WHERE id < 10;"),
+            new MigrationScript("V4__D.sql", "ALTER TABLE users ADD COLUMN d INT;"),
+            new MigrationScript("V5__E.sql", "ALTER TABLE users ADD COLUMN e INT;"));
+
+    @Test
+    public void testPacksConsecutivePackableMigrations() {
+        MigrationPacker packer = new MigrationPacker(true, 65536, 50);
+
+        List<List<String>> packs = names(packer.pack(scripts, script -> script.getSessionSettings().isEmpty()));
+
+        assertEquals(List.of(List.of("V1__A.sql", "V2__B.sql"), List.of("V3__C.sql"), List.of("V4__D.sql", "V5__E.sql")), packs);
+    }
+
+    @Test
+    public void testPackLimits() {
+        assertEquals(List.of(List.of("V1__A.sql", "V2__B.sql"), List.of("V3__C.sql", "V4__D.sql"), List.of("V5__E.sql")),
+                names(new MigrationPacker(true, 65536, 2).pack(scripts, script -> true)));
+        assertEquals(5, new MigrationPacker(true, 40, 50).pack(scripts, script -> true).size());
+        assertEquals(5, new MigrationPacker(false, 65536, 50).pack(scripts, script -> true).size());
+    }
+
+    @Test
+    public void testNonTransactionalMigrationsAreNotPacked() {
+        List<MigrationScript> unit = List.of(
+                new MigrationScript("V1__A.sql", "ALTER TABLE users ADD COLUMN a INT;"),
+                new MigrationScript("V2__Index.sql", "CREATE INDEX CONCURRENTLY idx_users_a ON users (a);"),
+                new MigrationScript("V3__C.sql", "ALTER TABLE users ADD COLUMN c INT;"));
+
+        assertEquals(List.of(List.of("V1__A.sql"), List.of("V2__Index.sql"), List.of("V3__C.sql")),
+                names(new MigrationPacker(true, 65536, 50).pack(unit, script -> true)));
+    }
+
+    @Test
+    public void testSubmissionRecordsEveryMigration() {
+        MigrationPacker packer = new MigrationPacker(true, 65536, 50);
+
+        String sql = packer.buildSubmission(scripts.subList(0, 2), (script, elapsed) -> "INSERT " + script.getFileName());
+
+        assertTrue(sql.indexOf("ADD COLUMN a INT") < sql.indexOf("INSERT V1__A.sql"));
+        assertTrue(sql.indexOf("INSERT V1__A.sql") < sql.indexOf("ADD COLUMN b INT"));
+        assertTrue(sql.indexOf("ADD COLUMN b INT") < sql.indexOf("INSERT V2__B.sql"));
+    }
+
+    private static List<List<String>> names(List<List<MigrationScript>> packs) {
+        return packs.stream()
+                .map(pack -> pack.stream().map(MigrationScript::getFileName).collect(Collectors.toList()))
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,362 @@
+package org.example;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.extern.slf4j.Slf4j;
+import org.example.service.MigrationService;
+import org.example.service.executor.EssentialTableCreator;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * End-to-end performance suite. It starts a throwaway PostgreSQL cluster from the binaries in PG_BIN,
+ * seeds large orders and products tables, generates a synthetic migration set and runs migrate, status and
+ * rollback against it. Wall time, throughput, per-migration latency percentiles, peak heap and the number of
+ * statements the server executed are written to perf-results/ as one JSON file per run.
+ * <p>
+ * Run it with {@code PG_BIN=/usr/lib/postgresql/16/bin mvn test -Pperf}. The size of the run is set with
+ * -Dperf.migrations (default 1000), -Dperf.table-rows (default 1000000) and -Dperf.data-file-mb
+ * (default 0; a gzip compressed bulk-load migration of that many uncompressed megabytes).
+ */
+@Slf4j
+@Tag("perf")
+public class MigrationPerformanceTest {
+    private static final int MIGRATIONS = Integer.getInteger("perf.migrations", 1000);
+    private static final int TABLE_ROWS = Integer.getInteger("perf.table-rows", 1_000_000);
+    private static final int DATA_FILE_MB = Integer.getInteger("perf.data-file-mb", 0);
+    private static final int PORT = Integer.getInteger("perf.port", 55432);
+    private static final Path WORK_DIRECTORY = Paths.get("target", "perf").toAbsolutePath();
+    private static final Path RESULTS_DIRECTORY = Paths.get(System.getProperty("perf.results-directory", "perf-results"));
+
+    private static Path pgBin;
+    private static Path dataDirectory;
+    private static boolean statementStatistics;
+
+    @BeforeAll
+    public static void startPostgres() throws Exception {
+        String bin = System.getenv("PG_BIN");
+        assumeTrue(bin != null, "Set PG_BIN to the directory of the PostgreSQL binaries to run the performance suite");
+        pgBin = Paths.get(bin);
+        cleanDirectory(WORK_DIRECTORY);
+        dataDirectory = WORK_DIRECTORY.resolve("data");
+        Path migrationDirectory = Files.createDirectories(WORK_DIRECTORY.resolve("migrations"));
+        Path reportDirectory = WORK_DIRECTORY.resolve("reports");
+        Files.createDirectories(reportDirectory.resolve("migrate"));
+        Files.createDirectories(reportDirectory.resolve("rollback"));
+
+        run(pgBin.resolve("initdb").toString(), "-D", dataDirectory.toString(), "-U", "postgres", "-A", "trust",
+                "-E", "UTF8", "--no-sync");
+        startServer("start");
+
+        System.setProperty("db.url", "jdbc:postgresql://localhost:" + PORT + "/postgres");
+        System.setProperty("db.username", "postgres");
+        System.setProperty("db.password", "");
+        System.setProperty("migration.directory", migrationDirectory.toString());
+        System.setProperty("migration.reports.directory", reportDirectory + "/");
+
+        enableStatementStatistics();
+        try (Connection connection = openConnection(); Statement stmt = connection.createStatement()) {
+            seedTables(stmt);
+        }
+        generateMigrations(migrationDirectory);
+        new EssentialTableCreator().createEssentialTablesIfNotExists();
+    }
+
+    @AfterAll
+    public static void stopPostgres() throws Exception {
+        if (dataDirectory != null && Files.exists(dataDirectory.resolve("postmaster.pid"))) {
+            run(pgBin.resolve("pg_ctl").toString(), "-D", dataDirectory.toString(), "-m", "fast", "-w", "stop");
+        }
+    }
+
+    @Test
+    public void testMigrateStatusRollback() throws Exception {
+        MigrationService migrationService = new MigrationService();
+        int total = MIGRATIONS + (DATA_FILE_MB > 0 ? 1 : 0);
+        int rollbackTarget = MIGRATIONS / 2;
+
+        Map<String, Object> results = new LinkedHashMap<>();
+        results.put("startedAt", LocalDateTime.now().toString());
+        results.put("parameters", Map.of("migrations", MIGRATIONS, "tableRows", TABLE_ROWS, "dataFileMb", DATA_FILE_MB));
+        results.put("environment", environment());
+
+        Map<String, Object> migrate = measure(migrationService::migrate, total);
+        migrate.put("latencyMs", latencyPercentiles());
+        assertEquals(total, countAppliedMigrations());
+        results.put("migrate", migrate);
+
+        results.put("status", measure(migrationService::printMigrationStatus, 0));
+
+        results.put("rollback", measure(() -> migrationService.rollback(String.valueOf(rollbackTarget)), total - rollbackTarget));
+        assertEquals(rollbackTarget, countAppliedMigrations());
+
+        Files.createDirectories(RESULTS_DIRECTORY);
+        Path resultFile = RESULTS_DIRECTORY.resolve("perf_" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss")) + ".json");
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(resultFile.toFile(), results);
+        log.info("Performance results written to {}", resultFile.toAbsolutePath());
+    }
+
+    /**
+     * Runs an operation and measures its wall time, throughput, peak heap and server-side statement count.
+     */
+    private static Map<String, Object> measure(Runnable operation, int migrations) throws SQLException {
+        resetStatementStatistics();
+        System.gc();
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        }
+        long startedAt = System.nanoTime();
+        operation.run();
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("wallTimeMs", elapsedMs);
+        if (migrations > 0) {
+            metrics.put("migrations", migrations);
+            metrics.put("migrationsPerSecond", elapsedMs > 0 ? migrations * 1000.0 / elapsedMs : null);
+        }
+        metrics.put("peakHeapBytes", heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum());
+        metrics.put("serverStatements", countStatements());
+        return metrics;
+    }
+
+    /**
+     * Preloads pg_stat_statements only if the installation ships it, since an unknown library in
+     * shared_preload_libraries keeps the server from starting. Without it the statement counts are not recorded.
+     */
+    private static void enableStatementStatistics() throws Exception {
+        try (Connection connection = openConnection(); Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT 1 FROM pg_available_extensions WHERE name = 'pg_stat_statements'")) {
+            if (!rs.next()) {
+                log.warn("pg_stat_statements is not available; statement counts are not recorded.");
+                return;
+            }
+            stmt.execute("ALTER SYSTEM SET shared_preload_libraries = 'pg_stat_statements'");
+        }
+        startServer("restart");
+        try (Connection connection = openConnection(); Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE EXTENSION IF NOT EXISTS pg_stat_statements");
+            statementStatistics = true;
+        } catch (SQLException e) {
+            log.warn("pg_stat_statements could not be created; statement counts are not recorded: {}", e.getMessage());
+        }
+    }
+
+    private static void startServer(String action) throws IOException, InterruptedException {
+        run(pgBin.resolve("pg_ctl").toString(), "-D", dataDirectory.toString(), "-l", WORK_DIRECTORY.resolve("postgres.log").toString(),
+                "-w", "-o", "-p " + PORT + " -k " + WORK_DIRECTORY + " -c listen_addresses=localhost", action);
+    }
+
+    private static Map<String, Object> latencyPercentiles() throws SQLException {
+        String sql = """
+                SELECT percentile_cont(0.5) WITHIN GROUP (ORDER BY execution_time_ms),
+                       percentile_cont(0.95) WITHIN GROUP (ORDER BY execution_time_ms),
+                       percentile_cont(0.99) WITHIN GROUP (ORDER BY execution_time_ms),
+                       max(execution_time_ms)
+                FROM migration_history
+                """;
+        try (Connection connection = openConnection(); Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            rs.next();
+            Map<String, Object> latency = new LinkedHashMap<>();
+            latency.put("p50", rs.getDouble(1));
+            latency.put("p95", rs.getDouble(2));
+            latency.put("p99", rs.getDouble(3));
+            latency.put("max", rs.getLong(4));
+            return latency;
+        }
+    }
+
+    private static int countAppliedMigrations() throws SQLException {
+        try (Connection connection = openConnection(); Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT count(*) FROM migration_history")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    /**
+     * The statements executed by the server approximate the round trips of the tool, since it sends one
+     * statement per round trip except for whole migration files.
+     */
+    private static Long countStatements() throws SQLException {
+        if (!statementStatistics) {
+            return null;
+        }
+        try (Connection connection = openConnection(); Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT coalesce(sum(calls), 0) FROM pg_stat_statements " +
+                     "WHERE query NOT ILIKE '%pg_stat_statements%'")) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    private static void resetStatementStatistics() throws SQLException {
+        if (statementStatistics) {
+            try (Connection connection = openConnection(); Statement stmt = connection.createStatement()) {
+                stmt.execute("SELECT pg_stat_statements_reset()");
+            }
+        }
+    }
+
+    private static Map<String, Object> environment() throws SQLException {
+        Map<String, Object> environment = new LinkedHashMap<>();
+        environment.put("java", System.getProperty("java.version"));
+        environment.put("maxHeapBytes", Runtime.getRuntime().maxMemory());
+        environment.put("processors", Runtime.getRuntime().availableProcessors());
+        try (Connection connection = openConnection(); Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SHOW server_version")) {
+            rs.next();
+            environment.put("postgres", rs.getString(1));
+        }
+        return environment;
+    }
+
+    private static void seedTables(Statement stmt) throws SQLException {
+        stmt.execute("CREATE TABLE products (id BIGINT PRIMARY KEY, name TEXT NOT NULL, price NUMERIC(10, 2) NOT NULL)");
+        stmt.execute("INSERT INTO products SELECT g, 'product ' || g, (g % 10000) / 100.0 " +
+                "FROM generate_series(1, " + Math.max(TABLE_ROWS / 10, 1) + ") g");
+        stmt.execute("CREATE TABLE orders (id BIGINT PRIMARY KEY, product_id BIGINT NOT NULL, quantity INT NOT NULL, " +
+                "status TEXT NOT NULL, created_at TIMESTAMPTZ NOT NULL)");
+        stmt.execute("INSERT INTO orders SELECT g, 1 + g % " + Math.max(TABLE_ROWS / 10, 1) + ", 1 + g % 5, 'new', " +
+                "now() - g * interval '1 second' FROM generate_series(1, " + TABLE_ROWS + ") g");
+        stmt.execute("VACUUM ANALYZE products");
+        stmt.execute("VACUUM ANALYZE orders");
+    }
+
+    /**
+     * Generates a mix of DDL and DML migrations, with hand-written rollback files so that the rollback
+     * generator does not have to guess them.
+     */
+    private static void generateMigrations(Path directory) throws IOException {
+        for (int version = 1; version <= MIGRATIONS; version++) {
+            int table = version - (version - 1) % 5;
+            String kind;
+            String sql;
+            String rollback;
+            switch ((version - 1) % 5) {
+                case 0 -> {
+                    kind = "Create_table";
+                    sql = "CREATE TABLE perf_" + table + " (id BIGSERIAL PRIMARY KEY, name TEXT, created_at TIMESTAMPTZ DEFAULT now());";
+                    rollback = "DROP TABLE IF EXISTS perf_" + table + ";";
+                }
+                case 1 -> {
+                    kind = "Add_column";
+                    sql = "ALTER TABLE perf_" + table + " ADD COLUMN note TEXT;";
+                    rollback = "ALTER TABLE perf_" + table + " DROP COLUMN IF EXISTS note;";
+                }
+                case 2 -> {
+                    kind = "Insert_rows";
+                    sql = "INSERT INTO perf_" + table + " (name) SELECT 'row ' || g FROM generate_series(1, 100) g;";
+                    rollback = "DELETE FROM perf_" + table + " WHERE name LIKE 'row %';";
+                }
+                case 3 -> {
+                    kind = "Create_index";
+                    sql = "CREATE INDEX idx_perf_" + table + "_name ON perf_" + table + " (name);";
+                    rollback = "DROP INDEX IF EXISTS idx_perf_" + table + "_name;";
+                }
+                default -> {
+                    kind = "Update_orders";
+                    long first = (long) (version / 5 - 1) * 1000 % Math.max(TABLE_ROWS, 1) + 1;
+                    sql = "UPDATE orders SET status = 'shipped' WHERE id BETWEEN " + first + " AND " + (first + 999) + ";";
+                    rollback = "UPDATE orders SET status = 'new' WHERE id BETWEEN " + first + " AND " + (first + 999) + ";";
+                }
+            }
+            String name = "V" + version + "__" + kind;
+            Files.writeString(directory.resolve(name + ".sql"), sql + "\n");
+            Files.writeString(directory.resolve(name + "_rollback.sql"), rollback + "\n");
+        }
+        if (DATA_FILE_MB > 0) {
+            generateDataFile(directory, "V" + (MIGRATIONS + 1) + "__Load_events");
+        }
+    }
+
+    /**
+     * Generates a gzip compressed bulk-load migration of DATA_FILE_MB uncompressed megabytes.
+     */
+    private static void generateDataFile(Path directory, String name) throws IOException {
+        long targetBytes = DATA_FILE_MB * 1024L * 1024L;
+        long writtenBytes = 0;
+        long id = 0;
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(Files.newOutputStream(directory.resolve(name + ".sql.gz")), 65536), StandardCharsets.UTF_8))) {
+            String create = "CREATE TABLE perf_events (id BIGINT PRIMARY KEY, order_id BIGINT NOT NULL, payload TEXT NOT NULL);\n";
+            writer.write(create);
+            writtenBytes += create.length();
+            while (writtenBytes < targetBytes) {
+                StringBuilder insert = new StringBuilder("INSERT INTO perf_events VALUES ");
+                for (int row = 0; row < 1000; row++) {
+                    id++;
+                    insert.append(row == 0 ? "" : ",").append('(').append(id).append(',').append(1 + id % Math.max(TABLE_ROWS, 1))
+                            .append(",'event payload ").append(id).append(" lorem ipsum dolor sit amet')");
+                }
+                insert.append(";\n");
+                writer.write(insert.toString());
+                writtenBytes += insert.length();
+            }
+        }
+        Files.writeString(directory.resolve(name + "_rollback.sql"), "DROP TABLE IF EXISTS perf_events;\n");
+    }
+
+    private static Connection openConnection() throws SQLException {
+        return DriverManager.getConnection(System.getProperty("db.url"), "postgres", "");
+    }
+
+    private static void run(String... command) throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(command).redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.appendTo(WORK_DIRECTORY.resolve("commands.log").toFile())).start();
+        if (process.waitFor() != 0) {
+            throw new IllegalStateException("Command failed: " + String.join(" ", command) + "; see " + WORK_DIRECTORY.resolve("commands.log"));
+        }
+    }
+
+    private static void cleanDirectory(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            Files.createDirectories(path);
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(path)) {
+            for (Path file : paths.sorted(Comparator.reverseOrder()).toList()) {
+                if (!file.equals(path)) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+}
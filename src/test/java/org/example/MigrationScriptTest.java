@@ -0,0 +1,121 @@
+package org.example;
+
+import org.example.model.ColumnChange;
+import org.example.model.MigrationScript;
+import org.example.model.PartitionChange;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MigrationScriptTest {
+
+    @Test
+    public void testSessionDirectivesInHeader() {
+        String sql = """
+                -- Build the orders index
+                -- @session maintenance_work_mem=2GB
+                --@session Max_Parallel_Maintenance_Workers = 4
+                -- @session application_name='it''s a migration'
+
+                CREATE INDEX idx_orders_customer ON orders (customer_id);
+                -- @session work_mem=1GB
+                """;
+
+        MigrationScript script = new MigrationScript("V11__Index.sql", sql);
+
+        assertEquals(Map.of("maintenance_work_mem", "2GB", "max_parallel_maintenance_workers", "4",
+                "application_name", "it's a migration"), script.getSessionSettings());
+    }
+
+    @Test
+    public void testNoDirectives() {
+        MigrationScript script = new MigrationScript("V1__Create.sql", "CREATE TABLE a (id INT);");
+
+        assertTrue(script.getSessionSettings().isEmpty());
+    }
+
+    @Test
+    public void testInvalidSettingName() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new MigrationScript("V1__Bad.sql", "-- @session work_mem;DROP=1\nSELECT 1;"));
+    }
+
+    @Test
+    public void testNonTransactionalStatements() {
+        assertFalse(new MigrationScript("V1__Index.sql", "-- index\nCREATE UNIQUE INDEX CONCURRENTLY idx ON t (a);").isTransactional());
+        assertFalse(new MigrationScript("V2__Drop.sql", "drop index concurrently idx;").isTransactional());
+        assertFalse(new MigrationScript("V3__Reindex.sql", "REINDEX (VERBOSE) TABLE CONCURRENTLY t;").isTransactional());
+        assertFalse(new MigrationScript("V4__Vacuum.sql", "SELECT 1; VACUUM (ANALYZE) t;").isTransactional());
+        assertFalse(new MigrationScript("V5__Detach.sql", "ALTER TABLE t DETACH PARTITION t_2020 CONCURRENTLY;").isTransactional());
+
+        assertTrue(new MigrationScript("V6__Refresh.sql", "REFRESH MATERIALIZED VIEW CONCURRENTLY mv;").isTransactional());
+        assertTrue(new MigrationScript("V7__Note.sql", "UPDATE notes SET text = 'run VACUUM CONCURRENTLY';").isTransactional());
+        assertTrue(new MigrationScript("V8__Comment.sql", "/* CREATE INDEX CONCURRENTLY later */ CREATE INDEX idx ON t (a);").isTransactional());
+        assertTrue(new MigrationScript("V9__Function.sql",
+                "CREATE FUNCTION f() RETURNS void AS $$ BEGIN EXECUTE 'VACUUM'; END $$ LANGUAGE plpgsql;").isTransactional());
+    }
+
+    @Test
+    public void testStreamedScriptKeepsHeaderDirectives() {
+        MigrationScript script = MigrationScript.streamed("V12__Load.sql.gz", "-- @session synchronous_commit=off\n");
+
+        assertTrue(script.isStreamed());
+        assertTrue(script.isTransactional());
+        assertTrue(script.getStatements().isEmpty());
+        assertEquals(Map.of("synchronous_commit", "off"), script.getSessionSettings());
+    }
+
+    @Test
+    public void testColumnChangeDirectives() {
+        MigrationScript script = new MigrationScript("V12__Expand_price.sql", """
+                -- Move prices to integer cents
+                -- @expand public.orders.price TO price_cents BIGINT
+                -- @using (price * 100)::BIGINT
+                -- @reverse (price_cents / 100.0)::NUMERIC(10, 2)
+                """);
+
+        ColumnChange change = script.getColumnChange();
+        assertEquals(ColumnChange.Phase.EXPAND, change.getPhase());
+        assertEquals("public.orders", change.getTable());
+        assertEquals("price", change.getColumn());
+        assertEquals("price_cents", change.getNewColumn());
+        assertEquals("BIGINT", change.getType());
+        assertEquals("(price * 100)::BIGINT", change.forwardExpression());
+        assertEquals("public.orders_price_price_cents_sync", change.functionName());
+        assertFalse(script.isTransactional());
+
+        ColumnChange rename = new MigrationScript("V13__Rename.sql", "-- @contract users.username TO login\n").getColumnChange();
+        assertEquals(ColumnChange.Phase.CONTRACT, rename.getPhase());
+        assertEquals("login", rename.reverseExpression());
+        assertNull(new MigrationScript("V14__Plain.sql", "SELECT 1;").getColumnChange());
+        assertThrows(IllegalArgumentException.class,
+                () -> new MigrationScript("V15__Bad.sql", "-- @switch users.username TO login TEXT\n"));
+    }
+
+    @Test
+    public void testPartitionDirectives() {
+        MigrationScript script = new MigrationScript("V16__Partition_orders.sql",
+                "-- @partition public.orders BY RANGE (created_at) EVERY Month\n");
+
+        PartitionChange change = script.getPartitionChange();
+        assertEquals(PartitionChange.Phase.CONVERT, change.getPhase());
+        assertEquals("created_at", change.getPartitionKey());
+        assertTrue(change.isTimeInterval());
+        assertEquals("public.orders_partitioned", change.shadowTable());
+        assertEquals("public.orders_p20240301", change.partitionName("2024-03-01 00:00:00"));
+        assertTrue(script.isOnlineChange());
+        assertFalse(script.isTransactional());
+
+        PartitionChange swap = new MigrationScript("V17__Swap_orders.sql", "-- @partition-swap orders\n").getPartitionChange();
+        assertEquals(PartitionChange.Phase.SWAP, swap.getPhase());
+        assertEquals("orders_unpartitioned", swap.retiredTableName());
+        assertThrows(IllegalArgumentException.class,
+                () -> new MigrationScript("V18__Bad.sql", "-- @partition orders BY HASH (id)\n"));
+    }
+}
@@ -0,0 +1,27 @@
+package org.example;
+
+import org.example.migration.PartitionConversion;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PartitionConversionTest {
+
+    @Test
+    public void testIndexIsRewrittenForTheShadowTable() {
+        assertEquals("CREATE INDEX ON orders_partitioned USING btree (customer_id)",
+                PartitionConversion.shadowIndexSql("CREATE INDEX idx_orders_customer ON public.orders USING btree (customer_id)",
+                        false, "orders_partitioned", "created_at"));
+    }
+
+    @Test
+    public void testUniqueIndexIsExtendedByThePartitionKey() {
+        assertEquals("CREATE UNIQUE INDEX ON orders_partitioned USING btree (lower((code)::text), created_at) WHERE (active)",
+                PartitionConversion.shadowIndexSql(
+                        "CREATE UNIQUE INDEX orders_code_key ON public.orders USING btree (lower((code)::text)) WHERE (active)",
+                        true, "orders_partitioned", "created_at"));
+        assertEquals("CREATE UNIQUE INDEX ON orders_partitioned USING btree (created_at DESC, code)",
+                PartitionConversion.shadowIndexSql("CREATE UNIQUE INDEX orders_key ON public.orders USING btree (created_at DESC, code)",
+                        true, "orders_partitioned", "created_at"));
+    }
+}
@@ -0,0 +1,25 @@
+package org.example;
+
+import org.example.service.executor.ProgressMonitor;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProgressMonitorTest {
+
+    @Test
+    public void testRemainingTimeEstimates() {
+        assertEquals(30000, ProgressMonitor.remainingMs(1000, 10000, 3000));
+        assertEquals(-1, ProgressMonitor.remainingMs(0, 10000, 3000));
+        assertEquals(0, ProgressMonitor.remainingMs(1000, 10000, 0));
+        assertEquals(50000, ProgressMonitor.historicalRemainingMs(60000, 10000));
+        assertEquals(0, ProgressMonitor.historicalRemainingMs(60000, 90000));
+    }
+
+    @Test
+    public void testFormatDuration() {
+        assertEquals("37s", ProgressMonitor.formatDuration(37900));
+        assertEquals("4m 05s", ProgressMonitor.formatDuration(245000));
+        assertEquals("1h 05m", ProgressMonitor.formatDuration(3900000));
+    }
+}
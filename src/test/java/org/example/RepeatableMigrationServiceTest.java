@@ -0,0 +1,43 @@
+package org.example;
+
+import org.example.model.MigrationScript;
+import org.example.service.RepeatableMigrationService;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class RepeatableMigrationServiceTest {
+
+    private final MigrationScript activeUsers = new MigrationScript("R__Active_users.sql",
+            "CREATE OR REPLACE VIEW active_users AS SELECT * FROM users WHERE active;");
+    private final MigrationScript userReport = new MigrationScript("R__A_user_report.sql",
+            "CREATE OR REPLACE VIEW user_report AS SELECT count(*) FROM active_users;");
+    private final MigrationScript touchFunction = new MigrationScript("R__Touch.sql",
+            "CREATE OR REPLACE FUNCTION touch() RETURNS trigger AS $$ BEGIN NEW.updated_at = now(); RETURN NEW; END; $$ LANGUAGE plpgsql;");
+
+    @Test
+    public void testUnchangedMigrationsAreSkipped() {
+        List<String> plan = RepeatableMigrationService.plan(List.of(activeUsers, userReport, touchFunction), Set.of("R__Touch.sql"));
+
+        assertEquals(List.of("R__Touch.sql"), plan);
+    }
+
+    @Test
+    public void testDependentsFollowChangedMigration() {
+        List<String> plan = RepeatableMigrationService.plan(List.of(userReport, activeUsers, touchFunction), Set.of("R__Active_users.sql"));
+
+        assertEquals(List.of("R__Active_users.sql", "R__A_user_report.sql"), plan);
+    }
+
+    @Test
+    public void testCycleIsRejected() {
+        MigrationScript first = new MigrationScript("R__First.sql", "CREATE VIEW first_view AS SELECT * FROM second_view;");
+        MigrationScript second = new MigrationScript("R__Second.sql", "CREATE VIEW second_view AS SELECT * FROM first_view;");
+
+        assertThrows(IllegalStateException.class, () -> RepeatableMigrationService.plan(List.of(first, second), Set.of("R__First.sql")));
+    }
+}
@@ -0,0 +1,73 @@
+package org.example;
+
+import org.example.service.executor.LockAwareStatementRunner;
+import org.example.service.executor.RetryPolicy;
+import org.example.util.SqlStateClassifier;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void testTransientSqlStates() {
+        assertTrue(SqlStateClassifier.isTransient(new SQLException("serialization", "40001")));
+        assertTrue(SqlStateClassifier.isTransient(new SQLException("deadlock", "40P01")));
+        assertTrue(SqlStateClassifier.isTransient(new SQLException("lock timeout", "55P03")));
+        assertTrue(SqlStateClassifier.isTransient(new SQLException("connection reset", "08006")));
+        assertFalse(SqlStateClassifier.isTransient(new SQLException("syntax error", "42601")));
+        assertFalse(SqlStateClassifier.isTransient(new RuntimeException("no sql state")));
+    }
+
+    @Test
+    public void testWrappedSqlException() {
+        RuntimeException wrapped = new RuntimeException("Critical error", new SQLException("deadlock", "40P01"));
+
+        assertTrue(SqlStateClassifier.isTransient(wrapped));
+        assertEquals("40P01", SqlStateClassifier.findSqlState(wrapped));
+    }
+
+    @Test
+    public void testConnectionLoss() {
+        assertTrue(SqlStateClassifier.isConnectionLoss(new SQLException("io error", "08006")));
+        assertTrue(SqlStateClassifier.isConnectionLoss(new SQLException("terminating connection", "57P01")));
+        assertFalse(SqlStateClassifier.isConnectionLoss(new SQLException("deadlock", "40P01")));
+    }
+
+    @Test
+    public void testLockDeadlineIsNotRetried() {
+        RetryPolicy retryPolicy = new RetryPolicy(3, 10, 100, 2);
+        SQLException lockTimeout = new SQLException("lock timeout", "55P03");
+        SQLException deadlineExceeded = new LockAwareStatementRunner.LockDeadlineExceededException("deadline", lockTimeout);
+
+        assertTrue(SqlStateClassifier.isTransient(deadlineExceeded));
+        assertFalse(retryPolicy.shouldRetry(deadlineExceeded, 1));
+        assertFalse(retryPolicy.shouldRetry(new RuntimeException("Critical error", deadlineExceeded), 1));
+        assertTrue(retryPolicy.shouldRetry(lockTimeout, 1));
+    }
+
+    @Test
+    public void testShouldRetryRespectsAttemptsAndBudget() {
+        RetryPolicy retryPolicy = new RetryPolicy(3, 10, 100, 2);
+        SQLException deadlock = new SQLException("deadlock", "40P01");
+
+        assertFalse(retryPolicy.shouldRetry(new SQLException("syntax error", "42601"), 1));
+        assertFalse(retryPolicy.shouldRetry(deadlock, 3));
+        assertTrue(retryPolicy.shouldRetry(deadlock, 1));
+        assertTrue(retryPolicy.shouldRetry(deadlock, 2));
+        assertFalse(retryPolicy.shouldRetry(deadlock, 1));
+    }
+
+    @Test
+    public void testBackoffDelayIsBounded() {
+        RetryPolicy retryPolicy = new RetryPolicy(10, 100, 1000, 10);
+
+        for (int attempt = 1; attempt <= 10; attempt++) {
+            long delay = retryPolicy.backoffDelay(attempt);
+            long exponential = Math.min(1000, 100L << (attempt - 1));
+            assertTrue(delay >= exponential / 2 && delay <= exponential);
+        }
+    }
+}
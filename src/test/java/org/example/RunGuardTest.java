@@ -0,0 +1,18 @@
+package org.example;
+
+import org.example.service.executor.RunGuard;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RunGuardTest {
+
+    @Test
+    public void testStatementTimeoutIsCappedByDeadline() {
+        assertEquals(0, RunGuard.effectiveTimeoutMs(0, 0));
+        assertEquals(30000, RunGuard.effectiveTimeoutMs(30000, 0));
+        assertEquals(12000, RunGuard.effectiveTimeoutMs(0, 12000));
+        assertEquals(12000, RunGuard.effectiveTimeoutMs(30000, 12000));
+        assertEquals(30000, RunGuard.effectiveTimeoutMs(30000, 600000));
+    }
+}
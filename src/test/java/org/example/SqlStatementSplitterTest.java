@@ -0,0 +1,65 @@
+package org.example;
+
+import org.example.util.SqlStatementSplitter;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SqlStatementSplitterTest {
+
+    @Test
+    public void testSplitSimpleStatements() {
+        List<String> statements = SqlStatementSplitter.split("CREATE TABLE a (id INT);\nINSERT INTO a VALUES (1);\n");
+
+        assertEquals(List.of("CREATE TABLE a (id INT)", "INSERT INTO a VALUES (1)"), statements);
+    }
+
+    @Test
+    public void testSemicolonsInLiteralsAndComments() {
+        String sql = """
+                -- leading comment; not a statement
+                INSERT INTO notes (text) VALUES ('a;b', E'c\\';d');
+                /* block; comment */
+                UPDATE "odd;table" SET v = 1;
+                """;
+
+        List<String> statements = SqlStatementSplitter.split(sql);
+
+        assertEquals(2, statements.size());
+        assertEquals("-- leading comment; not a statement\nINSERT INTO notes (text) VALUES ('a;b', E'c\\';d')", statements.get(0));
+        assertEquals("/* block; comment */\nUPDATE \"odd;table\" SET v = 1", statements.get(1));
+    }
+
+    @Test
+    public void testDollarQuotedBody() {
+        String sql = """
+                CREATE FUNCTION f() RETURNS INT AS $body$ BEGIN RETURN 1; END; $body$ LANGUAGE plpgsql;
+                SELECT $1;
+                """;
+
+        List<String> statements = SqlStatementSplitter.split(sql);
+
+        assertEquals(2, statements.size());
+        assertEquals("CREATE FUNCTION f() RETURNS INT AS $body$ BEGIN RETURN 1; END; $body$ LANGUAGE plpgsql", statements.get(0));
+    }
+
+    @Test
+    public void testCommentOnlyInputHasNoStatements() {
+        assertEquals(List.of(), SqlStatementSplitter.split("-- nothing to do\n;\n/* really */"));
+    }
+
+    @Test
+    public void testStripLeadingComments() {
+        assertEquals("UPDATE t SET a = 1", SqlStatementSplitter.stripLeadingComments("-- note\n/* x */ UPDATE t SET a = 1"));
+    }
+
+    @Test
+    public void testStripCommentsAndLiterals() {
+        String statement = "UPDATE \"Drop\" SET note = 'DROP TABLE x', body = $f$ ALTER TABLE $f$ /* DROP */ -- ALTER\nWHERE id = $1";
+
+        assertEquals("UPDATE \"Drop\" SET note = '', body = ''    WHERE id = $1",
+                SqlStatementSplitter.stripCommentsAndLiterals(statement));
+    }
+}
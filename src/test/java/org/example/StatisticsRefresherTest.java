@@ -0,0 +1,32 @@
+package org.example;
+
+import org.example.model.MigrationScript;
+import org.example.service.executor.StatisticsRefresher;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StatisticsRefresherTest {
+
+    @Test
+    public void testFindsTablesModifiedByStatements() {
+        MigrationScript script = new MigrationScript("V1__Load.sql", """
+                CREATE TABLE audit (id INT);
+                -- copy the legacy rows
+                INSERT INTO public.orders (id) SELECT id FROM legacy_orders;
+                UPDATE ONLY "Customers" SET active = TRUE WHERE id < 10;
+                delete from audit where id < 0;
+                CREATE TABLE order_totals AS SELECT 1 AS total;
+                ALTER TABLE products ALTER COLUMN price TYPE NUMERIC(12, 2);
+                ALTER TABLE products ADD COLUMN sku TEXT;
+                TRUNCATE TABLE staging;
+                """);
+
+        assertEquals(Set.of("public.orders", "\"Customers\"", "audit", "order_totals", "products", "staging"),
+                StatisticsRefresher.modifiedTables(script));
+        assertNull(StatisticsRefresher.modifiedTable("CREATE INDEX idx_orders_id ON orders (id)"));
+        assertEquals("events", StatisticsRefresher.modifiedTable("COPY events(id) FROM STDIN"));
+    }
+}
@@ -0,0 +1,91 @@
+package org.example;
+
+import org.example.migration.ThrottleController;
+import org.example.model.ThrottleMetrics;
+import org.example.util.ConnectionListener;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class ThrottleControllerTest {
+
+    private Connection connection;
+    private ResultSet resultSet;
+
+    @BeforeEach
+    public void setUp() throws SQLException {
+        connection = mock(Connection.class);
+        Statement statement = mock(Statement.class);
+        resultSet = mock(ResultSet.class);
+        when(connection.createStatement()).thenReturn(statement);
+        when(statement.executeQuery(anyString())).thenReturn(resultSet);
+        when(resultSet.next()).thenReturn(true);
+    }
+
+    @Test
+    public void testPausesWhileReplicationLagExceedsLimit() throws SQLException {
+        when(resultSet.getLong(1)).thenReturn(20000L, 15000L, 100L);
+        ThrottleController throttle = new ThrottleController(true, 10000, 0, 0, 1, 1000, () -> connection);
+
+        throttle.throttle();
+
+        ThrottleMetrics metrics = throttle.resetMetrics();
+        assertEquals(3, metrics.getSamples());
+        assertEquals(1, metrics.getPauses());
+        assertEquals(20000, metrics.getMaxReplicationLagMs());
+    }
+
+    @Test
+    public void testSlowsDownNearLimit() throws SQLException {
+        when(resultSet.getLong(2)).thenReturn(9L);
+        ThrottleController throttle = new ThrottleController(true, 0, 10, 0, 60000, 1000, () -> connection);
+
+        throttle.throttle();
+        throttle.throttle();
+
+        ThrottleMetrics metrics = throttle.resetMetrics();
+        assertEquals(1, metrics.getSamples());
+        assertEquals(0, metrics.getPauses());
+        assertEquals(2, metrics.getDelayedBatches());
+    }
+
+    @Test
+    public void testDisabledNeverSamples() throws SQLException {
+        ThrottleController throttle = new ThrottleController(false, 10000, 10, 0, 1, 1000, () -> connection);
+
+        throttle.throttle();
+
+        assertEquals(0, throttle.resetMetrics().getSamples());
+        verify(connection, never()).createStatement();
+    }
+
+    @Test
+    public void testCheckStopNeverSamples() throws SQLException {
+        ThrottleController throttle = new ThrottleController(true, 10000, 10, 0, 1, 1000, () -> connection);
+
+        throttle.checkStop();
+        throttle.stopWhen(() -> true);
+
+        assertThrows(IllegalStateException.class, throttle::checkStop);
+        verify(connection, never()).createStatement();
+    }
+
+    @Test
+    public void testStopConditionIsExposed() {
+        ThrottleController throttle = new ThrottleController(true, 10000, 10, 0, 1, 1000, () -> connection);
+
+        assertFalse(throttle.isStopping());
+        assertSame(ConnectionListener.NONE, throttle.getConnectionListener());
+        throttle.stopWhen(() -> true);
+
+        assertTrue(throttle.isStopping());
+    }
+}
@@ -0,0 +1,49 @@
+package org.example;
+
+import org.example.service.executor.TransactionPolicy;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TransactionPolicyTest {
+
+    private final List<String> pending = List.of("V1__A.sql", "V2__B.sql", "V3__C.sql", "V4__D.sql", "V5__E.sql");
+
+    @Test
+    public void testPerMigrationPartition() {
+        TransactionPolicy policy = new TransactionPolicy(TransactionPolicy.Mode.PER_MIGRATION, 10);
+
+        List<List<String>> units = policy.partition(pending);
+
+        assertEquals(5, units.size());
+        assertEquals(List.of("V3__C.sql"), units.get(2));
+        assertFalse(policy.usesSavepoints());
+    }
+
+    @Test
+    public void testGroupedPartition() {
+        TransactionPolicy policy = new TransactionPolicy(TransactionPolicy.Mode.GROUPED, 2);
+
+        List<List<String>> units = policy.partition(pending);
+
+        assertEquals(3, units.size());
+        assertEquals(List.of("V1__A.sql", "V2__B.sql"), units.get(0));
+        assertEquals(List.of("V5__E.sql"), units.get(2));
+        assertTrue(policy.usesSavepoints());
+    }
+
+    @Test
+    public void testAllInOnePartition() {
+        TransactionPolicy policy = new TransactionPolicy(TransactionPolicy.Mode.ALL, 1);
+
+        assertEquals(List.of(pending), policy.partition(pending));
+        assertTrue(policy.partition(List.of()).isEmpty());
+    }
+
+    @Test
+    public void testInvalidGroupSize() {
+        assertThrows(IllegalArgumentException.class, () -> new TransactionPolicy(TransactionPolicy.Mode.GROUPED, 0));
+    }
+}